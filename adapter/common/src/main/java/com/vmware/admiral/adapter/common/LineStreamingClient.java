@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.common;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ByteProcessor;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Streams long running HTTP GET responses made of one JSON document per line, like the docker
+ * events and the Kubernetes watches, over non-blocking connections which share a small event
+ * loop group, instead of blocking a thread per stream. The Xenon ServiceClient can't be used
+ * for them since it buffers the whole response.
+ */
+public final class LineStreamingClient {
+
+    private static final Logger logger = Logger.getLogger(LineStreamingClient.class.getName());
+
+    /**
+     * Receives the lines of one stream. All methods are called on an event loop thread and must
+     * not block.
+     */
+    public interface StreamListener {
+        /**
+         * Called when the server accepted the request. Throwing fails the stream.
+         */
+        default void onConnected() throws IOException {
+        }
+
+        /**
+         * Called with every line of the response which is not empty, without the line feed.
+         */
+        void onLine(byte[] line);
+
+        /**
+         * Called once when the stream ends, with the failure cause or {@code null} if the server
+         * closed the stream. Not called when the stream is closed locally. A response with a
+         * status other than 200 fails the stream with a {@link StatusException}.
+         */
+        void onClosed(Throwable cause);
+    }
+
+    /**
+     * Failure of a stream whose request was answered with a status other than 200.
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public StatusException(String message, int statusCode) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    public static final class Stream {
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final StreamListener listener;
+        private volatile Channel channel;
+
+        private Stream(StreamListener listener) {
+            this.listener = listener;
+        }
+
+        public void close() {
+            if (closed.compareAndSet(false, true) && channel != null) {
+                channel.close();
+            }
+        }
+
+        private void finish(Throwable cause) {
+            if (closed.compareAndSet(false, true)) {
+                channel.close();
+                listener.onClosed(cause);
+            }
+        }
+    }
+
+    private final EventLoopGroup group;
+    private final int connectTimeoutMillis;
+    private final int maxLineLength;
+
+    public LineStreamingClient(String threadName, int threadCount, int connectTimeoutMillis,
+            int maxLineLength) {
+        this.group = new NioEventLoopGroup(threadCount,
+                new DefaultThreadFactory(threadName, true));
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Opens the stream of the given URI. The SSL context is {@code null} for servers which are
+     * not secured and the authorization header is {@code null} if none is needed.
+     */
+    public Stream open(URI uri, SSLContext sslContext, String authorizationHeader,
+            StreamListener listener) {
+        Stream stream = new Stream(listener);
+        int port = uri.getPort() != -1 ? uri.getPort()
+                : (sslContext != null ? 443 : 80);
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (sslContext != null) {
+                            SSLEngine engine = sslContext.createSSLEngine(uri.getHost(), port);
+                            engine.setUseClientMode(true);
+                            ch.pipeline().addLast(new SslHandler(engine));
+                        }
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new StreamHandler(uri, authorizationHeader,
+                                stream, maxLineLength));
+                    }
+                });
+
+        ChannelFuture connectFuture = bootstrap.connect(uri.getHost(), port);
+        stream.channel = connectFuture.channel();
+        if (stream.closed.get()) {
+            stream.channel.close();
+        }
+        connectFuture.addListener(f -> {
+            if (!f.isSuccess()) {
+                stream.finish(f.cause());
+            }
+        });
+        return stream;
+    }
+
+    private static class StreamHandler extends SimpleChannelInboundHandler<HttpObject> {
+        private final URI uri;
+        private final String authorizationHeader;
+        private final Stream stream;
+        private final int maxLineLength;
+        private ByteBuf pending;
+        private Throwable failure;
+
+        StreamHandler(URI uri, String authorizationHeader, Stream stream, int maxLineLength) {
+            this.uri = uri;
+            this.authorizationHeader = authorizationHeader;
+            this.stream = stream;
+            this.maxLineLength = maxLineLength;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            String path = uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                path += "?" + uri.getRawQuery();
+            }
+            DefaultFullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+                    HttpMethod.GET, path);
+            request.headers().set(HttpHeaderNames.HOST, uri.getAuthority());
+            request.headers().set(HttpHeaderNames.ACCEPT, HttpHeaderValues.APPLICATION_JSON);
+            if (authorizationHeader != null) {
+                request.headers().set(HttpHeaderNames.AUTHORIZATION, authorizationHeader);
+            }
+            // the SslHandler holds the request back until the handshake is done
+            ctx.writeAndFlush(request);
+            pending = ctx.alloc().buffer();
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+            if (failure != null || stream.closed.get()) {
+                // read in the same batch as a failure or a local close, the channel is closing
+                return;
+            }
+
+            if (msg instanceof HttpResponse) {
+                HttpResponseStatus status = ((HttpResponse) msg).status();
+                if (!HttpResponseStatus.OK.equals(status)) {
+                    throw new StatusException(String.format(
+                            "Request to [%s] failed with status [%s]", uri, status),
+                            status.code());
+                }
+                stream.listener.onConnected();
+            }
+
+            if (msg instanceof HttpContent) {
+                pending.writeBytes(((HttpContent) msg).content());
+                readLines();
+                if (msg instanceof LastHttpContent) {
+                    ctx.close();
+                }
+            }
+        }
+
+        private void readLines() throws IOException {
+            int lineEnd;
+            while ((lineEnd = pending.forEachByte(ByteProcessor.FIND_LF)) != -1) {
+                int length = lineEnd - pending.readerIndex();
+                byte[] line = new byte[length];
+                pending.readBytes(line);
+                pending.skipBytes(1);
+                if (length > 0) {
+                    readLine(line);
+                }
+            }
+
+            if (pending.readableBytes() > maxLineLength) {
+                throw new IOException(String.format(
+                        "Line from [%s] exceeds [%s] bytes", uri, maxLineLength));
+            }
+            pending.discardSomeReadBytes();
+        }
+
+        private void readLine(byte[] line) {
+            try {
+                stream.listener.onLine(line);
+            } catch (Exception e) {
+                logger.warning(String.format("Failed to handle line from [%s]. Error: [%s]",
+                        uri, e.getMessage()));
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (failure == null) {
+                // report the SSL failures wrapped by the SslHandler as they are
+                failure = cause instanceof DecoderException && cause.getCause() != null
+                        ? cause.getCause() : cause;
+            }
+            ctx.close();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (pending != null) {
+                pending.release();
+                pending = null;
+            }
+            stream.finish(failure);
+        }
+    }
+}
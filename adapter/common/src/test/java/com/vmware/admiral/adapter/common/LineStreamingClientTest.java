@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.LineStreamingClient.StatusException;
+import com.vmware.admiral.adapter.common.LineStreamingClient.Stream;
+import com.vmware.admiral.adapter.common.LineStreamingClient.StreamListener;
+
+public class LineStreamingClientTest {
+
+    private static final String AUTHORIZATION = "Bearer test-token";
+    private static final String CHUNKED_RESPONSE_HEADERS =
+            "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n";
+    private static final int MAX_LINE_LENGTH = 16;
+
+    private static final LineStreamingClient client = new LineStreamingClient("test-streams", 1,
+            5000, MAX_LINE_LENGTH);
+
+    private ServerSocket server;
+    private CompletableFuture<String> authorizationHeader;
+    private CompletableFuture<Void> disconnected;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        authorizationHeader = new CompletableFuture<>();
+        disconnected = new CompletableFuture<>();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testChunkedLines() throws Exception {
+        serve(false, CHUNKED_RESPONSE_HEADERS
+                + chunk("first\nsec")
+                + chunk("ond\n\n")
+                + chunk("th")
+                + chunk("ird\n")
+                + "0\r\n\r\n");
+
+        TestListener listener = open(AUTHORIZATION);
+
+        // the lines are split at every line feed, whatever the chunks, and empty lines skipped
+        assertNull(listener.closed.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "second", "third"), listener.lines);
+        assertEquals(1, listener.connectedCount.get());
+        assertEquals(AUTHORIZATION, authorizationHeader.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLineTooLong() throws Exception {
+        serve(true, CHUNKED_RESPONSE_HEADERS
+                + chunk("first\n")
+                + chunk("0123456789")
+                + chunk("0123456789"));
+
+        TestListener listener = open(null);
+
+        Throwable cause = listener.closed.get(10, TimeUnit.SECONDS);
+        assertTrue(cause instanceof IOException);
+        assertTrue(cause.getMessage().contains("exceeds [" + MAX_LINE_LENGTH + "] bytes"));
+        assertEquals(Arrays.asList("first"), listener.lines);
+        disconnected.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testStatusFailure() throws Exception {
+        serve(false, "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\n\r\n");
+
+        TestListener listener = open(null);
+
+        Throwable cause = listener.closed.get(10, TimeUnit.SECONDS);
+        assertTrue(cause instanceof StatusException);
+        assertEquals(500, ((StatusException) cause).getStatusCode());
+        assertEquals(0, listener.connectedCount.get());
+        assertTrue(listener.lines.isEmpty());
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        // nothing listens on the port of the closed server
+        server.close();
+
+        TestListener listener = open(null);
+
+        Throwable cause = listener.closed.get(10, TimeUnit.SECONDS);
+        assertNotNull(cause);
+        assertEquals(0, listener.connectedCount.get());
+    }
+
+    @Test
+    public void testConnectedFailure() throws Exception {
+        serve(true, CHUNKED_RESPONSE_HEADERS + chunk("first\n"));
+
+        IOException failure = new IOException("test");
+        TestListener listener = new TestListener() {
+            @Override
+            public void onConnected() throws IOException {
+                super.onConnected();
+                throw failure;
+            }
+        };
+        open(null, listener);
+
+        assertSame(failure, listener.closed.get(10, TimeUnit.SECONDS));
+        assertTrue(listener.lines.isEmpty());
+        disconnected.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testLineFailureKeepsStream() throws Exception {
+        serve(false, CHUNKED_RESPONSE_HEADERS
+                + chunk("fail\nsecond\n")
+                + "0\r\n\r\n");
+
+        TestListener listener = new TestListener() {
+            @Override
+            public void onLine(byte[] line) {
+                super.onLine(line);
+                if ("fail".equals(new String(line, StandardCharsets.UTF_8))) {
+                    throw new IllegalStateException("test");
+                }
+            }
+        };
+        open(null, listener);
+
+        assertNull(listener.closed.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("fail", "second"), listener.lines);
+    }
+
+    @Test
+    public void testCloseLocally() throws Exception {
+        serve(true, CHUNKED_RESPONSE_HEADERS + chunk("first\n"));
+
+        CompletableFuture<Void> firstLine = new CompletableFuture<>();
+        TestListener listener = new TestListener() {
+            @Override
+            public void onLine(byte[] line) {
+                super.onLine(line);
+                firstLine.complete(null);
+            }
+        };
+        Stream stream = open(null, listener);
+        firstLine.get(10, TimeUnit.SECONDS);
+
+        // the connection is closed, without notifying the listener
+        stream.close();
+        disconnected.get(10, TimeUnit.SECONDS);
+        assertFalse(listener.closed.isDone());
+
+        stream.close();
+        assertFalse(listener.closed.isDone());
+    }
+
+    private TestListener open(String authorization) {
+        TestListener listener = new TestListener();
+        open(authorization, listener);
+        return listener;
+    }
+
+    private Stream open(String authorization, TestListener listener) {
+        URI uri = URI.create("http://localhost:" + server.getLocalPort() + "/events?since=0");
+        return client.open(uri, null, authorization, listener);
+    }
+
+    /**
+     * Answers the next connection with the given response. The connection is then closed, or
+     * kept open until the client closes it.
+     */
+    private void serve(boolean keepOpen, String response) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("authorization:")) {
+                        authorizationHeader.complete(line.substring(
+                                "authorization:".length()).trim());
+                    }
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(response.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (keepOpen) {
+                    while (reader.read() != -1) {
+                        continue;
+                    }
+                }
+                disconnected.complete(null);
+            } catch (IOException e) {
+                // the client may reset the connection when closing it
+                disconnected.complete(null);
+                authorizationHeader.completeExceptionally(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String chunk(String data) {
+        return Integer.toHexString(data.getBytes(StandardCharsets.UTF_8).length) + "\r\n"
+                + data + "\r\n";
+    }
+
+    private static class TestListener implements StreamListener {
+        final List<String> lines = new CopyOnWriteArrayList<>();
+        final AtomicInteger connectedCount = new AtomicInteger();
+        final CompletableFuture<Throwable> closed = new CompletableFuture<>();
+
+        @Override
+        public void onConnected() throws IOException {
+            connectedCount.incrementAndGet();
+        }
+
+        @Override
+        public void onLine(byte[] line) {
+            lines.add(new String(line, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onClosed(Throwable cause) {
+            closed.complete(cause);
+        }
+    }
+}
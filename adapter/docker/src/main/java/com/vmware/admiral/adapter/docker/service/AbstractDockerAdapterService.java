@@ -101,7 +101,12 @@ public abstract class AbstractDockerAdapterService extends StatelessService {
 
         logFine("Performing maintenance for: %s", getUri());
 
-        getCommandExecutor().handlePeriodicMaintenance(Operation.createPost(post.getUri()));
+        DockerAdapterCommandExecutor executor = getCommandExecutor();
+        executor.handlePeriodicMaintenance(Operation.createPost(post.getUri()));
+        if (hasOption(ServiceOption.INSTRUMENTATION)
+                && executor instanceof RemoteApiDockerAdapterCommandExecutorImpl) {
+            ((RemoteApiDockerAdapterCommandExecutorImpl) executor).setConnectionStats(this);
+        }
 
         post.complete();
     }
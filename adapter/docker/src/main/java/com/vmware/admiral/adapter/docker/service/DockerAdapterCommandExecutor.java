@@ -161,6 +161,8 @@ public interface DockerAdapterCommandExecutor {
     String DOCKER_IMAGE_TAG_PROP_NAME = "tag";
     String DOCKER_IMAGE_NAME_PROP_NAME = "imageName";
     String DOCKER_IMAGE_DATA_PROP_NAME = "imageData";
+    // path of an image tarball to stream to the host instead of the image data
+    String DOCKER_IMAGE_FILE_PROP_NAME = "imageFile";
     String DOCKER_IMAGE_REGISTRY_AUTH = "X-Registry-Auth";
 
     String DOCKER_VOLUME_NAME_PROP_NAME = "Name";
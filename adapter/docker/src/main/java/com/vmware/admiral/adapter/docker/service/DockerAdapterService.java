@@ -59,7 +59,7 @@ import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExec
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_EXEC_ATTACH_STDERR_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_EXEC_ATTACH_STDOUT_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_EXEC_COMMAND_PROP_NAME;
-import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_DATA_PROP_NAME;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_FILE_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_FROM_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.SINCE;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.STD_ERR;
@@ -525,14 +525,14 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                 .equals(context.containerDescription.image)) {
             String ref = SystemContainerDescriptions.AGENT_IMAGE_REFERENCE;
 
-            imageRetrievalManager.retrieveAgentImage(ref, context.request, (imageData) -> {
-                processLoadImageData(context, imageData, ref, imageCompletionAction);
+            imageRetrievalManager.retrieveAgentImage(ref, context.request, (imageFile) -> {
+                processLoadImageData(context, imageFile, ref, imageCompletionAction);
             });
         } else if (shouldTryCreateFromLocalImage(context.containerDescription)) {
             if (getBundledImage(context.containerDescription) != null) {
                 String ref = getBundledImage(context.containerDescription);
-                imageRetrievalManager.retrieveAgentImage(ref, context.request, (imageData) -> {
-                    processLoadImageData(context, imageData, ref, imageCompletionAction);
+                imageRetrievalManager.retrieveAgentImage(ref, context.request, (imageFile) -> {
+                    processLoadImageData(context, imageFile, ref, imageCompletionAction);
                 });
             } else {
                 // try to create the container from a local image first. Only if the image is not
@@ -603,42 +603,42 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
     }
 
     /**
-     * read the temp file containing the downloaded image from the file system and proceed with
-     * imageCompletionAction
+     * load the file containing the downloaded image to the host and proceed with
+     * imageCompletionAction. The file is streamed from disk and deleted afterwards if it is a
+     * temp copy.
      *
      * @param context
-     * @param tempFile
+     * @param imageFile
      * @param imageCompletionAction
      */
-    private void processDownloadedImage(RequestContext context, File tempFile,
+    private void processDownloadedImage(RequestContext context, File imageFile,
             Runnable imageCompletionAction, boolean isTempFile) {
 
-        Operation fileReadOp = Operation.createPatch(null)
-                .setContextId(context.request.getRequestId())
-                .setCompletion((o, ex) -> {
-                    if (ex != null) {
-                        fail(context.request, ex);
-                        return;
-                    }
-
-                    byte[] imageData = o.getBody(byte[].class);
-                    if (isTempFile && !tempFile.delete()) {
-                        this.logWarning("Failed to delete temp file: %s %s", tempFile,
-                                context.request.getRequestTrackingLog());
-                    }
-
-                    processLoadImageData(context, imageData,
-                            context.containerDescription.imageReference.toString(),
-                            imageCompletionAction);
-                });
+        Runnable deleteTempFile = () -> {
+            if (isTempFile && !imageFile.delete()) {
+                this.logWarning("Failed to delete temp file: %s %s", imageFile,
+                        context.request.getRequestTrackingLog());
+            }
+        };
 
-        FileUtils.readFileAndComplete(fileReadOp, tempFile);
+        processLoadImageData(context, imageFile,
+                context.containerDescription.imageReference.toString(), () -> {
+                    deleteTempFile.run();
+                    imageCompletionAction.run();
+                }, deleteTempFile);
     }
 
-    private void processLoadImageData(RequestContext context, byte[] imageData, String fileName,
+    private void processLoadImageData(RequestContext context, File imageFile, String fileName,
             Runnable imageCompletionAction) {
+        processLoadImageData(context, imageFile, fileName, imageCompletionAction, () -> {
+        });
+    }
+
+    private void processLoadImageData(RequestContext context, File imageFile, String fileName,
+            Runnable imageCompletionAction, Runnable failureAction) {
         // TODO consider merging this functionality with DockerHostAdapterImageService.doLoadImage
-        if (imageData == null || imageData.length == 0) {
+        if (imageFile == null || imageFile.length() == 0) {
+            failureAction.run();
             String errMsg = String.format("No content loaded for file: %s %s",
                     fileName, context.request.getRequestTrackingLog());
             this.logSevere(errMsg);
@@ -647,16 +647,16 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
             return;
         }
 
-        logInfo("Loaded content for file: %s %s. Now sending to host...", fileName,
-                context.request.getRequestTrackingLog());
-        doLoadImage(context, imageData, fileName, imageCompletionAction);
+        logInfo("Streaming content of file: %s (%d bytes) to host... %s", fileName,
+                imageFile.length(), context.request.getRequestTrackingLog());
+        doLoadImage(context, imageFile, fileName, imageCompletionAction, failureAction);
     }
 
-    private void doLoadImage(RequestContext context, byte[] imageData, String fileName,
-            Runnable imageCompletionAction) {
+    private void doLoadImage(RequestContext context, File imageFile, String fileName,
+            Runnable imageCompletionAction, Runnable failureAction) {
 
         CommandInput loadImageCommandInput = new CommandInput(context.commandInput)
-                .withProperty(DOCKER_IMAGE_DATA_PROP_NAME, imageData);
+                .withProperty(DOCKER_IMAGE_FILE_PROP_NAME, imageFile.getAbsolutePath());
 
         ensurePullRetriesPropertyExists((retryCountProperty) -> {
             new RetriableTaskBuilder<Void>(
@@ -670,6 +670,7 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                             .execute()
                             .whenComplete((ignore, ex) -> {
                                 if (ex != null) {
+                                    failureAction.run();
                                     Throwable failureCause = ex instanceof CompletionException
                                             ? ex.getCause() : ex;
                                     fail(context.request, failureCause);
@@ -21,6 +21,11 @@ public interface DockerAdapterStreamCommandExecutor {
     String EVENT_TYPE_CONTAINER = "container";
     String EVENT_TYPE_CONTAINER_START = "start";
     String EVENT_TYPE_CONTAINER_DIE = "die";
+    String EVENT_TYPE_NETWORK = "network";
+    String EVENT_TYPE_VOLUME = "volume";
+    String EVENT_ACTION_CREATE = "create";
+    String EVENT_ACTION_DESTROY = "destroy";
+    String EVENT_ACTION_RENAME = "rename";
 
     URLConnection openConnection(CommandInput input, URL url) throws NoSuchAlgorithmException, KeyManagementException, IOException;
 
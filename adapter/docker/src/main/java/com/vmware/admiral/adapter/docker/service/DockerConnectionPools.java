@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SslHandler;
+
+import com.vmware.admiral.common.util.ServiceClientFactory;
+import com.vmware.photon.controller.model.security.util.CertificateUtil;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceClient;
+import com.vmware.xenon.common.ServiceClient.ConnectionPoolMetrics;
+import com.vmware.xenon.common.http.netty.NettyChannelPool;
+import com.vmware.xenon.common.http.netty.NettyHttpClientRequestInitializer;
+
+/**
+ * Creates the service clients for the docker remote API and keeps track of their connections.
+ * The clients keep the connections to each host and connection tag open between requests, and
+ * queue the requests to a host above {@link #CONNECTIONS_PER_HOST} until a connection is
+ * returned to the pool.
+ *
+ * The SSL engines of the secured connections are created for the host and port they connect to,
+ * so that the TLS sessions cached by the SSL context are resumed when a new connection to the
+ * same host is opened, instead of doing a full handshake each time. A resumed session skips the
+ * validation of the certificates, so the cached sessions are invalidated when the trusted
+ * certificates change and, for a single host, when its client credentials change.
+ */
+final class DockerConnectionPools {
+
+    static final String STAT_NAME_CONNECTIONS_IN_USE = "dockerConnectionsInUse";
+    static final String STAT_NAME_CONNECTIONS_AVAILABLE = "dockerConnectionsAvailable";
+    static final String STAT_NAME_PENDING_REQUESTS = "dockerPendingRequests";
+    static final String STAT_NAME_CONNECTIONS_OPENED = "dockerConnectionsOpenedCount";
+    static final String STAT_NAME_FULL_HANDSHAKES = "dockerTlsFullHandshakeCount";
+    static final String STAT_NAME_RESUMED_HANDSHAKES = "dockerTlsResumedHandshakeCount";
+
+    static final int CONNECTIONS_PER_HOST = Integer.getInteger(
+            "com.vmware.admiral.adapter.docker.connections.per.host", 8);
+
+    private final List<ServiceClient> clients = new CopyOnWriteArrayList<>();
+    private final List<SSLContext> sslContexts = new CopyOnWriteArrayList<>();
+    // Connection tags in use besides the default one, for the pool metrics
+    private final Set<String> connectionTags = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong connectionsOpenedCount = new AtomicLong();
+    private final AtomicLong fullHandshakeCount = new AtomicLong();
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+
+    // the version of the trusted certificates the cached TLS sessions were validated with
+    private volatile LongSupplier trustVersion;
+    private final AtomicLong sessionsTrustVersion = new AtomicLong();
+
+    ServiceClient createServiceClient(TrustManager trustManager, KeyManager keyManager,
+            int requestPayloadSizeLimit) {
+        SSLContext sslContext = CertificateUtil.createSSLContext(trustManager, keyManager);
+        ServiceClient client = ServiceClientFactory.createServiceClient(sslContext,
+                requestPayloadSizeLimit,
+                c -> c.setOnChannelInitialization(this::initChannel));
+        client.setConnectionLimitPerTag(ServiceClient.CONNECTION_TAG_DEFAULT,
+                CONNECTIONS_PER_HOST);
+        clients.add(client);
+        sslContexts.add(sslContext);
+        return client;
+    }
+
+    /**
+     * Sets the version of the trusted certificates, checked before a secured connection is opened
+     * so that no TLS session validated with a certificate that is no longer trusted is resumed.
+     */
+    void setTrustVersion(LongSupplier trustVersion) {
+        this.sessionsTrustVersion.set(trustVersion.getAsLong());
+        this.trustVersion = trustVersion;
+    }
+
+    /**
+     * Invalidates the cached TLS sessions with the given host and port, so that the next
+     * connection to it does a full handshake.
+     */
+    void invalidateSessions(String host, int port) {
+        for (SSLContext sslContext : sslContexts) {
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            for (byte[] id : Collections.list(sessionContext.getIds())) {
+                SSLSession session = sessionContext.getSession(id);
+                if (session != null && (host == null || (port == session.getPeerPort()
+                        && host.equalsIgnoreCase(session.getPeerHost())))) {
+                    session.invalidate();
+                }
+            }
+        }
+    }
+
+    private void invalidateSessionsOnTrustChange() {
+        LongSupplier trustVersion = this.trustVersion;
+        if (trustVersion == null) {
+            return;
+        }
+        long version = trustVersion.getAsLong();
+        if (sessionsTrustVersion.getAndSet(version) != version) {
+            invalidateSessions(null, -1);
+        }
+    }
+
+    /**
+     * Sets the given connection tag to the operation, with the same connection limit per host as
+     * the untagged operations.
+     */
+    void setConnectionTag(ServiceClient client, Operation op, String connectionTag) {
+        if (connectionTags.add(connectionTag)) {
+            client.setConnectionLimitPerTag(connectionTag, CONNECTIONS_PER_HOST);
+        }
+        op.setConnectionTag(connectionTag);
+    }
+
+    void stop() {
+        clients.forEach(ServiceClient::stop);
+        clients.clear();
+        sslContexts.clear();
+    }
+
+    void handleMaintenance(Operation post) {
+        clients.forEach(c -> c.handleMaintenance(Operation.createPost(post.getUri())));
+    }
+
+    /**
+     * Sets the utilization of the connection pools of all hosts and the connection and handshake
+     * counts as stats of the given service.
+     */
+    void setStats(Service service) {
+        ConnectionPoolMetrics total = new ConnectionPoolMetrics();
+        for (ServiceClient client : clients) {
+            addMetrics(total, client.getConnectionPoolMetricsPerTag(
+                    ServiceClient.CONNECTION_TAG_DEFAULT));
+        }
+        connectionTags.removeIf(tag -> {
+            boolean unused = true;
+            for (ServiceClient client : clients) {
+                ConnectionPoolMetrics metrics = client.getConnectionPoolMetricsPerTag(tag);
+                unused &= metrics == null || (metrics.inUseConnectionCount == 0
+                        && metrics.availableConnectionCount == 0
+                        && metrics.pendingRequestCount == 0);
+                addMetrics(total, metrics);
+            }
+            return unused;
+        });
+
+        service.setStat(STAT_NAME_CONNECTIONS_IN_USE, total.inUseConnectionCount);
+        service.setStat(STAT_NAME_CONNECTIONS_AVAILABLE, total.availableConnectionCount);
+        service.setStat(STAT_NAME_PENDING_REQUESTS, total.pendingRequestCount);
+        service.setStat(STAT_NAME_CONNECTIONS_OPENED, connectionsOpenedCount.get());
+        service.setStat(STAT_NAME_FULL_HANDSHAKES, fullHandshakeCount.get());
+        service.setStat(STAT_NAME_RESUMED_HANDSHAKES, resumedHandshakeCount.get());
+    }
+
+    private static void addMetrics(ConnectionPoolMetrics total, ConnectionPoolMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        total.inUseConnectionCount += metrics.inUseConnectionCount;
+        total.availableConnectionCount += metrics.availableConnectionCount;
+        total.pendingRequestCount += metrics.pendingRequestCount;
+    }
+
+    private void initChannel(NettyChannelPool pool, Channel channel) {
+        connectionsOpenedCount.incrementAndGet();
+        if (channel.pipeline().get(NettyHttpClientRequestInitializer.SSL_HANDLER) != null) {
+            // the channel is not connected yet, the SSL engine is created once the address is
+            // known
+            channel.pipeline().replace(NettyHttpClientRequestInitializer.SSL_HANDLER,
+                    NettyHttpClientRequestInitializer.SSL_HANDLER,
+                    new SslHandlerInitializer(pool.getSSLContext()));
+        }
+    }
+
+    /**
+     * Replaces itself with a {@link SslHandler} for the host and port the channel connects to.
+     */
+    private class SslHandlerInitializer extends ChannelOutboundHandlerAdapter {
+        private final SSLContext sslContext;
+
+        SslHandlerInitializer(SSLContext sslContext) {
+            this.sslContext = sslContext;
+        }
+
+        @Override
+        public void connect(ChannelHandlerContext ctx, SocketAddress remoteAddress,
+                SocketAddress localAddress, ChannelPromise promise) throws Exception {
+            invalidateSessionsOnTrustChange();
+
+            SSLEngine engine;
+            if (remoteAddress instanceof InetSocketAddress) {
+                InetSocketAddress address = (InetSocketAddress) remoteAddress;
+                engine = sslContext.createSSLEngine(address.getHostString(), address.getPort());
+            } else {
+                engine = sslContext.createSSLEngine();
+            }
+            engine.setUseClientMode(true);
+
+            SslHandler sslHandler = new SslHandler(engine);
+            long startMillis = System.currentTimeMillis();
+            sslHandler.handshakeFuture().addListener(f -> {
+                if (!f.isSuccess()) {
+                    return;
+                }
+                // a resumed session was created by an earlier handshake
+                if (engine.getSession().getCreationTime() < startMillis) {
+                    resumedHandshakeCount.incrementAndGet();
+                } else {
+                    fullHandshakeCount.incrementAndGet();
+                }
+            });
+
+            ctx.pipeline().replace(this, NettyHttpClientRequestInitializer.SSL_HANDLER,
+                    sslHandler);
+            ctx.connect(remoteAddress, localAddress, promise);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import com.vmware.admiral.adapter.common.LineStreamingClient;
+import com.vmware.admiral.adapter.common.LineStreamingClient.Stream;
+import com.vmware.admiral.adapter.common.LineStreamingClient.StreamListener;
+
+/**
+ * Streams the events of docker hosts over the non-blocking connections of a
+ * {@link LineStreamingClient}, instead of blocking a thread per host. Every line of the chunked
+ * response is an event and is parsed with one shared, thread safe reader.
+ */
+final class DockerEventsClient {
+
+    private static final Logger logger = Logger.getLogger(DockerEventsClient.class.getName());
+
+    private static final int EVENT_LOOP_THREAD_COUNT = Integer.getInteger(
+            "com.vmware.admiral.adapter.events.thread.count", 2);
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(
+            "com.vmware.admiral.adapter.events.connect.timeout.millis", 30000);
+    private static final int MAX_EVENT_LENGTH = Integer.getInteger(
+            "com.vmware.admiral.adapter.events.max.length", 1024 * 1024);
+
+    private static final ObjectReader EVENTS_READER = new ObjectMapper().readerFor(Events.class);
+
+    /**
+     * Receives the events of one subscription. All methods are called on an event loop thread
+     * and must not block.
+     */
+    interface EventsListener {
+        /**
+         * Called when the host accepted the subscription. Throwing fails the subscription.
+         */
+        void onConnected() throws IOException;
+
+        void onEvent(Events event);
+
+        /**
+         * Called once when the stream ends, with the failure cause or {@code null} if the host
+         * closed the stream. Not called when the subscription is closed locally.
+         */
+        void onClosed(Throwable cause);
+    }
+
+    static final class Subscription {
+        private final Stream stream;
+
+        private Subscription(Stream stream) {
+            this.stream = stream;
+        }
+
+        void close() {
+            stream.close();
+        }
+    }
+
+    private final LineStreamingClient client = new LineStreamingClient("docker-events",
+            EVENT_LOOP_THREAD_COUNT, CONNECT_TIMEOUT_MILLIS, MAX_EVENT_LENGTH);
+
+    /**
+     * Opens the events stream of the given URI. The SSL context is {@code null} for hosts which
+     * are not secured.
+     */
+    Subscription subscribe(URI uri, SSLContext sslContext, EventsListener listener) {
+        return new Subscription(client.open(uri, sslContext, null, new StreamListener() {
+            @Override
+            public void onConnected() throws IOException {
+                listener.onConnected();
+            }
+
+            @Override
+            public void onLine(byte[] line) {
+                Events event;
+                try {
+                    event = EVENTS_READER.readValue(line);
+                } catch (IOException e) {
+                    logger.warning(String.format("Failed to parse event from [%s]. Error: [%s]",
+                            uri, e.getMessage()));
+                    return;
+                }
+                listener.onEvent(event);
+            }
+
+            @Override
+            public void onClosed(Throwable cause) {
+                listener.onClosed(cause);
+            }
+        }));
+    }
+}
@@ -18,7 +18,7 @@ import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExec
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_BUILD_IMAGE_INSPECT_NAME_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_BUILD_IMAGE_NOCACHE_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_BUILD_IMAGE_TAG_PROP_NAME;
-import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_DATA_PROP_NAME;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_FILE_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_FROM_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_NAME_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_REPOSITORY_PROP_NAME;
@@ -26,6 +26,7 @@ import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExec
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_ALIAS_PROP_NAME;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_CERT_PROP_NAME;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -191,14 +192,14 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
         imageRetrievalManager.retrieveAgentImage(
                 ref,
                 ctx.request,
-                (imageData) -> {
-                    processLoadedImageData(ctx, imageData, ref, imageCompletionHandler);
+                (imageFile) -> {
+                    processLoadedImageData(ctx, imageFile, ref, imageCompletionHandler);
                 });
     }
 
-    private void processLoadedImageData(BaseRequestContext ctx, byte[] imageData, String fileName,
+    private void processLoadedImageData(BaseRequestContext ctx, File imageFile, String fileName,
             Operation.CompletionHandler imageCompletionHandler) {
-        if (imageData == null || imageData.length == 0) {
+        if (imageFile == null || imageFile.length() == 0) {
             String errMsg = String.format("No content loaded for file: %s ", fileName);
             this.logSevere(errMsg);
             imageCompletionHandler.handle(null, new LocalizableValidationException(errMsg,
@@ -206,10 +207,11 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
             return;
         }
 
-        logInfo("Loaded content for file: %s . Now sending to host...", fileName);
+        logInfo("Streaming content of file: %s (%d bytes) to host...", fileName,
+                imageFile.length());
 
         CommandInput loadCommandInput = new CommandInput(ctx.commandInput)
-                .withProperty(DOCKER_IMAGE_DATA_PROP_NAME, imageData);
+                .withProperty(DOCKER_IMAGE_FILE_PROP_NAME, imageFile.getAbsolutePath());
         getCommandExecutor().loadImage(loadCommandInput, imageCompletionHandler);
     }
 
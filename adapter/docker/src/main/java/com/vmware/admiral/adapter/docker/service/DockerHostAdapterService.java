@@ -74,6 +74,12 @@ public class DockerHostAdapterService extends AbstractDockerAdapterService {
     private static final String VCH_CPU_LIMIT = " VCH CPU limit";
     private static final String VCH_CPU_USAGE = " VCH CPU usage";
 
+    public DockerHostAdapterService() {
+        super();
+        // the connection stats of the docker remote API client are published here
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+    }
+
     @Override
     public void handlePatch(Operation op) {
         ContainerHostRequest request = op.getBody(ContainerHostRequest.class);
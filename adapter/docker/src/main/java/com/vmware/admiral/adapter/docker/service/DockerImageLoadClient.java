@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Uploads image tarballs to the {@code /images/load} endpoint of docker hosts straight from
+ * disk, so that images are never held in the heap. Plain connections transfer the file with
+ * {@link DefaultFileRegion}, which uses {@code sendfile} where the platform supports it, and
+ * secured connections stream it in chunks through the SSL engine.
+ */
+final class DockerImageLoadClient {
+
+    private static final int EVENT_LOOP_THREAD_COUNT = Integer.getInteger(
+            "com.vmware.admiral.adapter.image.load.thread.count", 2);
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(
+            "com.vmware.admiral.adapter.image.load.connect.timeout.millis", 30000);
+    private static final int MAX_RESPONSE_LENGTH = Integer.getInteger(
+            "com.vmware.admiral.adapter.image.load.max.response.length", 1024 * 1024);
+
+    private static final String CONTENT_TYPE_TAR = "application/x-tar";
+
+    static final class LoadResponse {
+        final int statusCode;
+        final String body;
+
+        private LoadResponse(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
+
+    private final EventLoopGroup group = new NioEventLoopGroup(EVENT_LOOP_THREAD_COUNT,
+            new DefaultThreadFactory("docker-image-load", true));
+
+    /**
+     * Posts the given tarball to the given {@code /images/load} URI. The SSL context is
+     * {@code null} for hosts which are not secured. The result fails only when the request
+     * could not be completed, the status code of the response is left to the caller.
+     *
+     * @param idleTimeoutSeconds
+     *            how long the connection may stay without reads or writes, since the host sends
+     *            nothing until the whole image is received
+     */
+    CompletableFuture<LoadResponse> load(URI uri, SSLContext sslContext, File imageFile,
+            int idleTimeoutSeconds) {
+        CompletableFuture<LoadResponse> result = new CompletableFuture<>();
+        int port = uri.getPort() != -1 ? uri.getPort()
+                : (sslContext != null ? 443 : 80);
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (sslContext != null) {
+                            SSLEngine engine = sslContext.createSSLEngine(uri.getHost(), port);
+                            engine.setUseClientMode(true);
+                            ch.pipeline().addLast(new SslHandler(engine));
+                        }
+                        ch.pipeline().addLast(new IdleStateHandler(0, 0, idleTimeoutSeconds,
+                                TimeUnit.SECONDS));
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new ChunkedWriteHandler());
+                        ch.pipeline().addLast(new HttpObjectAggregator(MAX_RESPONSE_LENGTH));
+                        ch.pipeline().addLast(new LoadHandler(uri, imageFile,
+                                sslContext != null, result));
+                    }
+                });
+
+        ChannelFuture connectFuture = bootstrap.connect(uri.getHost(), port);
+        connectFuture.addListener(f -> {
+            if (!f.isSuccess()) {
+                result.completeExceptionally(f.cause());
+            }
+        });
+        return result;
+    }
+
+    private static class LoadHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        private final URI uri;
+        private final File imageFile;
+        private final boolean secure;
+        private final CompletableFuture<LoadResponse> result;
+
+        LoadHandler(URI uri, File imageFile, boolean secure,
+                CompletableFuture<LoadResponse> result) {
+            this.uri = uri;
+            this.imageFile = imageFile;
+            this.secure = secure;
+            this.result = result;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            String path = uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                path += "?" + uri.getRawQuery();
+            }
+            HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
+                    HttpMethod.POST, path);
+            request.headers().set(HttpHeaderNames.HOST, uri.getAuthority());
+            request.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE_TAR);
+
+            // the SslHandler holds the request back until the handshake is done
+            ChannelFuture writeFuture;
+            if (secure) {
+                // the file has to pass through the SSL engine, so it is read in chunks
+                HttpUtil.setTransferEncodingChunked(request, true);
+                ctx.write(request);
+                writeFuture = ctx.writeAndFlush(new HttpChunkedInput(
+                        new ChunkedNioFile(imageFile)));
+            } else {
+                long length = imageFile.length();
+                HttpUtil.setContentLength(request, length);
+                ctx.write(request);
+                ctx.write(new DefaultFileRegion(imageFile, 0, length));
+                writeFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            }
+            writeFuture.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            result.complete(new LoadResponse(response.status().code(),
+                    response.content().toString(StandardCharsets.UTF_8)));
+            ctx.close();
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                result.completeExceptionally(new TimeoutException(String.format(
+                        "Loading image to [%s] timed out", uri)));
+                ctx.close();
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            // report the SSL failures wrapped by the SslHandler as they are
+            result.completeExceptionally(cause instanceof DecoderException
+                    && cause.getCause() != null ? cause.getCause() : cause);
+            ctx.close();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            result.completeExceptionally(new IOException(String.format(
+                    "Connection to [%s] closed before the image was loaded", uri)));
+        }
+    }
+}
@@ -14,11 +14,9 @@ package com.vmware.admiral.adapter.docker.service;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_ALIAS_PROP_NAME;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_CERT_PROP_NAME;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
@@ -26,15 +24,13 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -46,7 +42,6 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509TrustManager;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.yaml.snakeyaml.util.UriEncoder;
 
 import com.vmware.admiral.adapter.docker.util.DockerStreamUtil;
@@ -55,10 +50,17 @@ import com.vmware.admiral.common.util.ConfigurationUtil;
 import com.vmware.admiral.common.util.DelegatingX509KeyManager;
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServerX509TrustManager;
-import com.vmware.admiral.common.util.ServiceClientFactory;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.ServiceUtils;
+import com.vmware.admiral.compute.container.ContainerHostDataCollectionService;
+import com.vmware.admiral.compute.container.ContainerIdIndex;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
+import com.vmware.admiral.compute.container.HostNetworkListDataCollection;
+import com.vmware.admiral.compute.container.HostNetworkListDataCollection.NetworkListCallback;
+import com.vmware.admiral.compute.container.HostVolumeListDataCollection;
+import com.vmware.admiral.compute.container.HostVolumeListDataCollection.VolumeListCallback;
 import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.photon.controller.model.security.util.CertificateUtil;
@@ -88,13 +90,10 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
             "com.vmware.admiral.adapter.ssltrust.delegate.retries", 5);
     private static final long SSL_TRUST_RETRIES_WAIT = Long.getLong(
             "com.vmware.admiral.adapter.ssltrust.delegate.retries.wait.millis", 500);
-    private static final int URL_CONNECTION_READ_TIMEOUT = Integer.getInteger(
-            "com.vmware.admiral.adapter.url.connection.read.timeout", 20000);
-    private static final String THREAD_POOL_QUEUE_SIZE_PROP_NAME = "com.vmware.admiral.adapter.thread.pool.queue.size";
-    private static final int THREAD_POOL_QUEUE_SIZE = Integer.getInteger(
-            THREAD_POOL_QUEUE_SIZE_PROP_NAME, 1000);
-    private static final int THREAD_POOL_KEEPALIVE_SECONDS = Integer.getInteger(
-            "com.vmware.admiral.adapter.thread.pool.keepalive.seconds", 30);
+    private static final long EVENTS_COALESCE_MILLIS = Long.getLong(
+            "com.vmware.admiral.adapter.events.coalesce.millis", 500);
+    private static final int INVENTORY_EVENTS_DELAY_SECONDS = Integer.getInteger(
+            "com.vmware.admiral.adapter.events.inventory.delay.seconds", 5);
 
     public static final String MEDIA_TYPE_APPLICATION_TAR = "application/tar";
 
@@ -102,28 +101,31 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
 
     private static final Pattern ERROR_PATTERN = Pattern.compile("\"error\":\"(.*)\"");
 
-    private static final AtomicInteger threadCount = new AtomicInteger(0);
-    private static final ThreadFactory threadFactory =
-            (r) -> new Thread(r, "EventsReader-" + threadCount.incrementAndGet());
-
-    private static ExecutorService executor = new ThreadPoolExecutor(
-            THREAD_POOL_QUEUE_SIZE,
-            THREAD_POOL_QUEUE_SIZE,
-            THREAD_POOL_KEEPALIVE_SECONDS,
-            TimeUnit.SECONDS, new LinkedBlockingQueue<>(THREAD_POOL_QUEUE_SIZE),
-            threadFactory,
-            new ThreadPoolExecutor.AbortPolicy());
+    // Shared by all instances, like the event loop threads of the client
+    private static final DockerEventsClient eventsClient = new DockerEventsClient();
+    private static final DockerImageLoadClient imageLoadClient = new DockerImageLoadClient();
 
     private final ServiceHost host;
+    // Creates the service clients below and keeps track of their connections
+    private final DockerConnectionPools connectionPools = new DockerConnectionPools();
     private final ServiceClient serviceClient;
     // Used for commands like exec start
     private final ServiceClient attachServiceClient;
     // Used for commands like load image from tar
     private final ServiceClient largeDataClient;
-    // Used for storing the runnning threads which handles opened connections to hosts
-    private volatile Map<String, Thread> runningThreads = new HashMap<>();
+    // Used for storing the opened event subscriptions to hosts, by host authority
+    private final Map<String, HostEventsSubscription> eventSubscriptions =
+            new ConcurrentHashMap<>();
+    // Network and volume data collections scheduled after events, to coalesce bursts of events
+    private final Set<String> pendingInventoryCollections = ConcurrentHashMap.newKeySet();
+    // Container id index lookups at the last report
+    private long lastIndexHitCount;
+    private long lastIndexMissCount;
 
     private final DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager();
+    // The client credentials last used for each host, to invalidate the TLS sessions established
+    // with the previous credentials when they change
+    private final Map<String, String> credentialsByHost = new ConcurrentHashMap<>();
     private ServerX509TrustManager trustManager;
 
     private final int DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT = Integer.getInteger(
@@ -144,14 +146,15 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     protected RemoteApiDockerAdapterCommandExecutorImpl(ServiceHost host,
             TrustManager trustManager) {
         this.host = host;
-        this.serviceClient = ServiceClientFactory.createServiceClient(trustManager, keyManager);
-        this.attachServiceClient = ServiceClientFactory.createServiceClient(trustManager,
-                keyManager);
-        this.largeDataClient = ServiceClientFactory.createServiceClient(
+        this.serviceClient = connectionPools.createServiceClient(trustManager, keyManager, 0);
+        this.attachServiceClient = connectionPools.createServiceClient(trustManager,
+                keyManager, 0);
+        this.largeDataClient = connectionPools.createServiceClient(
                 trustManager, keyManager, DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT);
 
         if (trustManager instanceof ServerX509TrustManager) {
             this.trustManager = (ServerX509TrustManager) trustManager;
+            connectionPools.setTrustVersion(this.trustManager::getTrustVersion);
         }
     }
 
@@ -172,33 +175,45 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     public void stop() {
         logger.info("Stopping service clients");
 
-        if (attachServiceClient != null) {
-            attachServiceClient.stop();
-        }
-        if (this.serviceClient != null) {
-            this.serviceClient.stop();
-        }
-        if (largeDataClient != null) {
-            largeDataClient.stop();
-        }
+        connectionPools.stop();
+
+        eventSubscriptions.values().forEach(HostEventsSubscription::close);
+        eventSubscriptions.clear();
 
         INSTANCE = null;
     }
 
     @Override
     public void handlePeriodicMaintenance(Operation post) {
-        if (attachServiceClient != null) {
-            attachServiceClient.handleMaintenance(Operation.createPost(post.getUri()));
-        }
-        if (serviceClient != null) {
-            serviceClient.handleMaintenance(Operation.createPost(post.getUri()));
-        }
-        if (largeDataClient != null) {
-            largeDataClient.handleMaintenance(Operation.createPost(post.getUri()));
-        }
+        connectionPools.handleMaintenance(post);
+        logContainerIdIndexStats();
         post.complete();
     }
 
+    /**
+     * Sets the utilization of the connection pools to the docker hosts and the TLS handshake
+     * counts as stats of the given service.
+     */
+    public void setConnectionStats(Service service) {
+        connectionPools.setStats(service);
+    }
+
+    private void logContainerIdIndexStats() {
+        ContainerIdIndex index = ContainerIdIndex.getInstance(host);
+        long hits = index.getHitCount();
+        long misses = index.getMissCount();
+        long lookups = hits - lastIndexHitCount + misses - lastIndexMissCount;
+        if (lookups == 0) {
+            return;
+        }
+
+        logger.info(String.format("Container id index size: [%d], lookups: [%d],"
+                + " miss rate: [%.1f%%]", index.size(), lookups,
+                100.0 * (misses - lastIndexMissCount) / lookups));
+        lastIndexHitCount = hits;
+        lastIndexMissCount = misses;
+    }
+
     // image operations ----------------------------------------------------------------------------
 
     @Override
@@ -273,13 +288,55 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     @Override
     public void loadImage(CommandInput input, CompletionHandler completionHandler) {
         createOrUpdateTargetSsl(input);
-        Object imageData = input.getProperties().get(DOCKER_IMAGE_DATA_PROP_NAME);
         URI uri = UriUtils.extendUri(input.getDockerUri(), "/images/load");
         logger.info("Loading image: " + uri);
 
+        Object imageFile = input.getProperties().get(DOCKER_IMAGE_FILE_PROP_NAME);
+        if (imageFile != null) {
+            loadImageFromFile(input, uri, new File(imageFile.toString()), completionHandler);
+            return;
+        }
+
+        Object imageData = input.getProperties().get(DOCKER_IMAGE_DATA_PROP_NAME);
         sendPost(uri, imageData, ClientMode.LARGE_DATA, completionHandler);
     }
 
+    /**
+     * Streams the image tarball from disk to the host, instead of posting it as a body through
+     * the large data client, which keeps the whole image in the heap.
+     */
+    private void loadImageFromFile(CommandInput input, URI uri, File imageFile,
+            CompletionHandler completionHandler) {
+        SSLContext sslContext;
+        try {
+            sslContext = isSecure(uri) ? createSslContext(input) : null;
+        } catch (Exception e) {
+            completionHandler.handle(Operation.createPost(uri), e);
+            return;
+        }
+
+        OperationContext operationContext = OperationContext.getOperationContext();
+        imageLoadClient.load(uri, sslContext, imageFile, DOCKER_IMAGE_REQUEST_TIMEOUT_SECONDS)
+                .whenCompleteAsync((response, ex) -> {
+                    OperationContext.restoreOperationContext(operationContext);
+                    Operation o = Operation.createPost(uri);
+                    if (ex != null) {
+                        o.setStatusCode(Operation.STATUS_CODE_SERVER_FAILURE_THRESHOLD);
+                        completionHandler.handle(o, ex);
+                        return;
+                    }
+
+                    o.setStatusCode(response.statusCode).setBodyNoCloning(response.body);
+                    if (response.statusCode >= Operation.STATUS_CODE_FAILURE_THRESHOLD) {
+                        completionHandler.handle(o, new IllegalStateException(String.format(
+                                "Loading image to [%s] failed with status [%s]: %s", uri,
+                                response.statusCode, response.body)));
+                        return;
+                    }
+                    completionHandler.handle(o, null);
+                }, host.getExecutor());
+    }
+
     @Override
     public void createImage(CommandInput input, CompletionHandler completionHandler) {
         createOrUpdateTargetSsl(input);
@@ -460,30 +517,17 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     public void hostPing(CommandInput input, CompletionHandler completionHandler) {
         createOrUpdateTargetSsl(input);
 
-        DelegatingX509KeyManager keyM = new DelegatingX509KeyManager();
-        ServerX509TrustManager trustM = ServerX509TrustManager.create(host);
-        createOrUpdateTargetSsl(input, keyM, trustM);
-        ServiceClient serviceClientPing = ServiceClientFactory.createServiceClient(trustM, keyM);
-
         Operation op = Operation
                 .createGet(UriUtils.extendUri(input.getDockerUri(), "/_ping"))
-                .setCompletion((o, e) -> {
-                    try {
-                        completionHandler.handle(o, e);
-                    } finally {
-                        try {
-                            serviceClientPing.stop();
-                        } catch (Exception ee) {
-                            logger.warning(" Exception while closing ping ServiceClient. " + ee
-                                    .getMessage());
-                        }
-                    }
-                });
+                .setCompletion(completionHandler);
 
         prepareRequest(op, false);
         op.setExpiration(ServiceUtils.getExpirationTimeFromNowInMicros(
                 TimeUnit.SECONDS.toMicros(10)));
 
+        // The pooled connections are tagged with the credentials and the TLS sessions are
+        // invalidated when the credentials or the trusted certificates change, so the ping
+        // validates the certificates of the host again after any of them changed
         setConnectionTag(input.getCredentials(), op);
         logger.info("Ping host: " + op.getUri());
 
@@ -491,10 +535,10 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
             // Make sure that the trusted certificate is loaded before proceeding to avoid
             // SSLHandshakeException and getting hosts in DISABLED state
             ensureTrustDelegateExists(input, SSL_TRUST_RETRIES_COUNT, () -> {
-                serviceClientPing.send(op);
+                serviceClient.send(op);
             });
         } else {
-            serviceClientPing.send(op);
+            serviceClient.send(op);
         }
     }
 
@@ -536,13 +580,19 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         URI baseUri = UriUtils.extendUri(input.getDockerUri(), "/events");
         logger.info("Subscribing for events: " + baseUri);
 
-        if (runningThreads.get(baseUri.getAuthority()) != null) {
+        if (eventSubscriptions.containsKey(baseUri.getAuthority())) {
             logger.info("Connection is already opened: " + baseUri.getAuthority());
             return;
         }
 
-        // add filter for containers type
-        input.withProperty("filters", "{\"type\":[\"container\"]}");
+        if (ContainerHostDataCollectionService.INCREMENTAL_INVENTORY_ENABLED) {
+            // networks and volumes are only collected on events in incremental mode
+            input.withProperty("filters",
+                    "{\"type\":[\"container\",\"network\",\"volume\"]}");
+        } else {
+            // add filter for containers type
+            input.withProperty("filters", "{\"type\":[\"container\"]}");
+        }
 
         // append all the query parameters which are sent as input.
         URI extendedUri = extendUriWithQuery(baseUri, input);
@@ -564,14 +614,15 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         URI baseUri = UriUtils.extendUri(input.getDockerUri(), "/events");
         logger.info("Unsubscribing for events: " + baseUri);
 
-        Thread runningThread = runningThreads.get(input.getDockerUri().getAuthority());
+        HostEventsSubscription subscription = eventSubscriptions
+                .remove(input.getDockerUri().getAuthority());
 
-        if (runningThread == null) {
+        if (subscription == null) {
             logger.info("Connection already closed!");
             return;
         }
 
-        runningThread.interrupt();
+        subscription.close();
     }
 
     // network operations
@@ -730,30 +781,7 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     @Override
     public URLConnection openConnection(CommandInput input, URL url) throws NoSuchAlgorithmException, KeyManagementException, IOException {
         if (isSecure(URI.create(url.toString()))) {
-
-            String clientKey = null;
-            String clientCert = null;
-
-            if (input != null && input.getCredentials() != null) {
-                clientKey = EncryptionUtils.decrypt(input.getCredentials().privateKey);
-                clientCert = input.getCredentials().publicKey;
-            }
-
-            // TODO use an LRU cache to limit the number of stored
-            // KeyManagers while minimizing time wasted repeatedly
-            // recreating them
-            KeyManager[] keytManagers = null;
-            if (clientKey != null && !clientKey.isEmpty()) {
-                X509ExtendedKeyManager delegateKeyManager;
-                delegateKeyManager = (X509ExtendedKeyManager) CertificateUtil
-                        .getKeyManagers("default", clientKey, clientCert)[0];
-                keytManagers = new KeyManager[]{delegateKeyManager};
-            }
-
-            TrustManager[] trustManagers = new TrustManager[]{ServerX509TrustManager.init(null)};
-
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(keytManagers, trustManagers, new SecureRandom());
+            SSLContext sslContext = createSslContext(input);
 
             HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
             conn.setHostnameVerifier((s, sslSession) -> true);
@@ -775,6 +803,34 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         return conn;
     }
 
+    private SSLContext createSslContext(CommandInput input)
+            throws NoSuchAlgorithmException, KeyManagementException {
+        String clientKey = null;
+        String clientCert = null;
+
+        if (input != null && input.getCredentials() != null) {
+            clientKey = EncryptionUtils.decrypt(input.getCredentials().privateKey);
+            clientCert = input.getCredentials().publicKey;
+        }
+
+        // TODO use an LRU cache to limit the number of stored
+        // KeyManagers while minimizing time wasted repeatedly
+        // recreating them
+        KeyManager[] keytManagers = null;
+        if (clientKey != null && !clientKey.isEmpty()) {
+            X509ExtendedKeyManager delegateKeyManager;
+            delegateKeyManager = (X509ExtendedKeyManager) CertificateUtil
+                    .getKeyManagers("default", clientKey, clientCert)[0];
+            keytManagers = new KeyManager[]{delegateKeyManager};
+        }
+
+        TrustManager[] trustManagers = new TrustManager[]{ServerX509TrustManager.init(null)};
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keytManagers, trustManagers, new SecureRandom());
+        return sslContext;
+    }
+
     /**
      * Common settings on all outgoing requests to the docker server
      */
@@ -907,6 +963,15 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     private void createOrUpdateTargetSsl(CommandInput input) {
         createOrUpdateTargetSsl(input,  keyManager, trustManager);
 
+        URI dockerUri = input.getDockerUri();
+        if (dockerUri != null && isSecure(dockerUri)) {
+            String credentials = String.valueOf(getConnectionTag(input.getCredentials()));
+            String previous = credentialsByHost.put(dockerUri.getAuthority(), credentials);
+            if (previous != null && !previous.equals(credentials)) {
+                int port = dockerUri.getPort() != -1 ? dockerUri.getPort() : 443;
+                connectionPools.invalidateSessions(dockerUri.getHost(), port);
+            }
+        }
     }
 
     private void createOrUpdateTargetSsl(CommandInput input, DelegatingX509KeyManager keyM,
@@ -1031,105 +1096,253 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     }
 
     private void setConnectionTag(AuthCredentialsServiceState credentials, Operation op) {
+        String connectionTag = getConnectionTag(credentials);
+        if (connectionTag != null) {
+            connectionPools.setConnectionTag(serviceClient, op, connectionTag);
+        }
+    }
+
+    private static String getConnectionTag(AuthCredentialsServiceState credentials) {
         // Avoid reusing an open channel to this host to ensure certs validation.
-        if (credentials != null) {
-            op.setConnectionTag(credentials.documentSelfLink +
-                    String.valueOf(credentials.documentUpdateTimeMicros));
+        if (credentials == null) {
+            return null;
         }
+        return credentials.documentSelfLink
+                + String.valueOf(credentials.documentUpdateTimeMicros);
     }
 
     /**
-     * Used for creation of a new thread for each host event subscription.
+     * Events subscription to a host. Events are coalesced per container for a short time before
+     * they are applied, so a burst of events results in a single update of every container.
      */
-    private class EventsMonitor implements Runnable {
-
-        public Operation op;
-        public URI hostUri;
-        public CommandInput input;
-        public ComputeState computeState;
-        public boolean simulatedIOException;
-
-        public EventsMonitor(Operation op,
-                URI hostUri,
-                CommandInput input,
-                ComputeState computeState,
+    private class HostEventsSubscription implements DockerEventsClient.EventsListener {
+
+        private final Operation op;
+        private final String hostAuthority;
+        private final ComputeState computeState;
+        private final boolean simulatedIOException;
+        private volatile DockerEventsClient.Subscription subscription;
+        private volatile boolean closed;
+
+        // latest power state of the containers with pending events, by container id
+        private Map<String, ContainerState> pendingPowerStates = new HashMap<>();
+        private ContainerListCallback pendingContainers;
+        private boolean pendingNetworks;
+        private boolean pendingVolumes;
+        private boolean flushScheduled;
+
+        HostEventsSubscription(Operation op, String hostAuthority, ComputeState computeState,
                 boolean simulatedIOException) {
             this.op = op;
-            this.hostUri = hostUri;
-            this.input = input;
+            this.hostAuthority = hostAuthority;
             this.computeState = computeState;
             this.simulatedIOException = simulatedIOException;
         }
 
+        void open(URI uri, SSLContext sslContext) {
+            subscription = eventsClient.subscribe(uri, sslContext, this);
+            if (closed) {
+                subscription.close();
+            }
+        }
+
+        void close() {
+            closed = true;
+            if (subscription != null) {
+                subscription.close();
+            }
+        }
+
         @Override
-        public void run() {
-            logger.info(String.format("Simulation of IOException enabled: [%s]",
-                    simulatedIOException));
-            OperationContext childContext = OperationContext.getOperationContext();
+        public void onConnected() throws IOException {
+            logger.info(String.format("Subscribed for events of [%s]. Simulation of IOException"
+                    + " enabled: [%s]", hostAuthority, simulatedIOException));
+
+            if (simulatedIOException) {
+                throw new IOException("Simulated IOException from an IT test.");
+            }
+
+            if (ContainerHostDataCollectionService.INCREMENTAL_INVENTORY_ENABLED) {
+                // events sent while the stream was closed are lost, reconcile the host
+                runInContext(() -> requestFullInventory(computeState));
+            }
+        }
+
+        @Override
+        public synchronized void onEvent(Events event) {
+            if (!coalesceEvent(event) || flushScheduled) {
+                return;
+            }
+
+            flushScheduled = true;
+            host.schedule(this::flush, EVENTS_COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onClosed(Throwable cause) {
+            eventSubscriptions.remove(hostAuthority, this);
+
+            if (cause == null) {
+                logger.info(String.format("Events stream of [%s] closed by the host.",
+                        hostAuthority));
+                return;
+            }
+
+            if (!(cause instanceof IOException)) {
+                logger.warning(String.format("Exception in subscription to [%s]. Error: [%s]",
+                        hostAuthority, cause.getMessage()));
+                return;
+            }
+
+            logger.info(String.format("IOException when listening [%s]. Error: [%s]",
+                    hostAuthority, cause.getMessage()));
+
+            runInContext(() -> {
+                ComputeState state = new ComputeState();
+                state.powerState = ComputeService.PowerState.UNKNOWN;
+
+                patchComputeState(computeState.documentSelfLink, state)
+                        .thenCompose((ignore) -> {
+                            // changing the power state of containers to UNKNOWN
+                            return queryExistingContainerStates(computeState.documentSelfLink);
+                        });
+            });
+        }
+
+        /**
+         * Adds the event to the pending changes of the host. Returns {@code false} if the event
+         * does not change anything.
+         */
+        private boolean coalesceEvent(Events event) {
+            String action = event.getAction();
+            if (EVENT_TYPE_CONTAINER.equals(event.getType())) {
+                String containerId = getContainerId(event);
+                if (containerId == null) {
+                    return false;
+                }
 
-            boolean shouldRestoreContext = true;
+                if (EVENT_TYPE_CONTAINER_DIE.equals(action)) {
+                    ContainerState cs = new ContainerState();
+                    cs.powerState = ContainerState.PowerState.STOPPED;
+                    pendingPowerStates.put(containerId, cs);
+                    return true;
+                } else if (EVENT_TYPE_CONTAINER_START.equals(action)) {
+                    ContainerState cs = new ContainerState();
+                    cs.powerState = ContainerState.PowerState.RUNNING;
+                    if (event.getTimeNano() != null) {
+                        cs.started = TimeUnit.NANOSECONDS.toMillis(event.getTimeNano());
+                    }
+                    pendingPowerStates.put(containerId, cs);
+                    return true;
+                }
+
+                return ContainerHostDataCollectionService.INCREMENTAL_INVENTORY_ENABLED
+                        && coalesceContainerInventoryEvent(event, containerId);
+            }
+
+            if (!ContainerHostDataCollectionService.INCREMENTAL_INVENTORY_ENABLED
+                    || !(EVENT_ACTION_CREATE.equals(action)
+                            || EVENT_ACTION_DESTROY.equals(action))) {
+                return false;
+            }
+
+            if (EVENT_TYPE_NETWORK.equals(event.getType())) {
+                pendingNetworks = true;
+                return true;
+            } else if (EVENT_TYPE_VOLUME.equals(event.getType())) {
+                pendingVolumes = true;
+                return true;
+            }
+            return false;
+        }
 
+        private boolean coalesceContainerInventoryEvent(Events event, String containerId) {
+            String action = event.getAction();
+            boolean destroyed = EVENT_ACTION_DESTROY.equals(action);
+            if (!destroyed && !EVENT_ACTION_CREATE.equals(action)
+                    && !EVENT_ACTION_RENAME.equals(action)) {
+                return false;
+            }
+
+            if (pendingContainers == null) {
+                pendingContainers = new ContainerListCallback();
+                pendingContainers.containerHostLink = computeState.documentSelfLink;
+                pendingContainers.hostAdapterReference = getHostAdapterReference(computeState);
+                pendingContainers.incremental = true;
+            }
+
+            if (destroyed) {
+                // the container is gone, earlier events of it do not matter anymore
+                pendingContainers.containerIdsAndNames.remove(containerId);
+                pendingContainers.containerIdsAndImage.remove(containerId);
+                pendingContainers.removedContainerIds.add(containerId);
+                pendingPowerStates.remove(containerId);
+                return true;
+            }
+
+            Attributes attributes = event.getActor() != null
+                    ? event.getActor().getAttributes() : null;
+            String name = attributes != null ? attributes.getName() : null;
+            pendingContainers.addIdAndNames(containerId,
+                    name != null ? new String[] { name } : null);
+            if (attributes != null && attributes.getImage() != null) {
+                pendingContainers.containerIdsAndImage.put(containerId, attributes.getImage());
+            }
+            return true;
+        }
+
+        private void flush() {
+            Map<String, ContainerState> powerStates;
+            ContainerListCallback containers;
+            boolean networks;
+            boolean volumes;
+            synchronized (this) {
+                powerStates = pendingPowerStates;
+                containers = pendingContainers;
+                networks = pendingNetworks;
+                volumes = pendingVolumes;
+                pendingPowerStates = new HashMap<>();
+                pendingContainers = null;
+                pendingNetworks = false;
+                pendingVolumes = false;
+                flushScheduled = false;
+            }
+
+            runInContext(() -> {
+                if (containers != null) {
+                    sendInventoryRequest(HostContainerListDataCollection
+                            .DEFAULT_HOST_CONTAINER_LIST_DATA_COLLECTION_LINK, containers);
+                }
+                if (!powerStates.isEmpty()) {
+                    patchContainerPowerStates(computeState.documentSelfLink, powerStates);
+                }
+                if (networks) {
+                    scheduleInventoryRequest(computeState, HostNetworkListDataCollection
+                            .DEFAULT_HOST_NETWORK_LIST_DATA_COLLECTION_LINK,
+                            createNetworkListCallback(computeState));
+                }
+                if (volumes) {
+                    scheduleInventoryRequest(computeState, HostVolumeListDataCollection
+                            .DEFAULT_HOST_VOLUME_LIST_DATA_COLLECTION_LINK,
+                            createVolumeListCallback(computeState));
+                }
+            });
+        }
+
+        private void runInContext(Runnable runnable) {
+            OperationContext originalContext = OperationContext.getOperationContext();
             try {
                 // set system user context
                 OperationContext.setFrom(op);
-
-                URL url = new URL(hostUri.toString());
-                URLConnection con = openConnection(input, url);
-
-                // setting "read timeout" to reset the blocking stream (reader.readLine()).
-                // Otherwise there is no way to close the connection.
-                con.setReadTimeout(URL_CONNECTION_READ_TIMEOUT);
-
-                final String hostName = url.getAuthority();
-                runningThreads.put(hostName, Thread.currentThread());
-
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(
-                        con.getInputStream()))) {
-                    readData(in, simulatedIOException);
-                } catch (InterruptedException e) {
-                    logger.fine(String.format("[%s] is thrown.", e.getClass().getName()));
-                } catch (IOException e) {
-                    logger.info(String.format("IOException when listening [%s]. Error: [%s]",
-                            hostName, e.getMessage()));
-
-                    shouldRestoreContext = false;
-
-                    ComputeState state = new ComputeState();
-                    state.powerState = ComputeService.PowerState.UNKNOWN;
-
-                    patchComputeState(computeState.documentSelfLink, state)
-                            .thenCompose((ignore) -> {
-                                // changing the power state of containers to UNKNOWN
-                                return queryExistingContainerStates(computeState.documentSelfLink);
-                            })
-                            .whenComplete((o, ex) -> {
-                                OperationContext.restoreOperationContext(childContext);
-                            });
-                } catch (Exception e) {
-                    logger.warning(String.format("Exception in subscription to [%s]. Error: [%s]",
-                            hostName, e.getMessage()));
-                } finally {
-                    runningThreads.remove(hostName);
-                    closeConnection(con);
-                }
-            } catch (Throwable t) {
-                logger.warning(Utils.toString(t));
+                runnable.run();
             } finally {
-                if (shouldRestoreContext) {
-                    OperationContext.restoreOperationContext(childContext);
-                }
+                OperationContext.restoreOperationContext(originalContext);
             }
         }
     }
 
     private void makeSubscription(CommandInput input, Operation op, ComputeState computeState, URI uri,
             Boolean simulateIOExceptionPropertyValue) {
-        boolean maxAllowedNumberOfThreadsExceeded = maxAllowedNumberOfThreadsExceeded();
-
-        if (maxAllowedNumberOfThreadsExceeded) {
-            return;
-        }
-
         if (simulateIOExceptionPropertyValue == null) {
             ConfigurationUtil.getConfigProperty(host, ConfigurationUtil.THROW_IO_EXCEPTION,
                     (prop) -> {
@@ -1139,14 +1352,22 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
             return;
         }
 
-        EventsMonitor eventsMonitor = new EventsMonitor(
-                op,
-                uri,
-                input,
-                computeState,
-                simulateIOExceptionPropertyValue);
+        String hostAuthority = uri.getAuthority();
+        HostEventsSubscription subscription = new HostEventsSubscription(op, hostAuthority,
+                computeState, simulateIOExceptionPropertyValue);
+        if (eventSubscriptions.putIfAbsent(hostAuthority, subscription) != null) {
+            logger.info("Connection is already opened: " + hostAuthority);
+            return;
+        }
 
-        executor.submit(eventsMonitor);
+        try {
+            SSLContext sslContext = isSecure(uri) ? createSslContext(input) : null;
+            subscription.open(uri, sslContext);
+        } catch (Exception e) {
+            eventSubscriptions.remove(hostAuthority, subscription);
+            logger.warning(String.format("Exception in subscription to [%s]. Error: [%s]",
+                    hostAuthority, e.getMessage()));
+        }
     }
 
     private DeferredResult<ComputeState> requestComputeState(String selfLink) {
@@ -1183,68 +1404,134 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         return host.sendWithDeferredResult(op);
     }
 
-    private void readData(BufferedReader in, boolean simulatedIOException) throws IOException, InterruptedException {
+    private static String getContainerId(Events event) {
+        Actor actor = event.getActor();
+        return actor != null && actor.getID() != null ? actor.getID() : event.getId();
+    }
 
-        while (true) {
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
+    /**
+     * Patches the power states of the given containers of a host. The container states are
+     * looked up in the {@link ContainerIdIndex} and the ones missing from it with a single query.
+     */
+    private void patchContainerPowerStates(String containerHostLink,
+            Map<String, ContainerState> statesById) {
+        Map<String, ContainerState> missingStatesById = new HashMap<>();
+        statesById.forEach((containerId, cs) -> {
+            String containerLink = ContainerIdIndex.getInstance(host).get(containerHostLink,
+                    containerId);
+            if (containerLink == null) {
+                missingStatesById.put(containerId, cs);
+                return;
             }
 
-            if (simulatedIOException) {
-                throw new IOException("Simulated IOException from an IT test.");
-            }
+            cs.documentSelfLink = containerLink;
+            Operation operation = Operation.createPatch(host, containerLink)
+                    .setBody(cs)
+                    .setReferer(host.getUri())
+                    .setCompletion((o, ex) -> {
+                        if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                            // stale index entry, look the container up again
+                            ContainerIdIndex.getInstance(host).remove(containerHostLink,
+                                    containerId, containerLink);
+                            queryContainerPowerStates(Collections.singletonMap(containerId, cs));
+                        } else if (ex != null) {
+                            logger.warning(String.format("Error patching container state [%s]."
+                                    + " Error: [%s]", containerLink, ex.getMessage()));
+                        }
+                    });
+            host.sendRequest(operation);
+        });
 
-            try {
-                String inputLine  = in.readLine();
+        if (!missingStatesById.isEmpty()) {
+            queryContainerPowerStates(missingStatesById);
+        }
+    }
 
-                ObjectMapper mapper = new ObjectMapper();
-                Events event = mapper.readValue(inputLine, Events.class);
+    private void queryContainerPowerStates(Map<String, ContainerState> statesById) {
+        QueryTask queryTask = QueryUtil.buildQuery(ContainerState.class, true);
+        QueryUtil.addListValueClause(queryTask, ContainerState.FIELD_NAME_ID,
+                statesById.keySet());
+        QueryUtil.addExpandOption(queryTask);
 
-                if (EVENT_TYPE_CONTAINER.equals(event.getType())) {
-                    ContainerState cs = new ContainerState();
-                    if (EVENT_TYPE_CONTAINER_DIE.equals(event.getAction())) {
-                        logger.fine(inputLine);
+        new ServiceDocumentQuery<ContainerState>(host, ContainerState.class).query(queryTask, (r) -> {
+            if (r.hasException()) {
+                logger.warning(String.format("Failed to query resource container states with ids [%s]",
+                        statesById.keySet()));
+            } else if (r.hasResult()) {
+                ContainerState result = r.getResult();
+                ContainerIdIndex.getInstance(host).put(result.parentLink, result.id,
+                        r.getDocumentSelfLink());
+
+                ContainerState cs = statesById.get(result.id);
+                if (cs != null) {
+                    cs.documentSelfLink = r.getDocumentSelfLink();
+                    patchContainerState(cs);
+                }
+            }
+        });
+    }
 
-                        cs.powerState = ContainerState.PowerState.STOPPED;
-                    } else if (EVENT_TYPE_CONTAINER_START.equals(event.getAction())) {
-                        logger.fine(inputLine);
+    private void requestFullInventory(ComputeState computeState) {
+        ContainerListCallback containerListCallback = new ContainerListCallback();
+        containerListCallback.containerHostLink = computeState.documentSelfLink;
+        containerListCallback.hostAdapterReference = getHostAdapterReference(computeState);
+        sendInventoryRequest(
+                HostContainerListDataCollection.DEFAULT_HOST_CONTAINER_LIST_DATA_COLLECTION_LINK,
+                containerListCallback);
+        sendInventoryRequest(
+                HostNetworkListDataCollection.DEFAULT_HOST_NETWORK_LIST_DATA_COLLECTION_LINK,
+                createNetworkListCallback(computeState));
+        sendInventoryRequest(
+                HostVolumeListDataCollection.DEFAULT_HOST_VOLUME_LIST_DATA_COLLECTION_LINK,
+                createVolumeListCallback(computeState));
+    }
 
-                        cs.powerState = ContainerState.PowerState.RUNNING;
-                        cs.started = TimeUnit.NANOSECONDS.toMillis(event.getTimeNano());
-                    } else {
-                        continue;
-                    }
+    private NetworkListCallback createNetworkListCallback(ComputeState computeState) {
+        NetworkListCallback callback = new NetworkListCallback();
+        callback.containerHostLink = computeState.documentSelfLink;
+        callback.hostAdapterReference = getHostAdapterReference(computeState);
+        return callback;
+    }
 
-                    String containerId = event.getId();
+    private VolumeListCallback createVolumeListCallback(ComputeState computeState) {
+        VolumeListCallback callback = new VolumeListCallback();
+        callback.containerHostLink = computeState.documentSelfLink;
+        return callback;
+    }
 
-                    QueryTask queryTask = QueryUtil
-                            .buildPropertyQuery(ContainerState.class, ContainerState.FIELD_NAME_ID, containerId);
+    private URI getHostAdapterReference(ComputeState computeState) {
+        // the data collections fall back to the default host adapter
+        return computeState.endpointLink == null
+                ? computeState.adapterManagementReference : null;
+    }
 
-                    new ServiceDocumentQuery<ContainerState>(host, ContainerState.class).query(queryTask, (r) -> {
-                        if (r.hasException()) {
-                            logger.warning(String.format("Failed to query resource container state with id [%s]",
-                                    containerId));
-                        } else if (r.hasResult()) {
-                            cs.documentSelfLink = r.getDocumentSelfLink();
-                            patchContainerState(cs);
-                        }
-                    });
-                }
-            } catch (SocketTimeoutException e) {
-                logger.fine("No events have been received. Unblocking the reader.");
-            }
+    private void scheduleInventoryRequest(ComputeState computeState, String dataCollectionLink,
+            Object body) {
+        String key = computeState.documentSelfLink + dataCollectionLink;
+        if (!pendingInventoryCollections.add(key)) {
+            return;
         }
+
+        OperationContext context = OperationContext.getOperationContext();
+        host.schedule(() -> {
+            OperationContext.restoreOperationContext(context);
+            pendingInventoryCollections.remove(key);
+            sendInventoryRequest(dataCollectionLink, body);
+        }, INVENTORY_EVENTS_DELAY_SECONDS, TimeUnit.SECONDS);
     }
 
-    private boolean maxAllowedNumberOfThreadsExceeded() {
-        ThreadPoolExecutor tpe = (ThreadPoolExecutor) executor;
-        if (tpe.getActiveCount() >= tpe.getMaximumPoolSize()) {
-            logger.warning(String.format("Maximum allowed number of threads exceeded! Use [\"%s\"] property to increase it.",
-                    THREAD_POOL_QUEUE_SIZE_PROP_NAME));
-            return true;
-        }
+    private void sendInventoryRequest(String dataCollectionLink, Object body) {
+        Operation operation = Operation.createPatch(host, dataCollectionLink)
+                .setBodyNoCloning(body)
+                .setReferer(host.getUri())
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logger.warning(String.format("Failed to request data collection [%s]."
+                                + " Error: [%s]", dataCollectionLink, ex.getMessage()));
+                    }
+                });
 
-        return false;
+        host.sendRequest(operation);
     }
 
     private DeferredResult<Void> queryExistingContainerStates(String containerHostLink) {
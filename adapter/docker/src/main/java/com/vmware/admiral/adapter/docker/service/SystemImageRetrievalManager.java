@@ -15,23 +15,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 
-import org.apache.commons.io.IOUtils;
-
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.FileUtil;
 import com.vmware.admiral.service.common.ConfigurationService.ConfigurationState;
-import com.vmware.xenon.common.FileUtils;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.UriUtils;
@@ -42,18 +42,27 @@ public class SystemImageRetrievalManager {
     public static final String SERVICE_REFERRER_PATH = "/system-image-retrieval-manager";
     public static final String SYSTEM_IMAGES_PATH = "/system-images";
 
+    private static final String EXTRACTED_IMAGE_PREFIX = "admiral-system-image";
+
     private ServiceHost host;
 
     private final Object RETRIEVE_LOCK = new Object();
 
-    private Map<String, List<Consumer<byte[]>>> pendingCallbacksByImagePath = new HashMap<>();
+    private Map<String, List<Consumer<File>>> pendingCallbacksByImagePath = new HashMap<>();
 
     /**
-     * Map to keep a reference to loaded system images. Once loaded, the data will be added using
+     * Map to keep a reference to the files of retrieved system images, which are streamed to the
+     * hosts from disk rather than read in the heap. Once retrieved, the file will be added using
      * the image file path as a key and time of the last usage will be stored. The timestamp is
      * global for all the images. Once the defined timeout expires all the images will be cleared.
      */
-    private static Map<String, byte[]> cachedImages = new HashMap<>();
+    private static Map<String, File> cachedImages = new HashMap<>();
+
+    /**
+     * Images bundled as class path resources, extracted once to temporary files which are kept
+     * for the lifetime of the process.
+     */
+    private static final Map<String, File> extractedResourceImages = new ConcurrentHashMap<>();
     private static long lastUsed;
     private static final long CACHED_DATA_MICROS = Integer.getInteger(
             "com.vmware.admiral.system.image.cache.micros",
@@ -64,18 +73,18 @@ public class SystemImageRetrievalManager {
     }
 
     public void retrieveAgentImage(String containerImageFilePath, AdapterRequest adapterRequest,
-            Consumer<byte[]> callback) {
+            Consumer<File> callback) {
 
         synchronized (RETRIEVE_LOCK) {
-            byte[] imageData = cachedImages.get(containerImageFilePath);
-            if (imageData != null) {
+            File imageFile = cachedImages.get(containerImageFilePath);
+            if (imageFile != null) {
                 host.log(Level.INFO, "Cached image found, %s\n", containerImageFilePath);
                 lastUsed = Utils.getSystemNowMicrosUtc();
-                callback.accept(imageData);
+                callback.accept(imageFile);
                 return;
             }
 
-            List<Consumer<byte[]>> pendingCallbacks = pendingCallbacksByImagePath
+            List<Consumer<File>> pendingCallbacks = pendingCallbacksByImagePath
                     .computeIfAbsent(containerImageFilePath, k -> new ArrayList<>());
 
             pendingCallbacks.add(callback);
@@ -104,35 +113,37 @@ public class SystemImageRetrievalManager {
                 }));
     }
 
-    private void notifyCallbacks(String containerImageFilePath, byte[] imageData) {
-        List<Consumer<byte[]>> pendingCallbacks;
+    private void notifyCallbacks(String containerImageFilePath, File imageFile) {
+        List<Consumer<File>> pendingCallbacks;
         synchronized (RETRIEVE_LOCK) {
-            cachedImages.put(containerImageFilePath, imageData);
+            if (imageFile != null) {
+                cachedImages.put(containerImageFilePath, imageFile);
+            }
             lastUsed = Utils.getSystemNowMicrosUtc();
             pendingCallbacks = pendingCallbacksByImagePath.remove(containerImageFilePath);
         }
-        host.log(Level.INFO, "Caching system agent image data for %s", containerImageFilePath);
+        host.log(Level.INFO, "Caching system agent image file for %s", containerImageFilePath);
         host.schedule(this::cleanCache, CACHED_DATA_MICROS, TimeUnit.MICROSECONDS);
 
         if (pendingCallbacks != null) {
-            for (Consumer<byte[]> consumer : pendingCallbacks) {
-                consumer.accept(imageData);
+            for (Consumer<File> consumer : pendingCallbacks) {
+                consumer.accept(imageFile);
             }
         }
     }
 
     private void retrieveAgentImage(String resourcesPath, String containerImageFilePath) {
-        Consumer<byte[]> finalCallback = (fileBytes) -> {
-            if (fileBytes == null) {
+        Consumer<File> finalCallback = (imageFile) -> {
+            if (imageFile == null) {
                 host.log(Level.WARNING, "System image %s does not exists.", containerImageFilePath);
             }
-            notifyCallbacks(containerImageFilePath, fileBytes);
+            notifyCallbacks(containerImageFilePath, imageFile);
         };
 
         if (resourcesPath != null) {
-            getExternalAgentImage(resourcesPath, containerImageFilePath, (fileBytes) -> {
-                if (fileBytes != null) {
-                    notifyCallbacks(containerImageFilePath, fileBytes);
+            getExternalAgentImage(resourcesPath, containerImageFilePath, (imageFile) -> {
+                if (imageFile != null) {
+                    notifyCallbacks(containerImageFilePath, imageFile);
                 } else {
                     // Fetch the data from resources when the image is not found in user resources
                     getResourceAgentImage(containerImageFilePath, finalCallback);
@@ -144,38 +155,35 @@ public class SystemImageRetrievalManager {
     }
 
     private void getExternalAgentImage(String resourcesPath, String containerImage,
-            Consumer<byte[]> callback) {
+            Consumer<File> callback) {
         Path imageResourcePath = Paths.get(resourcesPath,
                 SYSTEM_IMAGES_PATH, containerImage);
 
         File file = imageResourcePath.toFile();
-        if (!file.exists()) {
-            callback.accept(null);
+        callback.accept(file.isFile() ? file : null);
+    }
+
+    private void getResourceAgentImage(String containerImage, Consumer<File> callback) {
+        File extractedFile = extractedResourceImages.get(containerImage);
+        if (extractedFile != null && extractedFile.isFile()) {
+            callback.accept(extractedFile);
             return;
         }
 
-        Operation operation = new Operation();
-        operation.setCompletion((op, ex) -> {
-            if (op.hasBody()) {
-                callback.accept(op.getBody(byte[].class));
-            } else {
-                callback.accept(null);
-            }
-
-        });
-
-        FileUtils.readFileAndComplete(operation, file);
-    }
-
-    private void getResourceAgentImage(String containerImage, Consumer<byte[]> callback) {
         try (InputStream resourceAsStream = Thread.currentThread().getContextClassLoader()
                 .getResourceAsStream(containerImage)) {
             if (resourceAsStream == null) {
                 callback.accept(null);
-            } else {
-                callback.accept(IOUtils.toByteArray(resourceAsStream));
+                return;
             }
+            Path tempFile = Files.createTempFile(EXTRACTED_IMAGE_PREFIX, null);
+            tempFile.toFile().deleteOnExit();
+            Files.copy(resourceAsStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            extractedResourceImages.put(containerImage, tempFile.toFile());
+            callback.accept(tempFile.toFile());
         } catch (IOException e) {
+            host.log(Level.WARNING, "Failed to extract system image %s: %s", containerImage,
+                    e.getMessage());
             callback.accept(null);
         }
     }
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.DelegatingX509KeyManager;
+import com.vmware.admiral.common.util.DelegatingX509TrustManager;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceClient;
+
+public class DockerConnectionPoolsTest {
+
+    private final DockerConnectionPools connectionPools = new DockerConnectionPools();
+
+    @After
+    public void tearDown() {
+        connectionPools.stop();
+    }
+
+    @Test
+    public void testConnectionLimitPerHost() {
+        ServiceClient client = connectionPools.createServiceClient(
+                new DelegatingX509TrustManager(), new DelegatingX509KeyManager(), 0);
+        assertEquals(DockerConnectionPools.CONNECTIONS_PER_HOST,
+                client.getConnectionLimitPerTag(ServiceClient.CONNECTION_TAG_DEFAULT));
+
+        Operation op = Operation.createGet(URI.create("https://localhost:2376/_ping"));
+        connectionPools.setConnectionTag(client, op, "/credentials/1");
+        assertEquals("/credentials/1", op.getConnectionTag());
+        assertEquals(DockerConnectionPools.CONNECTIONS_PER_HOST,
+                client.getConnectionLimitPerTag("/credentials/1"));
+    }
+}
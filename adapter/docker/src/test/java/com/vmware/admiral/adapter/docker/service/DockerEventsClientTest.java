@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.LineStreamingClient.StatusException;
+import com.vmware.admiral.adapter.docker.service.DockerEventsClient.EventsListener;
+import com.vmware.admiral.adapter.docker.service.DockerEventsClient.Subscription;
+
+public class DockerEventsClientTest {
+
+    private static final String CHUNKED_RESPONSE_HEADERS =
+            "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n";
+
+    private static final DockerEventsClient client = new DockerEventsClient();
+
+    private ServerSocket server;
+    private CompletableFuture<String> requestLine;
+    private CompletableFuture<Void> disconnected;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        requestLine = new CompletableFuture<>();
+        disconnected = new CompletableFuture<>();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        serve(false, CHUNKED_RESPONSE_HEADERS
+                + chunk("{\"status\":\"start\",\"id\":\"c1\",\"Type\":\"container\","
+                        + "\"Action\":\"start\"}\n{\"status\":")
+                + chunk("\"die\",\"id\":\"c1\",\"Type\":\"container\",\"Action\":\"die\"}\n")
+                + chunk("not an event\n")
+                + chunk("{\"Type\":\"network\",\"Action\":\"create\"}\n")
+                + "0\r\n\r\n");
+
+        TestListener listener = subscribe();
+
+        // the events split across chunks are parsed and the invalid ones skipped
+        assertNull(listener.closed.get(10, TimeUnit.SECONDS));
+        assertEquals(1, listener.connectedCount.get());
+        assertEquals(3, listener.events.size());
+        assertEquals("start", listener.events.get(0).getAction());
+        assertEquals("c1", listener.events.get(1).getId());
+        assertEquals("die", listener.events.get(1).getStatus());
+        assertEquals("network", listener.events.get(2).getType());
+        assertEquals("GET /events?since=0 HTTP/1.1", requestLine.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSubscriptionRefused() throws Exception {
+        serve(false, "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n");
+
+        TestListener listener = subscribe();
+
+        Throwable cause = listener.closed.get(10, TimeUnit.SECONDS);
+        assertTrue(cause instanceof StatusException);
+        assertEquals(404, ((StatusException) cause).getStatusCode());
+        assertEquals(0, listener.connectedCount.get());
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void testConnectedFailure() throws Exception {
+        serve(true, CHUNKED_RESPONSE_HEADERS
+                + chunk("{\"Type\":\"container\",\"Action\":\"start\"}\n"));
+
+        IOException failure = new IOException("Simulated IOException");
+        TestListener listener = new TestListener() {
+            @Override
+            public void onConnected() throws IOException {
+                super.onConnected();
+                throw failure;
+            }
+        };
+        subscribe(listener);
+
+        // the events read with the response are not delivered and the connection is closed
+        assertSame(failure, listener.closed.get(10, TimeUnit.SECONDS));
+        assertTrue(listener.events.isEmpty());
+        disconnected.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        serve(true, CHUNKED_RESPONSE_HEADERS
+                + chunk("{\"Type\":\"container\",\"Action\":\"start\"}\n"));
+
+        CompletableFuture<Void> firstEvent = new CompletableFuture<>();
+        TestListener listener = new TestListener() {
+            @Override
+            public void onEvent(Events event) {
+                super.onEvent(event);
+                firstEvent.complete(null);
+            }
+        };
+        Subscription subscription = subscribe(listener);
+        firstEvent.get(10, TimeUnit.SECONDS);
+
+        // the listener is not notified of a subscription closed locally
+        subscription.close();
+        disconnected.get(10, TimeUnit.SECONDS);
+        assertFalse(listener.closed.isDone());
+    }
+
+    private TestListener subscribe() {
+        TestListener listener = new TestListener();
+        subscribe(listener);
+        return listener;
+    }
+
+    private Subscription subscribe(TestListener listener) {
+        URI uri = URI.create("http://localhost:" + server.getLocalPort() + "/events?since=0");
+        return client.subscribe(uri, null, listener);
+    }
+
+    /**
+     * Answers the next connection with the given response. The connection is then closed, or
+     * kept open until the client closes it.
+     */
+    private void serve(boolean keepOpen, String response) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.UTF_8));
+                requestLine.complete(reader.readLine());
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    continue;
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(response.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (keepOpen) {
+                    while (reader.read() != -1) {
+                        continue;
+                    }
+                }
+                disconnected.complete(null);
+            } catch (IOException e) {
+                // the client may reset the connection when closing it
+                disconnected.complete(null);
+                requestLine.completeExceptionally(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String chunk(String data) {
+        return Integer.toHexString(data.getBytes(StandardCharsets.UTF_8).length) + "\r\n"
+                + data + "\r\n";
+    }
+
+    private static class TestListener implements EventsListener {
+        final List<Events> events = new CopyOnWriteArrayList<>();
+        final AtomicInteger connectedCount = new AtomicInteger();
+        final CompletableFuture<Throwable> closed = new CompletableFuture<>();
+
+        @Override
+        public void onConnected() throws IOException {
+            connectedCount.incrementAndGet();
+        }
+
+        @Override
+        public void onEvent(Events event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onClosed(Throwable cause) {
+            closed.complete(cause);
+        }
+    }
+}
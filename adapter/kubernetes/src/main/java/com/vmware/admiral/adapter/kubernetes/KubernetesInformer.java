@@ -0,0 +1,508 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.kubernetes;
+
+import static com.vmware.admiral.compute.content.kubernetes.KubernetesUtil.DEPLOYMENT_TYPE;
+import static com.vmware.admiral.compute.content.kubernetes.KubernetesUtil.POD_TYPE;
+import static com.vmware.admiral.compute.content.kubernetes.KubernetesUtil.REPLICATION_CONTROLLER_TYPE;
+import static com.vmware.admiral.compute.content.kubernetes.KubernetesUtil.REPLICA_SET_TYPE;
+import static com.vmware.admiral.compute.content.kubernetes.KubernetesUtil.SERVICE_TYPE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.vmware.admiral.adapter.common.LineStreamingClient.StatusException;
+import com.vmware.admiral.adapter.kubernetes.KubernetesWatchClient.Watch;
+import com.vmware.admiral.adapter.kubernetes.KubernetesWatchClient.WatchEvent;
+import com.vmware.admiral.adapter.kubernetes.KubernetesWatchClient.WatchListener;
+import com.vmware.admiral.adapter.kubernetes.service.AbstractKubernetesAdapterService.KubernetesContext;
+import com.vmware.admiral.compute.container.CompositeComponentRegistry;
+import com.vmware.admiral.compute.content.kubernetes.KubernetesUtil;
+import com.vmware.admiral.compute.kubernetes.KubernetesEntityDataCollection;
+import com.vmware.admiral.compute.kubernetes.KubernetesEntityDataCollection.EntityListCallback;
+import com.vmware.admiral.compute.kubernetes.KubernetesEntityDataCollection.KubernetesEntityData;
+import com.vmware.admiral.compute.kubernetes.entities.common.BaseKubernetesObject;
+import com.vmware.admiral.compute.kubernetes.service.BaseKubernetesState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.AuthCredentialsService.AuthCredentialsServiceState;
+
+/**
+ * Keeps a local cache of the entities of a Kubernetes cluster with an initial LIST and a WATCH
+ * of every entity type, and applies every change to the entity states of the cluster. A watch
+ * which ends is resumed from the last resource version seen, which bookmarks keep advancing,
+ * and the entity type is listed again only when that version expired (410 Gone). The
+ * credentials of the cluster are read again when they are rejected (401 Unauthorized), and
+ * failing or quickly ending watches are retried with an exponential backoff.
+ *
+ * Once all entity types are listed, the cache serves the entity listing of the data collection,
+ * which then does not need to inspect the existing entities either.
+ */
+public class KubernetesInformer {
+
+    public static final boolean WATCH_ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.adapter.kubernetes.watch");
+
+    private static final long RETRY_DELAY_SECONDS = Long.getLong(
+            "com.vmware.admiral.adapter.kubernetes.watch.retry.delay.seconds", 5);
+    private static final long MAX_RETRY_DELAY_SECONDS = Long.getLong(
+            "com.vmware.admiral.adapter.kubernetes.watch.max.retry.delay.seconds", 300);
+    private static final long IDLE_TIMEOUT_MICROS = Long.getLong(
+            "com.vmware.admiral.adapter.kubernetes.watch.idle.timeout.micros",
+            TimeUnit.MINUTES.toMicros(15));
+
+    private static final List<String> ENTITY_TYPES = Arrays.asList(POD_TYPE, SERVICE_TYPE,
+            DEPLOYMENT_TYPE, REPLICATION_CONTROLLER_TYPE, REPLICA_SET_TYPE);
+
+    private static final int STATUS_CODE_GONE = 410;
+    private static final int STATUS_CODE_UNAUTHORIZED = 401;
+
+    private static final Logger logger = Logger.getLogger(KubernetesInformer.class.getName());
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // informers by compute host link
+    private static final Map<String, KubernetesInformer> informers = new ConcurrentHashMap<>();
+
+    private final Service service;
+    private final ServiceHost host;
+    private final KubernetesRemoteApiClient client;
+    private final KubernetesContext context;
+    private final String computeHostLink;
+    private final String connectionKey;
+    private final List<EntityWatch> watches = new ArrayList<>();
+
+    // cached entities by uid
+    private final Map<String, KubernetesEntityData> entities = new ConcurrentHashMap<>();
+    private volatile long lastAccessMicros;
+    private volatile boolean stopped;
+
+    private KubernetesInformer(Service service, KubernetesRemoteApiClient client,
+            KubernetesContext context, String connectionKey) {
+        this.service = service;
+        this.host = service.getHost();
+        this.client = client;
+        // own copy of the context, whose credentials are refreshed when they are rejected
+        this.context = new KubernetesContext();
+        this.context.credentials = context.credentials;
+        this.context.SSLTrustCertificate = context.SSLTrustCertificate;
+        this.context.SSLTrustAlias = context.SSLTrustAlias;
+        this.context.host = context.host;
+        this.context.customProperties = context.customProperties;
+        this.computeHostLink = context.host.documentSelfLink;
+        this.connectionKey = connectionKey;
+        for (String entityType : ENTITY_TYPES) {
+            watches.add(new EntityWatch(entityType));
+        }
+    }
+
+    /**
+     * Returns the informer of the cluster of the given context, starting it if there is none
+     * or the connection to the cluster changed. The informer updates the entity states on
+     * behalf of the given service.
+     */
+    public static KubernetesInformer getInformer(Service service,
+            KubernetesRemoteApiClient client, KubernetesContext context) {
+        String connectionKey = getConnectionKey(context);
+        List<KubernetesInformer> started = new ArrayList<>(1);
+        KubernetesInformer informer = informers.compute(context.host.documentSelfLink,
+                (link, existing) -> {
+                    if (existing != null && existing.connectionKey.equals(connectionKey)) {
+                        return existing;
+                    }
+                    if (existing != null) {
+                        existing.stop();
+                    }
+                    KubernetesInformer newInformer = new KubernetesInformer(service, client,
+                            context, connectionKey);
+                    started.add(newInformer);
+                    return newInformer;
+                });
+
+        informer.lastAccessMicros = Utils.getSystemNowMicrosUtc();
+        started.forEach(KubernetesInformer::start);
+        return informer;
+    }
+
+    /**
+     * Stops the informers of the clusters whose entities were not listed for a while, like
+     * removed clusters.
+     */
+    public static void stopIdleInformers() {
+        long idleSinceMicros = Utils.getSystemNowMicrosUtc() - IDLE_TIMEOUT_MICROS;
+        informers.values().removeIf(informer -> {
+            if (informer.lastAccessMicros >= idleSinceMicros) {
+                return false;
+            }
+            logger.info(String.format("Stopping idle informer of [%s]",
+                    informer.computeHostLink));
+            informer.stop();
+            return true;
+        });
+    }
+
+    public static void stopInformers() {
+        informers.values().forEach(KubernetesInformer::stop);
+        informers.clear();
+    }
+
+    private static String getConnectionKey(KubernetesContext context) {
+        String credentialsKey = context.credentials == null ? ""
+                : context.credentials.documentSelfLink
+                        + context.credentials.documentUpdateTimeMicros;
+        return context.host.address + "|" + ApiUtil.namespacePrefix(context, "") + "|"
+                + credentialsKey;
+    }
+
+    /**
+     * Returns whether all entity types were listed, so {@link #getEntities()} returns all
+     * entities of the cluster.
+     */
+    public boolean isSynced() {
+        return watches.stream().allMatch(w -> w.synced);
+    }
+
+    public Map<String, KubernetesEntityData> getEntities() {
+        return new HashMap<>(entities);
+    }
+
+    private void start() {
+        logger.info(String.format("Starting informer of [%s]", computeHostLink));
+        watches.forEach(EntityWatch::list);
+    }
+
+    private void stop() {
+        stopped = true;
+        watches.forEach(EntityWatch::close);
+    }
+
+    /**
+     * List and watch of the entities of one type.
+     */
+    private class EntityWatch implements WatchListener {
+        private final String entityType;
+        private volatile String resourceVersion;
+        private volatile boolean synced;
+        private volatile boolean expired;
+        private volatile Watch watch;
+        private volatile long watchStartMicros;
+        // consecutive failures, to back off the retries
+        private volatile int failures;
+
+        EntityWatch(String entityType) {
+            this.entityType = entityType;
+        }
+
+        void list() {
+            if (stopped) {
+                return;
+            }
+
+            client.listEntities(context, entityType, (o, ex) -> {
+                if (stopped) {
+                    return;
+                }
+                if (ex != null) {
+                    logger.warning(String.format("Listing [%s] of [%s] failed: %s", entityType,
+                            computeHostLink, ex.getMessage()));
+                    if (o.getStatusCode() == STATUS_CODE_UNAUTHORIZED) {
+                        refreshCredentials(this, this::list);
+                    } else {
+                        retryLater(this, this::list);
+                    }
+                    return;
+                }
+
+                try {
+                    onList(mapper.readTree(o.getBody(String.class)));
+                } catch (IOException e) {
+                    logger.warning(String.format("Failed to parse [%s] of [%s]: %s",
+                            entityType, computeHostLink, e.getMessage()));
+                    retryLater(this, this::list);
+                    return;
+                }
+                failures = 0;
+                watch();
+            });
+        }
+
+        private void onList(JsonNode list) {
+            resourceVersion = list.path("metadata").path("resourceVersion").asText(null);
+
+            Set<String> listedUids = new HashSet<>();
+            for (JsonNode item : list.path("items")) {
+                String uid = applyUpdate(entityType, item);
+                if (uid != null) {
+                    listedUids.add(uid);
+                }
+            }
+
+            // entities deleted while the watch was not running
+            for (Map.Entry<String, KubernetesEntityData> entry : entities.entrySet()) {
+                if (entityType.equals(entry.getValue().kind)
+                        && !listedUids.contains(entry.getKey())) {
+                    applyDelete(entityType, entry.getKey());
+                }
+            }
+
+            synced = true;
+        }
+
+        private void watch() {
+            if (stopped) {
+                return;
+            }
+
+            try {
+                watchStartMicros = Utils.getSystemNowMicrosUtc();
+                watch = client.watchEntities(context, entityType, resourceVersion, this);
+                if (stopped) {
+                    watch.close();
+                }
+            } catch (Exception e) {
+                logger.warning(String.format("Watching [%s] of [%s] failed: %s", entityType,
+                        computeHostLink, e.getMessage()));
+                retryLater(this, this::watch);
+            }
+        }
+
+        void close() {
+            Watch currentWatch = watch;
+            if (currentWatch != null) {
+                currentWatch.close();
+            }
+        }
+
+        @Override
+        public void onEvent(WatchEvent event) {
+            if (stopped || event.type == null || event.object == null) {
+                return;
+            }
+
+            if (!WatchEvent.TYPE_ERROR.equals(event.type)) {
+                failures = 0;
+            }
+            switch (event.type) {
+            case WatchEvent.TYPE_ADDED:
+            case WatchEvent.TYPE_MODIFIED:
+                updateResourceVersion(event.object);
+                applyUpdate(entityType, event.object);
+                break;
+            case WatchEvent.TYPE_DELETED:
+                updateResourceVersion(event.object);
+                String uid = event.object.path("metadata").path("uid").asText(null);
+                if (uid != null) {
+                    applyDelete(entityType, uid);
+                }
+                break;
+            case WatchEvent.TYPE_BOOKMARK:
+                updateResourceVersion(event.object);
+                break;
+            case WatchEvent.TYPE_ERROR:
+                if (event.object.path("code").asInt() == STATUS_CODE_GONE) {
+                    expired = true;
+                } else {
+                    logger.warning(String.format("Watch of [%s] of [%s] failed: %s",
+                            entityType, computeHostLink, event.object.path("message").asText()));
+                }
+                break;
+            default:
+                logger.fine(String.format("Ignoring watch event [%s]", event.type));
+            }
+        }
+
+        @Override
+        public void onClosed(Throwable cause) {
+            if (stopped) {
+                return;
+            }
+
+            int statusCode = cause instanceof StatusException
+                    ? ((StatusException) cause).getStatusCode() : 0;
+            if (expired || statusCode == STATUS_CODE_GONE) {
+                // the resource version is too old to resume the watch from
+                logger.info(String.format("Resource version of [%s] of [%s] expired, listing"
+                        + " again", entityType, computeHostLink));
+                expired = false;
+                list();
+            } else if (statusCode == STATUS_CODE_UNAUTHORIZED) {
+                logger.warning(String.format("Watch of [%s] of [%s] is unauthorized, reading"
+                        + " the credentials again", entityType, computeHostLink));
+                refreshCredentials(this, this::watch);
+            } else if (cause == null) {
+                // watches are closed by the server after a timeout, back off only the watches
+                // closed right away
+                if (Utils.getSystemNowMicrosUtc() - watchStartMicros
+                        >= TimeUnit.SECONDS.toMicros(RETRY_DELAY_SECONDS)) {
+                    failures = 0;
+                    watch();
+                } else {
+                    retryLater(this, this::watch);
+                }
+            } else {
+                logger.warning(String.format("Watch of [%s] of [%s] closed: %s", entityType,
+                        computeHostLink, cause.getMessage()));
+                retryLater(this, this::watch);
+            }
+        }
+
+        private void updateResourceVersion(JsonNode object) {
+            String version = object.path("metadata").path("resourceVersion").asText(null);
+            if (version != null) {
+                resourceVersion = version;
+            }
+        }
+    }
+
+    /**
+     * Caches the given entity and patches its state. Returns the uid of the entity, or
+     * {@code null} if the entity is not valid.
+     */
+    private String applyUpdate(String entityType, JsonNode object) {
+        BaseKubernetesState state = KubernetesUtil.createKubernetesEntityState(entityType);
+        state.setKubernetesEntityFromJson(object.toString());
+        BaseKubernetesObject entity = state.getEntityAsBaseKubernetesObject();
+        if (entity == null || entity.metadata == null || entity.metadata.uid == null
+                || entity.metadata.selfLink == null || entity.metadata.name == null) {
+            return null;
+        }
+
+        String uid = entity.metadata.uid;
+        KubernetesEntityData data = KubernetesUtil.createEntityData(entity, entityType);
+        entities.put(uid, data);
+
+        sendWithSystemContext(Operation
+                .createPatch(host, buildStateLink(entityType, uid))
+                .setBody(state)
+                .setCompletion((o, ex) -> {
+                    if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                        requestCreation(uid, data);
+                    } else if (ex != null) {
+                        logger.warning(String.format("Failed to update state of entity [%s]:"
+                                + " %s", uid, Utils.toString(ex)));
+                    }
+                }));
+        return uid;
+    }
+
+    private void applyDelete(String entityType, String uid) {
+        entities.remove(uid);
+
+        sendWithSystemContext(Operation
+                .createDelete(host, buildStateLink(entityType, uid))
+                .setBody(new ServiceDocument())
+                .setCompletion((o, ex) -> {
+                    if (ex != null && o.getStatusCode() != Operation.STATUS_CODE_NOT_FOUND) {
+                        logger.warning(String.format("Failed to delete state of entity [%s]:"
+                                + " %s", uid, Utils.toString(ex)));
+                    }
+                }));
+    }
+
+    private void requestCreation(String uid, KubernetesEntityData data) {
+        EntityListCallback callback = new EntityListCallback();
+        callback.computeHostLink = computeHostLink;
+        callback.idToEntityData.put(uid, data);
+        callback.incremental = true;
+        callback.entitiesWatched = true;
+
+        sendWithSystemContext(Operation
+                .createPatch(host, KubernetesEntityDataCollection
+                        .DEFAULT_KUBERNETES_ENTITY_DATA_COLLECTION_LINK)
+                .setBody(callback)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logger.warning(String.format("Failed to request creation of entity [%s]:"
+                                + " %s", uid, Utils.toString(ex)));
+                    }
+                }));
+    }
+
+    private static String buildStateLink(String entityType, String uid) {
+        String type = KubernetesUtil.getResourceType(entityType).getName();
+        return UriUtils.buildUriPath(CompositeComponentRegistry.stateFactoryLinkByType(type),
+                uid);
+    }
+
+    /**
+     * Reads the credentials of the cluster again and then runs the given action, right away if
+     * the credentials changed or after the backoff of the watch otherwise.
+     */
+    private void refreshCredentials(EntityWatch entityWatch, Runnable action) {
+        AuthCredentialsServiceState credentials = context.credentials;
+        if (credentials == null || credentials.documentSelfLink == null) {
+            retryLater(entityWatch, action);
+            return;
+        }
+
+        sendWithSystemContext(Operation.createGet(host, credentials.documentSelfLink)
+                .setCompletion((o, ex) -> {
+                    if (stopped) {
+                        return;
+                    }
+                    if (ex != null) {
+                        logger.warning(String.format("Failed to read credentials of [%s]: %s",
+                                computeHostLink, Utils.toString(ex)));
+                        retryLater(entityWatch, action);
+                        return;
+                    }
+                    AuthCredentialsServiceState current = o.getBody(
+                            AuthCredentialsServiceState.class);
+                    if (current.documentUpdateTimeMicros
+                            == credentials.documentUpdateTimeMicros) {
+                        retryLater(entityWatch, action);
+                        return;
+                    }
+                    context.credentials = current;
+                    action.run();
+                }));
+    }
+
+    private void retryLater(EntityWatch entityWatch, Runnable runnable) {
+        long delayMillis = getRetryDelayMillis(entityWatch.failures++);
+        host.schedule(() -> {
+            if (!stopped) {
+                runnable.run();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the delay of the retry after the given number of consecutive failures, doubled
+     * with every failure up to {@link #MAX_RETRY_DELAY_SECONDS}.
+     */
+    static long getRetryDelayMillis(int failures) {
+        long delaySeconds = RETRY_DELAY_SECONDS << Math.min(failures, 16);
+        return TimeUnit.SECONDS.toMillis(Math.min(delaySeconds, MAX_RETRY_DELAY_SECONDS));
+    }
+
+    private void sendWithSystemContext(Operation op) {
+        service.setAuthorizationContext(op, service.getSystemAuthorizationContext());
+        host.sendRequest(op.setReferer(host.getUri()));
+    }
+}
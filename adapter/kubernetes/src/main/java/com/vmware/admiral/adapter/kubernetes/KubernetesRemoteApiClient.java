@@ -27,12 +27,15 @@ import static com.vmware.admiral.compute.content.kubernetes.KubernetesUtil.SERVI
 
 import java.io.IOException;
 import java.net.URI;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509ExtendedKeyManager;
 
@@ -78,6 +81,8 @@ public class KubernetesRemoteApiClient {
 
     private static final int REQUEST_TIMEOUT_SECONDS = 10;
 
+    private static final KubernetesWatchClient watchClient = new KubernetesWatchClient();
+
     private final ServiceClient serviceClient;
     private final DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager();
     private ServerX509TrustManager trustManager;
@@ -103,6 +108,7 @@ public class KubernetesRemoteApiClient {
     }
 
     public void stop() {
+        KubernetesInformer.stopInformers();
         if (this.serviceClient != null) {
             this.serviceClient.stop();
         }
@@ -257,11 +263,56 @@ public class KubernetesRemoteApiClient {
         });
     }
 
+    /**
+     * Returns the URI of the entities of the given type in the namespace of the cluster, used
+     * both to list and to watch them.
+     */
+    public URI getEntityListUri(KubernetesContext context, String entityType) {
+        String apiVersionPrefix = DEPLOYMENT_TYPE.equals(entityType)
+                || REPLICA_SET_TYPE.equals(entityType)
+                ? API_PREFIX_EXTENSIONS_V1BETA : API_PREFIX_V1;
+        return UriUtils.buildUri(ApiUtil.namespacePrefix(context, apiVersionPrefix)
+                + getKubernetesPath(entityType));
+    }
+
+    public void listEntities(KubernetesContext context, String entityType,
+            CompletionHandler completionHandler) {
+        sendRequest(Action.GET, getEntityListUri(context, entityType), null, context,
+                completionHandler);
+    }
+
+    /**
+     * Watches the entities of the given type, starting after the given resource version.
+     */
+    KubernetesWatchClient.Watch watchEntities(KubernetesContext context, String entityType,
+            String resourceVersion, KubernetesWatchClient.WatchListener listener)
+            throws GeneralSecurityException {
+        createOrUpdateTargetSsl(context);
+
+        URI uri = UriUtils.extendUriWithQuery(getEntityListUri(context, entityType),
+                "watch", "true",
+                "resourceVersion", resourceVersion,
+                "allowWatchBookmarks", "true");
+        SSLContext sslContext = isSecure(uri) ? createWatchSslContext() : null;
+
+        return watchClient.watch(uri, sslContext,
+                AuthUtils.createAuthorizationHeader(context.credentials), listener);
+    }
+
+    /**
+     * Creates the SSL context of a watch. Every watch gets a new one, so the TLS sessions of
+     * watches are never resumed and the current certificates are always validated.
+     */
+    private SSLContext createWatchSslContext() throws GeneralSecurityException {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(new KeyManager[] { keyManager },
+                trustManager != null ? new TrustManager[] { trustManager } : null, null);
+        return sslContext;
+    }
+
     public void getPods(KubernetesContext context, String appId, CompletionHandler
             completionHandler) {
-        URI uri = UriUtils
-                .buildUri(ApiUtil.namespacePrefix(context, ApiUtil.API_PREFIX_V1) +
-                        getKubernetesPath(POD_TYPE));
+        URI uri = getEntityListUri(context, POD_TYPE);
 
         if (appId != null) {
             uri = UriUtils.extendUriWithQuery(uri, LABEL_SELECTOR_QUERY, String
@@ -280,8 +331,7 @@ public class KubernetesRemoteApiClient {
 
     public void getServices(KubernetesContext context, String appId, CompletionHandler
             completionHandler) {
-        URI uri = UriUtils.buildUri(ApiUtil.namespacePrefix(context, ApiUtil.API_PREFIX_V1) +
-                getKubernetesPath(SERVICE_TYPE));
+        URI uri = getEntityListUri(context, SERVICE_TYPE);
 
         if (appId != null) {
             uri = UriUtils.extendUriWithQuery(uri, LABEL_SELECTOR_QUERY, String
@@ -306,9 +356,7 @@ public class KubernetesRemoteApiClient {
 
     public void getDeployments(KubernetesContext context, String appId, CompletionHandler
             completionHandler) {
-        URI uri = UriUtils.buildUri(
-                ApiUtil.namespacePrefix(context, API_PREFIX_EXTENSIONS_V1BETA)
-                        + getKubernetesPath(DEPLOYMENT_TYPE));
+        URI uri = getEntityListUri(context, DEPLOYMENT_TYPE);
 
         if (appId != null) {
             uri = UriUtils.extendUriWithQuery(uri, LABEL_SELECTOR_QUERY, String
@@ -320,9 +368,7 @@ public class KubernetesRemoteApiClient {
 
     public void getReplicaSets(KubernetesContext context, String appId, CompletionHandler
             completionHandler) {
-        URI uri = UriUtils.buildUri(
-                ApiUtil.namespacePrefix(context, API_PREFIX_EXTENSIONS_V1BETA)
-                        + getKubernetesPath(REPLICA_SET_TYPE));
+        URI uri = getEntityListUri(context, REPLICA_SET_TYPE);
 
         if (appId != null) {
             uri = UriUtils.extendUriWithQuery(uri, LABEL_SELECTOR_QUERY, String
@@ -334,9 +380,7 @@ public class KubernetesRemoteApiClient {
 
     public void getReplicationControllers(KubernetesContext context, String appId,
             CompletionHandler completionHandler) {
-        URI uri = UriUtils.buildUri(
-                ApiUtil.namespacePrefix(context, API_PREFIX_V1)
-                        + getKubernetesPath(REPLICATION_CONTROLLER_TYPE));
+        URI uri = getEntityListUri(context, REPLICATION_CONTROLLER_TYPE);
 
         if (appId != null) {
             uri = UriUtils.extendUriWithQuery(uri, LABEL_SELECTOR_QUERY, String
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.kubernetes;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import com.vmware.admiral.adapter.common.LineStreamingClient;
+import com.vmware.admiral.adapter.common.LineStreamingClient.Stream;
+import com.vmware.admiral.adapter.common.LineStreamingClient.StreamListener;
+
+/**
+ * Streams Kubernetes WATCH responses over the non-blocking connections of a
+ * {@link LineStreamingClient}. Every line of the chunked response is a watch event and is parsed
+ * with one shared reader.
+ */
+class KubernetesWatchClient {
+
+    private static final Logger logger = Logger.getLogger(KubernetesWatchClient.class.getName());
+
+    private static final int EVENT_LOOP_THREAD_COUNT = Integer.getInteger(
+            "com.vmware.admiral.adapter.kubernetes.watch.thread.count", 2);
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(
+            "com.vmware.admiral.adapter.kubernetes.watch.connect.timeout.millis", 30000);
+    private static final int MAX_EVENT_LENGTH = Integer.getInteger(
+            "com.vmware.admiral.adapter.kubernetes.watch.max.event.length", 16 * 1024 * 1024);
+
+    private static final ObjectReader EVENT_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(WatchEvent.class);
+
+    public static class WatchEvent {
+        public static final String TYPE_ADDED = "ADDED";
+        public static final String TYPE_MODIFIED = "MODIFIED";
+        public static final String TYPE_DELETED = "DELETED";
+        public static final String TYPE_BOOKMARK = "BOOKMARK";
+        public static final String TYPE_ERROR = "ERROR";
+
+        public String type;
+
+        /**
+         * The entity, or a Status object for ERROR events.
+         */
+        public JsonNode object;
+    }
+
+    /**
+     * Receives the events of one watch. All methods are called on an event loop thread and
+     * must not block.
+     */
+    interface WatchListener {
+        void onEvent(WatchEvent event);
+
+        /**
+         * Called once when the watch ends, with the failure cause or {@code null} if the server
+         * closed the watch. Not called when the watch is closed locally. A watch refused by the
+         * server fails with a {@link LineStreamingClient.StatusException}.
+         */
+        void onClosed(Throwable cause);
+    }
+
+    static class Watch {
+        private final Stream stream;
+
+        private Watch(Stream stream) {
+            this.stream = stream;
+        }
+
+        void close() {
+            stream.close();
+        }
+    }
+
+    private final LineStreamingClient client = new LineStreamingClient("kubernetes-watch",
+            EVENT_LOOP_THREAD_COUNT, CONNECT_TIMEOUT_MILLIS, MAX_EVENT_LENGTH);
+
+    /**
+     * Opens a watch on the given URI, which must carry the {@code watch} query parameter. The
+     * SSL context is {@code null} for clusters which are not secured.
+     */
+    Watch watch(URI uri, SSLContext sslContext, String authorizationHeader,
+            WatchListener listener) {
+        return new Watch(client.open(uri, sslContext, authorizationHeader, new StreamListener() {
+            @Override
+            public void onLine(byte[] line) {
+                WatchEvent event;
+                try {
+                    event = EVENT_READER.readValue(line);
+                } catch (IOException e) {
+                    logger.warning(String.format(
+                            "Failed to parse watch event from [%s]. Error: [%s]", uri,
+                            e.getMessage()));
+                    return;
+                }
+                listener.onEvent(event);
+            }
+
+            @Override
+            public void onClosed(Throwable cause) {
+                listener.onClosed(cause);
+            }
+        }));
+    }
+}
@@ -19,6 +19,7 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.adapter.kubernetes.KubernetesInformer;
 import com.vmware.admiral.adapter.kubernetes.KubernetesRemoteApiClient;
 import com.vmware.admiral.common.DeploymentProfileConfig;
 import com.vmware.admiral.common.KubernetesHostConstants;
@@ -94,6 +95,7 @@ public abstract class AbstractKubernetesAdapterService extends StatelessService
         logFine("Performing maintenance for: %s", getUri());
 
         getApiClient().handleMaintenance(Operation.createPost(post.getUri()));
+        KubernetesInformer.stopIdleInformers();
 
         post.complete();
     }
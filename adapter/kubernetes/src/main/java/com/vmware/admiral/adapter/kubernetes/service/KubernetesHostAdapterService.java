@@ -31,6 +31,7 @@ import java.util.stream.Collectors;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerHostOperationType;
+import com.vmware.admiral.adapter.kubernetes.KubernetesInformer;
 import com.vmware.admiral.adapter.kubernetes.KubernetesRemoteApiClient;
 import com.vmware.admiral.common.KubernetesHostConstants;
 import com.vmware.admiral.common.ManagementUriParts;
@@ -313,29 +314,15 @@ public class KubernetesHostAdapterService extends AbstractKubernetesAdapterServi
         callbackResponse.computeHostLink = context.host.documentSelfLink;
         KubernetesRemoteApiClient client = getApiClient();
 
-        client.getPods(context, null, resultHandler.appendResult((o) -> {
-            PodList podList = o.getBody(PodList.class);
-            if (podList.items != null) {
-                for (Pod pod : podList.items) {
-                    if (validateKubernetesObject(pod)) {
-                        KubernetesEntityData data = createEntityData(pod, POD_TYPE);
-                        callbackResponse.idToEntityData.put(pod.metadata.uid, data);
-                    }
-                }
-            }
-        }));
-        client.getServices(context, null, resultHandler.appendResult(o -> {
-            ServiceList serviceList = o.getBody(ServiceList.class);
-            if (serviceList.items != null) {
-                for (Service service : serviceList.items) {
-                    if (validateKubernetesObject(service)) {
-                        KubernetesEntityData data = createEntityData(service, SERVICE_TYPE);
-                        callbackResponse.idToEntityData.put(service.metadata.uid, data);
-                    }
-                }
+        KubernetesInformer informer = KubernetesInformer.WATCH_ENABLED
+                ? KubernetesInformer.getInformer(this, client, context) : null;
+        boolean watched = informer != null && informer.isSynced();
+        if (watched) {
+            // the watches keep the entity states current, only the dashboard is listed
+            callbackResponse.idToEntityData.putAll(informer.getEntities());
+            callbackResponse.entitiesWatched = true;
+        }
 
-            }
-        }));
         client.getSystemServices(context, null, resultHandler.appendResult(o -> {
             ServiceList serviceList = o.getBody(ServiceList.class);
             if (serviceList.items != null) {
@@ -348,41 +335,66 @@ public class KubernetesHostAdapterService extends AbstractKubernetesAdapterServi
 
             }
         }));
-        client.getDeployments(context, null, resultHandler.appendResult(o -> {
-            DeploymentList deploymentList = o.getBody(DeploymentList.class);
-            if (deploymentList.items != null) {
-                for (Deployment deployment : deploymentList.items) {
-                    if (validateKubernetesObject(deployment)) {
-                        KubernetesEntityData data = createEntityData(deployment,
-                                DEPLOYMENT_TYPE);
-                        callbackResponse.idToEntityData.put(deployment.metadata.uid, data);
+        if (!watched) {
+            client.getPods(context, null, resultHandler.appendResult((o) -> {
+                PodList podList = o.getBody(PodList.class);
+                if (podList.items != null) {
+                    for (Pod pod : podList.items) {
+                        if (validateKubernetesObject(pod)) {
+                            KubernetesEntityData data = createEntityData(pod, POD_TYPE);
+                            callbackResponse.idToEntityData.put(pod.metadata.uid, data);
+                        }
                     }
                 }
-            }
-        }));
-        client.getReplicationControllers(context, null, resultHandler.appendResult(o -> {
-            ReplicationControllerList rcList = o.getBody(ReplicationControllerList.class);
-            if (rcList.items != null) {
-                for (ReplicationController rc : rcList.items) {
-                    if (validateKubernetesObject(rc)) {
-                        KubernetesEntityData data = createEntityData(rc,
-                                REPLICATION_CONTROLLER_TYPE);
-                        callbackResponse.idToEntityData.put(rc.metadata.uid, data);
+            }));
+            client.getServices(context, null, resultHandler.appendResult(o -> {
+                ServiceList serviceList = o.getBody(ServiceList.class);
+                if (serviceList.items != null) {
+                    for (Service service : serviceList.items) {
+                        if (validateKubernetesObject(service)) {
+                            KubernetesEntityData data = createEntityData(service, SERVICE_TYPE);
+                            callbackResponse.idToEntityData.put(service.metadata.uid, data);
+                        }
                     }
+
                 }
-            }
-        }));
-        client.getReplicaSets(context, null, resultHandler.appendResult(o -> {
-            ReplicaSetList rsList = o.getBody(ReplicaSetList.class);
-            if (rsList.items != null) {
-                for (ReplicaSet rs : rsList.items) {
-                    if (validateKubernetesObject(rs)) {
-                        KubernetesEntityData data = createEntityData(rs, REPLICA_SET_TYPE);
-                        callbackResponse.idToEntityData.put(rs.metadata.uid, data);
+            }));
+            client.getDeployments(context, null, resultHandler.appendResult(o -> {
+                DeploymentList deploymentList = o.getBody(DeploymentList.class);
+                if (deploymentList.items != null) {
+                    for (Deployment deployment : deploymentList.items) {
+                        if (validateKubernetesObject(deployment)) {
+                            KubernetesEntityData data = createEntityData(deployment,
+                                    DEPLOYMENT_TYPE);
+                            callbackResponse.idToEntityData.put(deployment.metadata.uid, data);
+                        }
                     }
                 }
-            }
-        }));
+            }));
+            client.getReplicationControllers(context, null, resultHandler.appendResult(o -> {
+                ReplicationControllerList rcList = o.getBody(ReplicationControllerList.class);
+                if (rcList.items != null) {
+                    for (ReplicationController rc : rcList.items) {
+                        if (validateKubernetesObject(rc)) {
+                            KubernetesEntityData data = createEntityData(rc,
+                                    REPLICATION_CONTROLLER_TYPE);
+                            callbackResponse.idToEntityData.put(rc.metadata.uid, data);
+                        }
+                    }
+                }
+            }));
+            client.getReplicaSets(context, null, resultHandler.appendResult(o -> {
+                ReplicaSetList rsList = o.getBody(ReplicaSetList.class);
+                if (rsList.items != null) {
+                    for (ReplicaSet rs : rsList.items) {
+                        if (validateKubernetesObject(rs)) {
+                            KubernetesEntityData data = createEntityData(rs, REPLICA_SET_TYPE);
+                            callbackResponse.idToEntityData.put(rs.metadata.uid, data);
+                        }
+                    }
+                }
+            }));
+        }
         allStarted.set(true);
     }
 
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.kubernetes;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class KubernetesInformerTest {
+
+    @Test
+    public void testRetryDelayBackoff() {
+        long baseDelay = KubernetesInformer.getRetryDelayMillis(0);
+        assertEquals(TimeUnit.SECONDS.toMillis(5), baseDelay);
+        assertEquals(2 * baseDelay, KubernetesInformer.getRetryDelayMillis(1));
+        assertEquals(4 * baseDelay, KubernetesInformer.getRetryDelayMillis(2));
+    }
+
+    @Test
+    public void testRetryDelayIsLimited() {
+        long maxDelay = TimeUnit.SECONDS.toMillis(300);
+        assertEquals(maxDelay, KubernetesInformer.getRetryDelayMillis(10));
+        assertEquals(maxDelay, KubernetesInformer.getRetryDelayMillis(Integer.MAX_VALUE));
+    }
+}
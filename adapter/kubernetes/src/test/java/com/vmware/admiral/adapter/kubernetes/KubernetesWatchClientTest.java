@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.kubernetes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.LineStreamingClient.StatusException;
+import com.vmware.admiral.adapter.kubernetes.KubernetesWatchClient.WatchEvent;
+import com.vmware.admiral.adapter.kubernetes.KubernetesWatchClient.WatchListener;
+
+public class KubernetesWatchClientTest {
+
+    private static final String AUTHORIZATION = "Bearer test-token";
+
+    private ServerSocket server;
+    private CompletableFuture<String> authorizationHeader;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        authorizationHeader = new CompletableFuture<>();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testWatchEvents() throws Exception {
+        serve("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + chunk("{\"type\":\"ADDED\",\"object\":{\"kind\":\"Pod\"}}\n{\"type\":")
+                + chunk("\"DELETED\",\"object\":{\"kind\":\"Pod\"}}\n")
+                + "0\r\n\r\n");
+
+        TestListener listener = watch();
+
+        assertNull(listener.closed.get(10, TimeUnit.SECONDS));
+        assertEquals(2, listener.events.size());
+        assertEquals(WatchEvent.TYPE_ADDED, listener.events.get(0).type);
+        assertEquals(WatchEvent.TYPE_DELETED, listener.events.get(1).type);
+        assertEquals("Pod", listener.events.get(1).object.get("kind").asText());
+        assertEquals(AUTHORIZATION, authorizationHeader.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWatchRefused() throws Exception {
+        serve("HTTP/1.1 410 Gone\r\nContent-Length: 0\r\n\r\n");
+
+        TestListener listener = watch();
+
+        Throwable cause = listener.closed.get(10, TimeUnit.SECONDS);
+        assertTrue(cause instanceof StatusException);
+        assertEquals(410, ((StatusException) cause).getStatusCode());
+        assertTrue(listener.events.isEmpty());
+    }
+
+    private TestListener watch() {
+        TestListener listener = new TestListener();
+        URI uri = URI.create("http://localhost:" + server.getLocalPort()
+                + "/api/v1/pods?watch=true");
+        new KubernetesWatchClient().watch(uri, null, AUTHORIZATION, listener);
+        return listener;
+    }
+
+    private void serve(String response) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("authorization:")) {
+                        authorizationHeader.complete(line.substring(
+                                "authorization:".length()).trim());
+                    }
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(response.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                authorizationHeader.completeExceptionally(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String chunk(String data) {
+        return Integer.toHexString(data.getBytes(StandardCharsets.UTF_8).length) + "\r\n"
+                + data + "\r\n";
+    }
+
+    private static class TestListener implements WatchListener {
+        final List<WatchEvent> events = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Throwable> closed = new CompletableFuture<>();
+
+        @Override
+        public void onEvent(WatchEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onClosed(Throwable cause) {
+            closed.complete(cause);
+        }
+    }
+}
@@ -16,13 +16,24 @@ import static com.vmware.admiral.service.common.RegistryService.API_VERSION_PROP
 import static java.net.HttpURLConnection.HTTP_OK;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -32,6 +43,7 @@ import com.vmware.admiral.adapter.registry.service.RegistrySearchResponse.Result
 import com.vmware.admiral.common.DeploymentProfileConfig;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.AuthUtils;
+import com.vmware.admiral.common.util.BearerTokenCache;
 import com.vmware.admiral.common.util.DockerImage;
 import com.vmware.admiral.common.util.ServerX509TrustManager;
 import com.vmware.admiral.common.util.ServiceClientFactory;
@@ -73,6 +85,8 @@ public class RegistryAdapterService extends StatelessService {
     private static final String BEARER_REALM_WWW_AUTH_PROP = "Bearer realm";
     private static final String SERVICE_WWW_AUTH_PROP = "service";
     private static final String SCOPE_WWW_AUTH_PROP = "scope";
+    private static final int MAX_TOKEN_KEYS_BY_REQUEST = Integer.getInteger(
+            "com.vmware.admiral.adapter.registry.token.keys.max", 1000);
 
     private static final String DEFAULT_NAMESPACE = "library";
     private static final String V1_PING_ENDPOINT = "/v1/_ping";
@@ -81,6 +95,16 @@ public class RegistryAdapterService extends StatelessService {
     // Use catalog endpoint instead of the API Version Check endpoint (/v2) because some solutions
     // like JFrog Artifactory (cse-artifactory.eng.vmware.com) does not support it.
     private static final String V2_PING_ENDPOINT = "/v2/_catalog?n=1";
+    private static final String V2_CATALOG_ENDPOINT = "/v2/_catalog";
+
+    private static final long CATALOG_INDEX_REFRESH_MICROS = Long.getLong(
+            "com.vmware.admiral.adapter.registry.catalog.index.refresh.micros",
+            TimeUnit.MINUTES.toMicros(5));
+    private static final long CATALOG_INDEX_IDLE_TIMEOUT_MICROS = Long.getLong(
+            "com.vmware.admiral.adapter.registry.catalog.index.idle.timeout.micros",
+            TimeUnit.HOURS.toMicros(1));
+    private static final int CATALOG_INDEX_MAX_CONCURRENT_REFRESHES = Integer.getInteger(
+            "com.vmware.admiral.adapter.registry.catalog.index.max.concurrent.refreshes", 2);
 
     public static final String REGISTRY_PROXY_PARAM_NAME = "registry.proxy";
     public static final String REGISTRY_NO_PROXY_LIST_PARAM_NAME = "registry.no.proxy.list";
@@ -92,6 +116,15 @@ public class RegistryAdapterService extends StatelessService {
 
     private ServerX509TrustManager trustManager;
 
+    // V2 registry catalog indexes by registry state link
+    private final Map<String, CatalogIndexEntry> catalogIndexes = new ConcurrentHashMap<>();
+    private final Queue<Runnable> pendingCatalogRefreshes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger runningCatalogRefreshes = new AtomicInteger();
+
+    private final BearerTokenCache tokenCache = BearerTokenCache.getInstance();
+    // token cache keys of the last challenges, by request URI and credentials
+    private final Map<String, String> tokenKeysByRequest = new ConcurrentHashMap<>();
+
     public class RegistryPingResponse {
         public ApiVersion apiVersion;
     }
@@ -101,7 +134,6 @@ public class RegistryAdapterService extends StatelessService {
     }
 
     private static class TokenServiceResponse {
-        @SuppressWarnings("unused")
         String expires_in;
         @SuppressWarnings("unused")
         String issued_at;
@@ -109,6 +141,19 @@ public class RegistryAdapterService extends StatelessService {
         String access_token;
     }
 
+    private static class CatalogIndexEntry {
+        final String signature;
+        final List<Entry<Consumer<RegistryCatalogIndex>, Consumer<Throwable>>> waiters =
+                new ArrayList<>();
+        volatile RegistryCatalogIndex index;
+        volatile long lastAccessMicros;
+        boolean refreshing;
+
+        CatalogIndexEntry(String signature) {
+            this.signature = signature;
+        }
+    }
+
     private static class V2ImageTagsResponse {
         @SuppressWarnings("unused")
         String name;
@@ -201,6 +246,9 @@ public class RegistryAdapterService extends StatelessService {
         public ImageRequest request;
         public RegistryAuthState registryState;
         public boolean tokenAlreadyRequested;
+        // the last bearer token used and the credentials it was requested with
+        public String bearerToken;
+        public String credentialsAuthorization;
     }
 
     @Override
@@ -387,33 +435,167 @@ public class RegistryAdapterService extends StatelessService {
 
     private void processV2SearchRequest(RequestContext context) {
         try {
-            URI searchUri = URI.create(context.registryState.address);
-
-            searchUri = UriUtils.extendUri(searchUri, "/v2/_catalog");
-
             String searchTerm = context.request.customProperties.get(SEARCH_QUERY_PROP_NAME)
                     .toLowerCase();
 
-            RegistrySearchResponse response = new RegistrySearchResponse();
-            response.results = new ArrayList<>();
-
-            logInfo("Performing registry search: %s", searchUri);
-            sendV2SearchRequest(searchUri, searchTerm, response, context);
+            getCatalogIndex(context, (index) -> {
+                RegistrySearchResponse response = new RegistrySearchResponse();
+                response.results = new ArrayList<>();
+                for (String repository : index.search(searchTerm)) {
+                    Result r = new Result();
+                    r.name = repository;
+                    r.registry = context.registryState.address;
+                    response.results.add(r);
+                }
+                response.numResults = response.results.size();
+                context.operation.setBody(response);
+                context.operation.complete();
+            }, (ex) -> context.operation.fail(ex));
 
         } catch (Exception x) {
             context.operation.fail(x);
         }
     }
 
-    private void sendV2SearchRequest(URI searchUri, String searchTerm,
-            RegistrySearchResponse response, RequestContext context) {
-        Operation search = Operation.createGet(searchUri)
+    /**
+     * Returns the catalog index of the registry of the request, crawling the catalog if it is not
+     * indexed yet. An index older than the refresh interval is still returned while it is
+     * refreshed in the background.
+     */
+    private void getCatalogIndex(RequestContext context,
+            Consumer<RegistryCatalogIndex> callback, Consumer<Throwable> failureCallback) {
+        long nowMicros = Utils.getSystemNowMicrosUtc();
+        catalogIndexes.values().removeIf(e -> e.lastAccessMicros < nowMicros
+                - CATALOG_INDEX_IDLE_TIMEOUT_MICROS);
+
+        // the catalog depends on the credentials the registry is accessed with
+        AuthCredentialsServiceState credentials = context.registryState.authCredentials;
+        String signature = String.format("%s|%s|%s", context.registryState.address,
+                context.registryState.authCredentialsLink,
+                credentials != null ? credentials.documentUpdateTimeMicros : null);
+        CatalogIndexEntry entry = catalogIndexes.compute(
+                context.request.resourceReference.getPath(),
+                (k, e) -> e != null && e.signature.equals(signature) ? e
+                        : new CatalogIndexEntry(signature));
+
+        RegistryCatalogIndex index;
+        boolean refresh;
+        synchronized (entry) {
+            entry.lastAccessMicros = nowMicros;
+            index = entry.index;
+            if (index == null) {
+                entry.waiters.add(new SimpleEntry<>(callback, failureCallback));
+            }
+            refresh = !entry.refreshing && (index == null
+                    || nowMicros - index.getCreatedMicros() > CATALOG_INDEX_REFRESH_MICROS);
+            entry.refreshing |= refresh;
+        }
+
+        if (refresh) {
+            // the crawl may outlive the request, and may replace its authorization header
+            RequestContext refreshContext = new RequestContext();
+            refreshContext.request = copyRequest(context.request);
+            refreshContext.registryState = context.registryState;
+            enqueueCatalogRefresh(() -> refreshCatalogIndex(entry, refreshContext));
+        }
+        if (index != null) {
+            callback.accept(index);
+        }
+    }
+
+    private void refreshCatalogIndex(CatalogIndexEntry entry, RequestContext context) {
+        try {
+            URI catalogUri = UriUtils.extendUri(URI.create(context.registryState.address),
+                    V2_CATALOG_ENDPOINT);
+            logInfo("Indexing registry catalog: %s", catalogUri);
+
+            List<String> repositories = new ArrayList<>();
+            crawlV2Catalog(catalogUri, repositories, context, () -> {
+                RegistryCatalogIndex index = new RegistryCatalogIndex(repositories);
+                logInfo("Indexed %d repositories of registry catalog: %s", index.size(),
+                        catalogUri);
+                completeCatalogRefresh(entry, index, null);
+            }, (ex) -> {
+                logWarning("Failed to index registry catalog %s: %s", catalogUri,
+                        Utils.toString(ex));
+                completeCatalogRefresh(entry, null, ex);
+            });
+        } catch (Exception e) {
+            // e.g. an invalid registry address; completing the refresh releases its slot and
+            // fails its waiters
+            logWarning("Failed to index registry catalog of %s: %s",
+                    context.registryState.address, Utils.toString(e));
+            completeCatalogRefresh(entry, null, e);
+        }
+    }
+
+    private void completeCatalogRefresh(CatalogIndexEntry entry, RegistryCatalogIndex index,
+            Throwable ex) {
+        List<Entry<Consumer<RegistryCatalogIndex>, Consumer<Throwable>>> waiters;
+        synchronized (entry) {
+            if (index != null) {
+                entry.index = index;
+            }
+            entry.refreshing = false;
+            waiters = new ArrayList<>(entry.waiters);
+            entry.waiters.clear();
+        }
+
+        runningCatalogRefreshes.decrementAndGet();
+        runNextCatalogRefresh();
+
+        for (Entry<Consumer<RegistryCatalogIndex>, Consumer<Throwable>> waiter : waiters) {
+            if (index != null) {
+                waiter.getKey().accept(index);
+            } else {
+                waiter.getValue().accept(ex);
+            }
+        }
+    }
+
+    private void enqueueCatalogRefresh(Runnable refresh) {
+        pendingCatalogRefreshes.add(refresh);
+        runNextCatalogRefresh();
+    }
+
+    private void runNextCatalogRefresh() {
+        while (true) {
+            int running = runningCatalogRefreshes.get();
+            if (running >= CATALOG_INDEX_MAX_CONCURRENT_REFRESHES) {
+                return;
+            }
+            if (!runningCatalogRefreshes.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            Runnable refresh = pendingCatalogRefreshes.poll();
+            if (refresh == null) {
+                runningCatalogRefreshes.decrementAndGet();
+                // a refresh enqueued meanwhile may have seen the limit reached
+                if (pendingCatalogRefreshes.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            refresh.run();
+        }
+    }
+
+    private static ImageRequest copyRequest(ImageRequest request) {
+        ImageRequest copy = new ImageRequest();
+        copy.resourceReference = request.resourceReference;
+        copy.customProperties = new HashMap<>(request.customProperties);
+        return copy;
+    }
+
+    private void crawlV2Catalog(URI pageUri, List<String> repositories, RequestContext context,
+            Runnable callback, Consumer<Throwable> failureCallback) {
+        Operation search = Operation.createGet(pageUri)
                 .setReferer(getHost().getPublicUri())
                 .setCompletion((o, ex) -> {
                     if (ex != null) {
                         if (o.getStatusCode() == 401) {
                             if (context.tokenAlreadyRequested) {
-                                context.operation.fail(ex);
+                                failureCallback.accept(ex);
                                 return;
                             }
 
@@ -421,54 +603,43 @@ public class RegistryAdapterService extends StatelessService {
                                     o.getResponseHeaders());
 
                             if (isBearerTokenChallenge(wwwAuthHeader)) {
-                                requestAuthorizationToken(wwwAuthHeader, context,
-                                        () -> sendV2SearchRequest(searchUri, searchTerm, response,
-                                                context),
-                                        (t) -> context.operation.fail(t));
+                                requestAuthorizationToken(wwwAuthHeader, pageUri, context,
+                                        () -> crawlV2Catalog(pageUri, repositories, context,
+                                                callback, failureCallback),
+                                        failureCallback);
                                 return;
                             }
                         }
 
-                        context.operation.fail(ex);
+                        failureCallback.accept(ex);
                         return;
                     } else {
                         V2RegistryCatalogResponse body = o.getBody(V2RegistryCatalogResponse.class);
 
                         if (body.repositories != null) {
-                            for (String repository : body.repositories) {
-                                if (repository.toLowerCase().contains(searchTerm)) {
-                                    Result r = new Result();
-                                    r.name = repository;
-                                    r.registry = context.registryState.address;
-                                    response.results.add(r);
-                                }
-                            }
+                            repositories.addAll(Arrays.asList(body.repositories));
                         }
 
                         String linkHeader = o.getResponseHeader(LINK_HEADER);
                         if (linkHeader != null) {
                             String nextPagePath = extractUrl(linkHeader);
                             if (nextPagePath == null) {
-                                context.operation.fail(new LocalizableValidationException(
+                                failureCallback.accept(new LocalizableValidationException(
                                         "Unexpected link header format: " + linkHeader,
                                         "adapter.link.header.format", linkHeader));
                                 return;
                             }
                             URI nextPageUri = UriUtils.extendUri(
                                     URI.create(context.registryState.address), nextPagePath);
-                            sendV2SearchRequest(nextPageUri, searchTerm, response, context);
+                            crawlV2Catalog(nextPageUri, repositories, context, callback,
+                                    failureCallback);
                         } else {
-                            response.numResults = response.results.size();
-                            context.operation.setBody(response);
-                            context.operation.complete();
+                            callback.run();
                         }
                     }
                 });
 
-        String authorization = context.request.customProperties.get(AUTHORIZATION_HEADER);
-        if (authorization != null) {
-            search.addRequestHeader(AUTHORIZATION_HEADER, authorization);
-        }
+        addAuthorizationHeader(search, pageUri, context);
         sendOperationWithClient(search, context);
     }
 
@@ -534,7 +705,7 @@ public class RegistryAdapterService extends StatelessService {
                                     o.getResponseHeaders());
 
                             if (isBearerTokenChallenge(wwwAuthHeader)) {
-                                requestAuthorizationToken(wwwAuthHeader, context,
+                                requestAuthorizationToken(wwwAuthHeader, pingUri, context,
                                         () -> doPing(apiVersion, pingPath, context,
                                                 failureCallback),
                                         failureCallback);
@@ -561,9 +732,13 @@ public class RegistryAdapterService extends StatelessService {
                     }
                 });
 
-        String authorization = context.request.customProperties.get(AUTHORIZATION_HEADER);
-        if (authorization != null) {
-            pingOp.addRequestHeader(AUTHORIZATION_HEADER, authorization);
+        if (ApiVersion.V2 == apiVersion) {
+            addAuthorizationHeader(pingOp, pingUri, context);
+        } else {
+            String authorization = context.request.customProperties.get(AUTHORIZATION_HEADER);
+            if (authorization != null) {
+                pingOp.addRequestHeader(AUTHORIZATION_HEADER, authorization);
+            }
         }
 
         sendOperationWithClient(pingOp, context);
@@ -656,7 +831,8 @@ public class RegistryAdapterService extends StatelessService {
                                         o.getResponseHeaders());
 
                                 if (isBearerTokenChallenge(wwwAuthHeader)) {
-                                    requestAuthorizationToken(wwwAuthHeader, context,
+                                    requestAuthorizationToken(wwwAuthHeader, searchUri,
+                                            context,
                                             () -> processV2ListImageTagsRequest(context),
                                             (t) -> context.operation.fail(t));
                                     return;
@@ -673,10 +849,7 @@ public class RegistryAdapterService extends StatelessService {
                         context.operation.complete();
                     });
 
-            String authorization = context.request.customProperties.get(AUTHORIZATION_HEADER);
-            if (authorization != null) {
-                search.addRequestHeader(AUTHORIZATION_HEADER, authorization);
-            }
+            addAuthorizationHeader(search, searchUri, context);
 
             sendOperationWithClient(search, context);
 
@@ -711,8 +884,9 @@ public class RegistryAdapterService extends StatelessService {
                 .collect(Collectors.toMap(e -> e[0], e -> e[1].substring(1, e[1].length() - 1)));
     }
 
-    private void requestAuthorizationToken(String wwwAuthHeader, RequestContext context,
-            Runnable successCallback, Consumer<Throwable> failureCallback) {
+    private void requestAuthorizationToken(String wwwAuthHeader, URI requestUri,
+            RequestContext context, Runnable successCallback,
+            Consumer<Throwable> failureCallback) {
         try {
             Map<String, String> kvs = parseWwwAuthHeader(wwwAuthHeader);
 
@@ -720,40 +894,141 @@ public class RegistryAdapterService extends StatelessService {
             String service = kvs.get(SERVICE_WWW_AUTH_PROP);
             String scope = kvs.get(SCOPE_WWW_AUTH_PROP);
             URI tokenServiceUri = new URI(bearerRealm);
-            tokenServiceUri = UriUtils.extendUriWithQuery(tokenServiceUri,
+            URI tokenRequestUri = UriUtils.extendUriWithQuery(tokenServiceUri,
                     SERVICE_WWW_AUTH_PROP, service, SCOPE_WWW_AUTH_PROP, scope);
 
-            logInfo("Requesting token from %s", tokenServiceUri.toString());
-            Operation getTokenOp = Operation.createGet(tokenServiceUri)
-                    .setReferer(UriUtils.buildUri(getHost().getPublicUri(), getSelfLink()))
-                    .setCompletion((op, ex) -> {
+            if (context.bearerToken == null) {
+                // the credentials to request tokens with, before they are replaced by a token
+                context.credentialsAuthorization = context.request.customProperties
+                        .get(AUTHORIZATION_HEADER);
+            }
+            String credentialsKey = getCredentialsKey(context, context.credentialsAuthorization);
+            String tokenKey = BearerTokenCache.buildKey(bearerRealm, service, scope,
+                    credentialsKey);
+            // remember the token of the challenge, to send it with the next request right away
+            if (tokenKeysByRequest.size() >= MAX_TOKEN_KEYS_BY_REQUEST) {
+                tokenKeysByRequest.clear();
+            }
+            tokenKeysByRequest.put(getRequestKey(requestUri, credentialsKey), tokenKey);
+
+            if (context.bearerToken != null) {
+                // the token was rejected, request a new one only once
+                tokenCache.invalidate(tokenKey, context.bearerToken);
+                context.tokenAlreadyRequested = true;
+            }
+
+            tokenCache.getToken(tokenKey, () -> fetchAuthorizationToken(tokenRequestUri, context))
+                    .whenComplete((token, ex) -> {
                         if (ex != null) {
                             failureCallback.accept(ex);
                             return;
                         }
 
-                        String token = getToken(op.getBody(TokenServiceResponse.class));
                         String authorizationHeaderValue = String.format("%s %s",
                                 BEARER_TOKEN_PREFIX, token);
                         context.request.customProperties.put(AUTHORIZATION_HEADER,
                                 authorizationHeaderValue);
-                        context.tokenAlreadyRequested = true;
+                        context.bearerToken = token;
 
                         successCallback.run();
                     });
+        } catch (Exception e) {
+            failureCallback.accept(e);
+        }
+    }
 
-            String authorization = context.request.customProperties.get(AUTHORIZATION_HEADER);
-            if (authorization != null) {
-                getTokenOp.addRequestHeader(AUTHORIZATION_HEADER, authorization);
+    private DeferredResult<BearerTokenCache.Token> fetchAuthorizationToken(URI tokenRequestUri,
+            RequestContext context) {
+        DeferredResult<BearerTokenCache.Token> result = new DeferredResult<>();
+
+        logInfo("Requesting token from %s", tokenRequestUri.toString());
+        Operation getTokenOp = Operation.createGet(tokenRequestUri)
+                .setReferer(UriUtils.buildUri(getHost().getPublicUri(), getSelfLink()))
+                .setCompletion((op, ex) -> {
+                    if (ex != null) {
+                        result.fail(ex);
+                        return;
+                    }
+
+                    TokenServiceResponse response = op.getBody(TokenServiceResponse.class);
+                    result.complete(new BearerTokenCache.Token(getToken(response),
+                            getExpiresInSeconds(response)));
+                });
+
+        if (context.credentialsAuthorization != null) {
+            getTokenOp.addRequestHeader(AUTHORIZATION_HEADER, context.credentialsAuthorization);
+        }
+
+        // Remove Xenon's auth token header from the request to the Registry
+        setAuthorizationContext(getTokenOp, null);
+
+        sendOperationWithClient(getTokenOp, context);
+        return result;
+    }
+
+    /**
+     * Adds the authorization header of the request. If no bearer token was used for the request
+     * yet, a cached token of the same request and credentials is sent right away, instead of
+     * waiting for the registry to challenge the request.
+     */
+    private void addAuthorizationHeader(Operation op, URI requestUri, RequestContext context) {
+        if (context.bearerToken == null) {
+            String credentials = context.request.customProperties.get(AUTHORIZATION_HEADER);
+            String tokenKey = tokenKeysByRequest.get(getRequestKey(requestUri,
+                    getCredentialsKey(context, credentials)));
+            String token = tokenKey != null ? tokenCache.getCachedToken(tokenKey) : null;
+            if (token != null) {
+                // a rejected token is replaced by one requested with these credentials
+                context.credentialsAuthorization = credentials;
+                context.bearerToken = token;
+                context.request.customProperties.put(AUTHORIZATION_HEADER,
+                        String.format("%s %s", BEARER_TOKEN_PREFIX, token));
             }
+        }
+
+        String authorization = context.request.customProperties.get(AUTHORIZATION_HEADER);
+        if (authorization != null) {
+            op.addRequestHeader(AUTHORIZATION_HEADER, authorization);
+        }
+    }
 
-            // Remove Xenon's auth token header from the request to the Registry
-            setAuthorizationContext(getTokenOp, null);
+    /**
+     * Returns the key of the credentials tokens are requested with. Tokens are issued for the
+     * given credentials, so their link alone would serve tokens of changed credentials.
+     */
+    private String getCredentialsKey(RequestContext context, String credentials) {
+        String credentialsLink = context.registryState != null
+                ? context.registryState.authCredentialsLink
+                : context.request.customProperties.get(
+                        RegistryState.FIELD_NAME_AUTH_CREDENTIALS_LINK);
+        return String.format("%s#%s", credentialsLink,
+                credentials != null ? digest(credentials) : null);
+    }
 
-            sendOperationWithClient(getTokenOp, context);
-        } catch (Exception e) {
-            failureCallback.accept(e);
+    private static String getRequestKey(URI requestUri, String credentialsKey) {
+        return String.format("%s://%s%s#%s", requestUri.getScheme(),
+                requestUri.getRawAuthority(), requestUri.getRawPath(), credentialsKey);
+    }
+
+    private static String digest(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(value.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long getExpiresInSeconds(TokenServiceResponse r) {
+        if (r != null && r.expires_in != null) {
+            try {
+                return Long.parseLong(r.expires_in);
+            } catch (NumberFormatException e) {
+                logWarning("Unexpected token expires_in value: %s", r.expires_in);
+            }
         }
+        return BearerTokenCache.DEFAULT_EXPIRES_IN_SECONDS;
     }
 
     /**
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.registry.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Immutable in-memory index of the repositories in the catalog of a V2 registry. Repositories
+ * are indexed by the trigrams of their lower case names, so a search only checks the
+ * repositories which contain the rarest trigram of the search term instead of the whole catalog.
+ *
+ * Matches are ranked by where the term matches: repositories whose name without the namespace
+ * equals the term come first, then the ones whose name without the namespace starts with it,
+ * then the ones whose full name starts with it, then the rest. Repositories of the same rank keep
+ * the catalog order.
+ */
+final class RegistryCatalogIndex {
+
+    private static final int GRAM_LENGTH = 3;
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final String[] repositories;
+    private final String[] lowerCaseRepositories;
+    private final Map<String, int[]> repositoriesByGram;
+    private final long createdMicros;
+
+    RegistryCatalogIndex(List<String> repositories) {
+        this.repositories = repositories.toArray(new String[0]);
+        this.lowerCaseRepositories = new String[this.repositories.length];
+        this.createdMicros = Utils.getSystemNowMicrosUtc();
+
+        Map<String, List<Integer>> positionsByGram = new HashMap<>();
+        for (int i = 0; i < this.repositories.length; i++) {
+            String lowerCase = this.repositories[i].toLowerCase(Locale.ROOT);
+            lowerCaseRepositories[i] = lowerCase;
+            for (String gram : grams(lowerCase)) {
+                positionsByGram.computeIfAbsent(gram, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        this.repositoriesByGram = new HashMap<>(positionsByGram.size());
+        positionsByGram.forEach((gram, positions) -> repositoriesByGram.put(gram,
+                positions.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    int size() {
+        return repositories.length;
+    }
+
+    long getCreatedMicros() {
+        return createdMicros;
+    }
+
+    /**
+     * Returns the ranked repositories whose name contains the given term, ignoring case.
+     */
+    List<String> search(String term) {
+        String lowerCaseTerm = term.toLowerCase(Locale.ROOT);
+
+        List<Integer> matches = new ArrayList<>();
+        int[] candidates = getCandidates(lowerCaseTerm);
+        if (candidates == null) {
+            for (int i = 0; i < lowerCaseRepositories.length; i++) {
+                if (lowerCaseRepositories[i].contains(lowerCaseTerm)) {
+                    matches.add(i);
+                }
+            }
+        } else {
+            for (int i : candidates) {
+                if (lowerCaseRepositories[i].contains(lowerCaseTerm)) {
+                    matches.add(i);
+                }
+            }
+        }
+
+        // the sort is stable, so matches of the same rank keep the catalog order
+        matches.sort(Comparator.comparingInt(i -> rank(lowerCaseRepositories[i],
+                lowerCaseTerm)));
+
+        List<String> result = new ArrayList<>(matches.size());
+        for (int i : matches) {
+            result.add(repositories[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the positions of the repositories with the rarest trigram of the term, or
+     * {@code null} if the term is too short to have trigrams.
+     */
+    private int[] getCandidates(String lowerCaseTerm) {
+        if (lowerCaseTerm.length() < GRAM_LENGTH) {
+            return null;
+        }
+
+        int[] candidates = null;
+        for (String gram : grams(lowerCaseTerm)) {
+            int[] positions = repositoriesByGram.getOrDefault(gram, NO_MATCHES);
+            if (candidates == null || positions.length < candidates.length) {
+                candidates = positions;
+            }
+            if (candidates.length == 0) {
+                break;
+            }
+        }
+        return candidates;
+    }
+
+    private static int rank(String lowerCaseRepository, String lowerCaseTerm) {
+        String name = lowerCaseRepository.substring(lowerCaseRepository.lastIndexOf('/') + 1);
+        if (name.equals(lowerCaseTerm)) {
+            return 0;
+        }
+        if (name.startsWith(lowerCaseTerm)) {
+            return 1;
+        }
+        if (lowerCaseRepository.startsWith(lowerCaseTerm)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static Set<String> grams(String value) {
+        if (value.length() < GRAM_LENGTH) {
+            return Collections.emptySet();
+        }
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+}
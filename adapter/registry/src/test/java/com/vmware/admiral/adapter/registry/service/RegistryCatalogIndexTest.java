@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.registry.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RegistryCatalogIndexTest {
+
+    private final RegistryCatalogIndex index = new RegistryCatalogIndex(Arrays.asList(
+            "library/alpine", "library/nginx", "proj/nginx-ingress", "proj/my-nginx",
+            "test/v2image", "v2image", "nginx-tools/helper", "Team/Busybox"));
+
+    @Test
+    public void testSearchRanksMatches() {
+        assertEquals(Arrays.asList("library/nginx", "proj/nginx-ingress", "nginx-tools/helper",
+                "proj/my-nginx"), index.search("nginx"));
+    }
+
+    @Test
+    public void testSearchKeepsCatalogOrderOfSameRank() {
+        assertEquals(Arrays.asList("test/v2image", "v2image"), index.search("v2image"));
+    }
+
+    @Test
+    public void testSearchIgnoresCase() {
+        assertEquals(Collections.singletonList("Team/Busybox"), index.search("BUSYbox"));
+    }
+
+    @Test
+    public void testSearchShortTerms() {
+        assertEquals(Arrays.asList("library/alpine", "library/nginx", "nginx-tools/helper"),
+                index.search("l"));
+        assertEquals(8, index.search("").size());
+    }
+
+    @Test
+    public void testSearchWithoutMatches() {
+        assertTrue(index.search("redis").isEmpty());
+        assertTrue(index.search("nginxx").isEmpty());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.test.BaseTestCase;
+import com.vmware.admiral.service.common.TaskSubStageCoalescingTest.CoalescingTaskService.CoalescingTaskState;
+import com.vmware.admiral.service.common.TaskSubStageCoalescingTest.CoalescingTaskService.CoalescingTaskState.SubStage;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+
+public class TaskSubStageCoalescingTest extends BaseTestCase {
+
+    private static final int RACING_TASKS_COUNT = 20;
+
+    @Before
+    public void setUp() throws Throwable {
+        host.startFactory(new CoalescingTaskService());
+        waitForServiceAvailability(host, CoalescingTaskService.FACTORY_LINK);
+    }
+
+    @Test
+    public void testCoalescedTransitions() throws Throwable {
+        CoalescingTaskState task = startTask(Scenario.COALESCED_STEPS);
+
+        assertEquals(SubStage.COMPLETED, task.taskSubStage);
+        // the fields set by the coalesced sub-stages are carried over to the checkpoint
+        assertEquals(Scenario.COALESCED_STEPS.name(), task.stepOneValue);
+        assertEquals(Scenario.COALESCED_STEPS.name(), task.stepTwoValue);
+        // only the transition to COMPLETED is persisted
+        assertEquals(1, CoalescingTaskService.getPatchCount(task.documentSelfLink));
+    }
+
+    @Test
+    public void testCallbackCarriesCoalescedFields() throws Throwable {
+        CoalescingTaskState task = startTask(Scenario.CALLBACK);
+
+        assertEquals(SubStage.COMPLETED, task.taskSubStage);
+        assertEquals(Scenario.CALLBACK.name(), task.callbackValue);
+        // the callback is a checkpoint for the coalesced STEP_ONE sub-stage as well
+        assertEquals(Scenario.CALLBACK.name(), task.stepOneValue);
+    }
+
+    @Test
+    public void testCoalescedTransitionAfterCallback() throws Throwable {
+        CoalescingTaskState task = startTask(Scenario.CALLBACK_THEN_STEP);
+
+        assertEquals(TaskStage.FINISHED, task.taskInfo.stage);
+        assertEquals(SubStage.COMPLETED, task.taskSubStage);
+        assertEquals(Scenario.CALLBACK_THEN_STEP.name(), task.stepOneValue);
+        // the transition based on the state before the callback is not applied
+        assertNull(task.stepTwoValue);
+        assertFalse(CoalescingTaskService.isStepTwoHandled(task.documentSelfLink));
+    }
+
+    @Test
+    public void testCallbackRacingCoalescedTransition() throws Throwable {
+        List<String> taskLinks = new ArrayList<>();
+        for (int i = 0; i < RACING_TASKS_COUNT; i++) {
+            taskLinks.add(createTask(Scenario.CALLBACK_RACING_STEP));
+        }
+
+        for (String taskLink : taskLinks) {
+            CoalescingTaskState task = waitForTaskSuccess(taskLink, CoalescingTaskState.class);
+            assertEquals(SubStage.COMPLETED, task.taskSubStage);
+            assertEquals(Scenario.CALLBACK_RACING_STEP.name(), task.callbackValue);
+            assertEquals(Scenario.CALLBACK_RACING_STEP.name(), task.stepOneValue);
+        }
+
+        // a coalesced transition started before the callback must not move the task back
+        for (String taskLink : taskLinks) {
+            CoalescingTaskState task = getDocument(CoalescingTaskState.class, taskLink);
+            assertEquals(TaskStage.FINISHED, task.taskInfo.stage);
+            assertEquals(SubStage.COMPLETED, task.taskSubStage);
+        }
+    }
+
+    private CoalescingTaskState startTask(Scenario scenario) throws Throwable {
+        return waitForTaskSuccess(createTask(scenario), CoalescingTaskState.class);
+    }
+
+    private String createTask(Scenario scenario) throws Throwable {
+        CoalescingTaskState state = new CoalescingTaskState();
+        state.scenario = scenario;
+        return doPost(state, CoalescingTaskService.FACTORY_LINK).documentSelfLink;
+    }
+
+    public enum Scenario {
+        // STEP_ONE and STEP_TWO are coalesced, followed by a checkpoint to COMPLETED
+        COALESCED_STEPS,
+        // STEP_ONE is coalesced and a callback completes the task
+        CALLBACK,
+        // STEP_ONE is coalesced, a callback completes the task and STEP_TWO is attempted after it
+        CALLBACK_THEN_STEP,
+        // STEP_ONE is coalesced, STEP_TWO is attempted at the same time a callback completes the
+        // task
+        CALLBACK_RACING_STEP
+    }
+
+    public static class CoalescingTaskService extends
+            AbstractTaskStatefulService<CoalescingTaskState, CoalescingTaskState.SubStage> {
+
+        public static final String FACTORY_LINK = "/test-coalescing-tasks";
+
+        private static final Map<String, AtomicInteger> PATCH_COUNTS = new ConcurrentHashMap<>();
+        private static final Set<String> STEP_TWO_HANDLED = Collections
+                .newSetFromMap(new ConcurrentHashMap<>());
+
+        public static class CoalescingTaskState extends
+                TaskServiceDocument<CoalescingTaskState.SubStage> {
+
+            public enum SubStage {
+                CREATED, STEP_ONE, STEP_TWO, WAITING, COMPLETED, ERROR;
+
+                static final Set<SubStage> DURABLE_SUB_STAGES = EnumSet.of(WAITING);
+            }
+
+            public Scenario scenario;
+            public String stepOneValue;
+            public String stepTwoValue;
+            public String callbackValue;
+        }
+
+        public CoalescingTaskService() {
+            super(CoalescingTaskState.class, SubStage.class, "Coalescing Task");
+            super.toggleOption(ServiceOption.PERSISTENCE, true);
+            super.toggleOption(ServiceOption.REPLICATION, true);
+            super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+            super.durableSubStages = SubStage.DURABLE_SUB_STAGES;
+            super.setSubStageCoalescing(true);
+        }
+
+        static int getPatchCount(String taskLink) {
+            AtomicInteger count = PATCH_COUNTS.get(taskLink);
+            return count == null ? 0 : count.get();
+        }
+
+        static boolean isStepTwoHandled(String taskLink) {
+            return STEP_TWO_HANDLED.contains(taskLink);
+        }
+
+        @Override
+        public void handlePatch(Operation patch) {
+            PATCH_COUNTS.computeIfAbsent(getSelfLink(), k -> new AtomicInteger())
+                    .incrementAndGet();
+            super.handlePatch(patch);
+        }
+
+        @Override
+        protected void handleStartedStagePatch(CoalescingTaskState state) {
+            switch (state.taskSubStage) {
+            case CREATED:
+                proceedTo(SubStage.STEP_ONE, s -> s.stepOneValue = state.scenario.name());
+                break;
+            case STEP_ONE:
+                handleStepOne(state);
+                break;
+            case STEP_TWO:
+                STEP_TWO_HANDLED.add(getSelfLink());
+                if (state.scenario == Scenario.COALESCED_STEPS) {
+                    complete();
+                } else {
+                    proceedTo(SubStage.WAITING);
+                }
+                break;
+            case WAITING:
+                // completed by the callback
+                break;
+            case COMPLETED:
+                complete();
+                break;
+            case ERROR:
+                completeWithError();
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void handleStepOne(CoalescingTaskState state) {
+            switch (state.scenario) {
+            case COALESCED_STEPS:
+                proceedTo(SubStage.STEP_TWO, s -> s.stepTwoValue = state.scenario.name());
+                break;
+            case CALLBACK:
+                sendCallback(state, null);
+                break;
+            case CALLBACK_THEN_STEP:
+                sendCallback(state, () -> proceedTo(SubStage.STEP_TWO,
+                        s -> s.stepTwoValue = state.scenario.name()));
+                break;
+            case CALLBACK_RACING_STEP:
+                proceedTo(SubStage.STEP_TWO);
+                sendCallback(state, null);
+                break;
+            default:
+                break;
+            }
+        }
+
+        /**
+         * Completes the task the way a sub-task would, with a patch not sent by proceedTo.
+         */
+        private void sendCallback(CoalescingTaskState state, Runnable onCompletion) {
+            CoalescingTaskState body = new CoalescingTaskState();
+            body.taskInfo = TaskState.createAsFinished();
+            body.taskSubStage = SubStage.COMPLETED;
+            body.callbackValue = state.scenario.name();
+            sendRequest(Operation.createPatch(getUri())
+                    .setBody(body)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            failTask("Callback failed", e);
+                        } else if (onCompletion != null) {
+                            onCompletion.run();
+                        }
+                    }));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Cache of the bearer tokens issued by the token services of registries, by token service realm,
+ * service, scope and credentials. A token is refreshed ahead of its expiry while it is still
+ * served, and concurrent callers which need a new token share one token request.
+ */
+public final class BearerTokenCache {
+
+    /**
+     * Lifetime of the tokens whose response has no expires_in, as defined by the docker token
+     * authentication specification.
+     */
+    public static final long DEFAULT_EXPIRES_IN_SECONDS = 60;
+
+    private static final long REFRESH_AHEAD_MICROS = Long.getLong(
+            "com.vmware.admiral.bearer.token.refresh.ahead.micros",
+            TimeUnit.SECONDS.toMicros(30));
+    private static final int MAX_ENTRIES = Integer.getInteger(
+            "com.vmware.admiral.bearer.token.cache.max.entries", 1000);
+
+    private static final BearerTokenCache INSTANCE = new BearerTokenCache();
+
+    public static class Token {
+        public final String value;
+        final long expiresAtMicros;
+        final long refreshAtMicros;
+
+        public Token(String value, long expiresInSeconds) {
+            this(value, Utils.getSystemNowMicrosUtc(),
+                    TimeUnit.SECONDS.toMicros(expiresInSeconds));
+        }
+
+        Token(String value, long issuedAtMicros, long lifetimeMicros) {
+            this.value = value;
+            this.expiresAtMicros = issuedAtMicros + lifetimeMicros;
+            this.refreshAtMicros = expiresAtMicros
+                    - Math.min(REFRESH_AHEAD_MICROS, lifetimeMicros / 2);
+        }
+    }
+
+    private static class Entry {
+        Token token;
+        DeferredResult<Token> pendingRequest;
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    BearerTokenCache() {
+    }
+
+    public static BearerTokenCache getInstance() {
+        return INSTANCE;
+    }
+
+    public static String buildKey(String realm, String service, String scope,
+            String credentialsKey) {
+        return String.join("|", String.valueOf(realm), String.valueOf(service),
+                String.valueOf(scope), String.valueOf(credentialsKey));
+    }
+
+    /**
+     * Returns the cached token for the given key, requesting a new one with the given supplier if
+     * there is no valid token and no pending request for one. A token due for refresh is returned
+     * while the new one is requested.
+     */
+    public DeferredResult<String> getToken(String key, Supplier<DeferredResult<Token>> request) {
+        long nowMicros = Utils.getSystemNowMicrosUtc();
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry());
+
+        Token token;
+        DeferredResult<Token> pendingRequest;
+        boolean startRequest = false;
+        synchronized (entry) {
+            token = entry.token;
+            if (token != null && nowMicros >= token.expiresAtMicros) {
+                token = null;
+            }
+            if ((token == null || nowMicros >= token.refreshAtMicros)
+                    && entry.pendingRequest == null) {
+                entry.pendingRequest = new DeferredResult<>();
+                startRequest = true;
+            }
+            pendingRequest = entry.pendingRequest;
+        }
+
+        if (startRequest) {
+            requestToken(entry, request);
+            evictExpired(nowMicros);
+        }
+
+        if (token != null) {
+            return DeferredResult.completed(token.value);
+        }
+        return pendingRequest.thenApply(t -> t.value);
+    }
+
+    /**
+     * Returns the cached token for the given key if it has not expired, or {@code null}. No token
+     * is requested.
+     */
+    public String getCachedToken(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            Token token = entry.token;
+            return token != null && Utils.getSystemNowMicrosUtc() < token.expiresAtMicros
+                    ? token.value : null;
+        }
+    }
+
+    /**
+     * Removes the given token if it is still cached for the given key, e.g. when it was rejected.
+     */
+    public void invalidate(String key, String tokenValue) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.token != null && Objects.equals(entry.token.value, tokenValue)) {
+                entry.token = null;
+            }
+        }
+    }
+
+    private void requestToken(Entry entry, Supplier<DeferredResult<Token>> request) {
+        DeferredResult<Token> result;
+        try {
+            result = request.get();
+        } catch (Exception e) {
+            result = DeferredResult.failed(e);
+        }
+
+        result.whenComplete((token, ex) -> {
+            DeferredResult<Token> pendingRequest;
+            synchronized (entry) {
+                if (ex == null) {
+                    entry.token = token;
+                }
+                pendingRequest = entry.pendingRequest;
+                entry.pendingRequest = null;
+            }
+
+            if (ex != null) {
+                pendingRequest.fail(ex);
+            } else {
+                pendingRequest.complete(token);
+            }
+        });
+    }
+
+    private void evictExpired(long nowMicros) {
+        if (entries.size() <= MAX_ENTRIES) {
+            return;
+        }
+        entries.values().removeIf(entry -> {
+            synchronized (entry) {
+                return entry.pendingRequest == null
+                        && (entry.token == null || nowMicros >= entry.token.expiresAtMicros);
+            }
+        });
+    }
+}
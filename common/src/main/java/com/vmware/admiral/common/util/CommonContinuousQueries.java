@@ -62,6 +62,11 @@ public class CommonContinuousQueries {
          */
         COMPUTES,
 
+        /**
+         * Query for all {@link ComputeState}s regardless of their owner, with expanded content.
+         */
+        EXPANDED_COMPUTES,
+
         /**
          * Query for all {@link ComputeState}s in {@link LifecycleState.RETIRED} state.
          */
@@ -121,6 +126,14 @@ public class CommonContinuousQueries {
             task = QueryTask.Builder.create().addOption(QueryOption.CONTINUOUS)
                     .setQuery(computeQuery).build();
             break;
+        case EXPANDED_COMPUTES:
+            Query expandedComputeQuery = Query.Builder.create()
+                    .addKindFieldClause(ComputeState.class)
+                    .build();
+            task = QueryTask.Builder.create()
+                    .addOptions(EnumSet.of(QueryOption.CONTINUOUS, QueryOption.EXPAND_CONTENT))
+                    .setQuery(expandedComputeQuery).build();
+            break;
         case RETIRED_COMPUTES:
             Query retiredComputesQuery = Query.Builder.create()
                     .addKindFieldClause(ComputeState.class)
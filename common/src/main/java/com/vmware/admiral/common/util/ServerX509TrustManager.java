@@ -21,10 +21,13 @@ import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import javax.net.ssl.X509TrustManager;
@@ -75,6 +78,10 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
     private final SslTrustQueryCompletionHandler queryHandler;
     private final SubscriptionManager<ConfigurationState> subscriptionManager;
 
+    /* The certificates of the delegates, to tell a changed certificate from a reloaded one */
+    private final Map<String, String> certificatesByAlias = new ConcurrentHashMap<>();
+    private final AtomicLong trustVersion = new AtomicLong();
+
     /* Last time the document was update in microseconds since UNIX epoch */
     private volatile long documentUpdateTimeMicros;
 
@@ -313,12 +320,23 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
                 .getTrustManagers(alias, certificate)[0];
 
         this.delegatingTrustManager.putDelegate(alias, delegateTrustManager);
+        if (!certificate.equals(this.certificatesByAlias.put(alias, certificate))) {
+            this.trustVersion.incrementAndGet();
+        }
     }
 
     public X509TrustManager getDelegate(Object key) {
         return this.delegatingTrustManager.getDelegate(key);
     }
 
+    /**
+     * Returns a number that changes whenever a trusted certificate is added, changed or removed,
+     * e.g. to invalidate the TLS sessions established with the previously trusted certificates.
+     */
+    public long getTrustVersion() {
+        return this.trustVersion.get();
+    }
+
     private static class SslTrustQueryCompletionHandler implements
             Consumer<ServiceDocumentQueryElementResult<SslTrustCertificateState>> {
         private final ServerX509TrustManager self;
@@ -360,6 +378,8 @@ public class ServerX509TrustManager implements X509TrustManager, Closeable {
 
         private void deleteCertificate(String alias) {
             self.delegatingTrustManager.removeDelegate(alias);
+            self.certificatesByAlias.remove(alias);
+            self.trustVersion.incrementAndGet();
             Utils.log(getClass(), "Self Signed Trust Store", Level.FINE,
                     "Certificate with alias %s removed", alias);
 
@@ -13,6 +13,7 @@ package com.vmware.admiral.common.util;
 
 import java.net.URISyntaxException;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -77,11 +78,26 @@ public class ServiceClientFactory {
      */
     public static ServiceClient createServiceClient(SSLContext sslContext,
             int requestPayloadSizeLimit) {
-        ServiceClient serviceClient;
+        return createServiceClient(sslContext, requestPayloadSizeLimit, null);
+    }
+
+    /**
+     * Create a ServiceClient instance using the given SSLContext and requestPayloadSizeLimit,
+     * customized by the given consumer before it is started, e.g. to hook into the
+     * initialization of its channels
+     *
+     * @param sslContext
+     * @param requestPayloadSizeLimit
+     * @param customizer
+     * @return
+     */
+    public static ServiceClient createServiceClient(SSLContext sslContext,
+            int requestPayloadSizeLimit, Consumer<NettyHttpServiceClient> customizer) {
+        NettyHttpServiceClient serviceClient;
         try {
             // supply a scheduled executor for re-use by the client, but do not supply our
             // regular executor, since the I/O threads might take up all threads
-            serviceClient = NettyHttpServiceClient.create(
+            serviceClient = (NettyHttpServiceClient) NettyHttpServiceClient.create(
                     ServiceClientFactory.class.getCanonicalName(),
                     null,
                     Executors.newScheduledThreadPool(Utils.DEFAULT_THREAD_COUNT, r -> new Thread(
@@ -91,6 +107,9 @@ public class ServiceClientFactory {
                 serviceClient.setRequestPayloadSizeLimit(requestPayloadSizeLimit);
             }
             serviceClient.setSSLContext(sslContext);
+            if (customizer != null) {
+                customizer.accept(serviceClient);
+            }
             serviceClient.start();
 
             return serviceClient;
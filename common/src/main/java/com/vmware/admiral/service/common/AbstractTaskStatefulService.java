@@ -22,6 +22,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
@@ -86,6 +87,22 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
      */
     protected EnumSet<E> subscriptionSubStages;
 
+    /**
+     * SubStages that are persisted even when sub-stage coalescing is enabled, e.g. because their
+     * handlers start sub-tasks that call back to the task
+     */
+    protected Set<E> durableSubStages = Collections.emptySet();
+
+    // whether transitions to non-checkpoint sub-stages are executed in-process
+    private volatile boolean subStageCoalescing;
+
+    // the latest state of the task, either applied by a patch or by a coalesced transition, used
+    // as a base for coalesced transitions
+    private volatile T coalescingState;
+
+    // the merged patch bodies of the coalesced sub-stages since the last persisted transition
+    private T coalescedBody;
+
     private volatile String locale;
 
     public static class TaskStatusState extends MultiTenantDocument {
@@ -147,6 +164,17 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         this.logLevel = logLevel;
     }
 
+    /**
+     * Enables execution of consecutive sub-stage transitions in-process against the cached state.
+     * Only checkpoint transitions (to subscription sub-stages, durable sub-stages or to a stage
+     * other than STARTED) are persisted, carrying the fields of the coalesced sub-stages with them.
+     * Sub-stages whose handlers hand the task off to other services must be marked as durable,
+     * since the callbacks of these services are applied to the persisted state.
+     */
+    protected void setSubStageCoalescing(boolean subStageCoalescing) {
+        this.subStageCoalescing = subStageCoalescing;
+    }
+
     @Override
     public void handleCreate(Operation post) {
         if (!checkForBody(post)) {
@@ -240,6 +268,7 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         startPost.setBody(state);
         startPost.complete();
 
+        updateCoalescingState(state);
         checkAndHandleSubscriptions(state, startPost);
     }
 
@@ -333,8 +362,17 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
             return;
         }
 
+        T coalesced = takeCoalescedBody();
+        if (coalesced != null) {
+            // the task was moved by a patch other than a checkpoint of its own, e.g. a callback,
+            // so carry the fields set by the coalesced sub-stages over to it
+            Utils.mergeWithState(getStateDescription(), coalesced, patchBody);
+            Utils.mergeWithState(getStateDescription(), state, coalesced);
+        }
+
         patch.complete();
 
+        updateCoalescingState(state);
         checkAndHandleSubscriptions(state, patch);
     }
 
@@ -461,9 +499,26 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
 
     protected void updateRequestTracker(T state, int retryCount) {
         if (state != null && state.requestTrackerLink != null) {
+            TaskStatusState taskStatus = fromTask(state);
+            TaskStatusState body = taskStatus;
+            RequestTrackerUpdateAggregator aggregator = RequestTrackerUpdateAggregator
+                    .forHost(getHost());
+            if (aggregator != null) {
+                if (state.taskInfo.stage.ordinal() <= TaskStage.STARTED.ordinal()) {
+                    aggregator.submit(state.requestTrackerLink, taskStatus);
+                    return;
+                }
+                // deliver the final status right away, after the pending ones of the tracker
+                List<TaskStatusState> taskStatuses = aggregator.drain(state.requestTrackerLink);
+                taskStatuses.removeIf(
+                        s -> Objects.equals(s.documentSelfLink, taskStatus.documentSelfLink));
+                taskStatuses.add(taskStatus);
+                body = RequestTrackerUpdateAggregator.toBody(taskStatuses);
+            }
+
             sendRequest(Operation
                     .createPatch(this, state.requestTrackerLink)
-                    .setBody(fromTask(state))
+                    .setBody(body)
                     .setCompletion((o, ex) -> {
                         if (ex != null) {
                             // log but don't fail the task
@@ -493,12 +548,18 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
     }
 
     protected void handleStagePatch(T state) {
+        handleStagePatch(state, true);
+    }
+
+    private void handleStagePatch(T state, boolean trackRequest) {
         if (getInstance().shouldFail(state.taskSubStage)) {
             failTask("Fail task in stage [" + state.taskSubStage
                     + "], based on DeploymentProfileConfig", null);
             return;
         }
-        updateRequestTracker(state);
+        if (trackRequest) {
+            updateRequestTracker(state);
+        }
 
         // calculate whether to self-delete now because below handlers can alter the state through
         // simultaneous PATCH requests
@@ -811,14 +872,111 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
             patchBodyConfigurator.accept(body);
         }
 
-        sendRequest(Operation.createPatch(getUri())
+        Operation patch = Operation.createPatch(getUri())
                 .setBody(body)
                 .setCompletion((o, e) -> {
                     if (e != null) {
                         logWarning("Moving task to %s:%s failed: %s", stage, subStage,
                                 e.getMessage());
                     }
-                }));
+                });
+
+        if (isCoalescedSubStage(stage, subStage) && proceedInProcess(patch, body)) {
+            return;
+        }
+
+        T coalesced = takeCoalescedBody();
+        if (coalesced != null) {
+            // carry the fields set by the coalesced sub-stages over to the checkpoint, the ones
+            // of the checkpoint patch taking precedence
+            Utils.mergeWithState(getStateDescription(), coalesced, body);
+            Utils.mergeWithState(getStateDescription(), body, coalesced);
+        }
+
+        sendRequest(patch);
+    }
+
+    /**
+     * Whether a transition to the given stage/subStage is executed in-process when sub-stage
+     * coalescing is enabled.
+     */
+    protected boolean isCoalescedSubStage(TaskStage stage, E subStage) {
+        return subStageCoalescing && stage == TaskStage.STARTED && subStage != null
+                && !subscriptionSubStages.contains(subStage)
+                && !durableSubStages.contains(subStage);
+    }
+
+    /**
+     * Applies the given patch to a copy of the cached state the same way a self patch would be
+     * applied and runs the handler of the new sub-stage. The state is neither persisted nor
+     * replicated, and the request tracker is not updated until the next checkpoint.
+     */
+    private boolean proceedInProcess(Operation patch, T body) {
+        T currentState = coalescingState;
+        if (currentState == null) {
+            return false;
+        }
+
+        T state = Utils.clone(currentState);
+        patch.setReferer(getUri());
+        if (validateStageTransitionAndState(patch, body, state)) {
+            // the patch is already completed/failed by the validation
+            return true;
+        }
+        // the handler may alter the state it is given, keep the base of the next transitions apart
+        T coalescedState = Utils.clone(state);
+        if (!addCoalescedTransition(currentState, coalescedState, body)) {
+            // a patch was applied to the task in the meantime, send the transition as a patch
+            // to have it ordered against it
+            return false;
+        }
+        patch.complete();
+
+        getHost().run(() -> {
+            if (coalescingState != coalescedState) {
+                // superseded by a patch applied to the task in the meantime
+                logFine("Skipping coalesced transition to %s, the task was moved to %s",
+                        state.taskSubStage, coalescingState.taskSubStage);
+                return;
+            }
+            handleStagePatch(state, false);
+        });
+        return true;
+    }
+
+    private void updateCoalescingState(T state) {
+        if (subStageCoalescing) {
+            T clone = Utils.clone(state);
+            synchronized (this) {
+                coalescingState = clone;
+            }
+        }
+    }
+
+    /**
+     * Moves the coalescing state from the given base state to the given state and records the
+     * patch body of the transition, unless another state was applied in the meantime.
+     */
+    private synchronized boolean addCoalescedTransition(T baseState, T state, T body) {
+        if (coalescingState != baseState) {
+            return false;
+        }
+        coalescingState = state;
+        if (coalescedBody == null) {
+            coalescedBody = Utils.clone(body);
+        } else {
+            Utils.mergeWithState(getStateDescription(), coalescedBody, body);
+        }
+        // only the fields are carried over, the transitions are made by the checkpoints
+        coalescedBody.taskInfo = null;
+        coalescedBody.taskSubStage = null;
+        return true;
+    }
+
+    private synchronized T takeCoalescedBody() {
+        T body = coalescedBody;
+        coalescedBody = null;
+        return body;
     }
 
     private void sendSelfDelete() {
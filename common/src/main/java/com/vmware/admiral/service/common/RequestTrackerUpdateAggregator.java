@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+
+/**
+ * Coalesces the request tracker updates of the tasks running on a node. The statuses of the tasks
+ * tracked by the same request tracker are kept in memory, the latest status of a task superseding
+ * the previous ones, and are sent to the tracker in a single update at most once every
+ * {@link #FLUSH_INTERVAL_MILLIS}. Final task statuses are not delayed: they are sent right away
+ * together with the statuses pending for the same tracker.
+ */
+final class RequestTrackerUpdateAggregator {
+
+    static final long FLUSH_INTERVAL_MILLIS = Long.getLong(
+            "com.vmware.admiral.service.common.request.tracker.flush.interval.millis", 1000);
+
+    private static final Map<String, RequestTrackerUpdateAggregator> AGGREGATORS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Request tracker update carrying the statuses of several tasks, applied by the tracker in
+     * order.
+     */
+    static class TaskStatusUpdates extends TaskStatusState {
+        List<TaskStatusState> taskStatusUpdates;
+    }
+
+    private final ServiceHost host;
+
+    // pending task statuses per request tracker link, keyed by task
+    private final Map<String, Map<String, TaskStatusState>> pendingUpdates = new HashMap<>();
+
+    private RequestTrackerUpdateAggregator(ServiceHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Returns the aggregator of the given host, or <code>null</code> when the request tracker
+     * updates are not coalesced.
+     */
+    static RequestTrackerUpdateAggregator forHost(ServiceHost host) {
+        if (FLUSH_INTERVAL_MILLIS <= 0) {
+            return null;
+        }
+        return AGGREGATORS.computeIfAbsent(host.getId(),
+                id -> new RequestTrackerUpdateAggregator(host));
+    }
+
+    /**
+     * Returns the body of a request tracker update with the given task statuses.
+     */
+    static TaskStatusState toBody(List<TaskStatusState> taskStatuses) {
+        if (taskStatuses.size() == 1) {
+            return taskStatuses.get(0);
+        }
+        TaskStatusUpdates body = new TaskStatusUpdates();
+        body.taskStatusUpdates = taskStatuses;
+        return body;
+    }
+
+    /**
+     * Adds the given task status to the ones pending for the request tracker, scheduling their
+     * delivery if none were pending.
+     */
+    synchronized void submit(String requestTrackerLink, TaskStatusState taskStatus) {
+        Map<String, TaskStatusState> updates = this.pendingUpdates.get(requestTrackerLink);
+        if (updates == null) {
+            updates = new LinkedHashMap<>();
+            this.pendingUpdates.put(requestTrackerLink, updates);
+            this.host.schedule(() -> flush(requestTrackerLink), FLUSH_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+        // keep the statuses in the order of their last update
+        updates.remove(taskStatus.documentSelfLink);
+        updates.put(taskStatus.documentSelfLink, taskStatus);
+    }
+
+    /**
+     * Removes and returns the task statuses pending for the request tracker, in the order they
+     * should be applied.
+     */
+    synchronized List<TaskStatusState> drain(String requestTrackerLink) {
+        Map<String, TaskStatusState> updates = this.pendingUpdates.remove(requestTrackerLink);
+        return updates == null ? new ArrayList<>() : new ArrayList<>(updates.values());
+    }
+
+    private void flush(String requestTrackerLink) {
+        List<TaskStatusState> taskStatuses = drain(requestTrackerLink);
+        if (this.host.isStopping()) {
+            AGGREGATORS.remove(this.host.getId(), this);
+            return;
+        }
+        if (taskStatuses.isEmpty()) {
+            return;
+        }
+
+        Operation.createPatch(this.host, requestTrackerLink)
+                .setReferer(this.host.getUri())
+                .setBodyNoCloning(toBody(taskStatuses))
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        // log but don't retry, the final statuses are not coalesced
+                        this.host.log(Level.WARNING,
+                                "Failed to update request tracker: %s. Error: %s",
+                                requestTrackerLink, e.getMessage());
+                    }
+                }).sendWith(this.host);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.BearerTokenCache.Token;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Utils;
+
+public class BearerTokenCacheTest {
+
+    private static final String KEY = BearerTokenCache.buildKey("https://auth", "registry",
+            "repository:test:pull", "/credentials/1");
+
+    private final BearerTokenCache cache = new BearerTokenCache();
+
+    @Test
+    public void testTokenIsCached() {
+        AtomicInteger requests = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals("token-1", getValue(cache.getToken(KEY, () -> DeferredResult.completed(
+                    new Token("token-" + requests.incrementAndGet(), 300)))));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testCachedToken() {
+        assertNull(cache.getCachedToken(KEY));
+
+        cache.getToken(KEY, () -> DeferredResult.completed(new Token("token", 300)));
+        assertEquals("token", cache.getCachedToken(KEY));
+
+        cache.invalidate(KEY, "token");
+        assertNull(cache.getCachedToken(KEY));
+    }
+
+    @Test
+    public void testExpiredTokenIsNotCached() {
+        long lifetimeMicros = TimeUnit.MINUTES.toMicros(5);
+        cache.getToken(KEY, () -> DeferredResult.completed(new Token("expired",
+                Utils.getSystemNowMicrosUtc() - 2 * lifetimeMicros, lifetimeMicros)));
+
+        assertNull(cache.getCachedToken(KEY));
+    }
+
+    @Test
+    public void testConcurrentCallersShareRequest() {
+        AtomicInteger requests = new AtomicInteger();
+        DeferredResult<Token> pendingRequest = new DeferredResult<>();
+
+        DeferredResult<String> first = cache.getToken(KEY, () -> {
+            requests.incrementAndGet();
+            return pendingRequest;
+        });
+        DeferredResult<String> second = cache.getToken(KEY, () -> {
+            requests.incrementAndGet();
+            return pendingRequest;
+        });
+        assertFalse(first.toCompletionStage().toCompletableFuture().isDone());
+
+        pendingRequest.complete(new Token("token", 300));
+        assertEquals("token", getValue(first));
+        assertEquals("token", getValue(second));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testTokenDueForRefreshIsServedWhileRefreshed() {
+        // issued long enough ago to be due for refresh, but not expired
+        long lifetimeMicros = TimeUnit.MINUTES.toMicros(5);
+        long issuedAtMicros = Utils.getSystemNowMicrosUtc() - lifetimeMicros
+                + TimeUnit.SECONDS.toMicros(10);
+        cache.getToken(KEY, () -> DeferredResult.completed(
+                new Token("old", issuedAtMicros, lifetimeMicros)));
+
+        DeferredResult<Token> refreshRequest = new DeferredResult<>();
+        assertEquals("old", getValue(cache.getToken(KEY, () -> refreshRequest)));
+
+        refreshRequest.complete(new Token("new", 300));
+        assertEquals("new", getValue(cache.getToken(KEY, () -> {
+            throw new IllegalStateException("unexpected token request");
+        })));
+    }
+
+    @Test
+    public void testInvalidatedTokenIsRequestedAgain() {
+        cache.getToken(KEY, () -> DeferredResult.completed(new Token("rejected", 300)));
+        cache.invalidate(KEY, "rejected");
+
+        assertEquals("new", getValue(cache.getToken(KEY,
+                () -> DeferredResult.completed(new Token("new", 300)))));
+    }
+
+    @Test
+    public void testFailedRequestIsNotCached() {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        cache.getToken(KEY, () -> DeferredResult.failed(new IllegalStateException("denied")))
+                .whenComplete((t, ex) -> failure.set(ex));
+        assertTrue(failure.get() != null);
+
+        assertEquals("token", getValue(cache.getToken(KEY,
+                () -> DeferredResult.completed(new Token("token", 300)))));
+    }
+
+    private static String getValue(DeferredResult<String> result) {
+        return result.toCompletionStage().toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+import com.vmware.admiral.compute.PlacementCapacityUpdateTaskService.AggregatedComputeStats;
+import com.vmware.admiral.compute.PlacementCapacityUpdateTaskService.ComputeStats;
+import com.vmware.admiral.compute.container.GroupResourcePlacementService.GroupResourcePlacementState;
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolQueryHelper;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolQueryHelper.QueryResult;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolQueryHelper.QueryResult.ResourcePoolData;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * Keeps the capacity and usage figures of the resource pools up to date from the changes of
+ * their computes. The figures of each compute are kept in memory, so that a change is applied to
+ * its resource pools as the difference between its previous and its new figures, instead of
+ * aggregating all computes of the pools again. Changes are coalesced for
+ * {@link #FLUSH_DELAY_MILLIS} and only the resource pools which figures changed are updated.
+ * The placements of a resource pool are only retrieved when its total memory decreases.
+ *
+ * The figures are rebuilt from all computes by {@link #rebuild()}, which also verifies that the
+ * applied changes did not drift from the actual figures. Each node keeps its own ledger from the
+ * changes of all computes, but updates the resource pools only for the computes it owns.
+ */
+final class PlacementCapacityLedger {
+
+    private static final long FLUSH_DELAY_MILLIS = Long.getLong(
+            "com.vmware.admiral.compute.placement.capacity.flush.delay.millis", 2000);
+
+    /**
+     * Figures of a compute as applied to the resource pools it is part of.
+     */
+    private static class ComputeEntry {
+        ComputeStats stats;
+        Set<String> resourcePoolLinks;
+
+        // the fields used by the resource pool queries
+        String resourcePoolLink;
+        Set<String> tagLinks;
+    }
+
+    private final Service service;
+
+    private final Map<String, ComputeEntry> computes = new HashMap<>();
+    private final Map<String, AggregatedComputeStats> pools = new HashMap<>();
+    // total memory of each pool to update when it was last updated, null if not known
+    private final Map<String, Long> dirtyPools = new HashMap<>();
+    private final Map<String, ComputeState> pendingComputes = new HashMap<>();
+    private boolean loaded;
+
+    private final Map<String, ComputeDescription> descriptions = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    PlacementCapacityLedger(Service service) {
+        this.service = service;
+    }
+
+    /**
+     * Queues the given created, updated or deleted computes to be applied to their resource
+     * pools.
+     */
+    void computesChanged(Collection<ComputeState> changedComputes) {
+        synchronized (this) {
+            for (ComputeState compute : changedComputes) {
+                this.pendingComputes.put(compute.documentSelfLink, compute);
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Rebuilds the figures from all computes of all resource pools, and updates the resource pools
+     * which figures differ from the rebuilt ones.
+     */
+    void rebuild() {
+        if (!this.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+
+        ResourcePoolQueryHelper helper = ResourcePoolQueryHelper.create(this.service.getHost());
+        helper.setExpandComputes(true);
+        helper.query()
+                .thenCompose(qr -> {
+                    if (qr.error != null) {
+                        return DeferredResult.<QueryResult> failed(qr.error);
+                    }
+                    // descriptions rarely change, they are only retrieved again when rebuilding
+                    this.descriptions.clear();
+                    return loadDescriptions(qr.computesByLink.values()).thenApply(ignore -> qr);
+                })
+                .whenComplete((qr, e) -> {
+                    this.rebuilding.set(false);
+                    if (e != null) {
+                        log(Level.WARNING, "Failed to rebuild placement capacity figures: %s",
+                                Utils.toString(e));
+                        return;
+                    }
+                    applyRebuild(qr);
+                    scheduleFlush();
+                });
+    }
+
+    private synchronized void applyRebuild(QueryResult qr) {
+        Map<String, AggregatedComputeStats> rebuiltPools = new HashMap<>();
+        for (String rpLink : qr.resourcesPools.keySet()) {
+            rebuiltPools.put(rpLink, new AggregatedComputeStats());
+        }
+
+        this.computes.clear();
+        for (ComputeState compute : qr.computesByLink.values()) {
+            ComputeEntry entry = createEntry(compute,
+                    qr.rpLinksByComputeLink.get(compute.documentSelfLink));
+            this.computes.put(compute.documentSelfLink, entry);
+            if (entry.stats == null) {
+                continue;
+            }
+            for (String rpLink : entry.resourcePoolLinks) {
+                AggregatedComputeStats poolStats = rebuiltPools.get(rpLink);
+                if (poolStats != null) {
+                    poolStats.add(entry.stats, 1);
+                }
+            }
+        }
+
+        for (ResourcePoolData rpData : qr.resourcesPools.values()) {
+            String rpLink = rpData.resourcePoolState.documentSelfLink;
+            ResourcePoolState rebuiltPatch = PlacementCapacityUpdateTaskService
+                    .buildResourcePoolPatch(rebuiltPools.get(rpLink));
+
+            AggregatedComputeStats previous = this.pools.get(rpLink);
+            if (this.loaded && previous != null && !isSameFigures(rebuiltPatch,
+                    PlacementCapacityUpdateTaskService.buildResourcePoolPatch(previous))) {
+                log(Level.INFO, "Capacity figures of %s drifted from the rebuilt ones", rpLink);
+            }
+            if (!isSameFigures(rebuiltPatch, rpData.resourcePoolState)) {
+                this.dirtyPools.put(rpLink, null);
+            }
+        }
+
+        this.pools.clear();
+        this.pools.putAll(rebuiltPools);
+        this.loaded = true;
+    }
+
+    private void scheduleFlush() {
+        if (!this.flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        this.service.getHost().schedule(() -> {
+            this.flushScheduled.set(false);
+            flush();
+        }, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        Map<String, ComputeState> changedComputes;
+        Set<String> unresolvedLinks = new HashSet<>();
+        synchronized (this) {
+            if (!this.loaded) {
+                // the pending changes are applied once the figures are rebuilt
+                return;
+            }
+            changedComputes = new HashMap<>(this.pendingComputes);
+            this.pendingComputes.clear();
+
+            for (ComputeState compute : changedComputes.values()) {
+                ComputeEntry previous = this.computes.get(compute.documentSelfLink);
+                if (!isDeleted(compute) && (previous == null
+                        || !Objects.equals(previous.resourcePoolLink, compute.resourcePoolLink)
+                        || !Objects.equals(previous.tagLinks, compute.tagLinks))) {
+                    unresolvedLinks.add(compute.documentSelfLink);
+                }
+            }
+        }
+
+        List<ComputeState> updatedComputes = changedComputes.values().stream()
+                .filter(c -> !isDeleted(c))
+                .collect(Collectors.toList());
+        resolveResourcePools(unresolvedLinks)
+                .thenCompose(rpLinksByComputeLink -> loadDescriptions(updatedComputes)
+                        .thenApply(ignore -> rpLinksByComputeLink))
+                .whenComplete((rpLinksByComputeLink, e) -> {
+                    if (e != null) {
+                        log(Level.WARNING, "Failed to apply compute changes to placement capacity"
+                                + " figures: %s", Utils.toString(e));
+                        synchronized (this) {
+                            changedComputes.forEach(this.pendingComputes::putIfAbsent);
+                        }
+                        return;
+                    }
+                    applyChanges(changedComputes.values(), rpLinksByComputeLink);
+                    updateResourcePools();
+                });
+    }
+
+    private synchronized void applyChanges(Collection<ComputeState> changedComputes,
+            Map<String, Set<String>> rpLinksByComputeLink) {
+        String hostId = this.service.getHost().getId();
+        for (ComputeState compute : changedComputes) {
+            ComputeEntry previous = this.computes.remove(compute.documentSelfLink);
+            ComputeEntry entry = null;
+            if (!isDeleted(compute)) {
+                Set<String> rpLinks = rpLinksByComputeLink.get(compute.documentSelfLink);
+                if (rpLinks == null) {
+                    rpLinks = previous != null ? previous.resourcePoolLinks
+                            : Collections.emptySet();
+                }
+                entry = createEntry(compute, rpLinks);
+                this.computes.put(compute.documentSelfLink, entry);
+            }
+
+            if (isSameFigures(previous, entry)) {
+                continue;
+            }
+
+            // the owner of the compute updates its resource pools
+            boolean update = compute.documentOwner == null || hostId.equals(compute.documentOwner);
+            applyToPools(previous, -1, update);
+            applyToPools(entry, 1, update);
+        }
+    }
+
+    private void applyToPools(ComputeEntry entry, int sign, boolean update) {
+        if (entry == null || entry.stats == null) {
+            return;
+        }
+        for (String rpLink : entry.resourcePoolLinks) {
+            AggregatedComputeStats poolStats = this.pools.get(rpLink);
+            if (poolStats == null) {
+                // resource pools created after the last rebuild are updated by the capacity
+                // update task triggered on their configuration
+                continue;
+            }
+            if (update && !this.dirtyPools.containsKey(rpLink)) {
+                this.dirtyPools.put(rpLink, poolStats.totalMemoryBytes);
+            }
+            poolStats.add(entry.stats, sign);
+        }
+    }
+
+    private void updateResourcePools() {
+        Map<String, ResourcePoolState> patches = new HashMap<>();
+        Map<String, Long> previousMemory;
+        synchronized (this) {
+            previousMemory = new HashMap<>(this.dirtyPools);
+            this.dirtyPools.clear();
+            for (String rpLink : previousMemory.keySet()) {
+                AggregatedComputeStats poolStats = this.pools.get(rpLink);
+                if (poolStats != null) {
+                    patches.put(rpLink,
+                            PlacementCapacityUpdateTaskService.buildResourcePoolPatch(poolStats));
+                }
+            }
+        }
+
+        patches.forEach((rpLink, patch) -> Operation.createPatch(this.service, rpLink)
+                .setBodyNoCloning(patch)
+                .setCompletion((o, e) -> {
+                    if (e instanceof ServiceNotFoundException) {
+                        synchronized (this) {
+                            this.pools.remove(rpLink);
+                        }
+                        return;
+                    }
+                    if (e != null) {
+                        log(Level.WARNING, "Unable to update resource pool '%s': %s", rpLink,
+                                Utils.toString(e));
+                        return;
+                    }
+                    Long memory = previousMemory.get(rpLink);
+                    if (memory == null || patch.maxMemoryBytes < memory) {
+                        updatePlacements(rpLink, patch.maxMemoryBytes);
+                    }
+                }).sendWith(this.service));
+    }
+
+    private void updatePlacements(String rpLink, long totalMemoryBytes) {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(GroupResourcePlacementState.class)
+                .addFieldClause(GroupResourcePlacementState.FIELD_NAME_RESOURCE_POOL_LINK, rpLink)
+                .build();
+        new QueryByPages<>(this.service.getHost(), query, GroupResourcePlacementState.class, null)
+                .collectDocuments(Collectors.toList())
+                .whenComplete((placements, e) -> {
+                    if (e != null) {
+                        log(Level.WARNING, "Error querying placements for resource pool '%s': %s",
+                                rpLink, Utils.toString(e));
+                        return;
+                    }
+                    for (GroupResourcePlacementState placement : PlacementCapacityUpdateTaskService
+                            .shrinkPlacements(placements, totalMemoryBytes)) {
+                        Operation.createPut(this.service, placement.documentSelfLink)
+                                .setBodyNoCloning(placement)
+                                .setCompletion((o, ex) -> {
+                                    if (ex != null) {
+                                        log(Level.WARNING, "Unable to update placement '%s': %s",
+                                                placement.documentSelfLink, Utils.toString(ex));
+                                    }
+                                }).sendWith(this.service);
+                    }
+                });
+    }
+
+    private DeferredResult<Map<String, Set<String>>> resolveResourcePools(
+            Collection<String> computeLinks) {
+        if (computeLinks.isEmpty()) {
+            return DeferredResult.completed(Collections.emptyMap());
+        }
+        return ResourcePoolQueryHelper.createForComputes(this.service.getHost(), computeLinks)
+                .query()
+                .thenCompose(qr -> {
+                    if (qr.error != null) {
+                        return DeferredResult.<Map<String, Set<String>>> failed(qr.error);
+                    }
+                    return DeferredResult.completed(qr.rpLinksByComputeLink);
+                });
+    }
+
+    private DeferredResult<Void> loadDescriptions(Collection<ComputeState> computes) {
+        Set<String> descriptionLinks = computes.stream()
+                .map(c -> c.descriptionLink)
+                .filter(link -> link != null && !this.descriptions.containsKey(link))
+                .collect(Collectors.toSet());
+        if (descriptionLinks.isEmpty()) {
+            return DeferredResult.completed(null);
+        }
+
+        Query query = Query.Builder.create()
+                .addKindFieldClause(ComputeDescription.class)
+                .addInClause(ServiceDocument.FIELD_NAME_SELF_LINK, descriptionLinks)
+                .build();
+        return new QueryByPages<>(this.service.getHost(), query, ComputeDescription.class, null)
+                .queryDocuments(d -> this.descriptions.put(d.documentSelfLink, d));
+    }
+
+    private ComputeEntry createEntry(ComputeState compute, Set<String> rpLinks) {
+        ComputeEntry entry = new ComputeEntry();
+        ComputeDescription description = compute.descriptionLink != null
+                ? this.descriptions.get(compute.descriptionLink) : null;
+        entry.stats = description != null
+                ? PlacementCapacityUpdateTaskService.getComputeStats(compute, description) : null;
+        entry.resourcePoolLinks = rpLinks != null ? rpLinks : Collections.emptySet();
+        entry.resourcePoolLink = compute.resourcePoolLink;
+        entry.tagLinks = compute.tagLinks;
+        return entry;
+    }
+
+    private static boolean isSameFigures(ComputeEntry previous, ComputeEntry entry) {
+        if (previous == null || entry == null) {
+            return previous == entry;
+        }
+        if (!previous.resourcePoolLinks.equals(entry.resourcePoolLinks)) {
+            return false;
+        }
+        if (previous.stats == null || entry.stats == null) {
+            return previous.stats == entry.stats;
+        }
+        return previous.stats.totalMemoryBytes == entry.stats.totalMemoryBytes
+                && previous.stats.cpuCoreCount == entry.stats.cpuCoreCount
+                && previous.stats.cpuMhzPerCore == entry.stats.cpuMhzPerCore
+                && previous.stats.availableMemoryBytes == entry.stats.availableMemoryBytes
+                && Double.compare(previous.stats.cpuUsage, entry.stats.cpuUsage) == 0;
+    }
+
+    private static boolean isSameFigures(ResourcePoolState patch, ResourcePoolState current) {
+        return Objects.equals(patch.maxMemoryBytes, current.maxMemoryBytes)
+                && current.customProperties != null
+                && patch.customProperties.entrySet().stream().allMatch(
+                        e -> e.getValue().equals(current.customProperties.get(e.getKey())));
+    }
+
+    private static boolean isDeleted(ComputeState compute) {
+        return Action.DELETE.toString().equals(compute.documentUpdateAction);
+    }
+
+    private void log(Level level, String fmt, Object... args) {
+        this.service.getHost().log(level, fmt, args);
+    }
+}
@@ -13,20 +13,22 @@ package com.vmware.admiral.compute;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
 
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Supplier;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.CommonContinuousQueries;
 import com.vmware.admiral.common.util.CommonContinuousQueries.ContinuousQueryId;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 
 /**
- * A stateless service that periodically triggers capacity update on placements and
- * placement zones based on the computes participating in them.
+ * A stateless service that keeps the capacity of placements and placement zones up to date
+ * based on the computes participating in them. Compute changes are applied incrementally by a
+ * {@link PlacementCapacityLedger}, which is periodically rebuilt from all computes.
  */
 public class PlacementCapacityUpdatePeriodicService extends StatelessService {
 
@@ -36,11 +38,7 @@ public class PlacementCapacityUpdatePeriodicService extends StatelessService {
             "dcp.management.placement.compute.periodic.maintenance.period.micros",
             MINUTES.toMicros(30));
 
-    // used to avoid refresh on compute change too soon after a previous refresh
-    private static final long PAUSE_SECONDS = Long.getLong(
-            "dcp.management.placement.compute.periodic.pause.seconds", 10);
-    private final AtomicBoolean paused = new AtomicBoolean();
-    private final AtomicBoolean invalidated = new AtomicBoolean();
+    private final PlacementCapacityLedger ledger = new PlacementCapacityLedger(this);
 
     public PlacementCapacityUpdatePeriodicService() {
         super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
@@ -50,52 +48,28 @@ public class PlacementCapacityUpdatePeriodicService extends StatelessService {
     @Override
     public void handlePeriodicMaintenance(Operation post) {
         post.complete();
-        doTrigger(() -> "Periodic refresh", false);
+        logFine("Periodic rebuild of placement capacity figures");
+        ledger.rebuild();
     }
 
     @Override
     public void handleStart(Operation startPost) {
         startPost.complete();
 
-        CommonContinuousQueries.subscribeTo(this.getHost(), ContinuousQueryId.COMPUTES,
+        CommonContinuousQueries.subscribeTo(this.getHost(), ContinuousQueryId.EXPANDED_COMPUTES,
                 this::onComputeChange);
+        ledger.rebuild();
     }
 
     public void onComputeChange(Operation op) {
         op.complete();
         QueryTask queryTask = op.getBody(QueryTask.class);
-        if (queryTask.results != null && queryTask.results.documentLinks != null
-                && !queryTask.results.documentLinks.isEmpty()) {
-            doTrigger(() -> String.format("Compute change: %s",
-                    String.join(", ", queryTask.results.documentLinks)), true);
+        if (queryTask.results != null && queryTask.results.documents != null
+                && !queryTask.results.documents.isEmpty()) {
+            List<ComputeState> computes = queryTask.results.documents.values().stream()
+                    .map(json -> Utils.fromJson(json, ComputeState.class))
+                    .collect(Collectors.toList());
+            ledger.computesChanged(computes);
         }
     }
-
-    private void doTrigger(Supplier<String> logSupplier, boolean postponeIfPaused) {
-        // do nothing if refresh is currently paused
-        if (!this.paused.compareAndSet(false, true)) {
-            String s = logSupplier.get() + " %s";
-            if (postponeIfPaused) {
-                logFine(s, "[postponed]");
-                invalidated.set(true);
-            } else {
-                logFine(s, "[not needed]");
-            }
-            return;
-        }
-
-        // refresh
-        logInfo(logSupplier);
-        PlacementCapacityUpdateTaskService.triggerForAllResourcePools(this);
-
-        // re-enable after the pause
-        this.getHost().schedule(() -> {
-            boolean isRefreshRequired = this.invalidated.getAndSet(false);
-            this.paused.set(false);
-
-            if (isRefreshRequired) {
-                doTrigger(() -> "Postponed refresh", false);
-            }
-        }, PAUSE_SECONDS, TimeUnit.SECONDS);
-    }
 }
@@ -108,7 +108,7 @@ public class PlacementCapacityUpdateTaskService extends
     /**
      * Represents collected statistics for a given compute.
      */
-    private static class ComputeStats {
+    static class ComputeStats {
         public long totalMemoryBytes;
         public long cpuCoreCount;
         public long cpuMhzPerCore;
@@ -120,7 +120,7 @@ public class PlacementCapacityUpdateTaskService extends
     /**
      * Represents aggregated statistics over multiple computes.
      */
-    private static class AggregatedComputeStats {
+    static class AggregatedComputeStats {
         @SuppressWarnings("unused")
         public long computeCount;
         public long totalMemoryBytes;
@@ -130,6 +130,19 @@ public class PlacementCapacityUpdateTaskService extends
 
         public double cpuUsageSumAllCores;
         public long availableMemoryBytes;
+
+        /**
+         * Adds the statistics of the given compute, or subtracts them when {@code sign} is -1.
+         */
+        void add(ComputeStats stats, int sign) {
+            computeCount += sign;
+            totalMemoryBytes += sign * stats.totalMemoryBytes;
+            cpuCoreCount += sign * stats.cpuCoreCount;
+            totalCpuMhz += sign * stats.cpuCoreCount * stats.cpuMhzPerCore;
+
+            availableMemoryBytes += sign * stats.availableMemoryBytes;
+            cpuUsageSumAllCores += sign * stats.cpuCoreCount * stats.cpuUsage;
+        }
     }
 
     /**
@@ -359,40 +372,19 @@ public class PlacementCapacityUpdateTaskService extends
                 continue;
             }
 
-            ComputeStats stats = getComputeStats(state, compute, computeDescription);
+            ComputeStats stats = getComputeStats(compute, computeDescription);
             if (stats == null) {
                 continue;
             }
 
-            aggregatedStats.computeCount++;
-            aggregatedStats.totalMemoryBytes += stats.totalMemoryBytes;
-            aggregatedStats.cpuCoreCount += stats.cpuCoreCount;
-            aggregatedStats.totalCpuMhz += stats.cpuCoreCount * stats.cpuMhzPerCore;
-
-            aggregatedStats.availableMemoryBytes += stats.availableMemoryBytes;
-            aggregatedStats.cpuUsageSumAllCores += stats.cpuCoreCount * stats.cpuUsage;
+            aggregatedStats.add(stats, 1);
         }
 
         return aggregatedStats;
     }
 
     private void updateResourcePool(PlacementCapacityUpdateTaskState state) {
-        // calculate average cpu usage per core
-        double totalCpuUsage = 0.0;
-        if (state.aggregatedStats.cpuCoreCount > 0) {
-            totalCpuUsage = state.aggregatedStats.cpuUsageSumAllCores
-                    / state.aggregatedStats.cpuCoreCount;
-        }
-
-        ResourcePoolState rpPatchState = new ResourcePoolState();
-        rpPatchState.customProperties = new HashMap<>();
-        rpPatchState.customProperties.put(
-                ContainerHostDataCollectionService.RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP,
-                Double.toString(totalCpuUsage));
-        rpPatchState.customProperties.put(
-                ContainerHostDataCollectionService.RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP,
-                Long.toString(state.aggregatedStats.availableMemoryBytes));
-        rpPatchState.maxMemoryBytes = state.aggregatedStats.totalMemoryBytes;
+        ResourcePoolState rpPatchState = buildResourcePoolPatch(state.aggregatedStats);
         sendRequest(Operation.createPatch(this, state.resourcePoolLink)
                 .setBody(rpPatchState)
                 .setCompletion((o, e) -> {
@@ -433,14 +425,63 @@ public class PlacementCapacityUpdateTaskService extends
 
     private void updatePlacements(PlacementCapacityUpdateTaskState state,
             List<GroupResourcePlacementState> placements) {
-        long diff = placements.stream().map(q -> q.memoryLimit).reduce(0L, (a, b) -> a + b)
-                - state.aggregatedStats.totalMemoryBytes;
-        if (diff <= 0) {
+        Set<GroupResourcePlacementState> placementsToUpdate = shrinkPlacements(placements,
+                state.aggregatedStats.totalMemoryBytes);
+        if (placementsToUpdate.isEmpty()) {
             logFine("No placement update needed for resource pool '%s'", state.resourcePoolLink);
             proceedTo(PlacementCapacityUpdateTaskState.SubStage.COMPLETED);
             return;
         }
 
+        Collection<Operation> placementUpdateOps = placementsToUpdate.stream()
+                .map(p -> Operation.createPut(this, p.documentSelfLink)
+                        .setBody(p)
+                        .setReferer(getUri()))
+                .collect(Collectors.toList());
+        OperationJoin.create(placementUpdateOps).setCompletion((ops, exs) -> {
+            if (exs != null) {
+                failTask("Error updating placements", exs.values().iterator().next());
+            } else {
+                proceedTo(PlacementCapacityUpdateTaskState.SubStage.COMPLETED);
+            }
+        }).sendWith(this);
+    }
+
+    /**
+     * Builds the patch of the capacity and usage figures of a resource pool with the given
+     * aggregated stats of its computes.
+     */
+    static ResourcePoolState buildResourcePoolPatch(AggregatedComputeStats aggregatedStats) {
+        // calculate average cpu usage per core
+        double totalCpuUsage = 0.0;
+        if (aggregatedStats.cpuCoreCount > 0) {
+            totalCpuUsage = aggregatedStats.cpuUsageSumAllCores / aggregatedStats.cpuCoreCount;
+        }
+
+        ResourcePoolState rpPatchState = new ResourcePoolState();
+        rpPatchState.customProperties = new HashMap<>();
+        rpPatchState.customProperties.put(
+                ContainerHostDataCollectionService.RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP,
+                Double.toString(totalCpuUsage));
+        rpPatchState.customProperties.put(
+                ContainerHostDataCollectionService.RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP,
+                Long.toString(aggregatedStats.availableMemoryBytes));
+        rpPatchState.maxMemoryBytes = aggregatedStats.totalMemoryBytes;
+        return rpPatchState;
+    }
+
+    /**
+     * Decreases the memory limits of the given placements when they reserve more memory than
+     * the total memory of their resource pool. Returns the placements which limits changed.
+     */
+    static Set<GroupResourcePlacementState> shrinkPlacements(
+            List<GroupResourcePlacementState> placements, long totalMemoryBytes) {
+        long diff = placements.stream().map(q -> q.memoryLimit).reduce(0L, (a, b) -> a + b)
+                - totalMemoryBytes;
+        if (diff <= 0) {
+            return new HashSet<>();
+        }
+
         // Sort the placements by their "normalized" priority (priority divided by the sum of
         // all priorities in the group). We do that because the priorities are relative within
         // the group. E.g. Group A has two placements with priorities 1 and 2; group B has two
@@ -476,18 +517,7 @@ public class PlacementCapacityUpdateTaskService extends
             }
         }
 
-        Collection<Operation> placementUpdateOps = placementsToUpdate.stream()
-                .map(p -> Operation.createPut(this, p.documentSelfLink)
-                        .setBody(p)
-                        .setReferer(getUri()))
-                .collect(Collectors.toList());
-        OperationJoin.create(placementUpdateOps).setCompletion((ops, exs) -> {
-            if (exs != null) {
-                failTask("Error updating placements", exs.values().iterator().next());
-            } else {
-                proceedTo(PlacementCapacityUpdateTaskState.SubStage.COMPLETED);
-            }
-        }).sendWith(this);
+        return placementsToUpdate;
     }
 
     /**
@@ -498,8 +528,11 @@ public class PlacementCapacityUpdateTaskService extends
         return tenantAndGroupLinks != null ? String.join("/", tenantAndGroupLinks) : "";
     }
 
-    private ComputeStats getComputeStats(PlacementCapacityUpdateTaskState state,
-            ComputeState compute,
+    /**
+     * Returns the statistics of the given compute, or {@code null} if it does not host containers
+     * or VMs.
+     */
+    static ComputeStats getComputeStats(ComputeState compute,
             ComputeDescription computeDescription) {
         if (computeDescription.supportedChildren != null) {
             if (computeDescription.supportedChildren.contains(ComputeType.DOCKER_CONTAINER.name())) {
@@ -512,7 +545,7 @@ public class PlacementCapacityUpdateTaskService extends
         return null;
     }
 
-    private ComputeStats getContainerHostStats(ComputeState compute,
+    private static ComputeStats getContainerHostStats(ComputeState compute,
             ComputeDescription description) {
         ComputeStats stats = new ComputeStats();
 
@@ -530,7 +563,8 @@ public class PlacementCapacityUpdateTaskService extends
         return stats;
     }
 
-    private ComputeStats getComputeHostStats(ComputeState compute, ComputeDescription description) {
+    private static ComputeStats getComputeHostStats(ComputeState compute,
+            ComputeDescription description) {
         ComputeStats stats = new ComputeStats();
 
         stats.totalMemoryBytes = description.totalMemoryBytes;
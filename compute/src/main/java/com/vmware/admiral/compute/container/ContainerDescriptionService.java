@@ -627,6 +627,7 @@ public class ContainerDescriptionService extends StatefulService {
             validateState(putBody);
             putBody.copyTenantLinks(getState(put));
             this.setState(put, putBody);
+            DescriptionMemoryLimits.getInstance(getHost()).remove(getSelfLink());
             put.setBody(putBody).complete();
         } catch (Throwable e) {
             put.fail(e);
@@ -666,6 +667,8 @@ public class ContainerDescriptionService extends StatefulService {
         if (currentSignature.equals(newSignature)) {
             currentState = null;
             patch.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+        } else {
+            DescriptionMemoryLimits.getInstance(getHost()).remove(getSelfLink());
         }
 
         patch.setBody(currentState).complete();
@@ -673,6 +676,7 @@ public class ContainerDescriptionService extends StatefulService {
 
     @Override
     public void handleDelete(Operation delete) {
+        DescriptionMemoryLimits.getInstance(getHost()).remove(getSelfLink());
 
         if (delete.getBodyRaw() == null) {
             super.handleDelete(delete);
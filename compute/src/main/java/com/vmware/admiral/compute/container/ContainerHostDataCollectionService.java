@@ -19,11 +19,13 @@ import java.net.ConnectException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
@@ -54,6 +56,7 @@ import com.vmware.admiral.compute.ContainerHostUtil;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.GroupResourcePlacementService.GroupResourcePlacementState;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionState;
 import com.vmware.admiral.compute.container.HostNetworkListDataCollection.NetworkListCallback;
 import com.vmware.admiral.compute.container.HostVolumeListDataCollection.VolumeListCallback;
 import com.vmware.admiral.compute.kubernetes.KubernetesEntityDataCollection;
@@ -110,6 +113,19 @@ public class ContainerHostDataCollectionService extends StatefulService {
             "com.vmware.admiral.compute.container.host.frequency.interval.micros",
             TimeUnit.SECONDS.toMicros(20));
 
+    /**
+     * When enabled and host events subscriptions are allowed, the containers of docker hosts are
+     * kept up to date from their event streams. The containers, networks and volumes of a host
+     * are then only listed in full every {@link #FULL_INVENTORY_INTERVAL_MICROS} and whenever its
+     * event stream (re)connects, since events sent while disconnected are lost.
+     */
+    public static final boolean INCREMENTAL_INVENTORY_ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.compute.container.host.dc.incremental");
+
+    private static final long FULL_INVENTORY_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.host.dc.full.interval.micros",
+            TimeUnit.HOURS.toMicros(1));
+
     public static final String RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP = "__cpuUsage";
     public static final String RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP = "__availableMemory";
 
@@ -275,11 +291,7 @@ public class ContainerHostDataCollectionService extends StatefulService {
                                 if (ContainerHostUtil.isKubernetesHost(computeState)) {
                                     updateKubernetesEntities(computeState.documentSelfLink);
                                 } else {
-                                    // These can be changed back to accepting only the self link
-                                    // because the adapter can only be docker.
-                                    updateContainerHostContainers(computeState);
-                                    updateContainerHostNetworks(computeState);
-                                    updateContainerHostVolumes(computeState.documentSelfLink);
+                                    updateContainerHostInventory(computeState);
                                 }
                                 updateHostStats(computeState);
 
@@ -296,6 +308,9 @@ public class ContainerHostDataCollectionService extends StatefulService {
                             }
                         }, null);
                     } else {
+                        if (INCREMENTAL_INVENTORY_ENABLED) {
+                            clearContainerHostListing(computeState.documentSelfLink);
+                        }
                         // TODO multiple operations in parallel for the same RP;
                         // needs to be reworked
                         updateResourcePool(computeState,
@@ -663,6 +678,12 @@ public class ContainerHostDataCollectionService extends StatefulService {
                         Long.toString(resourcePoolAvailableMemory));
         rpPatchState.maxMemoryBytes = totalMemory;
         rpPatchState.minMemoryBytes = 0L;
+        if (isSameCapacity(rpPatchState, resourcePoolState)) {
+            // The resource pool is up to date, but its placements may have changed since they
+            // were last reconciled with these figures
+            updatePlacements(rpPatchState);
+            return;
+        }
         sendRequest(Operation.createPatch(this, rpPatchState.documentSelfLink)
                 .setAuthorizationContext(getSystemAuthorizationContext())
                 .setBodyNoCloning(rpPatchState).setCompletion((op, e) -> {
@@ -674,6 +695,16 @@ public class ContainerHostDataCollectionService extends StatefulService {
                 }));
     }
 
+    private static boolean isSameCapacity(ResourcePoolState rpPatchState,
+            ResourcePoolState resourcePoolState) {
+        return Objects.equals(rpPatchState.maxMemoryBytes, resourcePoolState.maxMemoryBytes)
+                && Objects.equals(rpPatchState.minMemoryBytes, resourcePoolState.minMemoryBytes)
+                && resourcePoolState.customProperties != null
+                && rpPatchState.customProperties.entrySet().stream()
+                        .allMatch(e -> e.getValue().equals(
+                                resourcePoolState.customProperties.get(e.getKey())));
+    }
+
     private void updateHostStats(ComputeState computeHost) {
         AdapterRequest request = new AdapterRequest();
         request.operationTypeId = ContainerHostOperationType.STATS.id;
@@ -801,6 +832,45 @@ public class ContainerHostDataCollectionService extends StatefulService {
     }
 
     private void updateContainerHosts(List<ComputeState> hosts) {
+        if (!INCREMENTAL_INVENTORY_ENABLED) {
+            updateContainerHosts(hosts, false);
+            return;
+        }
+
+        ConfigurationUtil.getConfigProperty(this,
+                ConfigurationUtil.ALLOW_HOST_EVENTS_SUBSCRIPTIONS, (allow) -> {
+                    if (!Boolean.valueOf(allow)) {
+                        updateContainerHosts(hosts, false);
+                        return;
+                    }
+                    // the full listings of the hosts include the ones requested by the adapter
+                    // when their event streams (re)connect
+                    sendRequest(Operation.createGet(this, HostContainerListDataCollection
+                            .DEFAULT_HOST_CONTAINER_LIST_DATA_COLLECTION_LINK)
+                            .setCompletion((o, ex) -> {
+                                Map<String, Long> lastFullListingTimeMicrosByHost = null;
+                                if (ex != null) {
+                                    logWarning("Failed to retrieve the last container listings"
+                                            + " of hosts: %s", Utils.toString(ex));
+                                } else {
+                                    lastFullListingTimeMicrosByHost = o.getBody(
+                                            HostContainerListDataCollectionState.class)
+                                            .lastFullListingTimeMicrosByHost;
+                                }
+                                updateContainerHosts(hosts, true,
+                                        lastFullListingTimeMicrosByHost != null
+                                                ? lastFullListingTimeMicrosByHost
+                                                : Collections.emptyMap());
+                            }));
+                });
+    }
+
+    private void updateContainerHosts(List<ComputeState> hosts, boolean useEvents) {
+        updateContainerHosts(hosts, useEvents, Collections.emptyMap());
+    }
+
+    private void updateContainerHosts(List<ComputeState> hosts, boolean useEvents,
+            Map<String, Long> lastFullListingTimeMicrosByHost) {
         for (ComputeState compute : hosts) {
             if (LifecycleState.SUSPEND == compute.lifecycleState) {
                 logInfo("Skipping data collection for host %s as it is marked for removal.",
@@ -819,15 +889,61 @@ public class ContainerHostDataCollectionService extends StatefulService {
             if (PowerState.ON == compute.powerState) {
                 if (ContainerHostUtil.isKubernetesHost(compute)) {
                     updateKubernetesEntities(compute.documentSelfLink);
+                } else if (useEvents) {
+                    updateContainerHostInventoryFromEvents(compute,
+                            lastFullListingTimeMicrosByHost.get(compute.documentSelfLink));
                 } else {
-                    updateContainerHostContainers(compute);
-                    updateContainerHostNetworks(compute);
-                    updateContainerHostVolumes(compute.documentSelfLink);
+                    updateContainerHostInventory(compute);
                 }
             }
         }
     }
 
+    private void updateContainerHostInventory(ComputeState cs) {
+        // These can be changed back to accepting only the self link
+        // because the adapter can only be docker.
+        updateContainerHostContainers(cs);
+        updateContainerHostNetworks(cs);
+        updateContainerHostVolumes(cs.documentSelfLink);
+    }
+
+    /**
+     * Makes sure the host is subscribed for events, which keep its containers up to date, and
+     * only lists its containers, networks and volumes if the full inventory interval elapsed
+     * since its containers were last listed in full.
+     */
+    private void updateContainerHostInventoryFromEvents(ComputeState cs,
+            Long lastFullListingTimeMicros) {
+        // the adapter ignores the subscription if the event stream of the host is already open
+        subscribeHostForEvents(cs);
+
+        if (lastFullListingTimeMicros != null && lastFullListingTimeMicros
+                + FULL_INVENTORY_INTERVAL_MICROS > Utils.getSystemNowMicrosUtc()) {
+            logFine("Skipping full inventory of host %s, it is updated from events",
+                    cs.documentSelfLink);
+            return;
+        }
+        updateContainerHostInventory(cs);
+    }
+
+    /**
+     * Forgets the last full listing of the containers of a removed host.
+     */
+    private void clearContainerHostListing(String containerHostLink) {
+        ContainerListCallback body = new ContainerListCallback();
+        body.containerHostLink = containerHostLink;
+        body.unlockDataCollectionForHost = true;
+        sendRequest(Operation.createPatch(this,
+                HostContainerListDataCollection.DEFAULT_HOST_CONTAINER_LIST_DATA_COLLECTION_LINK)
+                .setBodyNoCloning(body)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning("Failed to clear the container listing of host %s: %s",
+                                containerHostLink, Utils.toString(ex));
+                    }
+                }));
+    }
+
     private QueryTask createDockerComputeDescriptionQuery() {
         QueryTask q = QueryUtil.buildQuery(ComputeDescription.class, true);
         QueryTask.Query hostTypeClause = new QueryTask.Query()
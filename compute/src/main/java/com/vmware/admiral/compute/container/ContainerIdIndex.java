@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.xenon.common.ServiceHost;
+
+/**
+ * In-memory index of the container states by docker container id, per container host. There is
+ * one index per service host. It is kept current by the container states created, collected and
+ * removed on that host, so it may miss containers or hold links of removed ones: callers are
+ * expected to fall back to a query on a miss and to remove the entries whose link is not found.
+ */
+public final class ContainerIdIndex {
+
+    // the indexes are dropped together with their stopped service hosts
+    private static final Map<ServiceHost, ContainerIdIndex> INSTANCES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    // container host link -> container id -> container state link
+    private final Map<String, Map<String, String>> linksByHost = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    ContainerIdIndex() {
+    }
+
+    public static ContainerIdIndex getInstance(ServiceHost host) {
+        return INSTANCES.computeIfAbsent(host, h -> new ContainerIdIndex());
+    }
+
+    public void put(String containerHostLink, String containerId, String containerLink) {
+        if (containerHostLink == null || containerId == null || containerLink == null) {
+            return;
+        }
+        linksByHost.computeIfAbsent(containerHostLink, k -> new ConcurrentHashMap<>())
+                .put(containerId, containerLink);
+    }
+
+    public void remove(String containerHostLink, String containerId) {
+        if (containerHostLink == null || containerId == null) {
+            return;
+        }
+        linksByHost.computeIfPresent(containerHostLink, (k, links) -> {
+            links.remove(containerId);
+            return links.isEmpty() ? null : links;
+        });
+    }
+
+    /**
+     * Removes the entry of the given container id only if it still points to the given container
+     * link, so entries added for another container with the same id are kept.
+     */
+    public void remove(String containerHostLink, String containerId, String containerLink) {
+        if (containerHostLink == null || containerId == null || containerLink == null) {
+            return;
+        }
+        linksByHost.computeIfPresent(containerHostLink, (k, links) -> {
+            links.remove(containerId, containerLink);
+            return links.isEmpty() ? null : links;
+        });
+    }
+
+    /**
+     * Replaces the indexed containers of a host with the given container links by id, after all
+     * containers of the host were collected.
+     */
+    public void replace(String containerHostLink, Map<String, String> linksById) {
+        if (linksById.isEmpty()) {
+            linksByHost.remove(containerHostLink);
+            return;
+        }
+        linksByHost.put(containerHostLink, new ConcurrentHashMap<>(linksById));
+    }
+
+    /**
+     * Returns the link of the container state with the given id on the given host, or
+     * {@code null} if it is not indexed.
+     */
+    public String get(String containerHostLink, String containerId) {
+        Map<String, String> links = linksByHost.get(containerHostLink);
+        String containerLink = links != null ? links.get(containerId) : null;
+        if (containerLink == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return containerLink;
+    }
+
+    public int size() {
+        return linksByHost.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+}
@@ -19,6 +19,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 import com.esotericsoftware.kryo.serializers.VersionFieldSerializer.Since;
@@ -309,6 +310,9 @@ public class ContainerService extends StatefulService {
             if (body.powerState == null) {
                 body.powerState = PowerState.UNKNOWN;
             }
+            ContainerIdIndex.getInstance(getHost()).put(body.parentLink, body.id,
+                    getSelfLink());
+            HealthProbeScheduler.getInstance().containerChanged(getSelfLink(), body);
         }
 
         startPost.complete();
@@ -324,6 +328,7 @@ public class ContainerService extends StatefulService {
         putBody.copyTenantLinks(getState(put));
 
         this.setState(put, putBody);
+        HealthProbeScheduler.getInstance().containerChanged(getSelfLink(), putBody);
         put.setBody(putBody).complete();
     }
 
@@ -340,13 +345,26 @@ public class ContainerService extends StatefulService {
         ServiceDocumentDescription docDesc = getDocumentTemplate().documentDescription;
         String currentSignature = Utils.computeSignature(currentState, docDesc);
 
+        String previousParentLink = currentState.parentLink;
+        String previousId = currentState.id;
         PropertyUtils.mergeServiceDocuments(currentState, patchBody);
 
+        if (patchBody.id != null || patchBody.parentLink != null) {
+            ContainerIdIndex index = ContainerIdIndex.getInstance(getHost());
+            if (!Objects.equals(previousParentLink, currentState.parentLink)
+                    || !Objects.equals(previousId, currentState.id)) {
+                index.remove(previousParentLink, previousId, getSelfLink());
+            }
+            index.put(currentState.parentLink, currentState.id, getSelfLink());
+        }
+
         String newSignature = Utils.computeSignature(currentState, docDesc);
 
         // if the signature hasn't change we shouldn't modify the state
         if (currentSignature.equals(newSignature)) {
             patch.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+        } else {
+            HealthProbeScheduler.getInstance().containerChanged(getSelfLink(), currentState);
         }
 
         if (ContainerUtil.isDiscoveredContainer(currentState)) {
@@ -365,6 +383,10 @@ public class ContainerService extends StatefulService {
         ContainerState currentState = getState(delete);
         super.handleDelete(delete);
 
+        ContainerIdIndex.getInstance(getHost()).remove(currentState.parentLink, currentState.id,
+                getSelfLink());
+        HealthProbeScheduler.getInstance().containerRemoved(getSelfLink());
+
         deleteContainerDescription(currentState, DELETE_DESCRIPTION_RETRY_COUNT);
     }
 
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * In-memory cache of the memory limits of the resource descriptions reserved against group
+ * resource placements, so that their reservations complete without retrieving the descriptions.
+ * There is one cache per service host. The container descriptions remove their entry when they
+ * are updated or deleted on that host. Updates applied on other hosts of a cluster are not seen,
+ * so the entries also expire after {@link #MAX_AGE_MICROS}.
+ */
+public final class DescriptionMemoryLimits {
+
+    static final long MAX_AGE_MICROS = TimeUnit.SECONDS.toMicros(Long.getLong(
+            "com.vmware.admiral.compute.placement.memory.limit.max.age.seconds", 60));
+
+    private static final int MAX_SIZE = Integer.getInteger(
+            "com.vmware.admiral.compute.placement.memory.limit.cache.size", 10_000);
+
+    // the caches are dropped together with their stopped service hosts
+    private static final Map<ServiceHost, DescriptionMemoryLimits> INSTANCES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final class Entry {
+        final Long memoryLimit;
+        final long cachedMicros;
+
+        Entry(Long memoryLimit, long cachedMicros) {
+            this.memoryLimit = memoryLimit;
+            this.cachedMicros = cachedMicros;
+        }
+    }
+
+    private final Map<String, Entry> entriesByDescriptionLink = new ConcurrentHashMap<>();
+
+    DescriptionMemoryLimits() {
+    }
+
+    public static DescriptionMemoryLimits getInstance(ServiceHost host) {
+        return INSTANCES.computeIfAbsent(host, h -> new DescriptionMemoryLimits());
+    }
+
+    /**
+     * Returns the memory limit of the given description, empty if it has none, or {@code null}
+     * if it is not cached.
+     */
+    public Optional<Long> get(String descriptionLink) {
+        Entry entry = entriesByDescriptionLink.get(descriptionLink);
+        if (entry == null) {
+            return null;
+        }
+        if (Utils.getNowMicrosUtc() - entry.cachedMicros > MAX_AGE_MICROS) {
+            entriesByDescriptionLink.remove(descriptionLink, entry);
+            return null;
+        }
+        return Optional.ofNullable(entry.memoryLimit);
+    }
+
+    public void put(String descriptionLink, Long memoryLimit) {
+        if (entriesByDescriptionLink.size() >= MAX_SIZE) {
+            entriesByDescriptionLink.clear();
+        }
+        entriesByDescriptionLink.put(descriptionLink,
+                new Entry(memoryLimit, Utils.getNowMicrosUtc()));
+    }
+
+    public void remove(String descriptionLink) {
+        entriesByDescriptionLink.remove(descriptionLink);
+    }
+
+    public int size() {
+        return entriesByDescriptionLink.size();
+    }
+}
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 
@@ -422,43 +423,55 @@ public class GroupResourcePlacementService extends StatefulService {
             return;
         }
 
-        state.availableInstancesCount = currentCount;
-        state.allocatedInstancesCount += request.resourceCount;
-
-        sendRequest(Operation
-                .createGet(this, request.resourceDescriptionLink)
-                .setCompletion(
-                        (o, e) -> {
-                            if (Operation.STATUS_CODE_NOT_FOUND == o.getStatusCode()
-                                    || e instanceof CancellationException) {
-                                logWarning(
-                                        "Resource description %s not found. There might be "
-                                                + "some inconsistencies with memory allocations",
-                                        request.resourceDescriptionLink);
-                                patch.setBody(state).complete();
-                                return;
-                            }
-                            if (e != null) {
-                                patch.fail(new LocalizableValidationException(
-                                        "Unable to get the resource description with link: "
-                                                + request.resourceDescriptionLink,
-                                        "compute.resource-placement.unavailable",
-                                        request.resourceDescriptionLink));
-                                return;
-                            }
+        getMemoryLimit(patch, request.resourceDescriptionLink, (memoryBytes) -> {
+            if (reserveMemory(patch, request, state, memoryBytes)) {
+                /*
+                 * The reserveMemory method will fail the patch if the requested memory is not
+                 * right
+                 */
+                state.availableInstancesCount = currentCount;
+                state.allocatedInstancesCount += request.resourceCount;
+                patch.setBody(state).complete();
+            }
+        });
+    }
 
-                            ContainerDescriptionService.ContainerDescription desc = o.getBody(
-                                    ContainerDescriptionService.ContainerDescription.class);
-                            Long memoryBytes = desc.memoryLimit;
+    /**
+     * Resolves the memory limit of the given description, {@code null} if it has none or it is
+     * not found. The cached limits are used when available, so that most reservations complete
+     * without leaving the handler.
+     */
+    private void getMemoryLimit(Operation patch, String descLink,
+            Consumer<Long> callbackFunction) {
+        DescriptionMemoryLimits memoryLimits = DescriptionMemoryLimits.getInstance(getHost());
+        Optional<Long> memoryLimit = memoryLimits.get(descLink);
+        if (memoryLimit != null) {
+            callbackFunction.accept(memoryLimit.orElse(null));
+            return;
+        }
 
-                            if (reserveMemory(patch, request, state, memoryBytes)) {
-                                /*
-                                 * The reserveMemory method will fail the patch if the requested
-                                 * memory is not right
-                                 */
-                                patch.setBody(state).complete();
-                            }
-                        }));
+        sendRequest(Operation
+                .createGet(this, descLink)
+                .setCompletion((o, e) -> {
+                    if (Operation.STATUS_CODE_NOT_FOUND == o.getStatusCode()
+                            || e instanceof CancellationException) {
+                        logWarning("Resource description %s not found. There might be "
+                                + "some inconsistencies with memory allocations", descLink);
+                        callbackFunction.accept(null);
+                        return;
+                    }
+                    if (e != null) {
+                        patch.fail(new LocalizableValidationException(
+                                "Unable to get the resource description with link: " + descLink,
+                                "compute.resource-placement.unavailable", descLink));
+                        return;
+                    }
+
+                    ContainerDescriptionService.ContainerDescription desc = o.getBody(
+                            ContainerDescriptionService.ContainerDescription.class);
+                    memoryLimits.put(descLink, desc.memoryLimit);
+                    callbackFunction.accept(desc.memoryLimit);
+                }));
     }
 
     private boolean reserveMemory(Operation patch,
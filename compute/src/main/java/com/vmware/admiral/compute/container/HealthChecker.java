@@ -14,7 +14,6 @@ package com.vmware.admiral.compute.container;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -34,11 +33,8 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 
 import com.vmware.admiral.common.DeploymentProfileConfig;
-import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.serialization.ReleaseConstants;
 import com.vmware.admiral.common.util.AssertUtil;
-import com.vmware.admiral.common.util.QueryUtil;
-import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.ServiceUtils;
 import com.vmware.admiral.common.util.UriUtilsExtended;
 import com.vmware.admiral.compute.ContainerHostUtil;
@@ -52,7 +48,6 @@ import com.vmware.admiral.compute.container.maintenance.ContainerStats;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.OperationContext;
-import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.ServiceDocument.Documentation;
 import com.vmware.xenon.common.ServiceDocument.UsageOption;
@@ -60,7 +55,6 @@ import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
-import com.vmware.xenon.services.common.QueryTask;
 
 /**
  * Describes a container instance. The same description service instance can be re-used across many
@@ -217,36 +211,47 @@ public class HealthChecker {
                 || containerDescription.healthConfig.protocol == null) {
             host.log(Level.FINE, "Container's health config not set for: %s",
                     containerDescription.documentSelfLink);
+            HealthProbeScheduler.getInstance().unregister(containerDescription.documentSelfLink);
             return;
         }
 
-        QueryTask compositeQueryTask = QueryUtil.buildQuery(ContainerState.class, true);
-
-        QueryUtil.addExpandOption(compositeQueryTask);
-
-        String containerDescriptionLink = UriUtils.buildUriPath(
-                ManagementUriParts.CONTAINER_DESC,
-                Service.getId(containerDescription.documentSelfLink));
-        QueryUtil.addListValueClause(compositeQueryTask,
-                ContainerState.FIELD_NAME_DESCRIPTION_LINK,
-                Arrays.asList(containerDescriptionLink));
-
-        new ServiceDocumentQuery<>(host, ContainerState.class)
-                .query(compositeQueryTask, (r) -> {
-                    if (r.hasException()) {
-                        host.log(Level.SEVERE,
-                                "Failed to retrieve child containers for: %s - %s",
-                                containerDescriptionLink, Utils.toString(r.getException()));
-                    } else if (r.hasResult()) {
-                        doHealthCheckRequest(host, r.getResult(), containerDescription.healthConfig,
-                                null);
-                    }
-                });
+        // the containers of the description are probed on their own schedule from now on
+        HealthProbeScheduler.getInstance().register(host, containerDescription);
+    }
+
+    /**
+     * Probes the container at the given address and port, as resolved by
+     * {@link #determineContainerHostPort}, without updating its health status. The callback gets
+     * the failure of the probe, or {@code null} if the probe succeeded.
+     */
+    void probe(ServiceHost host, ContainerState containerState, HealthConfig healthConfig,
+            String targetAddress, Integer targetPort, Consumer<Throwable> callback) {
+        switch (healthConfig.protocol) {
+        case HTTP:
+            probeHttp(host, containerState, healthConfig, targetAddress, targetPort, callback);
+            break;
+        case TCP:
+            probeTcp(healthConfig, targetAddress, targetPort, callback);
+            break;
+        case COMMAND:
+            probeExec(host, containerState, healthConfig, callback);
+            break;
+        default:
+            callback.accept(new IllegalArgumentException(String.format(
+                    "Health config protocol not supported: %s", healthConfig.protocol)));
+            break;
+        }
     }
 
     private void healthCheckExec(ServiceHost host, ContainerState containerState,
             HealthConfig healthConfig,
             Consumer<ContainerStats> callback) {
+        probeExec(host, containerState, healthConfig,
+                (ex) -> handleHealthResponse(host, containerState, ex, callback));
+    }
+
+    private void probeExec(ServiceHost host, ContainerState containerState,
+            HealthConfig healthConfig, Consumer<Throwable> callback) {
 
         ShellContainerExecutorState executorState = new ShellContainerExecutorState();
         executorState.command = ShellContainerExecutorService
@@ -268,7 +273,7 @@ public class HealthChecker {
                         host.log(Level.SEVERE, "Error executing health check for %s : %s",
                                 UriUtils.getLastPathSegment(containerState.documentSelfLink),
                                 e.getMessage());
-                        handleHealthResponse(host, containerState, e, callback);
+                        callback.accept(e);
                         return;
                     }
 
@@ -284,7 +289,7 @@ public class HealthChecker {
                         host.log(Level.WARNING, s);
                         e = new RuntimeException(s);
                     }
-                    handleHealthResponse(host, containerState, e, callback);
+                    callback.accept(e);
                 }));
     }
 
@@ -293,8 +298,19 @@ public class HealthChecker {
             Consumer<ContainerStats> callback) {
         if (targetAddress == null) {
             determineContainerHostPort(host, containerState, healthConfig,
-                    (address, port) -> healthCheckTcp(host, containerState, healthConfig,
-                            address, port, callback));
+                    (address, port) -> probeTcp(healthConfig, address, port,
+                            (ex) -> handleHealthResponse(host, containerState, ex, callback)));
+            return;
+        }
+
+        probeTcp(healthConfig, targetAddress, targetPort,
+                (ex) -> handleHealthResponse(host, containerState, ex, callback));
+    }
+
+    private void probeTcp(HealthConfig healthConfig, String targetAddress, Integer targetPort,
+            Consumer<Throwable> callback) {
+        if (targetAddress == null) {
+            callback.accept(new IllegalStateException("Container address could not be resolved"));
             return;
         }
 
@@ -309,7 +325,7 @@ public class HealthChecker {
         channelFuture.addListener((ChannelFutureListener) result -> {
             try {
                 OperationContext.setFrom(origContext);
-                handleHealthResponse(host, containerState, result.cause(), callback);
+                callback.accept(result.cause());
             } finally {
                 result.channel().close();
             }
@@ -322,8 +338,21 @@ public class HealthChecker {
 
         if (targetAddress == null) {
             determineContainerHostPort(host, containerState, healthConfig,
-                    (address, port) -> healthCheckHttp(host, containerState, healthConfig,
-                            address, port, callback));
+                    (address, port) -> probeHttp(host, containerState, healthConfig,
+                            address, port,
+                            (ex) -> handleHealthResponse(host, containerState, ex, callback)));
+            return;
+        }
+
+        probeHttp(host, containerState, healthConfig, targetAddress, targetPort,
+                (ex) -> handleHealthResponse(host, containerState, ex, callback));
+    }
+
+    private void probeHttp(ServiceHost host, ContainerState containerState,
+            HealthConfig healthConfig, String targetAddress, Integer targetPort,
+            Consumer<Throwable> callback) {
+        if (targetAddress == null) {
+            callback.accept(new IllegalStateException("Container address could not be resolved"));
             return;
         }
 
@@ -333,7 +362,7 @@ public class HealthChecker {
         } catch (URISyntaxException e) {
             host.log(Level.SEVERE, "Health config for container description %s is invalid: %s",
                     containerState.descriptionLink, Utils.toJson(e));
-            handleHealthResponse(host, containerState, e, callback);
+            callback.accept(e);
             return;
         }
 
@@ -342,7 +371,7 @@ public class HealthChecker {
                 .createGet(uri)
                 .setAction(healthConfig.httpMethod)
                 .setReferer(UriUtils.buildUri(host.getPublicUri(), SERVICE_REFERRER_PATH))
-                .setCompletion((o, ex) -> handleHealthResponse(host, containerState, ex, callback));
+                .setCompletion((o, ex) -> callback.accept(ex));
 
         if (healthConfig.httpVersion == HttpVersion.HTTP_v2) {
             op.setConnectionSharing(true);
@@ -376,7 +405,7 @@ public class HealthChecker {
         }
     }
 
-    private void determineContainerHostPort(ServiceHost host, ContainerState containerState,
+    void determineContainerHostPort(ServiceHost host, ContainerState containerState,
             HealthConfig healthConfig, BiConsumer<String, Integer> callback) {
 
         if (healthConfig.port == null) {
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.HealthChecker.HealthConfig;
+import com.vmware.admiral.compute.container.maintenance.ContainerHealthEvaluator;
+import com.vmware.admiral.compute.container.maintenance.ContainerStats;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+
+/**
+ * Probes the health of the containers of the descriptions with a health config on a fixed
+ * interval per container. The due probes are kept in a hashed timer wheel, so scheduling a
+ * probe does not depend on the number of probed containers, and the first probe of every
+ * container is spread randomly over the interval instead of probing all containers of a
+ * description at once.
+ *
+ * The address and port of each container are resolved once and kept until its state changes.
+ * The probes running against the containers of one host are limited, the probes above the limit
+ * are deferred. Probe results are sent as {@link ContainerStats} patches in batches, and only
+ * while they may still change the health status of the container, i.e. until the healthy or
+ * unhealthy threshold is reached.
+ *
+ * The containers are tracked by the state changes of the containers on this node, and the
+ * containers of every description are queried again from time to time. Since the containers may
+ * be owned by other nodes, the state of a container is read again before counting a failed probe,
+ * and the failure is not counted if the container was changed in the meantime.
+ *
+ * The unhealthy listeners are called once the failures of a container reach the unhealthy
+ * threshold, and again with a growing backoff for as long as its probes keep failing.
+ */
+public final class HealthProbeScheduler {
+
+    private static final long PROBE_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.health.probe.interval.micros",
+            TimeUnit.SECONDS.toMicros(120));
+    private static final long RESYNC_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.health.probe.resync.interval.micros",
+            TimeUnit.MINUTES.toMicros(10));
+    private static final long DESCRIPTION_EXPIRATION_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.health.probe.description.expiration.micros",
+            TimeUnit.MINUTES.toMicros(10));
+    private static final int MAX_PROBES_PER_HOST = Integer.getInteger(
+            "com.vmware.admiral.compute.container.health.probe.max.per.host", 4);
+    private static final int PATCH_BATCH_SIZE = Integer.getInteger(
+            "com.vmware.admiral.compute.container.health.probe.patch.batch.size", 32);
+    private static final long PATCH_FLUSH_INTERVAL_MILLIS = Long.getLong(
+            "com.vmware.admiral.compute.container.health.probe.patch.flush.millis", 1000);
+    static final int MAX_UNHEALTHY_BACKOFF_PROBES = Integer.getInteger(
+            "com.vmware.admiral.compute.container.health.probe.unhealthy.max.backoff", 30);
+
+    // delay of the probes deferred because of the limit of probes per host
+    private static final long DEFERRED_PROBE_DELAY_MILLIS = 500;
+
+    private static final HealthProbeScheduler INSTANCE = new HealthProbeScheduler();
+
+    static class DescriptionProbes {
+        final ServiceHost host;
+        final String descriptionLink;
+        volatile HealthConfig healthConfig;
+        volatile String healthConfigSignature;
+        volatile long lastRegisteredMicros;
+        volatile long lastSyncMicros;
+
+        DescriptionProbes(ServiceHost host, String descriptionLink) {
+            this.host = host;
+            this.descriptionLink = descriptionLink;
+        }
+    }
+
+    static class ContainerProbe {
+        final String containerLink;
+        final DescriptionProbes description;
+        volatile ContainerState containerState;
+        // resolved address and port of the probe, reset when the container state changes
+        volatile boolean resolved;
+        volatile String address;
+        volatile Integer port;
+        // consecutive results of the probes on this node, to skip the patches which do not
+        // change the health status
+        volatile int successCount;
+        volatile int failureCount;
+        // failure count at which the unhealthy listeners are called next
+        volatile int nextUnhealthyFailureCount;
+        volatile boolean removed;
+
+        ContainerProbe(String containerLink, DescriptionProbes description,
+                ContainerState containerState) {
+            this.containerLink = containerLink;
+            this.description = description;
+            this.containerState = containerState;
+        }
+    }
+
+    private static class ProbeResult {
+        final ServiceHost host;
+        final String containerLink;
+        final ContainerStats stats;
+
+        ProbeResult(ServiceHost host, String containerLink, ContainerStats stats) {
+            this.host = host;
+            this.containerLink = containerLink;
+            this.stats = stats;
+        }
+    }
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(
+            new DefaultThreadFactory("health-probe-timer", true), 100, TimeUnit.MILLISECONDS,
+            512);
+
+    private final Map<String, DescriptionProbes> descriptions = new ConcurrentHashMap<>();
+    private final Map<String, ContainerProbe> probes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> runningProbesByHost = new ConcurrentHashMap<>();
+    private final Queue<ProbeResult> pendingResults = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final List<BiConsumer<HealthConfig, ContainerState>> unhealthyListeners =
+            new CopyOnWriteArrayList<>();
+
+    HealthProbeScheduler() {
+    }
+
+    public static HealthProbeScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds a listener called with the health config and the last known state of every container
+     * whose probes failed as many times in a row as the unhealthy threshold of its description,
+     * and again after twice as many failures (at most {@link #MAX_UNHEALTHY_BACKOFF_PROBES} more)
+     * while its probes keep failing.
+     */
+    public void addUnhealthyListener(BiConsumer<HealthConfig, ContainerState> listener) {
+        unhealthyListeners.add(listener);
+    }
+
+    public void removeUnhealthyListener(BiConsumer<HealthConfig, ContainerState> listener) {
+        unhealthyListeners.remove(listener);
+    }
+
+    /**
+     * Starts or keeps probing the containers of the given description. It is expected to be
+     * called periodically for as long as the description has a health config, the probes of
+     * descriptions which are not registered again are stopped.
+     */
+    public void register(ServiceHost host, ContainerDescription description) {
+        long nowMicros = Utils.getSystemNowMicrosUtc();
+        String signature = Utils.toJson(description.healthConfig);
+
+        DescriptionProbes entry = descriptions.computeIfAbsent(description.documentSelfLink,
+                link -> new DescriptionProbes(host, link));
+        entry.lastRegisteredMicros = nowMicros;
+
+        boolean healthConfigChanged = !signature.equals(entry.healthConfigSignature);
+        if (healthConfigChanged) {
+            entry.healthConfig = description.healthConfig;
+            entry.healthConfigSignature = signature;
+            for (ContainerProbe probe : probes.values()) {
+                if (probe.description == entry) {
+                    probe.resolved = false;
+                }
+            }
+        }
+
+        if (healthConfigChanged || nowMicros - entry.lastSyncMicros >= RESYNC_INTERVAL_MICROS) {
+            entry.lastSyncMicros = nowMicros;
+            syncContainers(entry);
+        }
+    }
+
+    public void unregister(String descriptionLink) {
+        DescriptionProbes entry = descriptions.remove(descriptionLink);
+        if (entry == null) {
+            return;
+        }
+        probes.values().removeIf(probe -> {
+            if (probe.description != entry) {
+                return false;
+            }
+            probe.removed = true;
+            return true;
+        });
+    }
+
+    /**
+     * Updates the state of the given container if its description is probed on this node, and
+     * starts probing it if it is new. The resolved address of the container is dropped, since
+     * its ports or host may have changed.
+     */
+    public void containerChanged(String containerLink, ContainerState containerState) {
+        if (containerState.descriptionLink == null) {
+            return;
+        }
+        DescriptionProbes entry = descriptions.get(containerState.descriptionLink);
+        if (entry == null) {
+            return;
+        }
+        updateProbe(entry, containerLink, Utils.clone(containerState));
+    }
+
+    public void containerRemoved(String containerLink) {
+        ContainerProbe probe = probes.remove(containerLink);
+        if (probe != null) {
+            probe.removed = true;
+        }
+    }
+
+    private void syncContainers(DescriptionProbes entry) {
+        QueryTask queryTask = QueryUtil.buildQuery(ContainerState.class, true);
+        QueryUtil.addExpandOption(queryTask);
+        QueryUtil.addListValueClause(queryTask, ContainerState.FIELD_NAME_DESCRIPTION_LINK,
+                Collections.singletonList(entry.descriptionLink));
+
+        Set<String> containerLinks = new HashSet<>();
+        new ServiceDocumentQuery<>(entry.host, ContainerState.class).query(queryTask, (r) -> {
+            if (r.hasException()) {
+                entry.host.log(Level.SEVERE, "Failed to retrieve child containers for: %s - %s",
+                        entry.descriptionLink, Utils.toString(r.getException()));
+            } else if (r.hasResult()) {
+                ContainerState containerState = r.getResult();
+                containerLinks.add(containerState.documentSelfLink);
+                updateProbe(entry, containerState.documentSelfLink, containerState);
+            } else {
+                // stop probing the containers which no longer exist
+                probes.values().removeIf(probe -> {
+                    if (probe.description != entry
+                            || containerLinks.contains(probe.containerLink)) {
+                        return false;
+                    }
+                    probe.removed = true;
+                    return true;
+                });
+            }
+        });
+    }
+
+    private void updateProbe(DescriptionProbes entry, String containerLink,
+            ContainerState containerState) {
+        boolean[] created = new boolean[1];
+        ContainerProbe probe = probes.compute(containerLink, (link, current) -> {
+            if (current == null || current.description != entry) {
+                if (current != null) {
+                    current.removed = true;
+                }
+                created[0] = true;
+                return new ContainerProbe(link, entry, containerState);
+            }
+            current.containerState = containerState;
+            current.resolved = false;
+            return current;
+        });
+
+        if (created[0]) {
+            // spread the first probes of the containers over the probe interval
+            schedule(probe, ThreadLocalRandom.current().nextLong(
+                    TimeUnit.MICROSECONDS.toMillis(PROBE_INTERVAL_MICROS) + 1));
+        }
+    }
+
+    private void schedule(ContainerProbe probe, long delayMillis) {
+        timer.newTimeout(t -> runProbe(probe), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runProbe(ContainerProbe probe) {
+        if (probe.removed) {
+            return;
+        }
+
+        DescriptionProbes entry = probe.description;
+        if (Utils.getSystemNowMicrosUtc() - entry.lastRegisteredMicros
+                > DESCRIPTION_EXPIRATION_MICROS) {
+            // the description was removed or it is maintained on another node now
+            unregister(entry.descriptionLink);
+            return;
+        }
+
+        long intervalMillis = TimeUnit.MICROSECONDS.toMillis(PROBE_INTERVAL_MICROS);
+        ContainerState containerState = probe.containerState;
+        if (containerState.powerState == PowerState.PAUSED
+                || containerState.powerState == PowerState.RETIRED
+                || containerState.powerState == PowerState.PROVISIONING
+                || containerState.powerState == PowerState.STOPPED) {
+            schedule(probe, intervalMillis);
+            return;
+        }
+
+        String hostLink = String.valueOf(containerState.parentLink);
+        AtomicInteger runningProbes = runningProbesByHost.computeIfAbsent(hostLink,
+                k -> new AtomicInteger());
+        if (runningProbes.incrementAndGet() > MAX_PROBES_PER_HOST) {
+            runningProbes.decrementAndGet();
+            schedule(probe, DEFERRED_PROBE_DELAY_MILLIS);
+            return;
+        }
+
+        HealthConfig healthConfig = entry.healthConfig;
+        resolveEndpoint(probe, healthConfig, () -> HealthChecker.getInstance().probe(
+                entry.host, containerState, healthConfig, probe.address, probe.port, (ex) -> {
+                    runningProbes.decrementAndGet();
+                    handleProbeResult(probe, containerState, healthConfig, ex,
+                            () -> schedule(probe, intervalMillis));
+                }));
+    }
+
+    /**
+     * Handles the result of a probe. The state of the container is read again before a failure
+     * is counted, since it may have been changed on another node, e.g. moved to another host.
+     */
+    void handleProbeResult(ContainerProbe probe, ContainerState containerState,
+            HealthConfig healthConfig, Throwable ex, Runnable callback) {
+        if (ex == null) {
+            handleResult(probe, containerState, healthConfig, null);
+            callback.run();
+            return;
+        }
+
+        ServiceHost host = probe.description.host;
+        host.sendRequest(Operation.createGet(host, probe.containerLink)
+                .setReferer(UriUtils.buildUri(host, HealthChecker.SERVICE_REFERRER_PATH))
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                            probes.remove(probe.containerLink, probe);
+                            probe.removed = true;
+                        } else {
+                            host.log(Level.WARNING, "Failed to retrieve container %s : %s",
+                                    probe.containerLink, Utils.toString(e));
+                            handleResult(probe, containerState, healthConfig, ex);
+                        }
+                    } else {
+                        ContainerState currentState = o.getBody(ContainerState.class);
+                        if (isProbedStateChanged(containerState, currentState)) {
+                            // probe the container as it is now instead of counting the failure
+                            probe.containerState = currentState;
+                            probe.resolved = false;
+                        } else {
+                            handleResult(probe, currentState, healthConfig, ex);
+                        }
+                    }
+                    callback.run();
+                }));
+    }
+
+    private static boolean isProbedStateChanged(ContainerState probedState,
+            ContainerState currentState) {
+        return probedState.powerState != currentState.powerState
+                || !Objects.equals(probedState.parentLink, currentState.parentLink)
+                || !Objects.equals(probedState.address, currentState.address)
+                || !Utils.toJson(probedState.ports).equals(Utils.toJson(currentState.ports));
+    }
+
+    private void resolveEndpoint(ContainerProbe probe, HealthConfig healthConfig,
+            Runnable callback) {
+        if (probe.resolved || healthConfig.protocol == HealthConfig.RequestProtocol.COMMAND) {
+            callback.run();
+            return;
+        }
+
+        HealthChecker.getInstance().determineContainerHostPort(probe.description.host,
+                probe.containerState, healthConfig, (address, port) -> {
+                    probe.address = address;
+                    probe.port = port;
+                    // resolve again on the next probe if the address is not known yet
+                    probe.resolved = address != null;
+                    callback.run();
+                });
+    }
+
+    void handleResult(ContainerProbe probe, ContainerState containerState,
+            HealthConfig healthConfig, Throwable ex) {
+        boolean patch;
+        boolean unhealthy = false;
+        if (ex == null) {
+            probe.failureCount = 0;
+            probe.nextUnhealthyFailureCount = 0;
+            probe.successCount = probe.successCount + 1;
+            patch = probe.successCount <= getThreshold(healthConfig.healthyThreshold,
+                    ContainerHealthEvaluator.DEFAULT_HEALTHY_THRESHOLD);
+        } else {
+            probe.description.host.log(Level.FINE, "Health probe failed for container %s : %s",
+                    probe.containerLink, ex.getMessage());
+            probe.successCount = 0;
+            probe.failureCount = probe.failureCount + 1;
+            int unhealthyThreshold = getThreshold(healthConfig.unhealthyThreshold,
+                    ContainerHealthEvaluator.DEFAULT_UNHEALTHY_THRESHOLD);
+            patch = probe.failureCount <= unhealthyThreshold;
+            unhealthy = probe.failureCount >= Math.max(unhealthyThreshold,
+                    probe.nextUnhealthyFailureCount);
+            if (unhealthy) {
+                // call the listeners again after twice as many failures, at most after the max
+                // backoff
+                probe.nextUnhealthyFailureCount = probe.failureCount + Math.max(1, Math.min(
+                        probe.failureCount, MAX_UNHEALTHY_BACKOFF_PROBES));
+            }
+        }
+
+        if (patch) {
+            ContainerStats stats = new ContainerStats();
+            stats.healthCheckSuccess = ex == null;
+            stats.containerStopped = containerState.powerState == PowerState.STOPPED;
+            pendingResults.add(new ProbeResult(probe.description.host, probe.containerLink, stats));
+            if (flushScheduled.compareAndSet(false, true)) {
+                timer.newTimeout(this::flushResults, PATCH_FLUSH_INTERVAL_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (unhealthy) {
+            for (BiConsumer<HealthConfig, ContainerState> listener : unhealthyListeners) {
+                try {
+                    listener.accept(healthConfig, containerState);
+                } catch (Exception e) {
+                    probe.description.host.log(Level.WARNING,
+                            "Unhealthy container listener failed: %s", Utils.toString(e));
+                }
+            }
+        }
+    }
+
+    private static int getThreshold(Integer threshold, int defaultThreshold) {
+        return threshold != null ? threshold : defaultThreshold;
+    }
+
+    private void flushResults(Timeout timeout) {
+        // the results added from now on schedule the next flush
+        flushScheduled.set(false);
+
+        Map<ServiceHost, List<Operation>> patchesByHost = new HashMap<>();
+        ProbeResult result;
+        while ((result = pendingResults.poll()) != null) {
+            ServiceHost host = result.host;
+            String containerLink = result.containerLink;
+            patchesByHost.computeIfAbsent(host, h -> new ArrayList<>()).add(Operation
+                    .createPatch(UriUtils.buildUri(host, containerLink))
+                    .setBodyNoCloning(result.stats)
+                    .setReferer(UriUtils.buildUri(host, HealthChecker.SERVICE_REFERRER_PATH))
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            host.log(Level.WARNING, "Failed to patch health status: %s : %s",
+                                    containerLink, Utils.toString(e));
+                        }
+                    }));
+        }
+        patchesByHost.forEach((host, patches) -> OperationJoin.create(patches)
+                .sendWith(host, PATCH_BATCH_SIZE));
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -92,6 +93,10 @@ public class HostContainerListDataCollection extends StatefulService {
             "com.vmware.admiral.system.container.ssl.retries", 3);
     private static final long SYSTEM_CONTAINER_SSL_RETRIES_WAIT = Long.getLong(
             "com.vmware.admiral.system.container.ssl.retries.wait.millis", 1000);
+    private static final long CONTAINER_EVENTS_RETRY_DELAY_SECONDS = Long.getLong(
+            "com.vmware.admiral.data.collection.container.events.retry.delay.seconds", 5);
+    private static final int MAX_DEFERRED_CONTAINER_EVENTS = Integer.getInteger(
+            "com.vmware.admiral.data.collection.container.events.deferred.max", 1000);
 
     public static class HostContainerListDataCollectionState extends
             TaskServiceDocument<DefaultSubStage> {
@@ -100,6 +105,13 @@ public class HostContainerListDataCollection extends StatefulService {
                 PropertyIndexingOption.STORE_ONLY,
                 PropertyIndexingOption.EXCLUDE_FROM_SIGNATURE })
         public Map<String, Long> containerHostLinks;
+
+        @Documentation(description = "The time of the last full listing of the containers of "
+                + "each container host.")
+        @PropertyOptions(indexing = {
+                PropertyIndexingOption.STORE_ONLY,
+                PropertyIndexingOption.EXCLUDE_FROM_SIGNATURE })
+        public Map<String, Long> lastFullListingTimeMicrosByHost;
     }
 
     public static class ContainerListCallback extends ServiceTaskCallbackResponse {
@@ -110,6 +122,19 @@ public class HostContainerListDataCollection extends StatefulService {
         public Map<String, String> containerIdsAndImage = new HashMap<>();
         public Map<String, PowerState> containerIdsAndState = new HashMap<>();
         public boolean unlockDataCollectionForHost;
+        /**
+         * Set together with {@code unlockDataCollectionForHost} when the containers of the host
+         * were listed in full. Unlocking without it makes the next data collection of the host
+         * list its containers in full.
+         */
+        public boolean fullListingCompleted;
+        /**
+         * When set, the callback carries container events of the host instead of the full list of
+         * its containers: the containers in {@code containerIdsAndNames} were created or renamed
+         * and the ones in {@code removedContainerIds} were destroyed.
+         */
+        public boolean incremental;
+        public List<String> removedContainerIds = new ArrayList<>();
 
         public void addIdAndNames(String id, String[] names) {
             AssertUtil.assertNotNull(id, "containerId");
@@ -235,6 +260,10 @@ public class HostContainerListDataCollection extends StatefulService {
         }
     }
 
+    // container events which arrived during a full data collection of their host
+    private final Map<String, ContainerListCallback> deferredContainerEventsByHost =
+            new ConcurrentHashMap<>();
+
     public HostContainerListDataCollection() {
         super(HostContainerListDataCollectionState.class);
         super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -321,12 +350,35 @@ public class HostContainerListDataCollection extends StatefulService {
             // patch to mark that there is no active list containers data collection for a given
             // host.
             state.containerHostLinks.remove(containerHostLink);
+            if (state.lastFullListingTimeMicrosByHost == null) {
+                state.lastFullListingTimeMicrosByHost = new HashMap<>();
+            }
+            if (body.fullListingCompleted) {
+                state.lastFullListingTimeMicrosByHost.put(containerHostLink,
+                        Utils.getSystemNowMicrosUtc());
+            } else {
+                state.lastFullListingTimeMicrosByHost.remove(containerHostLink);
+            }
             op.complete();
             return;
         }
 
         AssertUtil.assertNotNull(body.containerIdsAndNames, "containerIdsAndNames");
 
+        if (body.incremental) {
+            op.complete();
+            Long lockExpiration = state.containerHostLinks.get(containerHostLink);
+            if (lockExpiration != null
+                    && Instant.now().isBefore(Instant.ofEpochMilli(lockExpiration))) {
+                // A full data collection is active for the host and may have listed its
+                // containers before these events happened, apply them once it is done
+                deferContainerEvents(body);
+                return;
+            }
+            applyContainerEvents(body);
+            return;
+        }
+
         logFine("Host container list callback invoked for host [%s] with container IDs: %s",
                 containerHostLink, body.containerIdsAndNames.keySet());
 
@@ -409,6 +461,7 @@ public class HostContainerListDataCollection extends StatefulService {
             List<ContainerState> containerStates, String containerHostLink) {
         final List<String> systemContainersToInstall = SystemContainerDescriptions
                 .getSystemContainerNames();
+        Map<String, String> containerLinksById = new HashMap<>();
         for (ContainerState existingContainerState : containerStates) {
             boolean exists = false;
             if (existingContainerState.id != null) {
@@ -433,6 +486,10 @@ public class HostContainerListDataCollection extends StatefulService {
                 }
             } else {
                 callback.containerIdsAndNames.remove(existingContainerState.id);
+                if (existingContainerState.id != null) {
+                    containerLinksById.put(existingContainerState.id,
+                            existingContainerState.documentSelfLink);
+                }
 
                 updateExistingContainer(existingContainerState, callback);
 
@@ -441,6 +498,8 @@ public class HostContainerListDataCollection extends StatefulService {
             }
         }
 
+        ContainerIdIndex.getInstance(getHost()).replace(containerHostLink, containerLinksById);
+
         // finished removing existing ContainerState, now deal with remaining IDs
         List<ContainerState> containersLeft = new ArrayList<>();
         Set<ContainerState> systemContainersToStart = new HashSet<>();
@@ -513,13 +572,217 @@ public class HostContainerListDataCollection extends StatefulService {
                             handleDiscoveredSystemContainer(container, containerHostLink, null);
                         }
 
-                        unlockCurrentDataCollectionForHost(callback.containerHostLink);
+                        unlockCurrentDataCollectionForHost(callback.containerHostLink, true);
                     });
                 });
 
         sendRequest(operation);
     }
 
+    /**
+     * Merges the container events into the ones already deferred for the host, which are sent
+     * again once after a delay. If too many containers changed, the host is listed in full
+     * instead, once its active data collection is done.
+     */
+    private void deferContainerEvents(ContainerListCallback callback) {
+        AtomicBoolean schedule = new AtomicBoolean();
+        deferredContainerEventsByHost.compute(callback.containerHostLink, (link, deferred) -> {
+            if (deferred == null) {
+                schedule.set(true);
+                return callback;
+            }
+            if (!callback.incremental) {
+                return callback;
+            }
+            if (!deferred.incremental) {
+                return deferred;
+            }
+            for (String containerId : callback.removedContainerIds) {
+                deferred.containerIdsAndNames.remove(containerId);
+                deferred.containerIdsAndImage.remove(containerId);
+                if (!deferred.removedContainerIds.contains(containerId)) {
+                    deferred.removedContainerIds.add(containerId);
+                }
+            }
+            deferred.containerIdsAndNames.putAll(callback.containerIdsAndNames);
+            deferred.containerIdsAndImage.putAll(callback.containerIdsAndImage);
+            if (deferred.containerIdsAndNames.size() + deferred.removedContainerIds.size()
+                    > MAX_DEFERRED_CONTAINER_EVENTS) {
+                ContainerListCallback fullListing = new ContainerListCallback();
+                fullListing.containerHostLink = deferred.containerHostLink;
+                fullListing.hostAdapterReference = deferred.hostAdapterReference;
+                return fullListing;
+            }
+            return deferred;
+        });
+
+        if (schedule.get()) {
+            getHost().schedule(() -> {
+                ContainerListCallback deferred = deferredContainerEventsByHost
+                        .remove(callback.containerHostLink);
+                if (deferred == null) {
+                    return;
+                }
+                sendRequest(Operation
+                        .createPatch(getUri())
+                        .setBodyNoCloning(deferred)
+                        .setCompletion((o, ex) -> {
+                            if (ex == null && !deferred.incremental
+                                    && o.getStatusCode() == Operation.STATUS_CODE_NOT_MODIFIED) {
+                                // the data collection of the host is still active
+                                deferContainerEvents(deferred);
+                            }
+                        }));
+            }, CONTAINER_EVENTS_RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Applies the container events of an incremental callback, without listing the containers
+     * of the host. Only the ContainerStates of the containers in the events are queried.
+     */
+    private void applyContainerEvents(ContainerListCallback callback) {
+        Set<String> containerIds = new HashSet<>(callback.containerIdsAndNames.keySet());
+        containerIds.addAll(callback.removedContainerIds);
+        if (containerIds.isEmpty()) {
+            return;
+        }
+
+        logFine("Applying container events for host [%s]. Created or renamed: %s, removed: %s",
+                callback.containerHostLink, callback.containerIdsAndNames.keySet(),
+                callback.removedContainerIds);
+
+        QueryTask queryTask = QueryUtil.buildPropertyQuery(ContainerState.class,
+                ContainerState.FIELD_NAME_PARENT_LINK, callback.containerHostLink);
+        QueryUtil.addListValueClause(queryTask, ContainerState.FIELD_NAME_ID, containerIds);
+        QueryUtil.addExpandOption(queryTask);
+        QueryUtil.addBroadcastOption(queryTask);
+
+        Map<String, ContainerState> existingContainerStates = new HashMap<>();
+        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
+                .query(queryTask, (r) -> {
+                    if (r.hasException()) {
+                        logWarning("Failed to query ContainerStates for events of host [%s]: %s",
+                                callback.containerHostLink, Utils.toString(r.getException()));
+                    } else if (r.hasResult()) {
+                        existingContainerStates.put(r.getResult().id, r.getResult());
+                    } else {
+                        applyContainerEvents(callback, existingContainerStates);
+                    }
+                });
+    }
+
+    private void applyContainerEvents(ContainerListCallback callback,
+            Map<String, ContainerState> existingContainerStates) {
+        boolean containerCountChanged = false;
+        for (ContainerState containerState : existingContainerStates.values()) {
+            if (!callback.removedContainerIds.contains(containerState.id)) {
+                ContainerIdIndex.getInstance(getHost()).put(containerState.parentLink,
+                        containerState.id, containerState.documentSelfLink);
+            }
+        }
+        for (String containerId : callback.removedContainerIds) {
+            ContainerState containerState = existingContainerStates.get(containerId);
+            if (containerState != null && containerState.powerState != PowerState.RETIRED) {
+                handleMissingContainer(containerState);
+                containerCountChanged = true;
+            }
+        }
+
+        List<ContainerState> createdContainerStates = new ArrayList<>();
+        for (Entry<String, String> entry : callback.containerIdsAndNames.entrySet()) {
+            List<String> names = entry.getValue() == null
+                    ? null
+                    : new ArrayList<>(Arrays.asList(entry.getValue()
+                    .split(ContainerListCallback.NAME_SEPARATOR)));
+
+            ContainerState containerState = existingContainerStates.get(entry.getKey());
+            if (containerState != null) {
+                if (names != null && !names.equals(containerState.names)) {
+                    logInfo("Renaming container %s from %s to %s",
+                            containerState.documentSelfLink, containerState.names, names);
+                    ContainerState patch = new ContainerState();
+                    patch.names = names;
+                    sendRequest(Operation
+                            .createPatch(this, containerState.documentSelfLink)
+                            .setBodyNoCloning(patch));
+                }
+                updateExistingContainer(containerState, callback);
+                continue;
+            }
+
+            if (isSystemContainer(SystemContainerDescriptions.getSystemContainerNames(),
+                    names) != null) {
+                // system containers are handled by the full data collection
+                continue;
+            }
+
+            containerState = new ContainerState();
+            containerState.id = entry.getKey();
+            containerState.names = names;
+            containerState.image = callback.containerIdsAndImage.get(containerState.id);
+            containerState.descriptionLink = String.format("%s-%s",
+                    SystemContainerDescriptions.DISCOVERED_DESCRIPTION_LINK,
+                    UUID.randomUUID().toString());
+            containerState.parentLink = callback.containerHostLink;
+            containerState.adapterManagementReference = getContainerAdapterReference(
+                    callback.hostAdapterReference);
+            createdContainerStates.add(containerState);
+        }
+
+        if (createdContainerStates.isEmpty()) {
+            if (containerCountChanged) {
+                updateNumberOfContainers(callback.containerHostLink);
+            }
+            return;
+        }
+
+        // Containers created through a request get their ContainerState and id assigned by the
+        // provisioning task, make sure these are not discovered a second time
+        findContainersBeingProvisioned(callback.containerHostLink, (namesInProvisioning) -> {
+            createdContainerStates.removeIf(cs -> namesInProvisioning
+                    .contains(containerNamesToString(cs.names)));
+            sendRequest(Operation
+                    .createGet(this, callback.containerHostLink)
+                    .setCompletion((o, ex) -> {
+                        if (ex != null) {
+                            logWarning("Failure to retrieve host [%s]. Error: %s",
+                                    callback.containerHostLink, Utils.toString(ex));
+                            return;
+                        }
+                        List<String> group = o.getBody(ComputeState.class).tenantLinks;
+                        createdContainerStates.forEach(cs -> cs.tenantLinks = group);
+                        createDiscoveredContainers(createdContainerStates, (e) -> {
+                            if (e == null) {
+                                updateNumberOfContainers(callback.containerHostLink);
+                            }
+                        });
+                    }));
+        });
+    }
+
+    private void findContainersBeingProvisioned(String containerHostLink,
+            Consumer<Set<String>> consumer) {
+        QueryTask queryTask = QueryUtil.buildPropertyQuery(ContainerState.class,
+                ContainerState.FIELD_NAME_PARENT_LINK, containerHostLink,
+                ContainerState.FIELD_NAME_POWER_STATE, PowerState.PROVISIONING.name());
+        QueryUtil.addExpandOption(queryTask);
+
+        Set<String> names = new HashSet<>();
+        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
+                .query(queryTask, (r) -> {
+                    if (r.hasException()) {
+                        logWarning("Failed to query provisioning containers of host [%s]: %s",
+                                containerHostLink, Utils.toString(r.getException()));
+                        consumer.accept(names);
+                    } else if (r.hasResult()) {
+                        names.add(containerNamesToString(r.getResult().names));
+                    } else {
+                        consumer.accept(names);
+                    }
+                });
+    }
+
     private void updateExistingContainer(ContainerState c, ContainerListCallback callback) {
         boolean changed = false;
         ContainerState patch = new ContainerState();
@@ -890,9 +1153,15 @@ public class HostContainerListDataCollection extends StatefulService {
     }
 
     private void unlockCurrentDataCollectionForHost(String containerHostLink) {
+        unlockCurrentDataCollectionForHost(containerHostLink, false);
+    }
+
+    private void unlockCurrentDataCollectionForHost(String containerHostLink,
+            boolean fullListingCompleted) {
         ContainerListCallback body = new ContainerListCallback();
         body.containerHostLink = containerHostLink;
         body.unlockDataCollectionForHost = true;
+        body.fullListingCompleted = fullListingCompleted;
         sendRequest(Operation
                 .createPatch(getUri())
                 .setBodyNoCloning(body)
@@ -1088,6 +1357,9 @@ public class HostContainerListDataCollection extends StatefulService {
             return;
         }
 
+        ContainerIdIndex.getInstance(getHost()).remove(containerState.parentLink,
+                containerState.id, containerState.documentSelfLink);
+
         if (containerState.isDeleted) {
             // delete container state
             sendRequest(Operation
@@ -120,6 +120,18 @@ public class KubernetesEntityDataCollection extends StatefulService {
         public String computeHostLink;
         public Map<String, KubernetesEntityData> idToEntityData = new ConcurrentHashMap<>();
         public boolean unlockDataCollectionForHost;
+
+        /**
+         * Set when the entities are kept up to date by watching the cluster, so the existing
+         * entity states do not need to be inspected.
+         */
+        public boolean entitiesWatched;
+
+        /**
+         * Set when the callback only carries new entities of the host to create, instead of all
+         * entities of the host.
+         */
+        public boolean incremental;
     }
 
     public KubernetesEntityDataCollection() {
@@ -206,6 +218,13 @@ public class KubernetesEntityDataCollection extends StatefulService {
             return;
         }
 
+        if (body.incremental) {
+            op.complete();
+            createEntityStates(body, () -> {
+            });
+            return;
+        }
+
         KubernetesEntityDataCollectionState state = getState(op);
         if (body.unlockDataCollectionForHost) {
             // patch to mark that there is no active entity data collection for a given host.
@@ -284,12 +303,17 @@ public class KubernetesEntityDataCollection extends StatefulService {
             }
             if (!exists) {
                 handleMissingEntity(entityState);
-            } else {
+            } else if (!callback.entitiesWatched) {
                 requestEntityInspection(entityState);
             }
         }
 
         // finished removing existing entity states, now deal with remaining IDs
+        createEntityStates(callback,
+                () -> unlockCurrentDataCollectionForHost(callback.computeHostLink));
+    }
+
+    private void createEntityStates(EntityListCallback callback, Runnable completion) {
         List<BaseKubernetesState> entitiesLeft = new ArrayList<>();
         Set<String> compositeIdsToCreate = new HashSet<>();
         Operation operation = Operation
@@ -299,7 +323,7 @@ public class KubernetesEntityDataCollection extends StatefulService {
                             if (ex != null) {
                                 logSevere("Failure to retrieve host [%s]. Error: %s",
                                         callback.computeHostLink, Utils.toString(ex));
-                                unlockCurrentDataCollectionForHost(callback.computeHostLink);
+                                completion.run();
                                 return;
                             }
                             ComputeState host = o.getBody(ComputeState.class);
@@ -330,9 +354,8 @@ public class KubernetesEntityDataCollection extends StatefulService {
                                 }
                             }
                             createCompositeComponents(compositeIdsToCreate, () ->
-                                    createDiscoveredEntities(entitiesLeft, () ->
-                                            unlockCurrentDataCollectionForHost(
-                                                    callback.computeHostLink)));
+                                    createDiscoveredEntities(entitiesLeft,
+                                            callback.entitiesWatched, completion));
                         });
         sendRequest(operation);
     }
@@ -420,7 +443,11 @@ public class KubernetesEntityDataCollection extends StatefulService {
                 }));
     }
 
-    private void createDiscoveredEntities(List<BaseKubernetesState> entities,
+    /**
+     * Creates the states of the discovered entities. When the entities are watched, the new
+     * states are inspected right away, since they are not inspected by later data collections.
+     */
+    private void createDiscoveredEntities(List<BaseKubernetesState> entities, boolean inspect,
             Runnable callback) {
         if (entities.isEmpty()) {
             callback.run();
@@ -458,7 +485,8 @@ public class KubernetesEntityDataCollection extends StatefulService {
                                         entitiesFound.add(r.getResult());
                                     } else {
                                         if (entitiesFound.isEmpty()) {
-                                            createDiscoveredEntity(counter, entity, callback);
+                                            createDiscoveredEntity(counter, entity, inspect,
+                                                    callback);
                                         } else {
                                             if (counter.decrementAndGet() == 0) {
                                                 callback.run();
@@ -471,7 +499,7 @@ public class KubernetesEntityDataCollection extends StatefulService {
     }
 
     private void createDiscoveredEntity(AtomicInteger counter, BaseKubernetesState entity,
-            Runnable callback) {
+            boolean inspect, Runnable callback) {
 
         logFine("Creating KubernetesState for discovered entity: %s", entity.id);
         String type = KubernetesUtil.getResourceType(entity.getType()).getName();
@@ -491,6 +519,9 @@ public class KubernetesEntityDataCollection extends StatefulService {
                             } else {
                                 logInfo("Created KubernetesState for discovered entity: %s",
                                         entity.id);
+                                if (inspect) {
+                                    requestEntityInspection(o.getBody(ResourceState.class));
+                                }
                             }
                             if (counter.decrementAndGet() == 0) {
                                 callback.run();
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ComputeBaseTest;
+import com.vmware.admiral.compute.container.ContainerHostDataCollectionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription.ComputeType;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.StatelessService;
+
+/**
+ * Tests for the {@link PlacementCapacityLedger} class.
+ */
+public class PlacementCapacityLedgerTest extends ComputeBaseTest {
+
+    private PlacementCapacityLedger ledger;
+
+    @Before
+    public void setUp() throws Throwable {
+        StatelessService service = new StatelessService();
+        host.startServiceAndWait(service, "/test-placement-capacity-ledger", null);
+        ledger = new PlacementCapacityLedger(service);
+    }
+
+    @Test
+    public void testComputeChangesAreApplied() throws Throwable {
+        ResourcePoolState rp = createResourcePool();
+        ComputeDescription cd = createComputeDescription();
+        ComputeState c1 = createContainerHost(cd.documentSelfLink, rp.documentSelfLink,
+                4_000_000L, 2_000_000L);
+        ComputeState c2 = createContainerHost(cd.documentSelfLink, rp.documentSelfLink,
+                4_000_000L, 3_000_000L);
+
+        ledger.rebuild();
+        waitForFigures(rp.documentSelfLink, 8_000_000L, 5_000_000L);
+
+        // an updated compute is applied as the difference to its previous figures
+        c2.customProperties.put(ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME,
+                "1000000");
+        c2 = doPatch(c2, c2.documentSelfLink);
+        ledger.computesChanged(Collections.singletonList(c2));
+        waitForFigures(rp.documentSelfLink, 8_000_000L, 3_000_000L);
+
+        // a deleted compute is removed from its resource pool
+        delete(c1.documentSelfLink);
+        c1.documentUpdateAction = Action.DELETE.toString();
+        ledger.computesChanged(Collections.singletonList(c1));
+        waitForFigures(rp.documentSelfLink, 4_000_000L, 1_000_000L);
+
+        // a rebuild keeps the applied figures
+        ledger.rebuild();
+        waitForFigures(rp.documentSelfLink, 4_000_000L, 1_000_000L);
+    }
+
+    @Test
+    public void testNewComputeIsApplied() throws Throwable {
+        ResourcePoolState rp = createResourcePool();
+        ComputeDescription cd = createComputeDescription();
+        createContainerHost(cd.documentSelfLink, rp.documentSelfLink, 4_000_000L, 2_000_000L);
+
+        ledger.rebuild();
+        waitForFigures(rp.documentSelfLink, 4_000_000L, 2_000_000L);
+
+        ComputeState c2 = createContainerHost(cd.documentSelfLink, rp.documentSelfLink,
+                2_000_000L, 2_000_000L);
+        ledger.computesChanged(Collections.singletonList(c2));
+        waitForFigures(rp.documentSelfLink, 6_000_000L, 4_000_000L);
+    }
+
+    private ComputeState createContainerHost(String descriptionLink, String rpLink,
+            long totalMemoryBytes, long availableMemoryBytes) throws Throwable {
+        ComputeState cs = new ComputeState();
+        cs.descriptionLink = descriptionLink;
+        cs.resourcePoolLink = rpLink;
+        cs.customProperties = new HashMap<>();
+        cs.customProperties.put(ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME,
+                Long.toString(totalMemoryBytes));
+        cs.customProperties.put(ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME,
+                Long.toString(availableMemoryBytes));
+        return doPost(cs, ComputeService.FACTORY_LINK);
+    }
+
+    private ResourcePoolState createResourcePool() throws Throwable {
+        ResourcePoolState rp = new ResourcePoolState();
+        rp.name = UUID.randomUUID().toString();
+        return doPost(rp, ResourcePoolService.FACTORY_LINK);
+    }
+
+    private ComputeDescription createComputeDescription() throws Throwable {
+        ComputeDescription cd = new ComputeDescription();
+        cd.instanceAdapterReference = new URI("http://instanceAdapterReference");
+        cd.supportedChildren = new ArrayList<>();
+        cd.supportedChildren.add(ComputeType.DOCKER_CONTAINER.toString());
+        return doPost(cd, ComputeDescriptionService.FACTORY_LINK);
+    }
+
+    private void waitForFigures(String resourcePoolLink, long maxMemoryBytes,
+            long availableMemoryBytes) throws Throwable {
+        waitFor(() -> {
+            ResourcePoolState rp = getDocument(ResourcePoolState.class, resourcePoolLink);
+            return rp.maxMemoryBytes != null && rp.maxMemoryBytes == maxMemoryBytes
+                    && rp.customProperties != null
+                    && Long.toString(availableMemoryBytes).equals(rp.customProperties.get(
+                            ContainerHostDataCollectionService
+                                    .RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP));
+        });
+    }
+}
@@ -707,6 +707,64 @@ public class ContainerHostDataCollectionServiceTest extends ComputeBaseTest {
         host.log(">>>> ResourcePool data collection test end <<<<<<<");
     }
 
+    @Test
+    public void testPlacementUpdatesWithUnchangedResourcePool() throws Throwable {
+        ComputeDescription hostDescription = createComputeDescription();
+        hostDescription = doPost(hostDescription, ComputeDescriptionService.FACTORY_LINK);
+
+        ResourcePoolService.ResourcePoolState resourcePoolState = createAndStoreResourcePool();
+        createAndStoreComputeState(hostDescription, resourcePoolState, MIN_MEMORY, 1000L, 0L, 0.0,
+                1);
+        ComputeState second = createAndStoreComputeState(hostDescription, resourcePoolState,
+                MIN_MEMORY, 1000L, 0L, 0.0, 1);
+
+        doOperation(new ContainerHostDataCollectionState(), UriUtils.buildUri(host,
+                ContainerHostDataCollectionService.HOST_INFO_DATA_COLLECTION_LINK),
+                false,
+                Service.Action.PATCH);
+        waitFor(() -> getDocument(ResourcePoolService.ResourcePoolState.class,
+                resourcePoolState.documentSelfLink).maxMemoryBytes == MIN_MEMORY * 2);
+
+        GroupResourcePlacementService.GroupResourcePlacementState a100 =
+                createGroupResourcePlacementState(resourcePoolState.documentSelfLink, "A", 100,
+                        MIN_MEMORY, 700);
+        GroupResourcePlacementService.GroupResourcePlacementState a200 =
+                createGroupResourcePlacementState(resourcePoolState.documentSelfLink, "A", 200,
+                        MIN_MEMORY, 800);
+
+        // The resource pool already has the capacity left after the host is removed, e.g. the
+        // placements were not updated after the previous update of the resource pool
+        doDelete(UriUtils.buildUri(host, second.documentSelfLink), false);
+        ResourcePoolService.ResourcePoolState poolPatch =
+                new ResourcePoolService.ResourcePoolState();
+        poolPatch.maxMemoryBytes = MIN_MEMORY;
+        poolPatch.customProperties = new HashMap<>();
+        poolPatch.customProperties.put(
+                ContainerHostDataCollectionService.RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP,
+                Double.toString(0.0));
+        poolPatch.customProperties.put(
+                ContainerHostDataCollectionService.RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP,
+                Long.toString(0L));
+        doPatch(poolPatch, resourcePoolState.documentSelfLink);
+
+        doOperation(new ContainerHostDataCollectionState(), UriUtils.buildUri(host,
+                ContainerHostDataCollectionService.HOST_INFO_DATA_COLLECTION_LINK),
+                false,
+                Service.Action.PATCH);
+
+        // The placements are still reconciled with the capacity of the resource pool
+        waitFor(() -> {
+            GroupResourcePlacementService.GroupResourcePlacementState placementStateA200 =
+                    getDocument(GroupResourcePlacementService.GroupResourcePlacementState.class,
+                            a200.documentSelfLink);
+            GroupResourcePlacementService.GroupResourcePlacementState placementStateA100 =
+                    getDocument(GroupResourcePlacementService.GroupResourcePlacementState.class,
+                            a100.documentSelfLink);
+            return placementStateA200.memoryLimit == 0
+                    && placementStateA100.memoryLimit == MIN_MEMORY;
+        });
+    }
+
     @Test
     public void testDiscoverCreateAndInspectContainer() throws Throwable {
         //stop the mock adapter service and start the mock inspector adapter service:
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+
+public class ContainerIdIndexTest extends ComputeBaseTest {
+
+    private static final String HOST_LINK_1 = "/resources/compute/container-id-index-1";
+    private static final String HOST_LINK_2 = "/resources/compute/container-id-index-2";
+
+    @Before
+    public void setUp() throws Throwable {
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        ContainerIdIndex index = new ContainerIdIndex();
+        index.put(HOST_LINK_1, "id1", "/containers/1");
+        index.put(HOST_LINK_2, "id1", "/containers/2");
+
+        assertEquals("/containers/1", index.get(HOST_LINK_1, "id1"));
+        assertEquals("/containers/2", index.get(HOST_LINK_2, "id1"));
+        assertNull(index.get(HOST_LINK_1, "id2"));
+        assertEquals(2, index.getHitCount());
+        assertEquals(1, index.getMissCount());
+
+        // the entry points to another container, keep it
+        index.remove(HOST_LINK_1, "id1", "/containers/2");
+        assertEquals("/containers/1", index.get(HOST_LINK_1, "id1"));
+
+        index.remove(HOST_LINK_1, "id1", "/containers/1");
+        assertNull(index.get(HOST_LINK_1, "id1"));
+        index.remove(HOST_LINK_2, "id1");
+        assertNull(index.get(HOST_LINK_2, "id1"));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testReplace() {
+        ContainerIdIndex index = new ContainerIdIndex();
+        index.put(HOST_LINK_1, "id1", "/containers/1");
+        index.put(HOST_LINK_2, "id1", "/containers/2");
+
+        index.replace(HOST_LINK_1, Collections.singletonMap("id3", "/containers/3"));
+        assertNull(index.get(HOST_LINK_1, "id1"));
+        assertEquals("/containers/3", index.get(HOST_LINK_1, "id3"));
+        assertEquals("/containers/2", index.get(HOST_LINK_2, "id1"));
+
+        index.replace(HOST_LINK_1, Collections.emptyMap());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testIndexPerServiceHost() {
+        ServiceHost otherHost = new ServiceHost() {
+        };
+
+        assertSame(ContainerIdIndex.getInstance(host), ContainerIdIndex.getInstance(host));
+        assertNotSame(ContainerIdIndex.getInstance(host),
+                ContainerIdIndex.getInstance(otherHost));
+
+        ContainerIdIndex.getInstance(otherHost).put(HOST_LINK_1, "other-id", "/containers/1");
+        assertNull(ContainerIdIndex.getInstance(host).get(HOST_LINK_1, "other-id"));
+    }
+
+    @Test
+    public void testPatchMovesIndexEntry() throws Throwable {
+        ContainerState containerState = new ContainerState();
+        containerState.id = "container-id-index-1";
+        containerState.parentLink = HOST_LINK_1;
+        containerState = doPost(containerState, ContainerFactoryService.SELF_LINK);
+        String containerLink = containerState.documentSelfLink;
+
+        ContainerIdIndex index = ContainerIdIndex.getInstance(host);
+        assertEquals(containerLink, index.get(HOST_LINK_1, "container-id-index-1"));
+
+        // the id of the container changed
+        ContainerState patch = new ContainerState();
+        patch.id = "container-id-index-2";
+        doPatch(patch, containerLink);
+        assertNull(index.get(HOST_LINK_1, "container-id-index-1"));
+        assertEquals(containerLink, index.get(HOST_LINK_1, "container-id-index-2"));
+
+        // the container moved to another host
+        patch = new ContainerState();
+        patch.parentLink = HOST_LINK_2;
+        doPatch(patch, containerLink);
+        assertNull(index.get(HOST_LINK_1, "container-id-index-2"));
+        assertEquals(containerLink, index.get(HOST_LINK_2, "container-id-index-2"));
+
+        doDelete(UriUtils.buildUri(host, containerLink), false);
+        assertNull(index.get(HOST_LINK_2, "container-id-index-2"));
+    }
+}
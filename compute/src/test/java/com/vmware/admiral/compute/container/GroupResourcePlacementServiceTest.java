@@ -459,6 +459,37 @@ public class GroupResourcePlacementServiceTest extends ComputeBaseTest {
         doDelete(UriUtils.buildUri(host, noLimitsContainerDescription.documentSelfLink), false);
     }
 
+    @Test
+    public void testMemoryPlacementReservationRequestWithUpdatedDescription()
+            throws Throwable {
+        GroupResourcePlacementState placementState = createAndStoreGroupResourcePlacement();
+        String descLink = createAndStoreContainerDescription("updated").documentSelfLink;
+
+        placementState = makeResourcePlacementReservationRequest(2, descLink, placementState,
+                false);
+        assertEquals(6 * CONTAINER_MEMORY + CONTAINER_MEMORY / 2, placementState.availableMemory);
+
+        // the memory limit of the description is no longer the cached one
+        ContainerDescription patch = new ContainerDescription();
+        patch.memoryLimit = 2 * CONTAINER_MEMORY;
+        doPatch(patch, descLink);
+        placementState = makeResourcePlacementReservationRequest(1, descLink, placementState,
+                false);
+        assertEquals(4 * CONTAINER_MEMORY + CONTAINER_MEMORY / 2, placementState.availableMemory);
+        placementState = makeResourcePlacementReservationRequest(-1, descLink, placementState,
+                false);
+        assertEquals(6 * CONTAINER_MEMORY + CONTAINER_MEMORY / 2, placementState.availableMemory);
+
+        patch.memoryLimit = CONTAINER_MEMORY;
+        doPatch(patch, descLink);
+        placementState = makeResourcePlacementReservationRequest(-2, descLink, placementState,
+                false);
+        assertEquals(placementState.memoryLimit, placementState.availableMemory);
+        assertEquals(0, placementState.allocatedInstancesCount);
+
+        doDelete(UriUtils.buildUri(host, descLink), false);
+    }
+
     private void releasePlacement(
             com.vmware.admiral.compute.container.GroupResourcePlacementService.GroupResourcePlacementState placementState,
             String descLink, int count)
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.HealthChecker.HealthConfig;
+import com.vmware.admiral.compute.container.HealthProbeScheduler.ContainerProbe;
+import com.vmware.admiral.compute.container.HealthProbeScheduler.DescriptionProbes;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class HealthProbeSchedulerTest extends ComputeBaseTest {
+
+    private static final String DESCRIPTION_LINK = UriUtils.buildUriPath(
+            ContainerDescriptionService.FACTORY_LINK, "health-probe-test");
+
+    private HealthProbeScheduler scheduler;
+    private HealthConfig healthConfig;
+    private List<ContainerProbe> probes;
+    private List<Integer> unhealthyFailureCounts;
+
+    @Before
+    public void setUp() throws Throwable {
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+
+        scheduler = new HealthProbeScheduler();
+        healthConfig = new HealthConfig();
+        healthConfig.protocol = HealthConfig.RequestProtocol.HTTP;
+        healthConfig.unhealthyThreshold = 2;
+        probes = new ArrayList<>();
+        unhealthyFailureCounts = new ArrayList<>();
+        scheduler.addUnhealthyListener((config, state) -> probes.stream()
+                .filter(p -> p.containerLink.equals(state.documentSelfLink))
+                .forEach(p -> unhealthyFailureCounts.add(p.failureCount)));
+    }
+
+    @Test
+    public void testUnhealthyListenerBackoff() throws Throwable {
+        ContainerState containerState = createContainerState("/hosts/1");
+        ContainerProbe probe = createProbe("/resources/containers/backoff", containerState);
+
+        for (int i = 0; i < 20; i++) {
+            scheduler.handleResult(probe, containerState, healthConfig,
+                    new IllegalStateException("probe failed"));
+        }
+        // called at the threshold and then after twice as many failures
+        assertEquals(Arrays.asList(2, 4, 8, 16), unhealthyFailureCounts);
+
+        // a successful probe resets the backoff
+        scheduler.handleResult(probe, containerState, healthConfig, null);
+        unhealthyFailureCounts.clear();
+        for (int i = 0; i < 4; i++) {
+            scheduler.handleResult(probe, containerState, healthConfig,
+                    new IllegalStateException("probe failed"));
+        }
+        assertEquals(Arrays.asList(2, 4), unhealthyFailureCounts);
+    }
+
+    @Test
+    public void testUnhealthyListenerBackoffIsLimited() throws Throwable {
+        ContainerState containerState = createContainerState("/hosts/1");
+        ContainerProbe probe = createProbe("/resources/containers/limited", containerState);
+
+        int failures = 4 * HealthProbeScheduler.MAX_UNHEALTHY_BACKOFF_PROBES;
+        for (int i = 0; i < failures; i++) {
+            scheduler.handleResult(probe, containerState, healthConfig,
+                    new IllegalStateException("probe failed"));
+        }
+        for (int i = 1; i < unhealthyFailureCounts.size(); i++) {
+            assertTrue(unhealthyFailureCounts.get(i) - unhealthyFailureCounts.get(i - 1)
+                    <= HealthProbeScheduler.MAX_UNHEALTHY_BACKOFF_PROBES);
+        }
+        assertTrue(unhealthyFailureCounts.get(unhealthyFailureCounts.size() - 1)
+                > failures - HealthProbeScheduler.MAX_UNHEALTHY_BACKOFF_PROBES);
+    }
+
+    @Test
+    public void testFailureNotCountedWhenContainerChanged() throws Throwable {
+        ContainerState containerState = doPost(createContainerState("/hosts/2"),
+                ContainerFactoryService.SELF_LINK);
+
+        // the probe still has the state from before the container moved to another host
+        ContainerState staleState = createContainerState("/hosts/1");
+        ContainerProbe probe = createProbe(containerState.documentSelfLink, staleState);
+
+        handleProbeFailure(probe, staleState);
+        assertEquals(0, probe.failureCount);
+        assertEquals("/hosts/2", probe.containerState.parentLink);
+
+        // the failures of the probes against the current state are counted
+        handleProbeFailure(probe, probe.containerState);
+        handleProbeFailure(probe, probe.containerState);
+        assertEquals(2, probe.failureCount);
+        assertEquals(Arrays.asList(2), unhealthyFailureCounts);
+    }
+
+    @Test
+    public void testFailureOfRemovedContainer() throws Throwable {
+        ContainerState containerState = createContainerState("/hosts/1");
+        ContainerProbe probe = createProbe("/resources/containers/missing", containerState);
+
+        handleProbeFailure(probe, containerState);
+        assertEquals(0, probe.failureCount);
+        assertTrue(probe.removed);
+    }
+
+    private void handleProbeFailure(ContainerProbe probe, ContainerState containerState) {
+        TestContext ctx = testCreate(1);
+        scheduler.handleProbeResult(probe, containerState, healthConfig,
+                new IllegalStateException("probe failed"), ctx::completeIteration);
+        ctx.await();
+    }
+
+    private ContainerProbe createProbe(String containerLink, ContainerState containerState) {
+        containerState.documentSelfLink = containerLink;
+        DescriptionProbes description = new DescriptionProbes(host, DESCRIPTION_LINK);
+        description.healthConfig = healthConfig;
+        ContainerProbe probe = new ContainerProbe(containerLink, description, containerState);
+        probes.add(probe);
+        return probe;
+    }
+
+    private static ContainerState createContainerState(String parentLink) {
+        ContainerState containerState = new ContainerState();
+        containerState.descriptionLink = DESCRIPTION_LINK;
+        containerState.parentLink = parentLink;
+        containerState.powerState = PowerState.RUNNING;
+        return containerState;
+    }
+}
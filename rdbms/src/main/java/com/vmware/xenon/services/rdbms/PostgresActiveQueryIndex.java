@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.xenon.common.ReflectionUtils;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyDescription;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
+import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
+import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
+
+/**
+ * Index of the active continuous queries by the equality terms every matching document must
+ * satisfy, so an updated document is only evaluated against the queries it can match.
+ *
+ * Each query is indexed under one required equality term, preferring terms on other properties
+ * over {@code documentKind}, which is usually shared by many queries. Queries without such a
+ * term, and queries indexed under a property whose value can not be read from the updated
+ * document, are always returned as candidates. The index only narrows the candidates; the
+ * query filter still has to be evaluated.
+ */
+final class PostgresActiveQueryIndex {
+
+    private static final class IndexKey {
+        final String propertyName;
+        final Set<String> values;
+
+        IndexKey(String propertyName, Set<String> values) {
+            this.propertyName = propertyName;
+            this.values = values;
+        }
+    }
+
+    // property name -> match value -> continuous query task links
+    private final Map<String, Map<String, Set<String>>> queriesByTerm = new ConcurrentHashMap<>();
+    private final Set<String> unindexedQueries = ConcurrentHashMap.newKeySet();
+    private final Map<String, IndexKey> keyByQuery = new ConcurrentHashMap<>();
+
+    synchronized void add(String taskLink, Query query) {
+        remove(taskLink);
+
+        IndexKey key = selectKey(getRequiredTerms(query));
+        if (key == null) {
+            this.unindexedQueries.add(taskLink);
+            return;
+        }
+
+        Map<String, Set<String>> queriesByValue = this.queriesByTerm.computeIfAbsent(
+                key.propertyName, k -> new ConcurrentHashMap<>());
+        for (String value : key.values) {
+            queriesByValue.computeIfAbsent(value, k -> ConcurrentHashMap.newKeySet())
+                    .add(taskLink);
+        }
+        this.keyByQuery.put(taskLink, key);
+    }
+
+    synchronized void remove(String taskLink) {
+        if (this.unindexedQueries.remove(taskLink)) {
+            return;
+        }
+
+        IndexKey key = this.keyByQuery.remove(taskLink);
+        if (key == null) {
+            return;
+        }
+
+        Map<String, Set<String>> queriesByValue = this.queriesByTerm.get(key.propertyName);
+        for (String value : key.values) {
+            Set<String> links = queriesByValue.get(value);
+            links.remove(taskLink);
+            if (links.isEmpty()) {
+                queriesByValue.remove(value);
+            }
+        }
+        if (queriesByValue.isEmpty()) {
+            this.queriesByTerm.remove(key.propertyName);
+        }
+    }
+
+    /**
+     * Returns the links of the continuous queries the given document can match.
+     */
+    Set<String> getCandidates(ServiceDocument state, ServiceDocumentDescription desc) {
+        if (this.queriesByTerm.isEmpty()) {
+            return this.unindexedQueries;
+        }
+
+        Set<String> candidates = new HashSet<>(this.unindexedQueries);
+        for (Map.Entry<String, Map<String, Set<String>>> entry : this.queriesByTerm.entrySet()) {
+            Map<String, Set<String>> queriesByValue = entry.getValue();
+            Object value = getPropertyValue(entry.getKey(), state, desc);
+            if (value == null) {
+                // Null never matches an equality term
+                continue;
+            }
+            if (value instanceof String) {
+                Set<String> links = queriesByValue.get(value);
+                if (links != null) {
+                    candidates.addAll(links);
+                }
+                continue;
+            }
+            // Value can not be compared, evaluate all queries indexed under the property
+            queriesByValue.values().forEach(candidates::addAll);
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the value of a property as the string an equality term would be compared with,
+     * {@code null} if the property is not set, or an arbitrary non string object if the value
+     * can not be determined.
+     */
+    private static Object getPropertyValue(String propertyName, ServiceDocument state,
+            ServiceDocumentDescription desc) {
+        switch (propertyName) {
+        case ServiceDocument.FIELD_NAME_KIND:
+            return state.documentKind;
+        case ServiceDocument.FIELD_NAME_SELF_LINK:
+            return state.documentSelfLink;
+        default:
+        }
+
+        PropertyDescription pd = desc != null ? desc.propertyDescriptions.get(propertyName) : null;
+        if (pd == null) {
+            return state;
+        }
+        if (pd.typeName != TypeName.STRING
+                || pd.indexingOptions.contains(PropertyIndexingOption.CASE_INSENSITIVE)
+                || pd.indexingOptions.contains(PropertyIndexingOption.TEXT)) {
+            return state;
+        }
+        return ReflectionUtils.getPropertyValue(pd, state);
+    }
+
+    private static IndexKey selectKey(List<IndexKey> requiredTerms) {
+        IndexKey kindKey = null;
+        for (IndexKey key : requiredTerms) {
+            if (key.propertyName.equals(ServiceDocument.FIELD_NAME_KIND)) {
+                kindKey = key;
+                continue;
+            }
+            return key;
+        }
+        return kindKey;
+    }
+
+    /**
+     * Returns the equality terms a document must satisfy to match the query. A required clause
+     * that is a disjunction of equality terms on the same property yields one term with all
+     * values.
+     */
+    private static List<IndexKey> getRequiredTerms(Query query) {
+        if (query.occurance == Occurance.MUST_NOT_OCCUR) {
+            return Collections.emptyList();
+        }
+
+        if (query.term != null) {
+            if (!isEqualityTerm(query)) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new IndexKey(query.term.propertyName,
+                    Collections.singleton(query.term.matchValue)));
+        }
+
+        if (query.booleanClauses == null || query.booleanClauses.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<IndexKey> requiredTerms = new ArrayList<>();
+        List<Query> shouldClauses = new ArrayList<>();
+        for (Query clause : query.booleanClauses) {
+            if (clause.occurance == Occurance.MUST_OCCUR) {
+                requiredTerms.addAll(getRequiredTerms(clause));
+            } else if (clause.occurance == Occurance.SHOULD_OCCUR) {
+                shouldClauses.add(clause);
+            }
+        }
+
+        // SHOULD clauses are only required if there are no MUST clauses
+        if (!requiredTerms.isEmpty() || shouldClauses.isEmpty()
+                || shouldClauses.size() < query.booleanClauses.size()) {
+            return requiredTerms;
+        }
+
+        String propertyName = null;
+        Set<String> values = new HashSet<>();
+        for (Query clause : shouldClauses) {
+            if (!isEqualityTerm(clause) || (propertyName != null
+                    && !propertyName.equals(clause.term.propertyName))) {
+                return requiredTerms;
+            }
+            propertyName = clause.term.propertyName;
+            values.add(clause.term.matchValue);
+        }
+        requiredTerms.add(new IndexKey(propertyName, values));
+        return requiredTerms;
+    }
+
+    private static boolean isEqualityTerm(Query query) {
+        return query.term != null
+                && query.term.propertyName != null
+                && query.term.matchValue != null
+                && query.term.range == null
+                && (query.term.matchType == null || query.term.matchType == MatchType.TERM)
+                && !query.term.matchValue.equals(UriUtils.URI_WILDCARD_CHAR)
+                && !query.term.propertyName.contains(QuerySpecification.FIELD_NAME_CHARACTER);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Read-through cache of loaded documents, keyed by self link. The cache is bounded by the
+ * approximate serialized size of the cached documents and evicts the least recently used ones.
+ *
+ * Documents are cloned on the way in and out, since callers own and may modify the returned
+ * state. To avoid caching a stale version loaded concurrently with an update, every load of a
+ * document is tracked from {@link #startLoad} to {@link #endLoad} and only populates the cache
+ * if that document was not invalidated in between. Invalidations of other documents don't
+ * affect the load.
+ */
+final class PostgresDocumentCache {
+
+    private static final class Entry {
+        final ServiceDocument state;
+        final long sizeBytes;
+
+        Entry(ServiceDocument state, long sizeBytes) {
+            this.state = state;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    /**
+     * The loads of one document from the database which are in progress.
+     */
+    static final class Load {
+        private final String selfLink;
+        private int count;
+        private boolean invalidated;
+
+        private Load(String selfLink) {
+            this.selfLink = selfLink;
+        }
+    }
+
+    private final long maxSizeBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Load> loads = new HashMap<>();
+    private long sizeBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    PostgresDocumentCache(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Returns a copy of the cached state, or {@code null} if the document is not cached or
+     * expired.
+     */
+    ServiceDocument get(String selfLink) {
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(selfLink);
+            if (entry != null && entry.state.documentExpirationTimeMicros != 0
+                    && entry.state.documentExpirationTimeMicros <= Utils.getSystemNowMicrosUtc()) {
+                removeEntry(selfLink);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        this.hitCount.incrementAndGet();
+        return Utils.clone(entry.state);
+    }
+
+    /**
+     * Starts a load of the given document from the database, which must be ended with
+     * {@link #endLoad} once the loaded state was put or discarded.
+     */
+    synchronized Load startLoad(String selfLink) {
+        Load load = this.loads.computeIfAbsent(selfLink, Load::new);
+        load.count++;
+        return load;
+    }
+
+    synchronized void endLoad(Load load) {
+        if (--load.count == 0) {
+            this.loads.remove(load.selfLink, load);
+        }
+    }
+
+    /**
+     * Caches a copy of a document loaded from the database, unless the document was invalidated
+     * after the given load started.
+     */
+    void put(ServiceDocument state, long sizeBytes, Load load) {
+        if (sizeBytes > this.maxSizeBytes) {
+            return;
+        }
+
+        ServiceDocument clone = Utils.clone(state);
+        synchronized (this) {
+            if (load.invalidated) {
+                return;
+            }
+
+            removeEntry(state.documentSelfLink);
+            this.entries.put(state.documentSelfLink, new Entry(clone, sizeBytes));
+            this.sizeBytes += sizeBytes;
+
+            Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+            while (this.sizeBytes > this.maxSizeBytes && it.hasNext()) {
+                this.sizeBytes -= it.next().getValue().sizeBytes;
+                it.remove();
+                this.evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    synchronized void invalidate(String selfLink) {
+        // the loads started from now on read the new version
+        Load load = this.loads.remove(selfLink);
+        if (load != null) {
+            load.invalidated = true;
+        }
+        if (removeEntry(selfLink)) {
+            this.invalidationCount.incrementAndGet();
+        }
+    }
+
+    synchronized void clear() {
+        this.loads.values().forEach(load -> load.invalidated = true);
+        this.loads.clear();
+        this.invalidationCount.addAndGet(this.entries.size());
+        this.entries.clear();
+        this.sizeBytes = 0;
+    }
+
+    private boolean removeEntry(String selfLink) {
+        Entry entry = this.entries.remove(selfLink);
+        if (entry == null) {
+            return false;
+        }
+        this.sizeBytes -= entry.sizeBytes;
+        return true;
+    }
+
+    synchronized int getLoadCount() {
+        return this.loads.size();
+    }
+
+    synchronized int getCount() {
+        return this.entries.size();
+    }
+
+    synchronized long getSizeBytes() {
+        return this.sizeBytes;
+    }
+
+    long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    long getMissCount() {
+        return this.missCount.get();
+    }
+
+    long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    long getInvalidationCount() {
+        return this.invalidationCount.get();
+    }
+}
@@ -16,11 +16,15 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -30,15 +34,18 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 import javax.sql.DataSource;
 
+import com.zaxxer.hikari.HikariDataSource;
+
 import com.vmware.xenon.common.NamedThreadFactory;
 import com.vmware.xenon.common.NodeSelectorService;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Operation.CompletionHandler;
 import com.vmware.xenon.common.OperationContext;
 import com.vmware.xenon.common.QueryFilterUtils;
-import com.vmware.xenon.common.RoundRobinOperationQueue;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentDescription;
@@ -64,7 +71,10 @@ import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryRuntim
 import com.vmware.xenon.services.common.ServiceUriPaths;
 import com.vmware.xenon.services.common.SystemUserService;
 import com.vmware.xenon.services.common.UpdateIndexRequest;
+import com.vmware.xenon.services.rdbms.PostgresExecutorDataSource.ConnectionWaits;
+import com.vmware.xenon.services.rdbms.PostgresOperationQueue.WaitStats;
 import com.vmware.xenon.services.rdbms.PostgresSchemaManager.TableDescription;
+import com.vmware.xenon.services.rdbms.PostgresSchemaManager.TableStatements;
 
 public class PostgresDocumentIndexService extends StatelessService {
 
@@ -113,8 +123,100 @@ public class PostgresDocumentIndexService extends StatelessService {
             UPDATE_QUEUE_DEPTH
     );
 
+    /**
+     * When enabled, index updates waiting in the update queue are drained together and saved
+     * with a single JDBC batch per table in one transaction (group commit).
+     */
+    private static boolean groupCommitEnabled = XenonConfiguration.bool(
+            PostgresDocumentIndexService.class,
+            "isGroupCommitEnabled",
+            false
+    );
+
+    private static final int GROUP_COMMIT_MAX_BATCH_SIZE = XenonConfiguration.integer(
+            PostgresDocumentIndexService.class,
+            "groupCommitMaxBatchSize",
+            100
+    );
+
+    private static long groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(
+            XenonConfiguration.integer(
+                    PostgresDocumentIndexService.class,
+                    "groupCommitWindowMicros",
+                    0
+            ));
+
+    private static final long GROUP_COMMIT_POLL_INTERVAL_NANOS = TimeUnit.MICROSECONDS
+            .toNanos(100);
+
+    /**
+     * When enabled, expired documents are deleted with set-based DELETE statements in bounded
+     * chunks per table, and are only deserialized if continuous queries need to be notified.
+     */
+    private static final boolean BULK_EXPIRATION_ENABLED = XenonConfiguration.bool(
+            PostgresDocumentIndexService.class,
+            "isBulkExpirationEnabled",
+            true
+    );
+
+    private static final int EXPIRATION_CHUNK_SIZE = XenonConfiguration.integer(
+            PostgresDocumentIndexService.class,
+            "expirationChunkSize",
+            100
+    );
+
+    /**
+     * When enabled, updated documents are only evaluated against the continuous queries whose
+     * required equality terms they can match, instead of against every active query.
+     */
+    private static final boolean ACTIVE_QUERY_INDEX_ENABLED = XenonConfiguration.bool(
+            PostgresDocumentIndexService.class,
+            "isActiveQueryIndexEnabled",
+            true
+    );
+
+    /**
+     * Number of consecutive operations of the system user polled before one operation of another
+     * user, so task and system traffic is not queued behind user queries. Zero disables the
+     * system lane.
+     */
+    private static final int SYSTEM_LANE_WEIGHT = XenonConfiguration.integer(
+            PostgresDocumentIndexService.class,
+            "systemLaneWeight",
+            4
+    );
+
+    /**
+     * When enabled, the query and update executors are resized on maintenance, between
+     * {@code adaptiveExecutorMinThreadCount} and the configured thread count, capped by the
+     * connection pool size. Executors grow while operations wait longer than the target wait
+     * time and shrink when threads are waiting for a connection or the executor is mostly idle.
+     */
+    private static final boolean ADAPTIVE_EXECUTORS_ENABLED = XenonConfiguration.bool(
+            PostgresDocumentIndexService.class,
+            "isAdaptiveExecutorEnabled",
+            false
+    );
+
+    private static final int ADAPTIVE_EXECUTOR_MIN_THREAD_COUNT = XenonConfiguration.integer(
+            PostgresDocumentIndexService.class,
+            "adaptiveExecutorMinThreadCount",
+            2
+    );
+
+    private static final long ADAPTIVE_EXECUTOR_TARGET_WAIT_MICROS = TimeUnit.MILLISECONDS
+            .toMicros(XenonConfiguration.integer(
+                    PostgresDocumentIndexService.class,
+                    "adaptiveExecutorTargetWaitMillis",
+                    10
+            ));
+
     private static int expiredDocumentSearchThreshold = 1000;
 
+    // Table to start expiration from on the next maintenance, rotated so tables late in
+    // iteration order are not starved
+    private int expirationTableOffset;
+
     static int queryResultLimit = DEFAULT_QUERY_RESULT_LIMIT;
 
     private static int queryPageResultLimit = DEFAULT_QUERY_PAGE_RESULT_LIMIT;
@@ -147,12 +249,40 @@ public class PostgresDocumentIndexService extends StatelessService {
         return expiredDocumentSearchThreshold;
     }
 
+    static void setGroupCommitEnabled(boolean enabled) {
+        groupCommitEnabled = enabled;
+    }
+
+    static void setGroupCommitWindowMicros(long windowMicros) {
+        groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
     public static final String STAT_NAME_ACTIVE_QUERY_FILTERS = "activeQueryFilterCount";
 
+    public static final String STAT_NAME_ACTIVE_QUERY_EVALUATED_COUNT = "activeQueryEvaluatedCount";
+
+    public static final String STAT_NAME_ACTIVE_QUERY_MATCHED_COUNT = "activeQueryMatchedCount";
+
+    public static final String STAT_NAME_DOCUMENT_CACHE_HIT_COUNT = "documentCacheHitCount";
+
+    public static final String STAT_NAME_DOCUMENT_CACHE_MISS_COUNT = "documentCacheMissCount";
+
+    public static final String STAT_NAME_DOCUMENT_CACHE_HIT_RATIO = "documentCacheHitRatio";
+
+    public static final String STAT_NAME_DOCUMENT_CACHE_EVICTION_COUNT = "documentCacheEvictionCount";
+
+    public static final String STAT_NAME_DOCUMENT_CACHE_INVALIDATION_COUNT = "documentCacheInvalidationCount";
+
+    public static final String STAT_NAME_DOCUMENT_CACHE_SIZE_BYTES = "documentCacheSizeBytes";
+
     public static final String STAT_NAME_COMMIT_COUNT = "commitCount";
 
     public static final String STAT_NAME_COMMIT_DURATION_MICROS = "commitDurationMicros";
 
+    public static final String STAT_NAME_GROUP_COMMIT_BATCH_SIZE = "groupCommitBatchSize";
+
+    public static final String STAT_NAME_GROUP_COMMIT_FAILURE_COUNT = "groupCommitFailureCount";
+
     public static final String STAT_NAME_GROUP_QUERY_COUNT = "groupQueryCount";
 
     public static final String STAT_NAME_QUERY_DURATION_MICROS = "queryDurationMicros";
@@ -193,6 +323,24 @@ public class PostgresDocumentIndexService extends StatelessService {
     public static final String STAT_NAME_FORMAT_QUERY_QUEUE_DEPTH =
             STAT_NAME_PREFIX_QUERY_QUEUE_DEPTH + "-%s";
 
+    public static final String STAT_NAME_UPDATE_QUEUE_TOTAL_DEPTH = "updateQueueTotalDepth";
+
+    public static final String STAT_NAME_QUERY_QUEUE_TOTAL_DEPTH = "queryQueueTotalDepth";
+
+    public static final String STAT_NAME_FORMAT_UPDATE_QUEUE_WAIT_TIME_MICROS =
+            "updateQueueWaitTimeMicros-%s";
+
+    public static final String STAT_NAME_FORMAT_QUERY_QUEUE_WAIT_TIME_MICROS =
+            "queryQueueWaitTimeMicros-%s";
+
+    public static final String STAT_NAME_UPDATE_THREAD_COUNT = "updateThreadCount";
+
+    public static final String STAT_NAME_QUERY_THREAD_COUNT = "queryThreadCount";
+
+    private static final String QUEUE_LANE_SYSTEM = "system";
+
+    private static final String QUEUE_LANE_USER = "user";
+
     private static final EnumSet<AggregationType> AGGREGATION_TYPE_AVG_MAX =
             EnumSet.of(AggregationType.AVG, AggregationType.MAX);
 
@@ -207,14 +355,27 @@ public class PostgresDocumentIndexService extends StatelessService {
 
     protected Map<String, QueryTask> activeQueries = new ConcurrentHashMap<>();
 
+    private final PostgresActiveQueryIndex activeQueryIndex = new PostgresActiveQueryIndex();
+
     private ExecutorService privateIndexingExecutor;
     private ExecutorService privateQueryExecutor;
 
-    private final RoundRobinOperationQueue queryQueue = new RoundRobinOperationQueue(
-            "index-service-query", QUERY_QUEUE_DEPTH);
+    // The pools behind the tracing executors above, resized when adaptive executors are enabled
+    private ThreadPoolExecutor indexingThreadPool;
+    private ThreadPoolExecutor queryThreadPool;
+
+    // Connection waits of the threads of each executor, a wait longer than the target queue
+    // wait means the connection pool is exhausted
+    private final ConnectionWaits indexingConnectionWaits = new ConnectionWaits(
+            ADAPTIVE_EXECUTOR_TARGET_WAIT_MICROS);
+    private final ConnectionWaits queryConnectionWaits = new ConnectionWaits(
+            ADAPTIVE_EXECUTOR_TARGET_WAIT_MICROS);
+
+    private final PostgresOperationQueue queryQueue = new PostgresOperationQueue(
+            "index-service-query", QUERY_QUEUE_DEPTH, SYSTEM_LANE_WEIGHT);
 
-    private final RoundRobinOperationQueue updateQueue = new RoundRobinOperationQueue(
-            "index-service-update", UPDATE_QUEUE_DEPTH);
+    private final PostgresOperationQueue updateQueue = new PostgresOperationQueue(
+            "index-service-update", UPDATE_QUEUE_DEPTH, SYSTEM_LANE_WEIGHT);
 
     private URI uri;
 
@@ -249,7 +410,8 @@ public class PostgresDocumentIndexService extends StatelessService {
 
         setHost(host);
         this.ds = ds;
-        this.dao = new PostgresServiceDocumentDao(host, this, ds);
+        this.dao = new PostgresServiceDocumentDao(host, this,
+                new PostgresExecutorDataSource(ds));
     }
 
     PostgresServiceDocumentDao getDao() {
@@ -263,17 +425,27 @@ public class PostgresDocumentIndexService extends StatelessService {
         // so its worth caching (plus we only have a very small number of index services
         this.uri = post.getUri();
 
-        ExecutorService es = new ThreadPoolExecutor(QUERY_THREAD_COUNT, QUERY_THREAD_COUNT,
+        int queryThreadCount = getInitialThreadCount(QUERY_THREAD_COUNT);
+        this.queryThreadPool = new ThreadPoolExecutor(queryThreadCount, queryThreadCount,
                 1, TimeUnit.MINUTES,
                 new ArrayBlockingQueue<>(QUERY_EXECUTOR_WORK_QUEUE_CAPACITY),
-                new NamedThreadFactory(getUri() + "/queries"));
-        this.privateQueryExecutor = TracingExecutor.create(es, getHost().getTracer());
-
-        es = new ThreadPoolExecutor(UPDATE_THREAD_COUNT, UPDATE_THREAD_COUNT,
+                PostgresExecutorDataSource.threadFactory(
+                        new NamedThreadFactory(getUri() + "/queries"),
+                        this.queryConnectionWaits));
+        this.privateQueryExecutor = TracingExecutor.create(this.queryThreadPool,
+                getHost().getTracer());
+
+        int updateThreadCount = getInitialThreadCount(UPDATE_THREAD_COUNT);
+        this.indexingThreadPool = new ThreadPoolExecutor(updateThreadCount, updateThreadCount,
                 1, TimeUnit.MINUTES,
                 new ArrayBlockingQueue<>(UPDATE_EXECUTOR_WORK_QUEUE_CAPACITY),
-                new NamedThreadFactory(getUri() + "/updates"));
-        this.privateIndexingExecutor = TracingExecutor.create(es, getHost().getTracer());
+                PostgresExecutorDataSource.threadFactory(
+                        new NamedThreadFactory(getUri() + "/updates"),
+                        this.indexingConnectionWaits));
+        this.privateIndexingExecutor = TracingExecutor.create(this.indexingThreadPool,
+                getHost().getTracer());
+
+        this.dao.startDocumentCacheListener();
 
         post.complete();
     }
@@ -314,6 +486,35 @@ public class PostgresDocumentIndexService extends StatelessService {
         setStat(hourStat, v);
     }
 
+    private void logQueueWaitStats(PostgresOperationQueue queue, WaitStats waitStats,
+            String waitTimeFormat, String depthStatName) {
+        logQueueWaitHistogram(String.format(waitTimeFormat, QUEUE_LANE_SYSTEM), waitStats, true);
+        logQueueWaitHistogram(String.format(waitTimeFormat, QUEUE_LANE_USER), waitStats, false);
+        setTimeSeriesHistogramStat(depthStatName, AGGREGATION_TYPE_AVG_MAX, queue.size());
+    }
+
+    /**
+     * Adds the waits of the operations polled from a lane to the log histogram of the given stat,
+     * and sets its value to their average wait. The value is set directly, since setting it
+     * through {@link #setStat} would also count it as a wait in the histogram.
+     */
+    private void logQueueWaitHistogram(String name, WaitStats waitStats, boolean isSystemLane) {
+        long averageWaitMicros = waitStats.getAverageWaitMicros(isSystemLane);
+        if (averageWaitMicros < 0) {
+            return;
+        }
+        long[] waitHistogram = waitStats.getWaitHistogram(isSystemLane);
+        ServiceStat stat = ServiceStatUtils.getOrCreateHistogramStat(this, name);
+        synchronized (stat) {
+            for (int i = 0; i < waitHistogram.length; i++) {
+                stat.logHistogram.bins[i] += waitHistogram[i];
+            }
+            stat.latestValue = averageWaitMicros;
+            stat.version++;
+            stat.lastUpdateMicrosUtc = Utils.getNowMicrosUtc();
+        }
+    }
+
     private String getQueryStatName(QueryTask.Query query) {
         if (query.term != null) {
             if (query.term.propertyName.equals(ServiceDocument.FIELD_NAME_KIND)) {
@@ -442,6 +643,14 @@ public class PostgresDocumentIndexService extends StatelessService {
         if (op == null) {
             return;
         }
+        if (groupCommitEnabled && isBatchableUpdate(op)) {
+            handleUpdateRequestBatch(op);
+            return;
+        }
+        handleUpdateOperation(op);
+    }
+
+    private void handleUpdateOperation(Operation op) {
         OperationContext originalContext = OperationContext.getOperationContext();
         try {
             this.writerSync.acquire();
@@ -476,6 +685,110 @@ public class PostgresDocumentIndexService extends StatelessService {
         }
     }
 
+    /**
+     * Drains the update queue, starting with the given operation, until either the queue is empty
+     * for longer than the group commit window or the maximum batch size is reached. Consecutive
+     * batchable updates are saved together; any other operation flushes the pending batch first,
+     * so updates are still applied in the order they were polled.
+     */
+    private void handleUpdateRequestBatch(Operation first) {
+        List<Operation> batch = new ArrayList<>(GROUP_COMMIT_MAX_BATCH_SIZE);
+        batch.add(first);
+
+        long windowEndNanos = System.nanoTime() + groupCommitWindowNanos;
+        while (batch.size() < GROUP_COMMIT_MAX_BATCH_SIZE) {
+            Operation op = pollUpdateOperation();
+            if (op == null) {
+                long remainingNanos = windowEndNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(Math.min(remainingNanos, GROUP_COMMIT_POLL_INTERVAL_NANOS));
+                continue;
+            }
+
+            if (!isBatchableUpdate(op)) {
+                saveUpdateBatch(batch);
+                handleUpdateOperation(op);
+                return;
+            }
+            batch.add(op);
+        }
+
+        saveUpdateBatch(batch);
+    }
+
+    private boolean isBatchableUpdate(Operation op) {
+        if (op.getAction() != Action.POST || op.isRemote()
+                || op.hasPragmaDirective(Operation.PRAGMA_DIRECTIVE_FORCE_INDEX_UPDATE)
+                || !(op.getBodyRaw() instanceof UpdateIndexRequest)) {
+            return false;
+        }
+
+        UpdateIndexRequest r = (UpdateIndexRequest) op.getBodyRaw();
+        return r.document != null
+                && r.description != null
+                && r.document.documentSelfLink != null
+                && r.document.documentUpdateAction != null
+                && !this.dao.isHardDelete(r.document);
+    }
+
+    private void saveUpdateBatch(List<Operation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        OperationContext originalContext = OperationContext.getOperationContext();
+        try {
+            this.writerSync.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.forEach(op -> op.fail(e));
+            return;
+        }
+
+        try {
+            List<ServiceDocument> documents = new ArrayList<>(batch.size());
+            for (Operation op : batch) {
+                ServiceDocument s = ((UpdateIndexRequest) op.getBodyRaw()).document;
+                s.documentDescription = null;
+                documents.add(s);
+            }
+
+            try {
+                this.dao.saveDocuments(documents, false);
+            } catch (Exception e) {
+                // Fall back to saving one by one, so only the offending updates fail
+                logWarning("Group commit of %d documents failed, retrying individually: %s",
+                        batch.size(), e.getMessage());
+                adjustStat(STAT_NAME_GROUP_COMMIT_FAILURE_COUNT, 1);
+                for (Operation op : batch) {
+                    try {
+                        OperationContext.setFrom(op);
+                        updateIndex(op);
+                    } catch (Exception ex) {
+                        checkFailureAndRecover(ex);
+                        op.fail(ex);
+                    }
+                }
+                return;
+            }
+
+            setTimeSeriesHistogramStat(STAT_NAME_GROUP_COMMIT_BATCH_SIZE,
+                    AGGREGATION_TYPE_AVG_MAX, batch.size());
+
+            for (Operation op : batch) {
+                UpdateIndexRequest r = (UpdateIndexRequest) op.getBodyRaw();
+                OperationContext.setFrom(op);
+                op.setBodyNoCloning(null).complete();
+                applyActiveQueries(op, r.document, r.description);
+            }
+        } finally {
+            OperationContext.setFrom(originalContext);
+            this.writerSync.release();
+        }
+    }
+
     private void handleQueryTaskPatch(Operation op, QueryTask task) throws Exception {
         if (task.querySpec.options.contains(QueryOption.CONTINUOUS)) {
             if (handleContinuousQueryTaskPatch(op, task, task.querySpec)) {
@@ -511,6 +824,7 @@ public class PostgresDocumentIndexService extends StatelessService {
             clonedTask.querySpec = task.querySpec;
             clonedTask.querySpec.context.filter = QueryFilter.create(qs.query);
             clonedTask.querySpec.context.subjectLink = getSubject(op);
+            this.activeQueryIndex.add(task.documentSelfLink, qs.query);
             this.activeQueries.put(task.documentSelfLink, clonedTask);
             adjustTimeSeriesStat(STAT_NAME_ACTIVE_QUERY_FILTERS, AGGREGATION_TYPE_SUM,
                     1);
@@ -520,6 +834,7 @@ public class PostgresDocumentIndexService extends StatelessService {
         case FAILED:
         case FINISHED:
             if (this.activeQueries.remove(task.documentSelfLink) != null) {
+                this.activeQueryIndex.remove(task.documentSelfLink);
                 adjustTimeSeriesStat(STAT_NAME_ACTIVE_QUERY_FILTERS, AGGREGATION_TYPE_SUM,
                         -1);
             }
@@ -675,12 +990,16 @@ public class PostgresDocumentIndexService extends StatelessService {
      */
     private boolean offerQueryOperation(Operation op) {
         String subject = getSubject(op);
-        return this.queryQueue.offer(subject, op);
+        return this.queryQueue.offer(subject, isSystemSubject(subject), op);
     }
 
     private boolean offerUpdateOperation(Operation op) {
         String subject = getSubject(op);
-        return this.updateQueue.offer(subject, op);
+        return this.updateQueue.offer(subject, isSystemSubject(subject), op);
+    }
+
+    private static boolean isSystemSubject(String subject) {
+        return SystemUserService.SELF_LINK.equals(subject);
     }
 
     private String getSubject(Operation op) {
@@ -777,6 +1096,9 @@ public class PostgresDocumentIndexService extends StatelessService {
 
         this.privateIndexingExecutor.shutdown();
         this.privateQueryExecutor.shutdown();
+        this.dao.closeAllCursors();
+        this.dao.stopDocumentCacheListener();
+        this.dao.shutdownParallelQueryExecutor();
         getHost().stopService(this);
         delete.complete();
     }
@@ -860,7 +1182,10 @@ public class PostgresDocumentIndexService extends StatelessService {
         }
 
         applyActiveQueries(postOrDelete, state, null);
+        stopExpiredService(state);
+    }
 
+    private void stopExpiredService(ServiceDocument state) {
         // remove service, if its running
         // Broadcasting delete to all nodes, to make sure owner node stop the service
         // TODO: Find better solution, all nodes query for expiration and stop if service owner?
@@ -905,6 +1230,8 @@ public class PostgresDocumentIndexService extends StatelessService {
             // services under system load
 
             long deadline = Utils.fromNowMicrosUtc(getMaintenanceIntervalMicros());
+            WaitStats queryWaitStats = this.queryQueue.resetWaitStats();
+            WaitStats updateWaitStats = this.updateQueue.resetWaitStats();
             op.nestCompletion((o, e) -> {
                 if (e != null) {
                     logSevere(e);
@@ -918,11 +1245,26 @@ public class PostgresDocumentIndexService extends StatelessService {
                 if (hasOption(ServiceOption.INSTRUMENTATION)) {
                     logQueueDepthStat(this.updateQueue, STAT_NAME_FORMAT_UPDATE_QUEUE_DEPTH);
                     logQueueDepthStat(this.queryQueue, STAT_NAME_FORMAT_QUERY_QUEUE_DEPTH);
+                    logQueueWaitStats(this.updateQueue, updateWaitStats,
+                            STAT_NAME_FORMAT_UPDATE_QUEUE_WAIT_TIME_MICROS,
+                            STAT_NAME_UPDATE_QUEUE_TOTAL_DEPTH);
+                    logQueueWaitStats(this.queryQueue, queryWaitStats,
+                            STAT_NAME_FORMAT_QUERY_QUEUE_WAIT_TIME_MICROS,
+                            STAT_NAME_QUERY_QUEUE_TOTAL_DEPTH);
+                    setStat(STAT_NAME_UPDATE_THREAD_COUNT,
+                            this.indexingThreadPool.getMaximumPoolSize());
+                    setStat(STAT_NAME_QUERY_THREAD_COUNT,
+                            this.queryThreadPool.getMaximumPoolSize());
+                    logDocumentCacheStats();
                 }
 
                 op.complete();
             });
 
+            this.dao.closeExpiredCursors();
+            this.dao.createAdvisedIndexes();
+            adjustExecutorPoolSizes(queryWaitStats, updateWaitStats);
+
             // Need to make sure only one node is expiring services
             // Logic is taken from FactoryService
             expireServicesIfOwner(op, deadline);
@@ -1030,7 +1372,94 @@ public class PostgresDocumentIndexService extends StatelessService {
         getHost().broadcastRequest(ServiceUriPaths.DEFAULT_NODE_SELECTOR, getSelfLink(), true, broadcastSelectOp);
     }
 
-    private void logQueueDepthStat(RoundRobinOperationQueue queue, String format) {
+    /**
+     * Returns the number of threads an executor starts with. With adaptive executors the
+     * configured count is capped by the connection pool size, since every thread needs a
+     * connection to make progress.
+     */
+    private int getInitialThreadCount(int configuredThreadCount) {
+        if (!ADAPTIVE_EXECUTORS_ENABLED) {
+            return configuredThreadCount;
+        }
+        return Math.max(Math.min(ADAPTIVE_EXECUTOR_MIN_THREAD_COUNT, configuredThreadCount),
+                Math.min(configuredThreadCount, getConnectionPoolSize()));
+    }
+
+    private int getConnectionPoolSize() {
+        if (this.ds instanceof HikariDataSource) {
+            return ((HikariDataSource) this.ds).getMaximumPoolSize();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private void adjustExecutorPoolSizes(WaitStats queryWaitStats, WaitStats updateWaitStats) {
+        if (!ADAPTIVE_EXECUTORS_ENABLED) {
+            return;
+        }
+
+        int connectionPoolSize = getConnectionPoolSize();
+        adjustExecutorPoolSize(this.queryThreadPool, this.queryQueue, queryWaitStats,
+                QUERY_THREAD_COUNT, connectionPoolSize,
+                this.queryConnectionWaits.resetSlowWaitCount() > 0);
+        adjustExecutorPoolSize(this.indexingThreadPool, this.updateQueue, updateWaitStats,
+                UPDATE_THREAD_COUNT, connectionPoolSize,
+                this.indexingConnectionWaits.resetSlowWaitCount() > 0);
+    }
+
+    /**
+     * Grows or shrinks the executor, based on how long operations waited in its queue since the
+     * previous maintenance and whether its own threads waited for a connection since then.
+     */
+    private void adjustExecutorPoolSize(ThreadPoolExecutor executor,
+            PostgresOperationQueue queue, WaitStats waitStats, int configuredThreadCount,
+            int connectionPoolSize, boolean isConnectionStarved) {
+        int maxThreadCount = Math.min(configuredThreadCount, connectionPoolSize);
+        int minThreadCount = Math.min(ADAPTIVE_EXECUTOR_MIN_THREAD_COUNT, maxThreadCount);
+        int current = executor.getMaximumPoolSize();
+        long averageWaitMicros = waitStats.getAverageWaitMicros();
+        boolean isIdle = queue.isEmpty() && executor.getActiveCount() < current / 2;
+
+        int target = getTargetThreadCount(current, minThreadCount, maxThreadCount,
+                averageWaitMicros, ADAPTIVE_EXECUTOR_TARGET_WAIT_MICROS, isConnectionStarved,
+                isIdle);
+        if (target == current) {
+            return;
+        }
+
+        // The core size can not exceed the maximum size, so order the updates accordingly
+        if (target > current) {
+            executor.setMaximumPoolSize(target);
+            executor.setCorePoolSize(target);
+        } else {
+            executor.setCorePoolSize(target);
+            executor.setMaximumPoolSize(target);
+        }
+        logFine("Resized executor from %d to %d threads (average wait %d micros)", current,
+                target, averageWaitMicros);
+    }
+
+    /**
+     * Returns the thread count of an executor for the next maintenance interval. Threads are
+     * removed one by one when they waited for a connection, since more threads would only wait
+     * for a connection too, or when the executor is idle. They are added by half the current
+     * count when operations waited longer than the target wait in the queue, so bursts are
+     * absorbed within a few maintenance runs.
+     */
+    static int getTargetThreadCount(int current, int minThreadCount, int maxThreadCount,
+            long averageWaitMicros, long targetWaitMicros, boolean isConnectionStarved,
+            boolean isIdle) {
+        int target = current;
+        if (isConnectionStarved) {
+            target = current - 1;
+        } else if (averageWaitMicros > targetWaitMicros) {
+            target = current + Math.max(1, current / 2);
+        } else if (isIdle) {
+            target = current - 1;
+        }
+        return Math.max(minThreadCount, Math.min(maxThreadCount, target));
+    }
+
+    private void logQueueDepthStat(PostgresOperationQueue queue, String format) {
         Map<String, Integer> sizes = queue.sizesByKey();
         for (Entry<String, Integer> e : sizes.entrySet()) {
             String statName = String.format(format, e.getKey());
@@ -1038,7 +1467,31 @@ public class PostgresDocumentIndexService extends StatelessService {
         }
     }
 
+    private void logDocumentCacheStats() {
+        PostgresDocumentCache cache = this.dao.getDocumentCache();
+        if (cache == null) {
+            return;
+        }
+
+        long hitCount = cache.getHitCount();
+        long missCount = cache.getMissCount();
+        setStat(STAT_NAME_DOCUMENT_CACHE_HIT_COUNT, hitCount);
+        setStat(STAT_NAME_DOCUMENT_CACHE_MISS_COUNT, missCount);
+        if (hitCount + missCount > 0) {
+            setStat(STAT_NAME_DOCUMENT_CACHE_HIT_RATIO,
+                    (double) hitCount / (hitCount + missCount));
+        }
+        setStat(STAT_NAME_DOCUMENT_CACHE_EVICTION_COUNT, cache.getEvictionCount());
+        setStat(STAT_NAME_DOCUMENT_CACHE_INVALIDATION_COUNT, cache.getInvalidationCount());
+        setStat(STAT_NAME_DOCUMENT_CACHE_SIZE_BYTES, cache.getSizeBytes());
+    }
+
     private void applyDocumentExpirationPolicy(long deadline) throws Exception {
+        if (BULK_EXPIRATION_ENABLED) {
+            applyDocumentExpirationPolicyInBulk(deadline);
+            return;
+        }
+
         // TODO: need better solution to expire documents, this can be very slow to have
         // deletion in batches across tables
         int limit = expiredDocumentSearchThreshold;
@@ -1052,16 +1505,157 @@ public class PostgresDocumentIndexService extends StatelessService {
         }
     }
 
+    /**
+     * Expires documents in chunks of at most {@link #EXPIRATION_CHUNK_SIZE} per table, visiting
+     * tables round-robin, starting from a different table on every maintenance, until the
+     * expiration threshold or the deadline is reached, or no table has expired documents left.
+     */
+    private void applyDocumentExpirationPolicyInBulk(long deadline) throws Exception {
+        List<TableDescription> tables = new ArrayList<>(
+                this.dao.getPostgresSchemaManager().getTableDescriptions());
+        if (tables.isEmpty()) {
+            return;
+        }
+
+        int limit = expiredDocumentSearchThreshold;
+        long now = Utils.getNowMicrosUtc();
+        int offset = this.expirationTableOffset++ % tables.size();
+        Set<TableDescription> drainedTables = new HashSet<>();
+
+        while (limit > 0 && drainedTables.size() < tables.size()) {
+            for (int i = 0; i < tables.size() && limit > 0; i++) {
+                if (Utils.getSystemNowMicrosUtc() >= deadline) {
+                    return;
+                }
+
+                TableDescription tableDescription = tables.get((offset + i) % tables.size());
+                if (drainedTables.contains(tableDescription)) {
+                    continue;
+                }
+
+                int chunkSize = Math.min(limit, EXPIRATION_CHUNK_SIZE);
+                int expired = deleteExpiredDocumentsForTable(tableDescription, now, chunkSize);
+                if (expired < chunkSize) {
+                    drainedTables.add(tableDescription);
+                }
+                limit -= expired;
+            }
+        }
+    }
+
+    /**
+     * Deletes up to {@code limit} expired documents of a table. The expired links are locked
+     * first, the DELETE then only returns the documents needed to notify the continuous queries,
+     * or to stop the services attached to this host with their last state as the DELETE body.
+     * The other services are stopped with the document link and kind only.
+     */
+    private int deleteExpiredDocumentsForTable(TableDescription tableDescription, long now,
+            int limit) throws Exception {
+        TableStatements statements = this.dao.getStatements(tableDescription);
+        boolean hasActiveQueries = !this.activeQueries.isEmpty();
+
+        List<String> expiredLinks = new ArrayList<>();
+        List<ServiceDocument> expiredStates = new ArrayList<>();
+        try (Connection conn = this.ds.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<String> links = new ArrayList<>();
+                try (PreparedStatement stmt = this.dao.prepareStatement(conn,
+                        statements.selectExpiredDocumentLinks)) {
+                    stmt.setLong(1, now);
+                    stmt.setInt(2, limit);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            links.add(rs.getString(1));
+                        }
+                    }
+                }
+
+                if (!links.isEmpty()) {
+                    List<String> loadLinks = hasActiveQueries ? links : links.stream()
+                            .filter(link -> getHost().getServiceStage(link) != null)
+                            .collect(Collectors.toList());
+                    try (PreparedStatement stmt = this.dao.prepareStatement(conn,
+                            statements.deleteExpiredDocuments)) {
+                        stmt.setArray(1, conn.createArrayOf("text", links.toArray()));
+                        stmt.setArray(2, conn.createArrayOf("text", loadLinks.toArray()));
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            PostgresDocumentStoredFieldVisitor visitor =
+                                    new PostgresDocumentStoredFieldVisitor();
+                            while (rs.next()) {
+                                String documentSelfLink = rs.getString(1);
+                                String data = rs.getString(2);
+                                expiredLinks.add(documentSelfLink);
+                                expiredStates.add(data == null ? null
+                                        : getExpiredState(tableDescription, visitor,
+                                                documentSelfLink, data));
+                            }
+                        }
+                    }
+                }
+                conn.commit();
+            } catch (Exception e) {
+                try {
+                    conn.rollback();
+                } catch (Exception ignore) {
+                    // Ignore
+                }
+                throw e;
+            } finally {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (Exception ignore) {
+                    // Ignore
+                }
+            }
+        }
+
+        int expired = expiredLinks.size();
+        if (expired == 0) {
+            return 0;
+        }
+
+        logFine("Expired %d documents from %s", expired, tableDescription.getTableName());
+        adjustTimeSeriesStat(STAT_NAME_SERVICE_DELETE_COUNT, AGGREGATION_TYPE_SUM, expired);
+        adjustTimeSeriesStat(STAT_NAME_DOCUMENT_EXPIRATION_COUNT, AGGREGATION_TYPE_SUM, expired);
+
+        Operation dummyDelete = Operation.createDelete(null);
+        for (int i = 0; i < expired; i++) {
+            ServiceDocument state = expiredStates.get(i);
+            if (state != null) {
+                applyActiveQueries(dummyDelete, state, null);
+            } else {
+                state = new ServiceDocument();
+                state.documentSelfLink = expiredLinks.get(i);
+                state.documentKind = tableDescription.getDocumentKind();
+            }
+            stopExpiredService(state);
+        }
+        return expired;
+    }
+
+    private ServiceDocument getExpiredState(TableDescription tableDescription,
+            PostgresDocumentStoredFieldVisitor visitor, String documentSelfLink, String data) {
+        visitor.reset();
+        visitor.jsonSerializedState = data;
+        try {
+            return this.dao.getStateFromPostgresDocument(tableDescription, visitor,
+                    documentSelfLink);
+        } catch (Exception e) {
+            logWarning("Error getting state for %s: %s", documentSelfLink, e);
+            return null;
+        }
+    }
+
     private int applyDocumentExpirationPolicyForTable(TableDescription tableDescription,
             long now, long deadline, int limit) throws Exception {
         int expired = 0;
         String tableName = tableDescription.getTableName();
-        String sql = String.format("SELECT data,documentexpirationtimemicros FROM %s WHERE documentexpirationtimemicros BETWEEN 1 AND ? ORDER BY documentexpirationtimemicros LIMIT ?",
-                tableName);
+        String sql = this.dao.getStatements(tableDescription).selectExpiredDocuments;
 
         try (Connection conn = this.ds.getConnection()) {
             conn.setAutoCommit(false);
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            try (PreparedStatement stmt = this.dao.prepareStatement(conn, sql)) {
                 stmt.setLong(1, now);
                 stmt.setInt(2, limit);
                 // Use cursor
@@ -1130,15 +1724,19 @@ public class PostgresDocumentIndexService extends StatelessService {
         // same context as the operation that updated the index
         OperationContext.setFrom(op);
 
-        // TODO Optimize. We currently traverse each query independently. We can collapse the queries
-        // and evaluate clauses keeping track which clauses applied, then skip any queries accordingly.
-
-        for (Entry<String, QueryTask> taskEntry : this.activeQueries.entrySet()) {
+        int evaluatedCount = 0;
+        int matchedCount = 0;
+        for (String taskLink : getActiveQueryCandidates(latestState, desc)) {
             if (getHost().isStopping()) {
                 break;
             }
 
-            QueryTask activeTask = taskEntry.getValue();
+            QueryTask activeTask = this.activeQueries.get(taskLink);
+            if (activeTask == null) {
+                continue;
+            }
+
+            evaluatedCount++;
             QueryFilter filter = activeTask.querySpec.context.filter;
             if (desc == null) {
                 if (!QueryFilterUtils.evaluate(filter, latestState, getHost())) {
@@ -1150,6 +1748,7 @@ public class PostgresDocumentIndexService extends StatelessService {
                 }
             }
 
+            matchedCount++;
             QueryTask patchBody = new QueryTask();
             patchBody.taskInfo.stage = TaskStage.STARTED;
             patchBody.querySpec = null;
@@ -1175,6 +1774,26 @@ public class PostgresDocumentIndexService extends StatelessService {
             sendRequest(patchOperation);
             OperationContext.restoreOperationContext(currentContext);
         }
+
+        setTimeSeriesHistogramStat(STAT_NAME_ACTIVE_QUERY_EVALUATED_COUNT,
+                AGGREGATION_TYPE_AVG_MAX, evaluatedCount);
+        setTimeSeriesHistogramStat(STAT_NAME_ACTIVE_QUERY_MATCHED_COUNT,
+                AGGREGATION_TYPE_AVG_MAX, matchedCount);
+    }
+
+    private Collection<String> getActiveQueryCandidates(ServiceDocument latestState,
+            ServiceDocumentDescription desc) {
+        if (!ACTIVE_QUERY_INDEX_ENABLED) {
+            return this.activeQueries.keySet();
+        }
+
+        if (desc == null && latestState.documentKind != null) {
+            // Expired documents are applied without a description, use the one of the table
+            TableDescription td = this.dao.getPostgresSchemaManager()
+                    .getTableDescriptionForDocumentKind(latestState.documentKind);
+            desc = td != null ? td.getServiceDocumentDescription() : null;
+        }
+        return this.activeQueryIndex.getCandidates(latestState, desc);
     }
 
 }
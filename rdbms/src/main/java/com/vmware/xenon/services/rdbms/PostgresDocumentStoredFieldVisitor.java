@@ -82,6 +82,16 @@ final class PostgresDocumentStoredFieldVisitor {
         }
     }
 
+    public void setBuiltInFields(ServiceDocument sd) {
+        this.documentSelfLink = sd.documentSelfLink;
+        this.documentKind = sd.documentKind;
+        this.documentUpdateAction = sd.documentUpdateAction;
+        this.documentOwner = sd.documentOwner;
+        this.documentVersion = sd.documentVersion;
+        this.documentUpdateTimeMicros = sd.documentUpdateTimeMicros;
+        this.documentExpirationTimeMicros = sd.documentExpirationTimeMicros;
+    }
+
     public void reset() {
         this.documentKind = null;
         this.documentOwner = null;
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Data source of the index service, which tracks how long the threads of each index executor
+ * wait for a connection. The threads of an executor are created through {@link #threadFactory},
+ * connections borrowed by any other thread are not tracked.
+ */
+final class PostgresExecutorDataSource implements DataSource {
+
+    /**
+     * Connection waits of the threads of one executor.
+     */
+    static final class ConnectionWaits {
+        private final long slowWaitNanos;
+        private final LongAdder slowWaitCount = new LongAdder();
+
+        ConnectionWaits(long slowWaitMicros) {
+            this.slowWaitNanos = TimeUnit.MICROSECONDS.toNanos(slowWaitMicros);
+        }
+
+        /**
+         * Returns the number of connections that took longer than the slow wait to get since
+         * the previous call, so that waits between two reads are not missed.
+         */
+        long resetSlowWaitCount() {
+            return this.slowWaitCount.sumThenReset();
+        }
+
+        private void endWait(long startNanos) {
+            if (System.nanoTime() - startNanos > this.slowWaitNanos) {
+                this.slowWaitCount.increment();
+            }
+        }
+    }
+
+    // waits of the executor the current thread belongs to, if any
+    private static final ThreadLocal<ConnectionWaits> connectionWaits = new ThreadLocal<>();
+
+    private final DataSource ds;
+
+    PostgresExecutorDataSource(DataSource ds) {
+        this.ds = ds;
+    }
+
+    /**
+     * Returns a thread factory whose threads record their connection waits in the given
+     * {@link ConnectionWaits}.
+     */
+    static ThreadFactory threadFactory(ThreadFactory threadFactory,
+            ConnectionWaits connectionWaits) {
+        return r -> threadFactory.newThread(() -> {
+            PostgresExecutorDataSource.connectionWaits.set(connectionWaits);
+            r.run();
+        });
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        ConnectionWaits waits = connectionWaits.get();
+        if (waits == null) {
+            return this.ds.getConnection();
+        }
+        long startNanos = System.nanoTime();
+        try {
+            return this.ds.getConnection();
+        } finally {
+            waits.endWait(startNanos);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        ConnectionWaits waits = connectionWaits.get();
+        if (waits == null) {
+            return this.ds.getConnection(username, password);
+        }
+        long startNanos = System.nanoTime();
+        try {
+            return this.ds.getConnection(username, password);
+        } finally {
+            waits.endWait(startNanos);
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.ds.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        this.ds.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.ds.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.ds.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return this.ds.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this.ds)) {
+            return iface.cast(this.ds);
+        }
+        return this.ds.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this.ds) || this.ds.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
+import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
+import com.vmware.xenon.services.rdbms.PostgresSchemaManager.ColumnDescription;
+import com.vmware.xenon.services.rdbms.PostgresSchemaManager.TableDescription;
+
+/**
+ * Records the shape of executed queries, per table, together with their latency, and derives
+ * candidate expression or GIN indexes for the document properties that are filtered on but not
+ * indexed.
+ *
+ * A shape is the query with its match values removed, e.g.
+ * {@code +documentKind:TERM +parentLink:TERM}, so all queries that differ only by value are
+ * accounted together. Indexes are created with {@code CREATE INDEX CONCURRENTLY}, using the
+ * same index name and expression as {@link PostgresLiquibaseSnapshot}, and the index type is
+ * recorded on the {@link TableDescription} so the schema snapshot includes it. Since the
+ * recorded index types don't survive a restart, {@link #recordExistingIndexes} records the
+ * valid indexes of the candidates found in the database.
+ *
+ * Executed queries are only queued by {@link #recordQuery}, their shapes are computed when the
+ * candidates are read, so the accounting stays off the query path. Queries recorded while the
+ * queue is full are not accounted.
+ */
+final class PostgresIndexAdvisor {
+    private static final Logger logger = Logger.getLogger(PostgresIndexAdvisor.class.getName());
+
+    private static final String INDEX_TYPE_BTREE = "btree";
+    private static final String INDEX_TYPE_GIN = "gin";
+
+    private static final int MAX_PENDING_QUERIES = 10000;
+
+    private static final String SQL_SELECT_INDEX_VALIDITY = "SELECT c.relname, i.indisvalid"
+            + " FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ANY (?)";
+
+    static final class IndexCandidate {
+        final TableDescription table;
+        final String propertyName;
+        final String indexType;
+        final String indexName;
+        final String indexExpression;
+        long queryCount;
+        long totalQueryTimeMicros;
+        long maxQueryTimeMicros;
+        String sampleShape;
+
+        private IndexCandidate(TableDescription table, ColumnDescription cd) {
+            this.table = table;
+            this.propertyName = cd.getPropertyName();
+
+            String indexNameSuffix = cd.getPropertyName();
+            if (cd.isJsonType()) {
+                this.indexType = INDEX_TYPE_GIN;
+                this.indexExpression = cd.getColumnName();
+            } else if (cd.isTextType() && cd.getPropertyDescription().indexingOptions
+                    .contains(PropertyIndexingOption.CASE_INSENSITIVE)) {
+                this.indexType = INDEX_TYPE_BTREE;
+                this.indexExpression = String.format("lower(%s)", cd.getColumnNameAsText());
+                indexNameSuffix = "lower_" + indexNameSuffix;
+            } else {
+                this.indexType = INDEX_TYPE_BTREE;
+                this.indexExpression = cd.getColumnName();
+            }
+            this.indexName = PostgresLiquibaseSnapshot.getIndexName(table, indexNameSuffix);
+        }
+
+        long getAverageQueryTimeMicros() {
+            return this.queryCount == 0 ? 0 : this.totalQueryTimeMicros / this.queryCount;
+        }
+
+        String getDropIndexSql() {
+            return String.format("DROP INDEX CONCURRENTLY IF EXISTS %s", this.indexName);
+        }
+
+        String getCreateIndexSql() {
+            return String.format("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s USING %s ((%s))",
+                    this.indexName, this.table.getTableName(), this.indexType,
+                    this.indexExpression);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s.%s count=%d avgMicros=%d maxMicros=%d shape=[%s] sql=[%s]",
+                    this.table.getTableName(), this.propertyName, this.queryCount,
+                    getAverageQueryTimeMicros(), this.maxQueryTimeMicros, this.sampleShape,
+                    getCreateIndexSql());
+        }
+    }
+
+    private static final class ShapeStats {
+        final TableDescription table;
+        final String shape;
+        final Set<String> unindexedProperties;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalMicros = new AtomicLong();
+        final AtomicLong maxMicros = new AtomicLong();
+
+        ShapeStats(TableDescription table, String shape, Set<String> unindexedProperties) {
+            this.table = table;
+            this.shape = shape;
+            this.unindexedProperties = unindexedProperties;
+        }
+
+        void record(long durationMicros) {
+            this.count.incrementAndGet();
+            this.totalMicros.addAndGet(durationMicros);
+            this.maxMicros.accumulateAndGet(durationMicros, Math::max);
+        }
+    }
+
+    private static final class QuerySample {
+        final Set<TableDescription> tables;
+        final Query query;
+        final long durationMicros;
+
+        QuerySample(Set<TableDescription> tables, Query query, long durationMicros) {
+            this.tables = tables;
+            this.query = query;
+            this.durationMicros = durationMicros;
+        }
+    }
+
+    private final Map<String, ShapeStats> statsByShape = new ConcurrentHashMap<>();
+    private final BlockingQueue<QuerySample> pendingQueries = new ArrayBlockingQueue<>(
+            MAX_PENDING_QUERIES);
+    private final int maxShapes;
+
+    PostgresIndexAdvisor(int maxShapes) {
+        this.maxShapes = maxShapes;
+    }
+
+    /**
+     * Records a query executed against the given tables, to be accounted when the candidates are
+     * read next.
+     */
+    void recordQuery(Set<TableDescription> tables, Query query, long durationMicros) {
+        if (query == null || tables == null || tables.isEmpty()) {
+            return;
+        }
+        this.pendingQueries.offer(new QuerySample(tables, query, durationMicros));
+    }
+
+    /**
+     * Accounts the queued queries. Shapes that do not filter on any unindexed property are not
+     * tracked. The latency of a query spanning several tables is split between them.
+     */
+    private synchronized void processPendingQueries() {
+        QuerySample sample;
+        while ((sample = this.pendingQueries.poll()) != null) {
+            processQuery(sample.tables, sample.query,
+                    sample.durationMicros / sample.tables.size());
+        }
+    }
+
+    private void processQuery(Set<TableDescription> tables, Query query, long durationMicros) {
+        for (TableDescription td : tables) {
+            Set<String> unindexedProperties = new TreeSet<>();
+            String shape = toShape(td, query, true, unindexedProperties);
+            if (unindexedProperties.isEmpty()) {
+                continue;
+            }
+
+            String key = td.getTableName() + ' ' + shape;
+            ShapeStats stats = this.statsByShape.get(key);
+            if (stats == null) {
+                if (this.statsByShape.size() >= this.maxShapes) {
+                    continue;
+                }
+                stats = this.statsByShape.computeIfAbsent(key,
+                        k -> new ShapeStats(td, shape, unindexedProperties));
+            }
+            stats.record(durationMicros);
+        }
+    }
+
+    /**
+     * Returns the index candidates, most expensive first, aggregated over all recorded shapes.
+     * Properties that got indexed since they were recorded are left out.
+     */
+    List<IndexCandidate> getCandidates() {
+        processPendingQueries();
+        Map<String, IndexCandidate> candidates = new HashMap<>();
+        for (ShapeStats stats : this.statsByShape.values()) {
+            long count = stats.count.get();
+            long totalMicros = stats.totalMicros.get();
+            long maxMicros = stats.maxMicros.get();
+            for (String propertyName : stats.unindexedProperties) {
+                ColumnDescription cd = stats.table.getColumnDescription(propertyName);
+                if (cd == null || cd.getIndexType() != null) {
+                    continue;
+                }
+                IndexCandidate candidate = candidates.computeIfAbsent(
+                        stats.table.getTableName() + '.' + propertyName,
+                        k -> new IndexCandidate(stats.table, cd));
+                candidate.queryCount += count;
+                candidate.totalQueryTimeMicros += totalMicros;
+                if (candidate.sampleShape == null || maxMicros > candidate.maxQueryTimeMicros) {
+                    candidate.sampleShape = stats.shape;
+                    candidate.maxQueryTimeMicros = maxMicros;
+                }
+            }
+        }
+
+        return candidates.values().stream()
+                .sorted(Comparator.comparingLong((IndexCandidate c) -> c.totalQueryTimeMicros)
+                        .reversed())
+                .collect(Collectors.toList());
+    }
+
+    IndexCandidate getCandidate(String tableName, String propertyName) {
+        for (IndexCandidate candidate : getCandidates()) {
+            if (candidate.table.getTableName().equals(tableName)
+                    && candidate.propertyName.equals(propertyName)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the index for the given candidate and records it on the table description. Must
+     * not be called inside a transaction, {@code CREATE INDEX CONCURRENTLY} does not allow it.
+     */
+    void createIndex(DataSource ds, IndexCandidate candidate) throws SQLException {
+        String sql = candidate.getCreateIndexSql();
+        logger.info(String.format("Creating index for %s.%s: %s",
+                candidate.table.getTableName(), candidate.propertyName, sql));
+
+        long startMillis = System.currentTimeMillis();
+        try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+            if (!isIndexValid(conn, candidate)) {
+                // A failed concurrent build leaves an invalid index behind, which IF NOT EXISTS
+                // would keep forever
+                logger.warning(String.format("Index %s is not valid, creating it again",
+                        candidate.indexName));
+                stmt.execute(candidate.getDropIndexSql());
+                stmt.execute(sql);
+                if (!isIndexValid(conn, candidate)) {
+                    throw new SQLException(String.format("Index %s is not valid",
+                            candidate.indexName));
+                }
+            }
+        }
+        candidate.table.setIndexType(candidate.propertyName, candidate.indexType);
+        clear(candidate.table.getTableName());
+
+        logger.info(String.format("Created index %s in %d ms", candidate.indexName,
+                System.currentTimeMillis() - startMillis));
+    }
+
+    /**
+     * Records on the table descriptions the valid indexes of the current candidates which exist
+     * in the database already, e.g. created before a restart, so they are not advised again.
+     * Invalid indexes remain candidates, and are created again by {@link #createIndex}.
+     */
+    void recordExistingIndexes(DataSource ds) throws SQLException {
+        Map<String, IndexCandidate> candidatesByIndexName = getCandidates().stream()
+                .collect(Collectors.toMap(c -> c.indexName, c -> c, (c1, c2) -> c1));
+        if (candidatesByIndexName.isEmpty()) {
+            return;
+        }
+
+        List<IndexCandidate> indexedCandidates = new ArrayList<>();
+        try (Connection conn = ds.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(SQL_SELECT_INDEX_VALIDITY)) {
+            stmt.setArray(1, conn.createArrayOf("text",
+                    candidatesByIndexName.keySet().toArray()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getBoolean(2)) {
+                        indexedCandidates.add(candidatesByIndexName.get(rs.getString(1)));
+                    }
+                }
+            }
+        }
+
+        for (IndexCandidate candidate : indexedCandidates) {
+            logger.info(String.format("Recording existing index %s", candidate.indexName));
+            candidate.table.setIndexType(candidate.propertyName, candidate.indexType);
+            clear(candidate.table.getTableName());
+        }
+    }
+
+    private static boolean isIndexValid(Connection conn, IndexCandidate candidate)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(SQL_SELECT_INDEX_VALIDITY)) {
+            stmt.setArray(1, conn.createArrayOf("text", new Object[] { candidate.indexName }));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(2);
+            }
+        }
+    }
+
+    void clear(String tableName) {
+        this.statsByShape.values().removeIf(stats -> stats.table.getTableName().equals(tableName));
+    }
+
+    void clear() {
+        this.pendingQueries.clear();
+        this.statsByShape.clear();
+    }
+
+    private static String toShape(TableDescription td, Query query, boolean isRequired,
+            Set<String> unindexedProperties) {
+        String prefix;
+        if (query.occurance == Occurance.MUST_NOT_OCCUR) {
+            // Negated conditions can not be served by an index
+            isRequired = false;
+            prefix = "-";
+        } else if (query.occurance == Occurance.SHOULD_OCCUR) {
+            prefix = "";
+        } else {
+            prefix = "+";
+        }
+
+        if (query.term == null) {
+            if (query.booleanClauses == null || query.booleanClauses.isEmpty()) {
+                return prefix + "()";
+            }
+
+            // A SHOULD clause only helps if it is the only clause
+            boolean isSingleClause = query.booleanClauses.size() == 1;
+            List<String> clauses = new ArrayList<>(query.booleanClauses.size());
+            for (Query q : query.booleanClauses) {
+                boolean isClauseRequired = isRequired
+                        && (isSingleClause || q.occurance != Occurance.SHOULD_OCCUR);
+                clauses.add(toShape(td, q, isClauseRequired, unindexedProperties));
+            }
+            clauses.sort(null);
+            return prefix + "(" + String.join(" ", clauses) + ")";
+        }
+
+        String matchType = query.term.range != null ? "RANGE" : String.valueOf(query.term.matchType);
+        if (isRequired) {
+            ColumnDescription cd = getIndexableColumn(td, query.term.propertyName);
+            if (cd != null) {
+                unindexedProperties.add(cd.getPropertyName());
+            }
+        }
+        return prefix + query.term.propertyName + ':' + matchType;
+    }
+
+    /**
+     * Returns the top level document column a term on the given property is evaluated against,
+     * if that column can be indexed and is not indexed yet.
+     */
+    private static ColumnDescription getIndexableColumn(TableDescription td, String propertyName) {
+        ColumnDescription cd = td.getColumnDescription(propertyName);
+        if (cd == null) {
+            return null;
+        }
+        while (cd.getParent() != null) {
+            cd = cd.getParent();
+        }
+        if (cd.isNativeColumn() || cd.getDataColumnLevel() != 0 || cd.getIndexType() != null) {
+            return null;
+        }
+
+        TypeName typeName = cd.getPropertyDescription().typeName;
+        if (typeName == TypeName.DATE || typeName == TypeName.BYTES) {
+            return null;
+        }
+        return cd;
+    }
+}
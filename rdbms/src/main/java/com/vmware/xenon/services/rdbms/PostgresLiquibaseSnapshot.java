@@ -271,7 +271,16 @@ class PostgresLiquibaseSnapshot {
         }
     }
 
-    private String toHashedName(String name, int maxLen) {
+    /**
+     * Returns the name of the index created for a column of the given table.
+     */
+    static String getIndexName(TableDescription td, String indexNameSuffix) {
+        // Postgres names are maxed at 63 bytes, as long as we use ascii we should have no more than
+        // 63 characters
+        return toHashedName(td.getTableName() + "_idx_" + indexNameSuffix, 63);
+    }
+
+    private static String toHashedName(String name, int maxLen) {
         name = name.toLowerCase();
         if (name.length() <= maxLen) {
             return name;
@@ -283,10 +292,7 @@ class PostgresLiquibaseSnapshot {
 
     private void addIndex(TableDescription td, String tableId, ColumnDescription columnDescription,
             String indexNameSuffix, Map<String, String> indexIds, List<String> columnIds) {
-        // Postgres names are maxed at 63 bytes, as long as we use ascii we should have no more than
-        // 63 characters
-        String indexName = toHashedName(
-                td.getTableName() + "_idx_" + indexNameSuffix, 63);
+        String indexName = getIndexName(td, indexNameSuffix);
         String indexId = addIndex(tableId, indexName, false, columnIds);
         indexIds.put(indexName, indexId);
         this.columnDescriptionPerIndexId.put(indexName, columnDescription);
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Listens on a Postgres notification channel on a dedicated thread and connection, and passes
+ * the payload of every notification to a handler. Notifications sent while the listener is not
+ * connected are lost, so the reconnect handler is called every time the listener (re)connects.
+ */
+final class PostgresNotificationListener implements Runnable {
+    private static final Logger logger = Logger
+            .getLogger(PostgresNotificationListener.class.getName());
+
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final DataSource ds;
+    private final String channel;
+    private final Consumer<String> handler;
+    private final Runnable reconnectHandler;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    PostgresNotificationListener(DataSource ds, String channel, Consumer<String> handler,
+            Runnable reconnectHandler) {
+        this.ds = ds;
+        this.channel = channel;
+        this.handler = handler;
+        this.reconnectHandler = reconnectHandler;
+    }
+
+    synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+        this.thread = new Thread(this, "postgres-listen-" + this.channel);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    synchronized void stop() {
+        this.stopped = true;
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!this.stopped) {
+            try (Connection conn = this.ds.getConnection()) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + this.channel);
+                }
+                this.reconnectHandler.run();
+
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+                while (!this.stopped) {
+                    PGNotification[] notifications = pgConn.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        this.handler.accept(notification.getParameter());
+                    }
+                }
+
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("UNLISTEN " + this.channel);
+                }
+            } catch (Exception e) {
+                if (this.stopped) {
+                    break;
+                }
+                logger.warning(String.format("Listening on %s failed, reconnecting: %s",
+                        this.channel, e));
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.RoundRobinOperationQueue;
+import com.vmware.xenon.common.ServiceStats.ServiceStatLogHistogram;
+
+/**
+ * Operation queue of an index executor with two lanes, one for operations of the system user
+ * and one for everyone else. Each lane is a {@link RoundRobinOperationQueue} keyed by subject,
+ * so users are served fairly within their lane.
+ *
+ * The system lane is polled first, but after {@code systemLaneWeight} consecutive system
+ * operations one user operation is polled, so user traffic can not be starved either. With a
+ * weight of zero all operations share the user lane.
+ *
+ * The time every operation waited in the queue is accumulated per lane when it is polled, both
+ * as a total and in a histogram with the bins of {@link ServiceStatLogHistogram}, and read on
+ * maintenance through {@link #resetWaitStats()}, so polling stays cheap.
+ */
+final class PostgresOperationQueue {
+
+    /**
+     * Queue wait times of the operations polled between two calls of {@link #resetWaitStats()}.
+     */
+    static final class WaitStats {
+        final long systemPollCount;
+        final long systemWaitMicros;
+        final long[] systemWaitHistogram;
+        final long userPollCount;
+        final long userWaitMicros;
+        final long[] userWaitHistogram;
+
+        private WaitStats(long systemPollCount, long systemWaitMicros,
+                long[] systemWaitHistogram, long userPollCount, long userWaitMicros,
+                long[] userWaitHistogram) {
+            this.systemPollCount = systemPollCount;
+            this.systemWaitMicros = systemWaitMicros;
+            this.systemWaitHistogram = systemWaitHistogram;
+            this.userPollCount = userPollCount;
+            this.userWaitMicros = userWaitMicros;
+            this.userWaitHistogram = userWaitHistogram;
+        }
+
+        /**
+         * Returns the number of operations polled from the given lane per histogram bin, where
+         * bin {@code i} counts the waits of {@code 10^i} to {@code 10^(i+1)} micros.
+         */
+        long[] getWaitHistogram(boolean isSystemLane) {
+            return isSystemLane ? this.systemWaitHistogram : this.userWaitHistogram;
+        }
+
+        /**
+         * Returns the average wait of the operations polled from the given lane, or -1 if none
+         * was polled.
+         */
+        long getAverageWaitMicros(boolean isSystemLane) {
+            return isSystemLane ? average(this.systemWaitMicros, this.systemPollCount)
+                    : average(this.userWaitMicros, this.userPollCount);
+        }
+
+        /**
+         * Returns the average wait of the operations polled from both lanes, or -1 if none was
+         * polled.
+         */
+        long getAverageWaitMicros() {
+            return average(this.systemWaitMicros + this.userWaitMicros,
+                    this.systemPollCount + this.userPollCount);
+        }
+
+        private static long average(long totalWaitMicros, long pollCount) {
+            return pollCount == 0 ? -1 : totalWaitMicros / pollCount;
+        }
+    }
+
+    private static final int HISTOGRAM_BIN_COUNT = new ServiceStatLogHistogram().bins.length;
+
+    private final RoundRobinOperationQueue systemLane;
+    private final RoundRobinOperationQueue userLane;
+    private final int systemLaneWeight;
+
+    // enqueue time, in nanos, of the queued operations; operations are compared by identity
+    private final Map<Operation, Long> enqueueTimes = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private int consecutiveSystemPolls;
+
+    private final LongAdder systemPollCount = new LongAdder();
+    private final LongAdder systemWaitMicros = new LongAdder();
+    private final LongAdder[] systemWaitHistogram = createHistogram();
+    private final LongAdder userPollCount = new LongAdder();
+    private final LongAdder userWaitMicros = new LongAdder();
+    private final LongAdder[] userWaitHistogram = createHistogram();
+
+    PostgresOperationQueue(String name, int limit, int systemLaneWeight) {
+        this.systemLane = new RoundRobinOperationQueue(name + "-system", limit);
+        this.userLane = new RoundRobinOperationQueue(name, limit);
+        this.systemLaneWeight = systemLaneWeight;
+    }
+
+    boolean offer(String subject, boolean isSystem, Operation op) {
+        RoundRobinOperationQueue lane = isSystem && this.systemLaneWeight > 0
+                ? this.systemLane : this.userLane;
+        this.enqueueTimes.put(op, System.nanoTime());
+        this.size.incrementAndGet();
+        if (!lane.offer(subject, op)) {
+            this.size.decrementAndGet();
+            this.enqueueTimes.remove(op);
+            return false;
+        }
+        return true;
+    }
+
+    Operation poll() {
+        Operation op;
+        boolean isSystemLane;
+        synchronized (this) {
+            boolean preferSystem = this.consecutiveSystemPolls < this.systemLaneWeight;
+            RoundRobinOperationQueue first = preferSystem ? this.systemLane : this.userLane;
+            RoundRobinOperationQueue second = preferSystem ? this.userLane : this.systemLane;
+            op = first.poll();
+            isSystemLane = preferSystem;
+            if (op == null) {
+                op = second.poll();
+                isSystemLane = !preferSystem;
+            }
+            if (op == null) {
+                return null;
+            }
+            this.consecutiveSystemPolls = isSystemLane ? this.consecutiveSystemPolls + 1 : 0;
+        }
+
+        this.size.decrementAndGet();
+        Long enqueueNanos = this.enqueueTimes.remove(op);
+        if (enqueueNanos != null) {
+            long waitMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - enqueueNanos);
+            int bin = getHistogramBin(waitMicros);
+            if (isSystemLane) {
+                this.systemWaitMicros.add(waitMicros);
+                this.systemWaitHistogram[bin].increment();
+                this.systemPollCount.increment();
+            } else {
+                this.userWaitMicros.add(waitMicros);
+                this.userWaitHistogram[bin].increment();
+                this.userPollCount.increment();
+            }
+        }
+        return op;
+    }
+
+    boolean isEmpty() {
+        return this.size.get() == 0;
+    }
+
+    int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Returns the wait times of the operations polled since the previous call.
+     */
+    WaitStats resetWaitStats() {
+        return new WaitStats(this.systemPollCount.sumThenReset(),
+                this.systemWaitMicros.sumThenReset(), sumThenReset(this.systemWaitHistogram),
+                this.userPollCount.sumThenReset(), this.userWaitMicros.sumThenReset(),
+                sumThenReset(this.userWaitHistogram));
+    }
+
+    /**
+     * Returns the histogram bin of the given wait, the same bin as in the log histogram of a
+     * stat set to that value.
+     */
+    static int getHistogramBin(long waitMicros) {
+        int bin = waitMicros > 0 ? (int) Math.log10(waitMicros) : 0;
+        return Math.min(bin, HISTOGRAM_BIN_COUNT - 1);
+    }
+
+    private static LongAdder[] createHistogram() {
+        LongAdder[] histogram = new LongAdder[HISTOGRAM_BIN_COUNT];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = new LongAdder();
+        }
+        return histogram;
+    }
+
+    private static long[] sumThenReset(LongAdder[] histogram) {
+        long[] counts = new long[histogram.length];
+        for (int i = 0; i < histogram.length; i++) {
+            counts[i] = histogram[i].sumThenReset();
+        }
+        return counts;
+    }
+
+    Map<String, Integer> sizesByKey() {
+        Map<String, Integer> sizes = new HashMap<>(this.userLane.sizesByKey());
+        this.systemLane.sizesByKey().forEach((k, v) -> sizes.merge(k, v, Integer::sum));
+        return sizes;
+    }
+}
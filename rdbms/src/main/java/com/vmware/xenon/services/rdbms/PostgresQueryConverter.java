@@ -742,11 +742,22 @@ final class PostgresQueryConverter {
     }
 
     static String convertToPostgresGroupField(QueryTask.QueryTerm term, TableDescription td) {
-        return convertToPostgresSortField(term, false, td);
+        return convertToPostgresSortField(term, false, td, null);
     }
 
     static List<String> convertToPostgresSort(QueryTask.QuerySpecification querySpecification,
             boolean isGroupSort, TableDescription td, boolean ensureDocumentSelfLinkListed) {
+        return convertToPostgresSort(querySpecification, isGroupSort, td,
+                ensureDocumentSelfLinkListed, null);
+    }
+
+    /**
+     * Converts the sort terms to sort fields, ordering text fields with the given collation
+     * unless it is <code>null</code>.
+     */
+    static List<String> convertToPostgresSort(QueryTask.QuerySpecification querySpecification,
+            boolean isGroupSort, TableDescription td, boolean ensureDocumentSelfLinkListed,
+            String collation) {
         QueryTask.QueryTerm sortTerm = isGroupSort ? querySpecification.groupSortTerm
                 : querySpecification.sortTerm;
 
@@ -780,7 +791,7 @@ final class PostgresQueryConverter {
         int allocationSize = additionalSortTerms == null ? 2 : additionalSortTerms.size() + 2;
         List<String> sortFields = new ArrayList<>(allocationSize);
 
-        sortFields.add(convertToPostgresSortField(sortTerm, true, td));
+        sortFields.add(convertToPostgresSortField(sortTerm, true, td, collation));
         boolean addDocumentSelfLink = !sortTerm.propertyName
                 .equals(ServiceDocument.FIELD_NAME_SELF_LINK);
 
@@ -788,7 +799,7 @@ final class PostgresQueryConverter {
             int len = additionalSortTerms.size() + 1;
             for (int index = 1; index < len; index++) {
                 QueryTask.QueryTerm qt = additionalSortTerms.get(index - 1);
-                sortFields.add(convertToPostgresSortField(qt, true, td));
+                sortFields.add(convertToPostgresSortField(qt, true, td, collation));
                 if (qt.propertyName.equals(ServiceDocument.FIELD_NAME_SELF_LINK)) {
                     addDocumentSelfLink = false;
                 }
@@ -796,14 +807,14 @@ final class PostgresQueryConverter {
         }
 
         if (ensureDocumentSelfLinkListed && addDocumentSelfLink) {
-            sortFields.add("documentselflink "
-                    + (sortOrder == QuerySpecification.SortOrder.ASC ? "ASC" : "DESC"));
+            sortFields.add(collate("documentselflink", collation)
+                    + (sortOrder == QuerySpecification.SortOrder.ASC ? " ASC" : " DESC"));
         }
         return sortFields;
     }
 
     private static String convertToPostgresSortField(QueryTask.QueryTerm sortTerm,
-            boolean includeSortOrder, TableDescription td) {
+            boolean includeSortOrder, TableDescription td, String collation) {
         validateSortTerm(sortTerm);
 
         ColumnDescription cd = td.getColumnDescription(sortTerm.propertyName);
@@ -823,6 +834,7 @@ final class PostgresQueryConverter {
             if (isCaseInsensitive(cd)) {
                 sortField = String.format("LOWER(%s)", sortField);
             }
+            sortField = collate(sortField, collation);
         }
 
         if (includeSortOrder) {
@@ -832,6 +844,15 @@ final class PostgresQueryConverter {
         return sortField;
     }
 
+    static String collate(String field, String collation) {
+        if (collation == null) {
+            return field;
+        }
+        // COLLATE binds tighter than the JSON operators
+        return String.format(field.matches("\\w+") ? "%s COLLATE %s" : "(%s) COLLATE %s",
+                field, collation);
+    }
+
     private static void validateSortTerm(QueryTask.QueryTerm term) {
         if (term.propertyType == null) {
             throw new IllegalArgumentException("term.propertyType is required");
@@ -1240,12 +1261,14 @@ final class PostgresQueryConverter {
                 ascending = order.equals("ASC");
             }
 
-            String propertyName;
-            i = columnName.indexOf('\'');
+            String propertyName = columnName;
+            i = propertyName.lastIndexOf(" COLLATE ");
             if (i > 0) {
-                propertyName = columnName.substring(i + 1, field.lastIndexOf('\''));
-            } else {
-                propertyName = columnName;
+                propertyName = propertyName.substring(0, i);
+            }
+            i = propertyName.indexOf('\'');
+            if (i > 0) {
+                propertyName = propertyName.substring(i + 1, propertyName.lastIndexOf('\''));
             }
 
             JsonElement value = null;
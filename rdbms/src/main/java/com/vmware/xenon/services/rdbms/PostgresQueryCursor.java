@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Server-side cursor kept open across the pages of a forward only paginated query. The cursor
+ * holds a pooled connection inside an open transaction, so it is bounded by a TTL and is closed
+ * by the index service maintenance once expired.
+ *
+ * Each page records the index of the page it expects to read. A page can only be served from
+ * the cursor if the cursor is positioned at that page; otherwise the caller falls back to keyset
+ * pagination using the page's {@code after} clause.
+ */
+final class PostgresQueryCursor {
+    private static final Logger logger = Logger.getLogger(PostgresQueryCursor.class.getName());
+
+    private final Connection conn;
+    private final Statement stmt;
+    private final ResultSet rs;
+    private final long expirationMicros;
+    private final Runnable onClose;
+
+    private int pageIndex;
+    private boolean inUse;
+    private boolean closed;
+
+    private PostgresQueryCursor(Connection conn, Statement stmt, ResultSet rs,
+            long expirationMicros, Runnable onClose) {
+        this.conn = conn;
+        this.stmt = stmt;
+        this.rs = rs;
+        this.expirationMicros = expirationMicros;
+        this.onClose = onClose;
+    }
+
+    static PostgresQueryCursor open(DataSource ds, String sql, int fetchSize, long ttlMicros,
+            Runnable onClose) throws SQLException {
+        Connection conn = ds.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            Statement stmt = conn.createStatement();
+            // Turn use of the cursor on.
+            stmt.setFetchSize(fetchSize);
+            ResultSet rs = stmt.executeQuery(sql);
+            return new PostgresQueryCursor(conn, stmt, rs, Utils.fromNowMicrosUtc(ttlMicros),
+                    onClose);
+        } catch (SQLException e) {
+            try {
+                conn.close();
+            } catch (Exception ignore) {
+                // Ignore
+            }
+            throw e;
+        }
+    }
+
+    ResultSet getResultSet() {
+        return this.rs;
+    }
+
+    synchronized int getPageIndex() {
+        return this.pageIndex;
+    }
+
+    /**
+     * Marks the cursor as in use by the page with the given index. Returns false if the cursor
+     * cannot serve that page.
+     */
+    synchronized boolean acquire(int expectedPageIndex) {
+        if (this.closed || this.inUse || this.pageIndex != expectedPageIndex
+                || isExpired(Utils.getSystemNowMicrosUtc())) {
+            return false;
+        }
+        this.inUse = true;
+        return true;
+    }
+
+    /**
+     * Releases the cursor after a page was read from it, advancing it to the next page.
+     */
+    synchronized void release() {
+        this.inUse = false;
+        this.pageIndex++;
+    }
+
+    synchronized boolean closeIfExpired(long nowMicros) {
+        if (this.inUse || !isExpired(nowMicros)) {
+            return false;
+        }
+        close();
+        return true;
+    }
+
+    synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.inUse = false;
+
+        try {
+            this.rs.close();
+            this.stmt.close();
+            this.conn.rollback();
+            this.conn.setAutoCommit(true);
+        } catch (Exception e) {
+            logger.fine(() -> String.format("Failed to close query cursor: %s", e));
+        }
+        try {
+            this.conn.close();
+        } catch (Exception e) {
+            logger.warning(String.format("Failed to release query cursor connection: %s", e));
+        }
+
+        this.onClose.run();
+    }
+
+    private boolean isExpired(long nowMicros) {
+        return this.expirationMicros < nowMicros;
+    }
+}
@@ -51,6 +51,9 @@ final class PostgresQueryPageService extends StatelessService {
         public String previousPageLink;
         public String after;
         public Integer groupOffset;
+        // Optional server-side cursor positioned at this page, see PostgresQueryCursor
+        PostgresQueryCursor cursor;
+        int cursorPageIndex;
 
         public PostgresQueryPage(String link, int groupOffset) {
             this.previousPageLink = link;
@@ -43,6 +43,7 @@ public class PostgresSchemaManager {
     private static final Logger logger = Logger.getLogger(PostgresSchemaManager.class.getName());
     private static final String TASK_STATE_DOCUMENT_KIND = Utils.toDocumentKind(TaskState.class);
     private final Set<String> tableNames = ConcurrentHashMap.newKeySet();
+    private final Map<String, TableStatements> statementsPerTableName = new ConcurrentHashMap<>();
     private final Map<String, TableDescription> tableDescPerFactoryLink = new ConcurrentHashMap<>();
     private final Map<String, TableDescription> tableDescPerDocumentKind = new
             ConcurrentHashMap<>();
@@ -128,6 +129,42 @@ public class PostgresSchemaManager {
         }
     }
 
+    /**
+     * Fixed-shape SQL statements for a table, built once when the table is registered so the
+     * statement text is identical across calls and can be server-side prepared.
+     */
+    static class TableStatements {
+        final String loadDocument;
+        final String upsert;
+        final String upsertForceUpdate;
+        final String deleteDocument;
+        final String selectExpiredDocuments;
+        final String selectExpiredDocumentLinks;
+        final String deleteExpiredDocuments;
+
+        TableStatements(String tableName) {
+            this.loadDocument = String.format(
+                    "SELECT data FROM %s WHERE documentselflink = ? AND (documentexpirationtimemicros = 0 OR documentexpirationtimemicros > ?)",
+                    tableName);
+            this.upsert = String.format(PostgresServiceDocumentDao.SQL_UPSERT, tableName);
+            this.upsertForceUpdate = String.format(
+                    PostgresServiceDocumentDao.SQL_UPSERT_FORCE_UPDATE, tableName);
+            this.deleteDocument = String.format("DELETE FROM %s WHERE documentselflink = ?",
+                    tableName);
+            this.selectExpiredDocuments = String.format(
+                    "SELECT data,documentexpirationtimemicros FROM %s WHERE documentexpirationtimemicros BETWEEN 1 AND ? ORDER BY documentexpirationtimemicros LIMIT ?",
+                    tableName);
+            // DELETE has no LIMIT, the chunk is locked first on the expiration index
+            this.selectExpiredDocumentLinks = String.format(
+                    "SELECT documentselflink FROM %s WHERE documentexpirationtimemicros BETWEEN 1 AND ? ORDER BY documentexpirationtimemicros LIMIT ? FOR UPDATE SKIP LOCKED",
+                    tableName);
+            // Only the data of the documents in the second array is returned
+            this.deleteExpiredDocuments = String.format(
+                    "DELETE FROM %s WHERE documentselflink = ANY(?) RETURNING documentselflink,CASE WHEN documentselflink = ANY(?) THEN data END",
+                    tableName);
+        }
+    }
+
     public static class TableDescription {
         private ServiceHost host;
         private String factoryLink;
@@ -136,6 +173,7 @@ public class PostgresSchemaManager {
         private Class<? extends ServiceDocument> stateType;
         private ServiceDocumentDescription sdd;
         private String tableName;
+        private TableStatements statements;
         private Map<String, ColumnDescription> columnByPropertyName = new HashMap<>();
 
         private TableDescription(ServiceHost host) {
@@ -402,6 +440,10 @@ public class PostgresSchemaManager {
             return this.factoryLinkWithTrailingSlash;
         }
 
+        TableStatements getStatements() {
+            return this.statements;
+        }
+
         @Override
         public String toString() {
             return "TableDescription{" +
@@ -490,6 +532,8 @@ public class PostgresSchemaManager {
             }
             this.tableDescPerDocumentKind.put(td.documentKind, td);
         }
+        td.statements = this.statementsPerTableName.computeIfAbsent(td.tableName,
+                TableStatements::new);
         this.tableNames.add(td.tableName);
         this.tableDescPerFactoryLink.put(td.factoryLink, td);
         Utils.registerKind(td.stateType, td.documentKind);
@@ -507,6 +551,10 @@ public class PostgresSchemaManager {
         return this.tableNames;
     }
 
+    TableStatements getStatementsForTableName(String tableName) {
+        return this.statementsPerTableName.get(tableName);
+    }
+
     String getDocumentKindForFactoryLink(String factoryLink) {
         TableDescription td;
         if ((td = this.tableDescPerFactoryLink.get(UriUtils.normalizeUriPath(factoryLink))) != null) {
@@ -17,6 +17,7 @@ import static com.vmware.xenon.services.rdbms.PostgresQueryConverter.isSqlTrue;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.URI;
@@ -36,13 +37,25 @@ import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -53,7 +66,12 @@ import javax.sql.DataSource;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.postgresql.PGStatement;
 
+import com.vmware.xenon.common.NamedThreadFactory;
 import com.vmware.xenon.common.NodeSelectorService.SelectOwnerResponse;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Operation.AuthorizationContext;
@@ -73,8 +91,10 @@ import com.vmware.xenon.services.common.QueryTask.Query;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 import com.vmware.xenon.services.common.ServiceUriPaths;
+import com.vmware.xenon.services.rdbms.PostgresIndexAdvisor.IndexCandidate;
 import com.vmware.xenon.services.rdbms.PostgresQueryPageService.PostgresQueryPage;
 import com.vmware.xenon.services.rdbms.PostgresSchemaManager.TableDescription;
+import com.vmware.xenon.services.rdbms.PostgresSchemaManager.TableStatements;
 
 final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBean {
     private static final Logger logger = Logger
@@ -100,6 +120,36 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             "isSoftDeleteEnabled",
             true);
 
+    /**
+     * When enabled, documents whose state type is known up front are deserialized straight from
+     * the stored JSON into the state type, without building an intermediate JsonObject tree.
+     */
+    private static final boolean TYPED_DECODING_ENABLED = XenonConfiguration.bool(
+            PostgresServiceDocumentDao.class,
+            "isTypedDecodingEnabled",
+            true);
+
+    /**
+     * When enabled, FORWARD_ONLY paginated queries keep a server-side cursor open between pages
+     * instead of re-executing the query for every page.
+     */
+    private static boolean cursorPaginationEnabled = XenonConfiguration.bool(
+            PostgresServiceDocumentDao.class,
+            "isCursorPaginationEnabled",
+            false);
+
+    // Every open cursor holds a pooled connection, keep this well below the pool size
+    private static final int MAX_OPEN_CURSORS = XenonConfiguration.integer(
+            PostgresServiceDocumentDao.class,
+            "maxOpenCursors",
+            2);
+
+    private static long cursorTtlMicros = TimeUnit.SECONDS.toMicros(
+            XenonConfiguration.integer(
+                    PostgresServiceDocumentDao.class,
+                    "cursorTtlSeconds",
+                    60));
+
     private static final String DUMP_QUERY_DIRECTORY = XenonConfiguration.string(
             PostgresServiceDocumentDao.class,
             "dumpQueryDirectory",
@@ -110,10 +160,123 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             "logSlowQueriesThresholdSeconds",
             0));
 
+    /**
+     * Number of executions after which the driver switches a fixed-shape statement (load, upsert,
+     * delete) to a server-side prepared statement. Zero keeps the driver default.
+     */
+    private int prepareThreshold = XenonConfiguration.integer(
+            PostgresServiceDocumentDao.class,
+            "prepareThreshold",
+            0);
+
+    /**
+     * When enabled, the shape and latency of executed queries are recorded to suggest indexes for
+     * document properties that are filtered on but not indexed.
+     */
+    private static final boolean INDEX_ADVISOR_ENABLED = XenonConfiguration.bool(
+            PostgresServiceDocumentDao.class,
+            "isIndexAdvisorEnabled",
+            false);
+
+    private static final int INDEX_ADVISOR_MAX_SHAPES = XenonConfiguration.integer(
+            PostgresServiceDocumentDao.class,
+            "indexAdvisorMaxShapes",
+            1000);
+
+    /**
+     * When enabled, index candidates above the query count and latency thresholds are created
+     * automatically during maintenance, one index at a time.
+     */
+    private boolean isIndexAutoCreateEnabled = XenonConfiguration.bool(
+            PostgresServiceDocumentDao.class,
+            "isIndexAutoCreateEnabled",
+            false);
+
+    private static final long INDEX_AUTO_CREATE_MIN_QUERY_COUNT = XenonConfiguration.integer(
+            PostgresServiceDocumentDao.class,
+            "indexAutoCreateMinQueryCount",
+            100);
+
+    private static final long INDEX_AUTO_CREATE_MIN_AVERAGE_MICROS = TimeUnit.MILLISECONDS.toMicros(
+            XenonConfiguration.integer(
+                    PostgresServiceDocumentDao.class,
+                    "indexAutoCreateMinAverageQueryTimeMillis",
+                    50));
+
+    private final PostgresIndexAdvisor indexAdvisor = new PostgresIndexAdvisor(
+            INDEX_ADVISOR_MAX_SHAPES);
+    private final AtomicBoolean isIndexCreationInProgress = new AtomicBoolean();
+
+    /**
+     * When enabled, documents of the factories listed in documentCacheFactoryLinks which are
+     * loaded by self link are kept in a size bounded read-through cache. Writes invalidate the
+     * cache locally and, through Postgres NOTIFY, on the other nodes.
+     */
+    private static final boolean DOCUMENT_CACHE_ENABLED = XenonConfiguration.bool(
+            PostgresServiceDocumentDao.class,
+            "isDocumentCacheEnabled",
+            false);
+
+    private static final long DOCUMENT_CACHE_MAX_SIZE_BYTES = 1024L * 1024L
+            * XenonConfiguration.integer(
+                    PostgresServiceDocumentDao.class,
+                    "documentCacheMaxSizeMegabytes",
+                    64);
+
+    // Comma separated factory links of the cached documents. Only the documents of these
+    // factories are cached, and writes to their tables are the only ones notified to the other
+    // nodes, so nothing is cached if not set.
+    private static final String DOCUMENT_CACHE_FACTORY_LINKS = XenonConfiguration.string(
+            PostgresServiceDocumentDao.class,
+            "documentCacheFactoryLinks",
+            null);
+
+    private static final String DOCUMENT_CACHE_CHANNEL = "xenon_document_cache";
+    private static final String SQL_NOTIFY_DOCUMENT_CACHE = "SELECT pg_notify('"
+            + DOCUMENT_CACHE_CHANNEL + "', ?)";
+
+    private final PostgresDocumentCache documentCache = DOCUMENT_CACHE_ENABLED
+            && DOCUMENT_CACHE_FACTORY_LINKS != null
+            ? new PostgresDocumentCache(DOCUMENT_CACHE_MAX_SIZE_BYTES) : null;
+    private final Set<String> documentCacheFactoryLinks = DOCUMENT_CACHE_FACTORY_LINKS == null
+            ? Collections.emptySet()
+            : Arrays.stream(DOCUMENT_CACHE_FACTORY_LINKS.split(","))
+                    .map(String::trim)
+                    .filter(link -> !link.isEmpty())
+                    .collect(Collectors.toSet());
+    private PostgresNotificationListener documentCacheListener;
+
+    /**
+     * When enabled, queries and counts spanning several tables run one statement per table in
+     * parallel, instead of a single UNION statement on one connection. The rows of sorted queries
+     * are merged in sort order, see {@link PostgresTableMerge}. Queries with an offset still use
+     * the UNION statement.
+     */
+    private static boolean parallelTableQueriesEnabled = XenonConfiguration.bool(
+            PostgresServiceDocumentDao.class,
+            "isParallelTableQueryEnabled",
+            false);
+
+    // Every thread holds a pooled connection while running, keep this below the pool size
+    private static final int PARALLEL_TABLE_QUERY_THREAD_COUNT = XenonConfiguration.integer(
+            PostgresServiceDocumentDao.class,
+            "parallelTableQueryThreadCount",
+            4);
+
+    private ThreadPoolExecutor parallelQueryExecutor;
+
+    private final Set<PostgresQueryCursor> openCursors = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger openCursorCount = new AtomicInteger();
+
+    // Lookups of the statements built once per registered table, and of the statements built on
+    // demand for tables without a registered description
+    private final AtomicLong statementCacheHitCount = new AtomicLong();
+    private final AtomicLong statementCacheMissCount = new AtomicLong();
+
     private static final String DOCUMENTS_WITHOUT_RESULTS = "DocumentsWithoutResults";
 
-    private static final String SQL_UPSERT;
-    private static final String SQL_UPSERT_FORCE_UPDATE;
+    static final String SQL_UPSERT;
+    static final String SQL_UPSERT_FORCE_UPDATE;
 
     static {
         List<String> insertFields = Arrays.asList("data", "documentselflink", "documentversion",
@@ -238,13 +401,30 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             return null;
         }
 
-        String sql = String
-                .format("SELECT data FROM %s WHERE documentselflink = ? AND (documentexpirationtimemicros = 0 OR documentexpirationtimemicros > ?)",
-                        tableDescription.getTableName());
+        if (!isDocumentCached(tableDescription)) {
+            return loadDocument(tableDescription, selfLink, null);
+        }
+
+        ServiceDocument cachedState = this.documentCache.get(selfLink);
+        if (cachedState != null) {
+            return cachedState;
+        }
+        PostgresDocumentCache.Load cacheLoad = this.documentCache.startLoad(selfLink);
+        try {
+            return loadDocument(tableDescription, selfLink, cacheLoad);
+        } finally {
+            this.documentCache.endLoad(cacheLoad);
+        }
+    }
+
+    private ServiceDocument loadDocument(TableDescription tableDescription, String selfLink,
+            PostgresDocumentCache.Load cacheLoad) throws SQLException {
+        String sql = getStatements(tableDescription).loadDocument;
 
         PostgresDocumentStoredFieldVisitor visitor;
+        ServiceDocument state = null;
         try (Connection conn = this.ds.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
+                PreparedStatement stmt = prepareStatement(conn, sql)) {
             stmt.setString(1, selfLink);
             stmt.setLong(2, Utils.getSystemNowMicrosUtc());
 
@@ -257,7 +437,11 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
                 }
 
                 visitor = new PostgresDocumentStoredFieldVisitor();
-                loadDoc(visitor, rs);
+                if (TYPED_DECODING_ENABLED) {
+                    state = loadDocAsState(visitor, rs, tableDescription.getStateType(), selfLink);
+                } else {
+                    loadDoc(visitor, rs);
+                }
 
                 if (isDetailedLoggingEnabled) {
                     logger.info(String.format("SQL loadDocument: %s : ver=%d documentOwner=%s",
@@ -278,21 +462,29 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             return null;
         }
 
-        return getStateFromPostgresDocument(tableDescription, visitor, selfLink);
+        if (state == null) {
+            state = getStateFromPostgresDocument(tableDescription, visitor, selfLink);
+        }
+        if (cacheLoad != null && state != null && visitor.jsonSerializedState != null) {
+            this.documentCache.put(state, visitor.jsonSerializedState.length(), cacheLoad);
+        }
+        return state;
     }
 
     public void saveDocument(ServiceDocument sd, ServiceDocumentDescription sdd,
             boolean forceIndexUpdate) throws SQLException {
-        String tableName = this.schemaManager.getTableNameForDocumentSelfLink(sd.documentSelfLink);
-        if (tableName == null) {
+        TableDescription tableDescription = this.schemaManager
+                .getTableDescriptionForDocumentSelfLink(sd.documentSelfLink);
+        if (tableDescription == null) {
             throw new IllegalArgumentException("Cannot determine SQL table name for document: "
                     + sd.documentSelfLink);
         }
+        String tableName = tableDescription.getTableName();
+        TableStatements statements = getStatements(tableDescription);
 
         // Delete document if action is DELETE and soft delete is disabled
         // TODO: Need to check behavior when upset is after DELETE and not using soft delete
-        boolean delete = Action.DELETE.name().equals(sd.documentUpdateAction)
-                && !this.isSoftDeleteEnabled;
+        boolean delete = isHardDelete(sd);
 
         if (delete) {
             // SQL DELETE
@@ -300,11 +492,12 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
                 logger.info(() -> String.format("SQL delete: %s : ver=%s documentOwner=%s",
                         sd.documentSelfLink, sd.documentVersion, sd.documentOwner));
             }
-            String sql = String.format("DELETE FROM %s WHERE documentselflink = ?", tableName);
             try (Connection conn = this.ds.getConnection();
-                    PreparedStatement delStmt = conn.prepareStatement(sql)) {
+                    PreparedStatement delStmt = prepareStatement(conn,
+                            statements.deleteDocument)) {
                 delStmt.setString(1, sd.documentSelfLink);
                 delStmt.executeUpdate();
+                invalidateCachedDocument(conn, tableDescription, sd.documentSelfLink);
                 // TODO: Need to call service delete
             } catch (Exception e) {
                 logger.severe(String
@@ -319,8 +512,123 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
         // SQL UPSERT
         // Make sure we are not updating a version that is newer than current for
         // non-forced index update operations
-        String sql = String.format(forceIndexUpdate ? SQL_UPSERT_FORCE_UPDATE : SQL_UPSERT,
-                tableName);
+        String sql = forceIndexUpdate ? statements.upsertForceUpdate : statements.upsert;
+
+        try (Connection conn = this.ds.getConnection();
+                PreparedStatement stmt = prepareStatement(conn, sql)) {
+            setUpsertParameters(stmt, sd);
+
+            if (stmt.executeUpdate() == 0) {
+                // TODO: Fail operation?
+                logIgnoredUpsert(sd);
+            } else {
+                invalidateCachedDocument(conn, tableDescription, sd.documentSelfLink);
+                if (isDetailedLoggingEnabled) {
+                    logger.info(String.format(
+                            "SQL upsert: %s : ver=%s documentOwner=%s documentExpirationTimeMicros=%s table=%s",
+                            sd.documentSelfLink, sd.documentVersion, sd.documentOwner,
+                            sd.documentExpirationTimeMicros, tableName));
+                }
+            }
+        } catch (Exception e) {
+            logger.severe(String.format("Failed SQL upsert: %s : ver=%s documentOwner=%s : %s",
+                    sd.documentSelfLink, sd.documentVersion, sd.documentOwner, Utils.toString(e)));
+            throw e;
+        }
+    }
+
+    /**
+     * Upserts the given documents using one JDBC batch per table, all within a single
+     * transaction. The same versioning rules as {@link #saveDocument} apply to every row, so
+     * multiple versions of the same document in one batch are applied in the given order.
+     *
+     * Documents that need a hard delete are not supported here and must be saved with
+     * {@link #saveDocument}. If any statement fails the whole transaction is rolled back.
+     */
+    public void saveDocuments(List<ServiceDocument> documents, boolean forceIndexUpdate)
+            throws SQLException {
+        Map<String, List<ServiceDocument>> documentsPerTable = new LinkedHashMap<>();
+        for (ServiceDocument sd : documents) {
+            String tableName = this.schemaManager
+                    .getTableNameForDocumentSelfLink(sd.documentSelfLink);
+            if (tableName == null) {
+                throw new IllegalArgumentException("Cannot determine SQL table name for document: "
+                        + sd.documentSelfLink);
+            }
+            if (isHardDelete(sd)) {
+                throw new IllegalArgumentException("Batch delete is not supported for document: "
+                        + sd.documentSelfLink);
+            }
+            documentsPerTable.computeIfAbsent(tableName, k -> new ArrayList<>()).add(sd);
+        }
+
+        try (Connection conn = this.ds.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (Entry<String, List<ServiceDocument>> entry : documentsPerTable.entrySet()) {
+                    saveDocumentsForTable(conn, entry.getKey(), entry.getValue(),
+                            forceIndexUpdate);
+                }
+                conn.commit();
+                // Drop states cached by loads that ran before the commit
+                for (ServiceDocument sd : documents) {
+                    if (isDocumentCached(this.schemaManager
+                            .getTableDescriptionForDocumentSelfLink(sd.documentSelfLink))) {
+                        this.documentCache.invalidate(sd.documentSelfLink);
+                    }
+                }
+            } catch (Exception e) {
+                logger.severe(String.format("Failed SQL batch upsert of %d documents: %s",
+                        documents.size(), Utils.toString(e)));
+                try {
+                    conn.rollback();
+                } catch (Exception ignore) {
+                    // Ignore
+                }
+                throw e;
+            } finally {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (Exception ignore) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private void saveDocumentsForTable(Connection conn, String tableName,
+            List<ServiceDocument> documents, boolean forceIndexUpdate) throws SQLException {
+        TableStatements statements = getStatements(tableName);
+        String sql = forceIndexUpdate ? statements.upsertForceUpdate : statements.upsert;
+        try (PreparedStatement stmt = prepareStatement(conn, sql)) {
+            for (ServiceDocument sd : documents) {
+                setUpsertParameters(stmt, sd);
+                stmt.addBatch();
+            }
+
+            int[] counts = stmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                ServiceDocument sd = documents.get(i);
+                if (counts[i] == 0) {
+                    logIgnoredUpsert(sd);
+                    continue;
+                }
+                // Notifications are only delivered once the transaction commits
+                invalidateCachedDocument(conn, this.schemaManager
+                        .getTableDescriptionForDocumentSelfLink(sd.documentSelfLink),
+                        sd.documentSelfLink);
+                if (isDetailedLoggingEnabled) {
+                    logger.info(String.format(
+                            "SQL batch upsert: %s : ver=%s documentOwner=%s documentExpirationTimeMicros=%s table=%s",
+                            sd.documentSelfLink, sd.documentVersion, sd.documentOwner,
+                            sd.documentExpirationTimeMicros, tableName));
+                }
+            }
+        }
+    }
+
+    private void setUpsertParameters(PreparedStatement stmt, ServiceDocument sd)
+            throws SQLException {
         String json = Utils.toJson(sd);
 
         // Calling Utils.getBuilder() to make sure to trim large buffers from staying in the
@@ -330,42 +638,135 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             Utils.getBuilder();
         }
 
-        try (Connection conn = this.ds.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, json);
-            stmt.setString(2, sd.documentSelfLink);
-            stmt.setLong(3, sd.documentVersion);
-            stmt.setString(4, sd.documentKind);
-            stmt.setLong(5, sd.documentExpirationTimeMicros);
-            stmt.setLong(6, sd.documentUpdateTimeMicros);
-            stmt.setString(7, sd.documentTransactionId);
-            stmt.setString(8, sd.documentAuthPrincipalLink);
-            stmt.setString(9, sd.documentUpdateAction);
+        stmt.setString(1, json);
+        stmt.setString(2, sd.documentSelfLink);
+        stmt.setLong(3, sd.documentVersion);
+        stmt.setString(4, sd.documentKind);
+        stmt.setLong(5, sd.documentExpirationTimeMicros);
+        stmt.setLong(6, sd.documentUpdateTimeMicros);
+        stmt.setString(7, sd.documentTransactionId);
+        stmt.setString(8, sd.documentAuthPrincipalLink);
+        stmt.setString(9, sd.documentUpdateAction);
+    }
 
-            if (stmt.executeUpdate() == 0) {
-                // TODO: Fail operation?
-                logger.log(Level.WARNING, String.format(
-                        "Ignored SQL upsert: %s : ver=%s documentOwner=%s : most probably a newer version is already stored",
-                        sd.documentSelfLink, sd.documentVersion, sd.documentOwner));
-            } else if (isDetailedLoggingEnabled) {
-                logger.info(String.format(
-                        "SQL upsert: %s : ver=%s documentOwner=%s documentExpirationTimeMicros=%s table=%s",
-                        sd.documentSelfLink, sd.documentVersion, sd.documentOwner,
-                        sd.documentExpirationTimeMicros, tableName));
+    private void logIgnoredUpsert(ServiceDocument sd) {
+        logger.log(Level.WARNING, String.format(
+                "Ignored SQL upsert: %s : ver=%s documentOwner=%s : most probably a newer version is already stored",
+                sd.documentSelfLink, sd.documentVersion, sd.documentOwner));
+    }
+
+    private boolean isDocumentCached(TableDescription tableDescription) {
+        return this.documentCache != null && tableDescription != null
+                && this.documentCacheFactoryLinks.contains(tableDescription.getFactoryLink());
+    }
+
+    /**
+     * Removes a written document from the local cache and notifies the other nodes through the
+     * given connection. When called inside a transaction, other nodes are only notified on commit,
+     * so the caller must invalidate the local cache again once committed.
+     */
+    private void invalidateCachedDocument(Connection conn, TableDescription tableDescription,
+            String documentSelfLink) throws SQLException {
+        if (!isDocumentCached(tableDescription)) {
+            return;
+        }
+
+        this.documentCache.invalidate(documentSelfLink);
+        try (PreparedStatement stmt = prepareStatement(conn, SQL_NOTIFY_DOCUMENT_CACHE)) {
+            stmt.setString(1, documentSelfLink);
+            stmt.execute();
+        }
+    }
+
+    /**
+     * Starts listening for cache invalidations sent by other nodes. Notifications can be missed
+     * while not connected, so the cache is cleared every time the listener (re)connects.
+     */
+    void startDocumentCacheListener() {
+        if (this.documentCache == null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.documentCacheListener == null) {
+                this.documentCacheListener = new PostgresNotificationListener(this.ds,
+                        DOCUMENT_CACHE_CHANNEL, this.documentCache::invalidate,
+                        this.documentCache::clear);
+                this.documentCacheListener.start();
+            }
+        }
+    }
+
+    synchronized void stopDocumentCacheListener() {
+        if (this.documentCacheListener != null) {
+            this.documentCacheListener.stop();
+            this.documentCacheListener = null;
+        }
+    }
+
+    void clearDocumentCache() {
+        if (this.documentCache != null) {
+            this.documentCache.clear();
+        }
+    }
+
+    PostgresDocumentCache getDocumentCache() {
+        return this.documentCache;
+    }
+
+    /**
+     * Returns the precomputed statements for the given table, building them on demand for tables
+     * that were not registered through {@link PostgresSchemaManager}.
+     */
+    TableStatements getStatements(TableDescription tableDescription) {
+        TableStatements statements = tableDescription.getStatements();
+        if (statements != null) {
+            this.statementCacheHitCount.incrementAndGet();
+            return statements;
+        }
+        return getStatements(tableDescription.getTableName());
+    }
+
+    TableStatements getStatements(String tableName) {
+        TableStatements statements = this.schemaManager.getStatementsForTableName(tableName);
+        if (statements != null) {
+            this.statementCacheHitCount.incrementAndGet();
+            return statements;
+        }
+        this.statementCacheMissCount.incrementAndGet();
+        return new TableStatements(tableName);
+    }
+
+    /**
+     * Prepares one of the fixed-shape statements, applying the configured server-side prepare
+     * threshold.
+     */
+    PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        if (stmt.isWrapperFor(PGStatement.class)) {
+            PGStatement pgStmt = stmt.unwrap(PGStatement.class);
+            int threshold = this.prepareThreshold;
+            if (threshold > 0) {
+                pgStmt.setPrepareThreshold(threshold);
             }
-        } catch (Exception e) {
-            logger.severe(String.format("Failed SQL upsert: %s : ver=%s documentOwner=%s : %s",
-                    sd.documentSelfLink, sd.documentVersion, sd.documentOwner, Utils.toString(e)));
-            throw e;
         }
+        return stmt;
+    }
+
+    /**
+     * Returns true if saving the given document removes its row instead of upserting it.
+     */
+    boolean isHardDelete(ServiceDocument sd) {
+        return Action.DELETE.name().equals(sd.documentUpdateAction) && !this.isSoftDeleteEnabled;
     }
 
     public void deleteDocument(Connection conn, String tableName, String documentSelfLink)
             throws SQLException {
-        String sql = String.format("DELETE FROM %s WHERE documentselflink = ?", tableName);
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        String sql = getStatements(tableName).deleteDocument;
+        try (PreparedStatement stmt = prepareStatement(conn, sql)) {
             stmt.setString(1, documentSelfLink);
             int rows = stmt.executeUpdate();
+            invalidateCachedDocument(conn, this.schemaManager
+                    .getTableDescriptionForDocumentSelfLink(documentSelfLink), documentSelfLink);
             if (isDetailedLoggingEnabled) {
                 logger.info(() -> String.format("SQL delete: %s from %s, rows=%d",
                         documentSelfLink, tableName, rows));
@@ -407,7 +808,7 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             TableDescription td = tables.iterator().next();
 
             sortFields = PostgresQueryConverter.convertToPostgresSort(task.querySpec, false, td,
-                    true);
+                    true, getSortCollation(tables, task.querySpec));
             task.querySpec.context.nativeSort = sortFields;
         }
 
@@ -697,6 +1098,15 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             result.documentOwner = this.host.getId();
         }
 
+        // Record every query once, but not the initial POST of a paginated query, which only
+        // checks for results
+        boolean isPaginationStart = page == null && resultLimit != Integer.MAX_VALUE
+                && !options.contains(QueryOption.TOP_RESULTS)
+                && !options.contains(QueryOption.COUNT);
+        if (INDEX_ADVISOR_ENABLED && qs != null && !isPaginationStart) {
+            this.indexAdvisor.recordQuery(tables, qs.query, result.queryTimeMicros);
+        }
+
         return result;
     }
 
@@ -723,6 +1133,67 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
         }
     }
 
+    /**
+     * Deserializes the current row directly into the state type of its document kind and
+     * populates the visitor built-in fields from it. Unlike {@link #loadDoc} no JsonObject is
+     * created, so link fields are not collected in the visitor.
+     *
+     * Tables can hold documents of other kinds than the table state type, e.g. the tables of
+     * bootstrap services using {@link ServiceDocument} as state type, so the document kind is
+     * read from the row before it is deserialized. When that kind is not known, the row is loaded
+     * as with {@link #loadDoc} and <code>null</code> is returned.
+     */
+    ServiceDocument loadDocAsState(PostgresDocumentStoredFieldVisitor visitor, ResultSet rs,
+            Class<? extends ServiceDocument> stateType, String link) throws SQLException {
+        String data = rs.getString(1);
+        visitor.jsonSerializedState = data;
+
+        Class<? extends ServiceDocument> rowStateType = stateType;
+        String documentKind = readDocumentKind(data);
+        if (documentKind != null && !documentKind.equals(Utils.buildKind(stateType))) {
+            rowStateType = getStateTypeForDocumentKind(documentKind);
+            if (rowStateType == null) {
+                loadDoc(visitor, rs);
+                return null;
+            }
+        }
+
+        ServiceDocument state = Utils.fromJson(data, rowStateType);
+        if (state.documentSelfLink == null) {
+            state.documentSelfLink = link;
+        }
+        if (state.documentKind == null) {
+            state.documentKind = Utils.buildKind(stateType);
+        }
+        visitor.setBuiltInFields(state);
+
+        if (isDetailedLoggingEnabled) {
+            logger.fine(
+                    () -> String.format("Load document %s: %s", visitor.documentSelfLink, data));
+        }
+        return state;
+    }
+
+    /**
+     * Returns the document kind of the serialized document, or <code>null</code> if it has none.
+     * The other fields are skipped without being decoded.
+     */
+    static String readDocumentKind(String json) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!ServiceDocument.FIELD_NAME_KIND.equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                return reader.peek() == JsonToken.STRING ? reader.nextString() : null;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
     ServiceDocument getStateFromPostgresDocument(TableDescription tableDescription,
             PostgresDocumentStoredFieldVisitor visitor, String link) {
         JsonObject jsonObject = visitor.getAsJsonObject();
@@ -735,15 +1206,11 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
         if (tableDescription != null) {
             stateType = tableDescription.getStateType();
         } else {
-            stateType = this.schemaManager.getStateTypeForDocumentKind(visitor.documentKind);
+            stateType = getStateTypeForDocumentKind(visitor.documentKind);
             if (stateType == null) {
-                // TODO: Remove after using registerPostgresSchema() in host
-                stateType = getTypeFromKind(visitor.documentKind);
-                if (stateType == null) {
-                    // Return null if documentKind is not known, we should be able to return JSON
-                    // after the content in the DB
-                    return null;
-                }
+                // Return null if documentKind is not known, we should be able to return JSON
+                // after the content in the DB
+                return null;
             }
         }
         // Check if kind was registered
@@ -758,6 +1225,16 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
         return state;
     }
 
+    private Class<? extends ServiceDocument> getStateTypeForDocumentKind(String documentKind) {
+        Class<? extends ServiceDocument> stateType = this.schemaManager
+                .getStateTypeForDocumentKind(documentKind);
+        if (stateType == null) {
+            // TODO: Remove after using registerPostgresSchema() in host
+            stateType = getTypeFromKind(documentKind);
+        }
+        return stateType;
+    }
+
     @SuppressWarnings("unchecked")
     private static Class<? extends ServiceDocument> getTypeFromKind(String documentKind) {
         // TODO: how to find class?
@@ -871,8 +1348,12 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
 
     private ServiceDocumentQueryResult queryIndexCount(Operation op, QuerySpecification qs,
             Set<TableDescription> tables, String tq, long queryStartTimeMicros)
-            throws SQLException {
+            throws Exception {
         ServiceDocumentQueryResult response = new ServiceDocumentQueryResult();
+        if (parallelTableQueriesEnabled && tables.size() > 1) {
+            return queryIndexCountInParallel(op, qs, tables, tq, queryStartTimeMicros, response);
+        }
+
         String sql;
         if (tables.size() > 1) {
             String countClauses = String.join(" + ", tables.stream()
@@ -1003,19 +1484,51 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             }
             if (sortFields == null) {
                 sortFields = PostgresQueryConverter.convertToPostgresSort(qs, false,
-                        tables.iterator().next(), true);
+                        tables.iterator().next(), true, getSortCollation(tables, qs));
             }
         }
 
         if (sortFields == null && (hasExplicitLimit || (qs != null && qs.options
                 .contains(QueryOption.OWNER_SELECTION)))) {
-            sortFields = Collections.singletonList("documentselflink ASC");
+            sortFields = Collections.singletonList(PostgresQueryConverter.collate(
+                    "documentselflink", getSortCollation(tables, qs)) + " ASC");
         }
 
         boolean hasOffset = qs != null && qs.offset != null;
         int offset = !hasOffset ? 0 : qs.offset;
 
+        if (hasPage && page.cursor != null) {
+            ServiceDocumentQueryResult cursorRsp = queryIndexFromCursor(op, tables, page,
+                    options, qs, count, sortFields, expirationTimeMicros, nodeSelectorLink,
+                    indexLink, queryStartTimeMicros);
+            if (cursorRsp != null) {
+                return cursorRsp;
+            }
+            // The cursor expired or moved past this page, continue with keyset pagination
+        }
+
+        if (parallelTableQueriesEnabled && tables.size() > 1 && shouldProcessResults
+                && !hasOffset) {
+            if (sortFields == null) {
+                // Without a sort order the results of each table can simply be concatenated
+                return queryIndexInParallel(op, tables, tq, options, qs, count, hitCount,
+                        nodeSelectorLink, queryStartTimeMicros, rsp);
+            }
+            ServiceDocumentQueryResult mergedRsp = queryIndexMerged(op, tables, tq, after,
+                    options, qs, count, hitCount, sortFields, hasPage, expirationTimeMicros,
+                    nodeSelectorLink, indexLink, queryStartTimeMicros, rsp);
+            if (mergedRsp != null) {
+                return mergedRsp;
+            }
+            // Some sort keys are only ordered by the database, run the UNION statement
+        }
+
+        boolean useCursor = cursorPaginationEnabled && isPaginatedQuery && !hasPage
+                && !hasOffset && sortFields != null
+                && qs.options.contains(QueryOption.FORWARD_ONLY);
+
         String sql;
+        String cursorSql = null;
         String orderBy;
         String fields;
 
@@ -1043,6 +1556,10 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
                 where += " AND " + after;
             }
 
+            if (useCursor) {
+                cursorSql = String.format("SELECT %s FROM %s WHERE %s %s",
+                        fields, td.getTableName(), where, orderBy);
+            }
             if (!shouldProcessResults) {
                 sql = String.format("SELECT EXISTS (SELECT 1 FROM %s WHERE %s)",
                         td.getTableName(), where);
@@ -1072,6 +1589,10 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
                 return rsp;
             }
             String unionQuery = String.join(" UNION ALL ", tableSelects);
+            if (useCursor) {
+                cursorSql = String.format("SELECT %s FROM (%s) AS docs %s",
+                        fields, unionQuery, orderBy);
+            }
             if (!shouldProcessResults) {
                 sql = String.format("SELECT EXISTS (%s)", unionQuery);
             } else {
@@ -1091,6 +1612,16 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
                     prettySqlStatement(sql)));
         }
 
+        if (useCursor) {
+            ServiceDocumentQueryResult cursorRsp = openCursorPage(op, qs, rsp, cursorSql,
+                    sortFields, count, expirationTimeMicros, indexLink, nodeSelectorLink,
+                    queryStartTimeMicros);
+            if (cursorRsp != null) {
+                return cursorRsp;
+            }
+            // All cursors are in use, check for results without one
+        }
+
         long queryTime;
         try (Connection conn = this.ds.getConnection()) {
             if (shouldProcessResults) {
@@ -1119,8 +1650,10 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
 
                     JsonObject bottom = null;
                     if (shouldProcessResults) {
+                        Class<? extends ServiceDocument> stateType = tables.size() == 1
+                                ? tables.iterator().next().getStateType() : null;
                         bottom = processQueryResults(qs, options, count, rsp, rs,
-                                queryStartTimeMicros, nodeSelectorLink, true);
+                                stateType, nodeSelectorLink, true, false, null);
                         if (hasOffset) {
                             offset += count;
                         }
@@ -1184,22 +1717,570 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
     }
 
     /**
-     * Starts a {@code QueryPageService} to track a partial search result set, associated with a
-     * index searcher and search pointers. The page can be used for both grouped queries or document
-     * queries
+     * Runs an unsorted query against every table in parallel, each on its own connection, and
+     * concatenates the results in table order up to {@code hitCount} documents.
      */
-    private String createNextPage(Operation op, QuerySpecification qs,
-            String tq,
-            List<String> sortFields,
-            String after,
-            Integer offset,
-            Integer groupOffset,
-            long expiration,
-            String indexLink,
-            String nodeSelectorLink,
-            boolean hasPage) {
-
-        String nextPageId = Utils.getNowMicrosUtc() + "";
+    private ServiceDocumentQueryResult queryIndexInParallel(Operation op,
+            Set<TableDescription> tables, String tq, EnumSet<QueryOption> options,
+            QuerySpecification qs, int count, int hitCount, String nodeSelectorLink,
+            long queryStartTimeMicros, ServiceDocumentQueryResult rsp) throws Exception {
+        List<String> sqls = new ArrayList<>();
+        List<Callable<ServiceDocumentQueryResult>> tasks = new ArrayList<>();
+        for (TableDescription td : tables) {
+            String where = tq != null ? tq
+                    : PostgresQueryConverter.convert(qs.query, qs.context, td);
+            where = updateQuery(op, td, where, queryStartTimeMicros, qs, false);
+            if (where == null) {
+                continue;
+            }
+
+            String sql = String.format("SELECT data FROM %s WHERE %s LIMIT %s",
+                    td.getTableName(), where, hitCount);
+            sqls.add(sql);
+            tasks.add(() -> queryTable(sql, qs, options, count, td.getStateType(),
+                    nodeSelectorLink, rsp.documents != null, 0).result);
+        }
+        if (tasks.isEmpty()) {
+            return rsp;
+        }
+
+        String sql = String.join(";\n", sqls);
+        if (isDetailedLoggingEnabled) {
+            logger.fine(() -> String.format("Xenon query specification: %s", Utils.toJsonHtml(qs)));
+            logger.info(String.format(
+                    "SQL parallel query: \n>>>>>>>>>> SQL BEGIN >>>>>>>>>>\n%s\n<<<<<<<<<< SQL END <<<<<<<<<<\n",
+                    prettySqlStatement(sql)));
+        }
+
+        long startMillis = System.currentTimeMillis();
+        List<ServiceDocumentQueryResult> results;
+        try {
+            results = runInParallel(tasks);
+        } catch (Exception e) {
+            logger.severe(String.format("Error while querying: %s\nException: %s",
+                    sql, Utils.toString(e)));
+            throw e;
+        }
+        long queryTime = System.currentTimeMillis() - startMillis;
+
+        for (ServiceDocumentQueryResult tableRsp : results) {
+            for (String link : tableRsp.documentLinks) {
+                if (rsp.documentLinks.size() >= hitCount) {
+                    break;
+                }
+                addTableResult(rsp, tableRsp, link);
+            }
+        }
+
+        rsp.queryTimeMicros = Utils.getNowMicrosUtc() - queryStartTimeMicros;
+        rsp.documentCount = (long) rsp.documentLinks.size();
+
+        logQuery(op, rsp, qs, sql, queryTime);
+
+        return rsp;
+    }
+
+    /**
+     * Runs a sorted query against every table in parallel, each on its own connection, and
+     * merges the rows in sort order, as the UNION statement would return them. Every table
+     * query reads the next page on its own with the keyset pagination clause and returns its
+     * sort keys next to the data. Returns <code>null</code> when the sort keys can not be
+     * compared exactly, see {@link PostgresTableMerge}.
+     */
+    private ServiceDocumentQueryResult queryIndexMerged(Operation op,
+            Set<TableDescription> tables, String tq, String after, EnumSet<QueryOption> options,
+            QuerySpecification qs, int count, int hitCount, List<String> sortFields,
+            boolean hasPage, long expirationTimeMicros, String nodeSelectorLink, String indexLink,
+            long queryStartTimeMicros, ServiceDocumentQueryResult rsp) throws Exception {
+        String orderBy = String.join(",", sortFields);
+        String fields = "data," + sortFields.stream()
+                .map(s -> s.substring(0, s.lastIndexOf(' ')))
+                .collect(Collectors.joining(","));
+
+        List<String> sqls = new ArrayList<>();
+        List<Callable<PostgresTableMerge.TableRows>> tasks = new ArrayList<>();
+        for (TableDescription td : tables) {
+            String where = tq != null ? tq
+                    : PostgresQueryConverter.convert(qs.query, qs.context, td);
+            where = updateQuery(op, td, where, queryStartTimeMicros, qs, false);
+            if (where == null) {
+                continue;
+            }
+            if (after != null) {
+                where += " AND " + after;
+            }
+
+            String sql = String.format("SELECT %s FROM %s WHERE %s ORDER BY %s LIMIT %s",
+                    fields, td.getTableName(), where, orderBy, hitCount);
+            sqls.add(sql);
+            tasks.add(() -> queryTable(sql, qs, options, count, td.getStateType(),
+                    nodeSelectorLink, rsp.documents != null, sortFields.size()));
+        }
+        if (tasks.isEmpty()) {
+            return rsp;
+        }
+
+        String sql = String.join(";\n", sqls);
+        if (isDetailedLoggingEnabled) {
+            logger.fine(() -> String.format("Xenon query specification: %s", Utils.toJsonHtml(qs)));
+            logger.info(String.format(
+                    "SQL merged query: \n>>>>>>>>>> SQL BEGIN >>>>>>>>>>\n%s\n<<<<<<<<<< SQL END <<<<<<<<<<\n",
+                    prettySqlStatement(sql)));
+        }
+
+        long startMillis = System.currentTimeMillis();
+        List<PostgresTableMerge.TableRows> results;
+        try {
+            results = runInParallel(tasks);
+        } catch (Exception e) {
+            logger.severe(String.format("Error while querying: %s\nException: %s",
+                    sql, Utils.toString(e)));
+            throw e;
+        }
+        long queryTime = System.currentTimeMillis() - startMillis;
+
+        if (!PostgresTableMerge.isComparable(results, sortFields.size())) {
+            return null;
+        }
+
+        // The rows of the page, as processQueryResults reads them from the UNION statement
+        int limit = Math.min(count, hitCount);
+        List<PostgresTableMerge.Row> rows = PostgresTableMerge.merge(results,
+                PostgresTableMerge.getDescendingOrders(sortFields), limit + 1);
+        boolean hasMore = rows.size() > limit || results.stream().anyMatch(t -> t.hasMore);
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+        }
+
+        for (PostgresTableMerge.Row row : rows) {
+            if (row.link != null) {
+                addTableResult(rsp, row.result, row.link);
+            }
+        }
+
+        boolean isPaginatedQuery = count != Integer.MAX_VALUE
+                && !options.contains(QueryOption.TOP_RESULTS);
+        if (isPaginatedQuery && hasPage && hasMore) {
+            if (!rows.isEmpty()) {
+                JsonObject bottom = Utils.fromJson(rows.get(rows.size() - 1).json,
+                        JsonObject.class);
+                after = PostgresQueryConverter.buildPaginationClause(tables.iterator().next(),
+                        sortFields, bottom);
+            }
+            rsp.nextPageLink = createNextPage(op, qs, null, sortFields, after, null, null,
+                    expirationTimeMicros, indexLink, nodeSelectorLink, true);
+        }
+
+        rsp.queryTimeMicros = Utils.getNowMicrosUtc() - queryStartTimeMicros;
+        rsp.documentCount = (long) rsp.documentLinks.size();
+
+        logQuery(op, rsp, qs, sql, queryTime);
+
+        return rsp;
+    }
+
+    /**
+     * Returns the collation of the text sort fields of the query, which is the collation
+     * compared by {@link PostgresTableMerge} when the tables are queried in parallel. It only
+     * depends on the query, so that all pages of a query are ordered the same way.
+     */
+    private static String getSortCollation(Set<TableDescription> tables,
+            QuerySpecification qs) {
+        if (parallelTableQueriesEnabled && tables.size() > 1
+                && (qs == null || qs.offset == null)) {
+            return PostgresTableMerge.COLLATION;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a document of a table query result to the response.
+     */
+    private static void addTableResult(ServiceDocumentQueryResult rsp,
+            ServiceDocumentQueryResult tableRsp, String link) {
+        rsp.documentLinks.add(link);
+        if (rsp.documents != null && tableRsp.documents != null) {
+            Object document = tableRsp.documents.get(link);
+            if (document != null) {
+                rsp.documents.put(link, document);
+            }
+        }
+        if (tableRsp.selectedLinksPerDocument != null) {
+            if (rsp.selectedLinksPerDocument == null) {
+                rsp.selectedLinksPerDocument = new HashMap<>();
+                rsp.selectedLinks = new HashSet<>();
+            }
+            Map<String, String> links = tableRsp.selectedLinksPerDocument.get(link);
+            if (links != null) {
+                rsp.selectedLinksPerDocument.put(link, links);
+                rsp.selectedLinks.addAll(links.values());
+            }
+        }
+    }
+
+    /**
+     * Runs the query of one table. With sort keys, every row is kept with the sort keys read
+     * from the columns following the data column, for {@link #queryIndexMerged}.
+     */
+    private PostgresTableMerge.TableRows queryTable(String sql, QuerySpecification qs,
+            EnumSet<QueryOption> options, int count, Class<? extends ServiceDocument> stateType,
+            String nodeSelectorLink, boolean hasDocuments, int sortKeyCount) throws Exception {
+        ServiceDocumentQueryResult rsp = new ServiceDocumentQueryResult();
+        if (hasDocuments) {
+            rsp.documents = new HashMap<>();
+        }
+        PostgresTableMerge.TableRows tableRows = new PostgresTableMerge.TableRows(rsp,
+                sortKeyCount);
+
+        try (Connection conn = this.ds.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement()) {
+                // Turn use of the cursor on.
+                st.setFetchSize(FETCH_SIZE);
+                try (ResultSet rs = st.executeQuery(sql)) {
+                    processQueryResults(qs, options, count, rsp, rs, stateType,
+                            nodeSelectorLink, true, false, sortKeyCount > 0 ? tableRows : null);
+                    if (sortKeyCount > 0) {
+                        tableRows.hasMore = rs.next();
+                    }
+                }
+            } finally {
+                try {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                } catch (Exception ignore) {
+                    // Ignore
+                }
+            }
+        }
+        return tableRows;
+    }
+
+    private ServiceDocumentQueryResult queryIndexCountInParallel(Operation op,
+            QuerySpecification qs, Set<TableDescription> tables, String tq,
+            long queryStartTimeMicros, ServiceDocumentQueryResult response) throws Exception {
+        List<String> sqls = new ArrayList<>();
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (TableDescription td : tables) {
+            String where = tq != null ? tq
+                    : PostgresQueryConverter.convert(qs.query, qs.context, td);
+            where = updateQuery(op, td, where, queryStartTimeMicros, qs, false);
+            if (where == null) {
+                continue;
+            }
+
+            String sql = String.format("SELECT COUNT(*) FROM %s WHERE %s",
+                    td.getTableName(), where);
+            sqls.add(sql);
+            tasks.add(() -> {
+                try (Connection conn = this.ds.getConnection();
+                        Statement stmt = conn.createStatement();
+                        ResultSet rs = stmt.executeQuery(sql)) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            });
+        }
+        if (tasks.isEmpty()) {
+            return response;
+        }
+
+        String sql = String.join(";\n", sqls);
+        long documentCount = 0;
+        try {
+            for (long tableCount : runInParallel(tasks)) {
+                documentCount += tableCount;
+            }
+        } catch (Exception e) {
+            logger.severe(() -> String.format("Failed SQL count: %s : %s",
+                    prettySqlStatement(sql), Utils.toString(e)));
+            throw e;
+        }
+        response.documentCount = documentCount;
+        response.queryTimeMicros = Utils.getNowMicrosUtc() - queryStartTimeMicros;
+
+        logQuery(op, response, qs, sql, response.queryTimeMicros);
+
+        return response;
+    }
+
+    /**
+     * Runs the given tasks on the parallel query executor and returns their results in the same
+     * order. If any task fails the remaining ones are cancelled and the failure is rethrown.
+     */
+    private <T> List<T> runInParallel(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = getParallelQueryExecutor();
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private synchronized ExecutorService getParallelQueryExecutor() {
+        if (this.parallelQueryExecutor == null) {
+            this.parallelQueryExecutor = new ThreadPoolExecutor(
+                    PARALLEL_TABLE_QUERY_THREAD_COUNT, PARALLEL_TABLE_QUERY_THREAD_COUNT,
+                    1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                    new NamedThreadFactory("postgres-table-queries"));
+            this.parallelQueryExecutor.allowCoreThreadTimeOut(true);
+        }
+        return this.parallelQueryExecutor;
+    }
+
+    synchronized void shutdownParallelQueryExecutor() {
+        if (this.parallelQueryExecutor != null) {
+            this.parallelQueryExecutor.shutdownNow();
+            this.parallelQueryExecutor = null;
+        }
+    }
+
+    /**
+     * Handles the initial POST of a forward only paginated query by opening a server-side cursor
+     * on the full result set. The first row is fetched to determine if there are any results, and
+     * the cursor is handed over to the first page. Returns null if the maximum number of cursors
+     * is already open.
+     */
+    private ServiceDocumentQueryResult openCursorPage(Operation op, QuerySpecification qs,
+            ServiceDocumentQueryResult rsp, String sql, List<String> sortFields, int count,
+            long expirationTimeMicros, String indexLink, String nodeSelectorLink,
+            long queryStartTimeMicros) throws SQLException {
+        if (!reserveCursor()) {
+            return null;
+        }
+
+        long startMillis = System.currentTimeMillis();
+        PostgresQueryCursor cursor;
+        try {
+            cursor = PostgresQueryCursor.open(this.ds, sql, Math.max(count, FETCH_SIZE),
+                    cursorTtlMicros, this.openCursorCount::decrementAndGet);
+        } catch (SQLException | RuntimeException e) {
+            this.openCursorCount.decrementAndGet();
+            logger.severe(String.format("Error while opening cursor: %s\nException: %s",
+                    sql, Utils.toString(e)));
+            throw e;
+        }
+
+        long queryTime = System.currentTimeMillis() - startMillis;
+        try {
+            if (cursor.getResultSet().next()) {
+                this.openCursors.add(cursor);
+                rsp.nextPageLink = createNextPage(op, qs, null, sortFields, null, null, null,
+                        expirationTimeMicros, indexLink, nodeSelectorLink, false, cursor);
+            } else {
+                cursor.close();
+            }
+        } catch (Exception e) {
+            closeCursor(cursor);
+            logger.severe(String.format("Error while querying: %s\nException: %s",
+                    sql, Utils.toString(e)));
+            throw e;
+        }
+
+        rsp.queryTimeMicros = Utils.getNowMicrosUtc() - queryStartTimeMicros;
+        rsp.documentCount = 0L;
+
+        logQuery(op, rsp, qs, sql, queryTime);
+
+        return rsp;
+    }
+
+    /**
+     * Reads the next page from the server-side cursor associated with the given page. Returns
+     * null if the cursor cannot serve the page, in which case the caller should execute the query
+     * using the keyset pagination clause of the page.
+     */
+    private ServiceDocumentQueryResult queryIndexFromCursor(Operation op,
+            Set<TableDescription> tables, PostgresQueryPage page, EnumSet<QueryOption> options,
+            QuerySpecification qs, int count, List<String> sortFields, long expirationTimeMicros,
+            String nodeSelectorLink, String indexLink, long queryStartTimeMicros)
+            throws Exception {
+        PostgresQueryCursor cursor = page.cursor;
+        if (!cursor.acquire(page.cursorPageIndex)) {
+            return null;
+        }
+
+        ServiceDocumentQueryResult rsp = new ServiceDocumentQueryResult();
+        if (options.contains(QueryOption.EXPAND_CONTENT)
+                || options.contains(QueryOption.EXPAND_BINARY_CONTENT)
+                || options.contains(QueryOption.EXPAND_SELECTED_FIELDS)) {
+            rsp.documents = new HashMap<>();
+        }
+
+        boolean hasMore;
+        long startMillis = System.currentTimeMillis();
+        try {
+            ResultSet rs = cursor.getResultSet();
+            Class<? extends ServiceDocument> stateType = tables.size() == 1
+                    ? tables.iterator().next().getStateType() : null;
+            JsonObject bottom = processQueryResults(qs, options, count, rsp, rs, stateType,
+                    nodeSelectorLink, true, true, null);
+
+            hasMore = rs.next();
+            cursor.release();
+
+            if (hasMore) {
+                // Keep the keyset clause in the page, in case the cursor expires before the next
+                // page is requested
+                String after = bottom == null ? null : PostgresQueryConverter
+                        .buildPaginationClause(tables.iterator().next(), sortFields, bottom);
+                rsp.nextPageLink = createNextPage(op, qs, null, sortFields, after, null, null,
+                        expirationTimeMicros, indexLink, nodeSelectorLink, true, cursor);
+            } else {
+                closeCursor(cursor);
+            }
+        } catch (Exception e) {
+            closeCursor(cursor);
+            logger.severe(String.format("Error while reading query cursor: %s",
+                    Utils.toString(e)));
+            throw e;
+        }
+
+        rsp.queryTimeMicros = Utils.getNowMicrosUtc() - queryStartTimeMicros;
+        rsp.documentCount = (long) rsp.documentLinks.size();
+
+        logQuery(op, rsp, qs, "<cursor>", System.currentTimeMillis() - startMillis);
+
+        return rsp;
+    }
+
+    /**
+     * Reserves one of the open cursors. The reservation is released by the cursor when it is
+     * closed, or by {@link #openCursorPage} if the cursor could not be opened.
+     */
+    private boolean reserveCursor() {
+        if (this.openCursorCount.incrementAndGet() > MAX_OPEN_CURSORS) {
+            this.openCursorCount.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void closeCursor(PostgresQueryCursor cursor) {
+        this.openCursors.remove(cursor);
+        cursor.close();
+    }
+
+    int getOpenCursorCount() {
+        return this.openCursorCount.get();
+    }
+
+    static void setCursorPaginationEnabled(boolean enabled) {
+        cursorPaginationEnabled = enabled;
+    }
+
+    static void setParallelTableQueriesEnabled(boolean enabled) {
+        parallelTableQueriesEnabled = enabled;
+    }
+
+    static void setCursorTtlMicros(long ttlMicros) {
+        cursorTtlMicros = ttlMicros;
+    }
+
+    /**
+     * Closes server-side cursors whose TTL has passed, releasing their connections.
+     */
+    void closeExpiredCursors() {
+        if (this.openCursors.isEmpty()) {
+            return;
+        }
+        long now = Utils.getSystemNowMicrosUtc();
+        this.openCursors.removeIf(cursor -> cursor.closeIfExpired(now));
+    }
+
+    void closeAllCursors() {
+        this.openCursors.forEach(PostgresQueryCursor::close);
+        this.openCursors.clear();
+    }
+
+    /**
+     * Accounts the recorded queries, records the candidate indexes which exist already and
+     * creates the most expensive index candidate that passed the auto-create thresholds, if any.
+     * This runs asynchronously, at most once at a time.
+     */
+    void createAdvisedIndexes() {
+        if (!INDEX_ADVISOR_ENABLED
+                || !this.isIndexCreationInProgress.compareAndSet(false, true)) {
+            return;
+        }
+
+        this.host.run(() -> {
+            IndexCandidate candidate = null;
+            try {
+                this.indexAdvisor.recordExistingIndexes(this.ds);
+                if (!this.isIndexAutoCreateEnabled) {
+                    return;
+                }
+                candidate = this.indexAdvisor.getCandidates().stream()
+                        .filter(c -> c.queryCount >= INDEX_AUTO_CREATE_MIN_QUERY_COUNT
+                                && c.getAverageQueryTimeMicros()
+                                        >= INDEX_AUTO_CREATE_MIN_AVERAGE_MICROS)
+                        .findFirst()
+                        .orElse(null);
+                if (candidate != null) {
+                    this.indexAdvisor.createIndex(this.ds, candidate);
+                }
+            } catch (Exception e) {
+                if (candidate == null) {
+                    logger.warning(String.format("Failed to read existing indexes: %s", e));
+                    return;
+                }
+                logger.warning(String.format("Failed to create index %s: %s",
+                        candidate.indexName, e));
+                // Do not retry the same candidate on every maintenance
+                this.indexAdvisor.clear(candidate.table.getTableName());
+            } finally {
+                this.isIndexCreationInProgress.set(false);
+            }
+        });
+    }
+
+    /**
+     * Starts a {@code QueryPageService} to track a partial search result set, associated with a
+     * index searcher and search pointers. The page can be used for both grouped queries or document
+     * queries
+     */
+    private String createNextPage(Operation op, QuerySpecification qs,
+            String tq,
+            List<String> sortFields,
+            String after,
+            Integer offset,
+            Integer groupOffset,
+            long expiration,
+            String indexLink,
+            String nodeSelectorLink,
+            boolean hasPage) {
+        return createNextPage(op, qs, tq, sortFields, after, offset, groupOffset, expiration,
+                indexLink, nodeSelectorLink, hasPage, null);
+    }
+
+    private String createNextPage(Operation op, QuerySpecification qs,
+            String tq,
+            List<String> sortFields,
+            String after,
+            Integer offset,
+            Integer groupOffset,
+            long expiration,
+            String indexLink,
+            String nodeSelectorLink,
+            boolean hasPage,
+            PostgresQueryCursor cursor) {
+
+        String nextPageId = Utils.getNowMicrosUtc() + "";
         URI u = UriUtils.buildUri(this.host, UriUtils.buildUriPath(ServiceUriPaths.CORE_QUERY_PAGE,
                 nextPageId));
 
@@ -1232,6 +2313,10 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
         if (after != null || groupOffset == null) {
             // page for documents
             page = new PostgresQueryPage(hasPage ? prevLinkForNewPage : null, after);
+            if (cursor != null) {
+                page.cursor = cursor;
+                page.cursorPageIndex = cursor.getPageIndex();
+            }
         } else {
             // page for group results
             page = new PostgresQueryPage(hasPage ? prevLinkForNewPage : null, groupOffset);
@@ -1281,12 +2366,23 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
 
     private JsonObject processQueryResults(QuerySpecification qs, EnumSet<QueryOption> options,
             int resultLimit, ServiceDocumentQueryResult rsp, ResultSet rs,
-            long queryStartTimeMicros,
+            Class<? extends ServiceDocument> stateType,
             String nodeSelectorPath,
-            boolean populateResponse) throws Exception {
+            boolean populateResponse,
+            boolean firstRowFetched,
+            PostgresTableMerge.TableRows tableRows) throws Exception {
 
-        JsonObject lastDocVisited = null;
+        String lastDocVisited = null;
         final boolean hasCountOption = options.contains(QueryOption.COUNT);
+        final boolean needsState = options.contains(QueryOption.EXPAND_CONTENT)
+                || options.contains(QueryOption.OWNER_SELECTION);
+        // Decode straight into the state type only when neither the JSON tree nor the link
+        // fields collected by the visitor are needed afterwards
+        final boolean decodeAsState = TYPED_DECODING_ENABLED && stateType != null
+                && populateResponse && !hasCountOption && needsState
+                && !options.contains(QueryOption.EXPAND_SELECTED_FIELDS)
+                && !options.contains(QueryOption.SELECT_LINKS)
+                && !options.contains(QueryOption.EXPAND_BUILTIN_CONTENT_ONLY);
 
         rsp.documentLinks.clear();
 
@@ -1301,16 +2397,26 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
                 break;
             }
 
-            if (!rs.next()) {
+            if (firstRowFetched) {
+                // The current row was already fetched when checking for more results
+                firstRowFetched = false;
+            } else if (!rs.next()) {
                 break;
             }
 
             visitor.reset();
-            loadDoc(visitor, rs);
+            ServiceDocument state = null;
+            if (decodeAsState) {
+                state = loadDocAsState(visitor, rs, stateType, null);
+            } else {
+                loadDoc(visitor, rs);
+            }
             final String link = visitor.documentSelfLink;
             final String json = visitor.jsonSerializedState;
 
-            lastDocVisited = visitor.getAsJsonObject();
+            lastDocVisited = json;
+            PostgresTableMerge.Row mergeRow = tableRows != null
+                    ? tableRows.addRow(rs, json) : null;
 
             if (hasCountOption || !populateResponse) {
                 // count unique instances of this link
@@ -1318,11 +2424,9 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
                 continue;
             }
 
-            ServiceDocument state = null;
-
-            if (options.contains(QueryOption.EXPAND_CONTENT)
+            if (state == null && (options.contains(QueryOption.EXPAND_CONTENT)
                     || options.contains(QueryOption.OWNER_SELECTION)
-                    || options.contains(QueryOption.EXPAND_SELECTED_FIELDS)) {
+                    || options.contains(QueryOption.EXPAND_SELECTED_FIELDS))) {
                 state = getStateFromPostgresDocument(null, visitor, link);
             }
 
@@ -1333,6 +2437,9 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
             }
 
             rsp.documentLinks.add(link);
+            if (mergeRow != null) {
+                mergeRow.link = link;
+            }
 
             if (options.contains(QueryOption.EXPAND_CONTENT)) {
                 Object o;
@@ -1382,7 +2489,9 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
         if (isDetailedLoggingEnabled) {
             logger.info(() -> String.format("Processed %s documents", rsp.documentCount));
         }
-        return lastDocVisited;
+
+        // Only the last visited document is needed to build the pagination clause
+        return lastDocVisited != null ? Utils.fromJson(lastDocVisited, JsonObject.class) : null;
     }
 
     private JsonObject toJsonObject(ServiceDocument state) {
@@ -1657,4 +2766,56 @@ final class PostgresServiceDocumentDao implements PostgresServiceDocumentDaoMXBe
         this.logSlowQueryThresholdMicros = TimeUnit.SECONDS.toMicros(seconds);
     }
 
+    public int getPrepareThreshold() {
+        return this.prepareThreshold;
+    }
+
+    public void setPrepareThreshold(int threshold) {
+        this.prepareThreshold = threshold;
+    }
+
+    public long getStatementCacheHitCount() {
+        return this.statementCacheHitCount.get();
+    }
+
+    public long getStatementCacheMissCount() {
+        return this.statementCacheMissCount.get();
+    }
+
+    public List<String> getIndexCandidates() {
+        return this.indexAdvisor.getCandidates().stream()
+                .map(IndexCandidate::toString)
+                .collect(Collectors.toList());
+    }
+
+    public String createIndex(String tableName, String propertyName) {
+        IndexCandidate candidate = this.indexAdvisor.getCandidate(tableName, propertyName);
+        if (candidate == null) {
+            return String.format("No index candidate for %s.%s", tableName, propertyName);
+        }
+        if (!this.isIndexCreationInProgress.compareAndSet(false, true)) {
+            return "Another index is being created";
+        }
+        try {
+            this.indexAdvisor.createIndex(this.ds, candidate);
+            return "Created index " + candidate.indexName;
+        } catch (SQLException e) {
+            return String.format("Failed to create index %s: %s", candidate.indexName, e);
+        } finally {
+            this.isIndexCreationInProgress.set(false);
+        }
+    }
+
+    public void resetIndexCandidates() {
+        this.indexAdvisor.clear();
+    }
+
+    public boolean isIndexAutoCreateEnabled() {
+        return this.isIndexAutoCreateEnabled;
+    }
+
+    public void setIndexAutoCreateEnabled(boolean enabled) {
+        this.isIndexAutoCreateEnabled = enabled;
+    }
+
 }
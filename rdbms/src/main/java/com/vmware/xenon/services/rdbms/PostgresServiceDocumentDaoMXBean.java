@@ -11,6 +11,8 @@
 
 package com.vmware.xenon.services.rdbms;
 
+import java.util.List;
+
 public interface PostgresServiceDocumentDaoMXBean {
     boolean isDetailedLoggingEnabled();
 
@@ -19,4 +21,30 @@ public interface PostgresServiceDocumentDaoMXBean {
     long getLogSlowQueryThresholdSeconds();
 
     void setLogSlowQueryThresholdSeconds(long seconds);
+
+    int getPrepareThreshold();
+
+    void setPrepareThreshold(int threshold);
+
+    /**
+     * Number of SQL statement lookups answered from the statements built once per registered
+     * table.
+     */
+    long getStatementCacheHitCount();
+
+    /**
+     * Number of SQL statement lookups for a table without registered statements, which built
+     * the statements on demand.
+     */
+    long getStatementCacheMissCount();
+
+    List<String> getIndexCandidates();
+
+    String createIndex(String tableName, String propertyName);
+
+    void resetIndexCandidates();
+
+    boolean isIndexAutoCreateEnabled();
+
+    void setIndexAutoCreateEnabled(boolean enabled);
 }
@@ -302,6 +302,9 @@ public abstract class PostgresServiceHost extends ServiceHost {
             return;
         }
 
+        // Invalidations sent while a node was not connected were lost
+        this.postgresDocumentIndexService.getDao().clearDocumentCache();
+
         if (!this.enablePeriodicCheck) {
             return;
         }
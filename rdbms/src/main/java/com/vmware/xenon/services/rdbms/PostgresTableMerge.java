@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+
+/**
+ * Merges the rows of sorted per table queries in the order the database returns them from a
+ * single UNION statement with the same ORDER BY.
+ * <p>
+ * Text sort keys of merged queries are ordered with the {@link #COLLATION} collation, both in the
+ * ORDER BY of every table and in the keyset pagination clause. It compares the UTF-8 bytes, which
+ * is the code point order compared here, while the default collation of the database can not be
+ * reproduced in Java. NULL sort keys are greater than any value, as with the default NULLS LAST
+ * of ascending and NULLS FIRST of descending sort orders.
+ * <p>
+ * Only sort keys whose order is known exactly are compared: text, booleans, numbers of one kind
+ * and jsonb nulls, numbers and booleans. Otherwise the rows are not merged and the query runs as
+ * a UNION statement, which orders them the same way.
+ */
+final class PostgresTableMerge {
+
+    static final String COLLATION = "\"C\"";
+
+    private static final String JSONB_TYPE = "jsonb";
+
+    // kinds of sort keys which compare with each other
+    private static final int KIND_TEXT = 1;
+    private static final int KIND_BOOLEAN = 2;
+    private static final int KIND_INTEGRAL = 3;
+    private static final int KIND_FLOATING = 4;
+    private static final int KIND_JSONB = 5;
+
+    /**
+     * A row of a table query. The link is set once the row is added to the table result, rows
+     * skipped by owner selection still take their place in the sort order.
+     */
+    static final class Row {
+        final Object[] sortKeys;
+        final String json;
+        final ServiceDocumentQueryResult result;
+        String link;
+
+        Row(Object[] sortKeys, String json, ServiceDocumentQueryResult result) {
+            this.sortKeys = sortKeys;
+            this.json = json;
+            this.result = result;
+        }
+    }
+
+    /**
+     * The rows of one table query, read from the sort key columns that follow the data column.
+     */
+    static final class TableRows {
+        final ServiceDocumentQueryResult result;
+        final List<Row> rows = new ArrayList<>();
+        private final int sortKeyCount;
+        private boolean[] jsonbColumns;
+        boolean hasMore;
+
+        TableRows(ServiceDocumentQueryResult result, int sortKeyCount) {
+            this.result = result;
+            this.sortKeyCount = sortKeyCount;
+        }
+
+        Row addRow(ResultSet rs, String json) throws SQLException {
+            if (this.jsonbColumns == null) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                this.jsonbColumns = new boolean[this.sortKeyCount];
+                for (int i = 0; i < this.sortKeyCount; i++) {
+                    this.jsonbColumns[i] = JSONB_TYPE.equals(metaData.getColumnTypeName(i + 2));
+                }
+            }
+
+            Object[] sortKeys = new Object[this.sortKeyCount];
+            for (int i = 0; i < this.sortKeyCount; i++) {
+                if (this.jsonbColumns[i]) {
+                    String value = rs.getString(i + 2);
+                    sortKeys[i] = value != null ? new JsonParser().parse(value) : null;
+                } else {
+                    sortKeys[i] = rs.getObject(i + 2);
+                }
+            }
+
+            Row row = new Row(sortKeys, json, this.result);
+            this.rows.add(row);
+            return row;
+        }
+    }
+
+    private PostgresTableMerge() {
+    }
+
+    /**
+     * Returns whether each sort field is descending, from the sort fields of the query.
+     */
+    static boolean[] getDescendingOrders(List<String> sortFields) {
+        boolean[] descending = new boolean[sortFields.size()];
+        for (int i = 0; i < descending.length; i++) {
+            descending[i] = sortFields.get(i).trim().endsWith(" DESC");
+        }
+        return descending;
+    }
+
+    /**
+     * Returns whether the sort keys of all rows can be compared exactly, i.e. each sort key is
+     * NULL or of the same comparable kind in every row.
+     */
+    static boolean isComparable(List<TableRows> tables, int sortKeyCount) {
+        for (int i = 0; i < sortKeyCount; i++) {
+            int columnKind = 0;
+            for (TableRows table : tables) {
+                for (Row row : table.rows) {
+                    Object key = row.sortKeys[i];
+                    if (key == null) {
+                        continue;
+                    }
+                    int kind = getKind(key);
+                    if (kind == 0 || (columnKind != 0 && kind != columnKind)) {
+                        return false;
+                    }
+                    columnKind = kind;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges the rows of the tables, each already sorted by the database, and returns the first
+     * rows up to the limit.
+     */
+    static List<Row> merge(List<TableRows> tables, boolean[] descending, int limit) {
+        int[] positions = new int[tables.size()];
+        List<Row> merged = new ArrayList<>();
+        while (merged.size() < limit) {
+            Row next = null;
+            int nextTable = -1;
+            for (int t = 0; t < positions.length; t++) {
+                List<Row> rows = tables.get(t).rows;
+                if (positions[t] >= rows.size()) {
+                    continue;
+                }
+                Row row = rows.get(positions[t]);
+                if (next == null || compare(row, next, descending) < 0) {
+                    next = row;
+                    nextTable = t;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            positions[nextTable]++;
+            merged.add(next);
+        }
+        return merged;
+    }
+
+    static int compare(Row a, Row b, boolean[] descending) {
+        for (int i = 0; i < descending.length; i++) {
+            int c = compareKeys(a.sortKeys[i], b.sortKeys[i]);
+            if (c != 0) {
+                return descending[i] ? -c : c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares two sort keys of the same kind, see {@link #isComparable}.
+     */
+    static int compareKeys(Object a, Object b) {
+        if (a == null) {
+            return b == null ? 0 : 1;
+        }
+        if (b == null) {
+            return -1;
+        }
+
+        switch (getKind(a)) {
+        case KIND_TEXT:
+            return compareCodePoints((String) a, (String) b);
+        case KIND_BOOLEAN:
+            return Boolean.compare((Boolean) a, (Boolean) b);
+        case KIND_INTEGRAL:
+            return toBigDecimal((Number) a).compareTo(toBigDecimal((Number) b));
+        case KIND_FLOATING:
+            double x = ((Number) a).doubleValue();
+            double y = ((Number) b).doubleValue();
+            // NaN is greater than any value and -0 equals 0, unlike Double.compare
+            return x == y ? 0 : Double.compare(x, y);
+        case KIND_JSONB:
+            return compareJsonb((JsonElement) a, (JsonElement) b);
+        default:
+            throw new IllegalArgumentException("Sort key is not comparable: " + a);
+        }
+    }
+
+    private static int getKind(Object key) {
+        if (key instanceof String) {
+            return KIND_TEXT;
+        }
+        if (key instanceof Boolean) {
+            return KIND_BOOLEAN;
+        }
+        if (key instanceof Double || key instanceof Float) {
+            return KIND_FLOATING;
+        }
+        if (key instanceof Long || key instanceof Integer || key instanceof Short
+                || key instanceof BigDecimal) {
+            return KIND_INTEGRAL;
+        }
+        if (key instanceof JsonElement && getJsonbRank((JsonElement) key) >= 0) {
+            return KIND_JSONB;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the rank of a jsonb value in the jsonb sort order, Null < String < Number < Boolean
+     * < Array < Object, or -1 for values which are compared with the database collation or
+     * element by element.
+     */
+    private static int getJsonbRank(JsonElement value) {
+        if (value.isJsonNull()) {
+            return 0;
+        }
+        if (value.isJsonPrimitive()) {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isNumber()) {
+                return 2;
+            }
+            if (primitive.isBoolean()) {
+                return 3;
+            }
+        }
+        return -1;
+    }
+
+    private static int compareJsonb(JsonElement a, JsonElement b) {
+        int rankA = getJsonbRank(a);
+        int rankB = getJsonbRank(b);
+        if (rankA != rankB) {
+            return Integer.compare(rankA, rankB);
+        }
+        switch (rankA) {
+        case 2:
+            return a.getAsBigDecimal().compareTo(b.getAsBigDecimal());
+        case 3:
+            return Boolean.compare(a.getAsBoolean(), b.getAsBoolean());
+        default:
+            return 0;
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        return number instanceof BigDecimal ? (BigDecimal) number
+                : BigDecimal.valueOf(number.longValue());
+    }
+
+    /**
+     * Compares strings by code point, the order of their UTF-8 bytes.
+     */
+    static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+}
@@ -132,6 +132,10 @@ public class PostgresVerificationHost extends VerificationHost {
         this.temporaryPeerDatabaseName = temporaryPeerDatabaseName;
     }
 
+    public PostgresDocumentIndexService getPostgresDocumentIndexService() {
+        return this.postgresDocumentIndexService;
+    }
+
     protected DataSource getDataSource() {
         if (this.ds == null) {
             Properties props = PostgresHostUtils.getDataSourceProperties();
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+import com.vmware.xenon.services.rdbms.PostgresExecutorDataSource.ConnectionWaits;
+
+public class PostgresAdaptiveExecutorTest {
+
+    private static final long TARGET_WAIT_MICROS = TimeUnit.MILLISECONDS.toMicros(10);
+    private static final long SLOW_WAIT_MILLIS = 50;
+
+    @Test
+    public void testGrowOnQueueWait() {
+        assertEquals(6, getTargetThreadCount(4, TARGET_WAIT_MICROS + 1, false, false));
+        assertEquals(2, getTargetThreadCount(1, TARGET_WAIT_MICROS + 1, false, false));
+        // up to the maximum
+        assertEquals(8, getTargetThreadCount(7, TARGET_WAIT_MICROS + 1, false, false));
+        // no operation was polled
+        assertEquals(4, getTargetThreadCount(4, -1, false, false));
+        assertEquals(4, getTargetThreadCount(4, TARGET_WAIT_MICROS, false, false));
+    }
+
+    @Test
+    public void testShrinkWhenIdle() {
+        assertEquals(3, getTargetThreadCount(4, 0, false, true));
+        // down to the minimum
+        assertEquals(2, getTargetThreadCount(2, 0, false, true));
+    }
+
+    @Test
+    public void testShrinkWhenConnectionStarved() {
+        // more threads would only wait for a connection, even when operations wait in the queue
+        assertEquals(3, getTargetThreadCount(4, TARGET_WAIT_MICROS + 1, true, false));
+        assertEquals(2, getTargetThreadCount(2, TARGET_WAIT_MICROS + 1, true, false));
+        // the maximum is lowered to the connection pool size
+        assertEquals(5, PostgresDocumentIndexService.getTargetThreadCount(8, 2, 5,
+                TARGET_WAIT_MICROS + 1, TARGET_WAIT_MICROS, false, false));
+    }
+
+    @Test
+    public void testSlowConnectionWaitsAreCounted() throws Exception {
+        ConnectionWaits waits = new ConnectionWaits(
+                TimeUnit.MILLISECONDS.toMicros(SLOW_WAIT_MILLIS));
+        long[] connectDelayMillis = new long[1];
+        PostgresExecutorDataSource ds = new PostgresExecutorDataSource(
+                (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                        new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                            Thread.sleep(connectDelayMillis[0]);
+                            return null;
+                        }));
+
+        getConnection(ds, waits);
+        connectDelayMillis[0] = SLOW_WAIT_MILLIS * 2;
+        getConnection(ds, waits);
+        getConnection(ds, waits);
+        // connections borrowed by threads of no executor are not counted
+        ds.getConnection();
+
+        // waits since the previous read are counted, even if no thread is waiting anymore
+        assertEquals(2, waits.resetSlowWaitCount());
+        assertEquals(0, waits.resetSlowWaitCount());
+    }
+
+    private static int getTargetThreadCount(int current, long averageWaitMicros,
+            boolean isConnectionStarved, boolean isIdle) {
+        return PostgresDocumentIndexService.getTargetThreadCount(current, 2, 8,
+                averageWaitMicros, TARGET_WAIT_MICROS, isConnectionStarved, isIdle);
+    }
+
+    private static void getConnection(PostgresExecutorDataSource ds, ConnectionWaits waits)
+            throws Exception {
+        Thread thread = PostgresExecutorDataSource.threadFactory(
+                Executors.defaultThreadFactory(), waits).newThread(() -> {
+                    try {
+                        ds.getConnection();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+        thread.start();
+        thread.join();
+    }
+}
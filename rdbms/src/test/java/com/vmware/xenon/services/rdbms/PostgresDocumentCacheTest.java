@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+
+public class PostgresDocumentCacheTest {
+
+    private static final long MAX_SIZE_BYTES = 1024;
+    private static final long DOCUMENT_SIZE_BYTES = 100;
+
+    private final PostgresDocumentCache cache = new PostgresDocumentCache(MAX_SIZE_BYTES);
+
+    @Test
+    public void testLoadIsCached() {
+        load("/examples/a");
+
+        ServiceDocument state = this.cache.get("/examples/a");
+        assertNotNull(state);
+        assertEquals("/examples/a", ((ExampleServiceState) state).name);
+        assertEquals(0, this.cache.getLoadCount());
+    }
+
+    @Test
+    public void testInvalidationOfOtherDocumentDoesNotVetoLoad() {
+        PostgresDocumentCache.Load load = this.cache.startLoad("/examples/a");
+        this.cache.invalidate("/examples/b");
+        this.cache.put(createState("/examples/a"), DOCUMENT_SIZE_BYTES, load);
+        this.cache.endLoad(load);
+
+        assertNotNull(this.cache.get("/examples/a"));
+    }
+
+    @Test
+    public void testInvalidationOfLoadedDocumentVetoesLoad() {
+        PostgresDocumentCache.Load staleLoad = this.cache.startLoad("/examples/a");
+        this.cache.invalidate("/examples/a");
+        // a load started after the invalidation reads the new version
+        PostgresDocumentCache.Load load = this.cache.startLoad("/examples/a");
+
+        this.cache.put(createState("/examples/a"), DOCUMENT_SIZE_BYTES, staleLoad);
+        this.cache.endLoad(staleLoad);
+        assertNull(this.cache.get("/examples/a"));
+
+        this.cache.put(createState("/examples/a"), DOCUMENT_SIZE_BYTES, load);
+        this.cache.endLoad(load);
+        assertNotNull(this.cache.get("/examples/a"));
+        assertEquals(0, this.cache.getLoadCount());
+    }
+
+    @Test
+    public void testClearVetoesLoadsInProgress() {
+        PostgresDocumentCache.Load loadA = this.cache.startLoad("/examples/a");
+        PostgresDocumentCache.Load loadB = this.cache.startLoad("/examples/b");
+        this.cache.clear();
+
+        this.cache.put(createState("/examples/a"), DOCUMENT_SIZE_BYTES, loadA);
+        this.cache.endLoad(loadA);
+        this.cache.put(createState("/examples/b"), DOCUMENT_SIZE_BYTES, loadB);
+        this.cache.endLoad(loadB);
+
+        assertEquals(0, this.cache.getCount());
+        assertEquals(0, this.cache.getLoadCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDocumentsAreEvicted() {
+        int count = (int) (MAX_SIZE_BYTES / DOCUMENT_SIZE_BYTES);
+        for (int i = 0; i < count; i++) {
+            load("/examples/" + i);
+        }
+        // use the first document, so that the second one is evicted
+        assertNotNull(this.cache.get("/examples/0"));
+        load("/examples/new");
+
+        assertEquals(count, this.cache.getCount());
+        assertNotNull(this.cache.get("/examples/0"));
+        assertNull(this.cache.get("/examples/1"));
+        assertEquals(1, this.cache.getEvictionCount());
+    }
+
+    private void load(String selfLink) {
+        PostgresDocumentCache.Load load = this.cache.startLoad(selfLink);
+        this.cache.put(createState(selfLink), DOCUMENT_SIZE_BYTES, load);
+        this.cache.endLoad(load);
+    }
+
+    private static ExampleServiceState createState(String selfLink) {
+        ExampleServiceState state = new ExampleServiceState();
+        state.documentSelfLink = selfLink;
+        state.name = selfLink;
+        return state;
+    }
+}
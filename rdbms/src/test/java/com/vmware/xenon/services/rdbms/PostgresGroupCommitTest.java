@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.rdbms.test.PostgresBasicReusableHostTestCase;
+import com.vmware.xenon.rdbms.test.PostgresVerificationHost;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+import com.vmware.xenon.services.common.UpdateIndexRequest;
+
+public class PostgresGroupCommitTest extends PostgresBasicReusableHostTestCase {
+
+    // long enough for all updates sent by a test to be saved in a single batch
+    private static final long GROUP_COMMIT_WINDOW_MICROS = TimeUnit.MILLISECONDS.toMicros(500);
+
+    private static final ServiceDocumentDescription DESCRIPTION = ServiceDocumentDescription
+            .Builder.create().buildDescription(ExampleServiceState.class);
+
+    private PostgresServiceDocumentDao dao;
+
+    @Before
+    public void setUp() {
+        this.dao = ((PostgresVerificationHost) this.host).getPostgresDocumentIndexService()
+                .getDao();
+        PostgresDocumentIndexService.setGroupCommitEnabled(true);
+        PostgresDocumentIndexService.setGroupCommitWindowMicros(GROUP_COMMIT_WINDOW_MICROS);
+    }
+
+    @After
+    public void tearDown() {
+        PostgresDocumentIndexService.setGroupCommitEnabled(false);
+        PostgresDocumentIndexService.setGroupCommitWindowMicros(0);
+    }
+
+    @Test
+    public void testBatchedUpdatesAreAppliedInOrder() throws Throwable {
+        String link = createLink();
+        String otherLink = createLink();
+
+        // only the first of two updates with the same version is applied, so the stored names
+        // show the order in which the batch was saved
+        List<String> failedLinks = updateIndex(
+                createState(link, 1, "first"),
+                createState(otherLink, 1, "other"),
+                createState(link, 1, "second"),
+                createState(link, 2, "third"));
+
+        assertEquals(Collections.emptyList(), failedLinks);
+        assertState(link, 2, "third");
+        assertState(otherLink, 1, "other");
+
+        failedLinks = updateIndex(
+                createState(otherLink, 2, "first"),
+                createState(otherLink, 2, "second"));
+
+        assertEquals(Collections.emptyList(), failedLinks);
+        assertState(otherLink, 2, "first");
+    }
+
+    @Test
+    public void testOlderVersionsAreIgnored() throws Throwable {
+        String link = createLink();
+
+        // the older versions conflict with the stored documentversion and are not written, but
+        // their updates still complete
+        List<String> failedLinks = updateIndex(
+                createState(link, 5, "newer"),
+                createState(link, 3, "older"),
+                createState(link, 5, "same"));
+
+        assertEquals(Collections.emptyList(), failedLinks);
+        assertState(link, 5, "newer");
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedPerUpdate() throws Throwable {
+        String link = createLink();
+        String otherLink = createLink();
+        String unknownLink = "/unknown-table/" + UUID.randomUUID().toString();
+        double failureCount = getGroupCommitFailureCount();
+
+        // the document without a table fails the batch, then each update is saved on its own
+        // so that only the offending update fails
+        List<String> failedLinks = updateIndex(
+                createState(link, 1, "first"),
+                createState(unknownLink, 1, "unknown"),
+                createState(otherLink, 1, "other"));
+
+        assertEquals(Arrays.asList(unknownLink), failedLinks);
+        assertEquals(failureCount + 1, getGroupCommitFailureCount(), 0);
+        assertState(link, 1, "first");
+        assertState(otherLink, 1, "other");
+    }
+
+    private List<String> updateIndex(ServiceDocument... documents) {
+        List<String> failedLinks = Collections.synchronizedList(new ArrayList<>());
+        TestContext ctx = this.host.testCreate(documents.length);
+        for (ServiceDocument document : documents) {
+            UpdateIndexRequest body = new UpdateIndexRequest();
+            body.document = document;
+            body.description = DESCRIPTION;
+            this.host.send(Operation
+                    .createPost(this.host, PostgresDocumentIndexService.SELF_LINK)
+                    .setBodyNoCloning(body)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            failedLinks.add(document.documentSelfLink);
+                        }
+                        ctx.completeIteration();
+                    }));
+        }
+        this.host.testWait(ctx);
+        return failedLinks;
+    }
+
+    private double getGroupCommitFailureCount() {
+        ServiceStats stats = this.sender.sendAndWait(Operation.createGet(
+                UriUtils.buildStatsUri(this.host, PostgresDocumentIndexService.SELF_LINK)),
+                ServiceStats.class);
+        ServiceStat stat = stats.entries
+                .get(PostgresDocumentIndexService.STAT_NAME_GROUP_COMMIT_FAILURE_COUNT);
+        return stat != null ? stat.latestValue : 0;
+    }
+
+    private void assertState(String link, long version, String name) throws Exception {
+        ServiceDocument state = this.dao.loadDocument(link);
+        assertEquals(version, state.documentVersion);
+        assertEquals(name, ((ExampleServiceState) state).name);
+    }
+
+    private static String createLink() {
+        return UriUtils.buildUriPath(ExampleService.FACTORY_LINK, UUID.randomUUID().toString());
+    }
+
+    private static ServiceDocument createState(String link, long version, String name) {
+        ExampleServiceState state = new ExampleServiceState();
+        state.documentSelfLink = link;
+        state.documentKind = Utils.buildKind(ExampleServiceState.class);
+        state.documentVersion = version;
+        state.documentUpdateAction = Action.PATCH.name();
+        state.documentUpdateTimeMicros = Utils.getNowMicrosUtc();
+        state.name = name;
+        return state;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.services.rdbms.PostgresOperationQueue.WaitStats;
+
+public class PostgresOperationQueueTest {
+
+    private static final String SUBJECT = "/core/auth/users/test";
+
+    @Test
+    public void testSystemLaneIsPreferredUpToItsWeight() {
+        PostgresOperationQueue queue = new PostgresOperationQueue("test", 100, 2);
+        offer(queue, true, "s1", "s2", "s3");
+        offer(queue, false, "u1", "u2");
+        assertEquals(5, queue.size());
+
+        // a user operation is polled after every two system operations
+        assertEquals(Arrays.asList("s1", "s2", "u1", "s3", "u2"), pollAll(queue));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testSystemLaneDisabled() {
+        PostgresOperationQueue queue = new PostgresOperationQueue("test", 100, 0);
+        offer(queue, false, "u1");
+        offer(queue, true, "s1");
+        offer(queue, false, "u2");
+
+        // all operations share the user lane
+        assertEquals(Arrays.asList("u1", "s1", "u2"), pollAll(queue));
+        WaitStats waitStats = queue.resetWaitStats();
+        assertEquals(0, waitStats.systemPollCount);
+        assertEquals(3, waitStats.userPollCount);
+    }
+
+    @Test
+    public void testWaitStats() {
+        PostgresOperationQueue queue = new PostgresOperationQueue("test", 100, 1);
+        WaitStats waitStats = queue.resetWaitStats();
+        assertEquals(-1, waitStats.getAverageWaitMicros());
+        assertEquals(-1, waitStats.getAverageWaitMicros(true));
+
+        offer(queue, true, "s1", "s2");
+        offer(queue, false, "u1");
+        pollAll(queue);
+
+        waitStats = queue.resetWaitStats();
+        assertEquals(2, waitStats.systemPollCount);
+        assertEquals(1, waitStats.userPollCount);
+        assertTrue(waitStats.getAverageWaitMicros(true) >= 0);
+        assertTrue(waitStats.getAverageWaitMicros(false) >= 0);
+        // every polled operation is counted in a histogram bin of its lane
+        assertEquals(2, LongStream.of(waitStats.getWaitHistogram(true)).sum());
+        assertEquals(1, LongStream.of(waitStats.getWaitHistogram(false)).sum());
+
+        // the wait stats are reset on read
+        waitStats = queue.resetWaitStats();
+        assertEquals(0, waitStats.systemPollCount);
+        assertEquals(0, LongStream.of(waitStats.getWaitHistogram(true)).sum());
+    }
+
+    @Test
+    public void testHistogramBins() {
+        assertEquals(0, PostgresOperationQueue.getHistogramBin(0));
+        assertEquals(0, PostgresOperationQueue.getHistogramBin(9));
+        assertEquals(1, PostgresOperationQueue.getHistogramBin(10));
+        assertEquals(2, PostgresOperationQueue.getHistogramBin(999));
+        assertEquals(3, PostgresOperationQueue.getHistogramBin(1000));
+        assertEquals(14, PostgresOperationQueue.getHistogramBin(Long.MAX_VALUE));
+    }
+
+    private static void offer(PostgresOperationQueue queue, boolean isSystem, String... names) {
+        for (String name : names) {
+            assertTrue(queue.offer(SUBJECT, isSystem,
+                    Operation.createGet(URI.create("http://localhost/" + name))));
+        }
+    }
+
+    private static List<String> pollAll(PostgresOperationQueue queue) {
+        List<String> names = new ArrayList<>();
+        Operation op;
+        while ((op = queue.poll()) != null) {
+            names.add(op.getUri().getPath().substring(1));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.rdbms.test.PostgresBasicReusableHostTestCase;
+import com.vmware.xenon.rdbms.test.PostgresVerificationHost;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+public class PostgresQueryCursorTest extends PostgresBasicReusableHostTestCase {
+
+    private static final int DOCUMENT_COUNT = 10;
+    private static final int PAGE_SIZE = 3;
+
+    private PostgresServiceDocumentDao dao;
+    private String id;
+    private List<String> expectedNames;
+
+    @Before
+    public void setUp() {
+        this.dao = ((PostgresVerificationHost) this.host).getPostgresDocumentIndexService()
+                .getDao();
+        PostgresServiceDocumentDao.setCursorPaginationEnabled(true);
+
+        this.id = UUID.randomUUID().toString();
+        this.expectedNames = new ArrayList<>();
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            ExampleServiceState state = new ExampleServiceState();
+            state.id = this.id;
+            state.name = String.format("example-%02d", i);
+            this.sender.sendAndWait(Operation.createPost(this.host, ExampleService.FACTORY_LINK)
+                    .setBody(state));
+            this.expectedNames.add(state.name);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        PostgresServiceDocumentDao.setCursorPaginationEnabled(false);
+        PostgresServiceDocumentDao.setCursorTtlMicros(TimeUnit.SECONDS.toMicros(60));
+        this.dao.closeAllCursors();
+    }
+
+    @Test
+    public void testCursorPagination() {
+        QueryTask queryTask = startQuery();
+        assertEquals(1, this.dao.getOpenCursorCount());
+
+        assertEquals(this.expectedNames, readPages(queryTask));
+        // the cursor is closed after the last page
+        assertEquals(0, this.dao.getOpenCursorCount());
+    }
+
+    @Test
+    public void testExpiredCursorFallsBackToKeysetPagination() {
+        PostgresServiceDocumentDao.setCursorTtlMicros(0);
+        QueryTask queryTask = startQuery();
+
+        // the pages are read with the keyset clause once the cursor expired
+        assertEquals(this.expectedNames, readPages(queryTask));
+
+        this.dao.closeExpiredCursors();
+        assertEquals(0, this.dao.getOpenCursorCount());
+    }
+
+    @Test
+    public void testQueriesBeyondOpenCursorLimit() {
+        List<QueryTask> queryTasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queryTasks.add(startQuery());
+        }
+
+        // the queries without a cursor use keyset pagination
+        for (QueryTask queryTask : queryTasks) {
+            assertEquals(this.expectedNames, readPages(queryTask));
+        }
+        assertEquals(0, this.dao.getOpenCursorCount());
+    }
+
+    private QueryTask startQuery() {
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(Query.Builder.create()
+                        .addKindFieldClause(ExampleServiceState.class)
+                        .addFieldClause(ExampleServiceState.FIELD_NAME_ID, this.id)
+                        .build())
+                .addOption(QueryOption.FORWARD_ONLY)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .orderAscending(ExampleServiceState.FIELD_NAME_NAME, TypeName.STRING)
+                .setResultLimit(PAGE_SIZE)
+                .build();
+        queryTask = this.sender.sendAndWait(Operation
+                .createPost(this.host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
+                .setBody(queryTask), QueryTask.class);
+        assertNotNull(queryTask.results.nextPageLink);
+        return queryTask;
+    }
+
+    private List<String> readPages(QueryTask queryTask) {
+        List<String> names = new ArrayList<>();
+        String nextPageLink = queryTask.results.nextPageLink;
+        while (nextPageLink != null) {
+            QueryTask page = this.sender.sendAndWait(Operation.createGet(
+                    UriUtils.buildUri(this.host, nextPageLink)), QueryTask.class);
+            assertTrue(page.results.documentLinks.size() <= PAGE_SIZE);
+            for (String link : page.results.documentLinks) {
+                names.add(Utils.fromJson(page.results.documents.get(link),
+                        ExampleServiceState.class).name);
+            }
+            nextPageLink = page.results.nextPageLink;
+        }
+        return names;
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+
+public class PostgresServiceDocumentDaoTest {
+
+    private static final String BOOTSTRAP_FACTORY_LINK = "/test-bootstrap";
+    private static final String OTHER_KIND_FACTORY_LINK = "/test-other-kind";
+
+    /**
+     * A kind whose fields can not be deserialized into {@link ExampleServiceState}.
+     */
+    public static class OtherKindState extends ServiceDocument {
+        public String counter;
+    }
+
+    private VerificationHost host;
+    private FakeDataSource ds;
+    private PostgresServiceDocumentDao dao;
+
+    @Before
+    public void setUp() throws Throwable {
+        this.host = VerificationHost.create(0);
+        this.ds = new FakeDataSource();
+        this.dao = new PostgresServiceDocumentDao(this.host, null, this.ds.dataSource);
+        this.dao.getPostgresSchemaManager().addFactory(ExampleService.FACTORY_LINK,
+                ExampleServiceState.class,
+                ServiceDocumentDescription.Builder.create()
+                        .buildDescription(ExampleServiceState.class));
+        // bootstrap services store documents of other kinds in a ServiceDocument table
+        this.dao.getPostgresSchemaManager().addFactory(BOOTSTRAP_FACTORY_LINK,
+                ServiceDocument.class,
+                ServiceDocumentDescription.Builder.create()
+                        .buildDescription(ServiceDocument.class));
+        this.dao.getPostgresSchemaManager().addFactory(OTHER_KIND_FACTORY_LINK,
+                OtherKindState.class,
+                ServiceDocumentDescription.Builder.create()
+                        .buildDescription(OtherKindState.class));
+    }
+
+    @After
+    public void tearDown() {
+        this.host.tearDown();
+    }
+
+    @Test
+    public void testLoadDocAsStateUsesTableStateType() throws Exception {
+        ExampleServiceState example = createExampleState();
+
+        PostgresDocumentStoredFieldVisitor visitor = new PostgresDocumentStoredFieldVisitor();
+        ServiceDocument state = this.dao.loadDocAsState(visitor, resultSet(example),
+                ExampleServiceState.class, null);
+
+        assertTrue(state instanceof ExampleServiceState);
+        assertEquals(example.name, ((ExampleServiceState) state).name);
+        assertEquals(example.documentSelfLink, visitor.documentSelfLink);
+    }
+
+    @Test
+    public void testLoadDocAsStateUsesRowDocumentKind() throws Exception {
+        ExampleServiceState example = createExampleState();
+
+        PostgresDocumentStoredFieldVisitor visitor = new PostgresDocumentStoredFieldVisitor();
+        ServiceDocument state = this.dao.loadDocAsState(visitor, resultSet(example),
+                ServiceDocument.class, null);
+
+        assertTrue(state instanceof ExampleServiceState);
+        assertEquals(example.name, ((ExampleServiceState) state).name);
+        assertEquals(example.counter, ((ExampleServiceState) state).counter);
+        assertEquals(example.documentKind, visitor.documentKind);
+    }
+
+    @Test
+    public void testLoadDocAsStateWithUnknownDocumentKind() throws Exception {
+        ExampleServiceState example = createExampleState();
+        example.documentKind = "com:vmware:xenon:unknown:UnknownState";
+
+        PostgresDocumentStoredFieldVisitor visitor = new PostgresDocumentStoredFieldVisitor();
+        ServiceDocument state = this.dao.loadDocAsState(visitor, resultSet(example),
+                ServiceDocument.class, null);
+
+        // the row is loaded as JSON only
+        assertNull(state);
+        assertEquals(example.documentSelfLink, visitor.documentSelfLink);
+        assertEquals(example.name, visitor.getAsJsonObject().get("name").getAsString());
+    }
+
+    @Test
+    public void testLoadDocAsStateWithRowOfOtherKind() throws Exception {
+        OtherKindState other = new OtherKindState();
+        other.documentSelfLink = ExampleService.FACTORY_LINK + "/other";
+        other.documentKind = Utils.buildKind(OtherKindState.class);
+        other.counter = "not-a-number";
+
+        // the row is deserialized into the state type of its kind only, decoding it into the
+        // table state type would fail
+        PostgresDocumentStoredFieldVisitor visitor = new PostgresDocumentStoredFieldVisitor();
+        ServiceDocument state = this.dao.loadDocAsState(visitor, resultSet(other),
+                ExampleServiceState.class, null);
+
+        assertTrue(state instanceof OtherKindState);
+        assertEquals(other.counter, ((OtherKindState) state).counter);
+        assertEquals(other.documentKind, visitor.documentKind);
+        assertEquals(other.documentSelfLink, visitor.documentSelfLink);
+    }
+
+    @Test
+    public void testReadDocumentKind() {
+        ExampleServiceState example = createExampleState();
+        assertEquals(example.documentKind,
+                PostgresServiceDocumentDao.readDocumentKind(Utils.toJson(example)));
+
+        example.documentKind = null;
+        assertNull(PostgresServiceDocumentDao.readDocumentKind(Utils.toJson(example)));
+        assertNull(PostgresServiceDocumentDao.readDocumentKind(
+                "{\"nested\":{\"documentKind\":\"a\"},\"documentKind\":null}"));
+    }
+
+    @Test
+    public void testStatementCacheCounts() {
+        PostgresSchemaManager.TableDescription td = this.dao.getPostgresSchemaManager()
+                .getTableDescriptionForFactoryLink(ExampleService.FACTORY_LINK);
+
+        assertSame(this.dao.getStatements(td), this.dao.getStatements(td.getTableName()));
+        assertEquals(2, this.dao.getStatementCacheHitCount());
+        assertEquals(0, this.dao.getStatementCacheMissCount());
+
+        // statements of a table without a registered description are built on demand
+        this.dao.getStatements("unregistered_table");
+        assertEquals(2, this.dao.getStatementCacheHitCount());
+        assertEquals(1, this.dao.getStatementCacheMissCount());
+    }
+
+    @Test
+    public void testSaveDocumentsBatchesPerTableInOrder() throws Exception {
+        this.dao.saveDocuments(Arrays.asList(
+                createState(ExampleService.FACTORY_LINK + "/1", 2),
+                createState(BOOTSTRAP_FACTORY_LINK + "/1", 1),
+                createState(ExampleService.FACTORY_LINK + "/2", 1),
+                createState(ExampleService.FACTORY_LINK + "/1", 3)), false);
+
+        // one batch per table in the order of the first document of each table, and multiple
+        // versions of the same document in the given order, all in a single transaction
+        assertEquals(Arrays.asList("autoCommit:false",
+                "batch:" + ExampleService.FACTORY_LINK + "/1:2",
+                "batch:" + ExampleService.FACTORY_LINK + "/2:1",
+                "batch:" + ExampleService.FACTORY_LINK + "/1:3",
+                "execute",
+                "batch:" + BOOTSTRAP_FACTORY_LINK + "/1:1",
+                "execute",
+                "commit", "autoCommit:true"), this.ds.events);
+    }
+
+    @Test
+    public void testSaveDocumentsIgnoresOlderVersions() throws Exception {
+        // the upsert does not update a row whose stored documentversion is not older
+        this.ds.batchCounts = batch -> batch.stream()
+                .mapToInt(link -> link.endsWith(":1") ? 0 : 1)
+                .toArray();
+
+        this.dao.saveDocuments(Arrays.asList(
+                createState(ExampleService.FACTORY_LINK + "/1", 1),
+                createState(ExampleService.FACTORY_LINK + "/2", 2)), false);
+
+        assertTrue(this.ds.events.contains("commit"));
+        assertFalse(this.ds.events.contains("rollback"));
+    }
+
+    @Test
+    public void testSaveDocumentsRollsBackOnFailure() throws Exception {
+        this.ds.batchCounts = batch -> {
+            throw new IllegalStateException("batch failed");
+        };
+
+        try {
+            this.dao.saveDocuments(Arrays.asList(
+                    createState(ExampleService.FACTORY_LINK + "/1", 1),
+                    createState(BOOTSTRAP_FACTORY_LINK + "/1", 1)), false);
+            fail("Expected the batch to fail");
+        } catch (BatchUpdateException e) {
+            // expected
+        }
+
+        // the whole transaction is rolled back, the second table is not written
+        assertEquals(Arrays.asList("autoCommit:false",
+                "batch:" + ExampleService.FACTORY_LINK + "/1:1",
+                "execute",
+                "rollback", "autoCommit:true"), this.ds.events);
+    }
+
+    @Test
+    public void testSaveDocumentsRejectsDocumentsWithoutTable() throws Exception {
+        try {
+            this.dao.saveDocuments(Arrays.asList(
+                    createState(ExampleService.FACTORY_LINK + "/1", 1),
+                    createState("/unknown-table/1", 1)), false);
+            fail("Expected the batch to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // rejected before any statement is run
+        assertEquals(Collections.emptyList(), this.ds.events);
+    }
+
+    private static ServiceDocument createState(String link, long version) {
+        ExampleServiceState state = new ExampleServiceState();
+        state.documentSelfLink = link;
+        state.documentKind = Utils.buildKind(ExampleServiceState.class);
+        state.documentVersion = version;
+        state.documentUpdateAction = Action.PATCH.name();
+        return state;
+    }
+
+    private static ExampleServiceState createExampleState() {
+        ExampleServiceState example = new ExampleServiceState();
+        example.documentSelfLink = BOOTSTRAP_FACTORY_LINK + "/example";
+        example.documentKind = Utils.buildKind(ExampleServiceState.class);
+        example.name = "example";
+        example.counter = 5L;
+        return example;
+    }
+
+    private static ResultSet resultSet(ServiceDocument state) {
+        String json = Utils.toJson(state);
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+                    if ("getString".equals(method.getName())
+                            && Integer.valueOf(1).equals(args[0])) {
+                        return json;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * Records the statements run through its connections, with the self link and version of each
+     * batched row.
+     */
+    private static class FakeDataSource {
+        final List<String> events = new ArrayList<>();
+        final DataSource dataSource = proxy(DataSource.class, (method, args) -> {
+            if ("getConnection".equals(method)) {
+                return connection();
+            }
+            throw new UnsupportedOperationException(method);
+        });
+        Function<List<String>, int[]> batchCounts = batch -> batch.stream()
+                .mapToInt(link -> 1)
+                .toArray();
+
+        private Connection connection() {
+            return proxy(Connection.class, (method, args) -> {
+                switch (method) {
+                case "prepareStatement":
+                    return statement();
+                case "setAutoCommit":
+                    this.events.add("autoCommit:" + args[0]);
+                    return null;
+                case "commit":
+                case "rollback":
+                    this.events.add(method);
+                    return null;
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method);
+                }
+            });
+        }
+
+        private PreparedStatement statement() {
+            List<String> batch = new ArrayList<>();
+            String[] row = new String[2];
+            return proxy(PreparedStatement.class, (method, args) -> {
+                switch (method) {
+                case "setString":
+                    if (Integer.valueOf(2).equals(args[0])) {
+                        row[0] = (String) args[1];
+                    }
+                    return null;
+                case "setLong":
+                    if (Integer.valueOf(3).equals(args[0])) {
+                        row[1] = String.valueOf(args[1]);
+                    }
+                    return null;
+                case "addBatch":
+                    batch.add(row[0] + ":" + row[1]);
+                    this.events.add("batch:" + row[0] + ":" + row[1]);
+                    return null;
+                case "executeBatch":
+                    this.events.add("execute");
+                    try {
+                        return this.batchCounts.apply(batch);
+                    } catch (RuntimeException e) {
+                        throw new BatchUpdateException(e.getMessage(), new int[0], e);
+                    }
+                case "isWrapperFor":
+                    return false;
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method);
+                }
+            });
+        }
+    }
+
+    private interface Invocation {
+        Object invoke(String method, Object[] args) throws SQLException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Invocation invocation) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> invocation.invoke(method.getName(), args));
+    }
+}
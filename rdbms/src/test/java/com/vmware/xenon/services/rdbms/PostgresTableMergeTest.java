@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.xenon.services.rdbms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.rdbms.PostgresSchemaManager.TableDescription;
+import com.vmware.xenon.services.rdbms.PostgresTableMerge.Row;
+import com.vmware.xenon.services.rdbms.PostgresTableMerge.TableRows;
+
+public class PostgresTableMergeTest {
+
+    private static final boolean[] ASCENDING = new boolean[] { false, false };
+    private static final boolean[] DESCENDING = new boolean[] { true, true };
+
+    private VerificationHost host;
+    private TableDescription td;
+
+    @Before
+    public void setUp() throws Throwable {
+        this.host = VerificationHost.create(0);
+        PostgresSchemaManager schemaManager = new PostgresSchemaManager(this.host);
+        schemaManager.addFactory(ExampleService.FACTORY_LINK, ExampleServiceState.class,
+                ServiceDocumentDescription.Builder.create()
+                        .buildDescription(ExampleServiceState.class));
+        this.td = schemaManager.getTableDescriptionForFactoryLink(ExampleService.FACTORY_LINK);
+    }
+
+    @After
+    public void tearDown() {
+        this.host.tearDown();
+    }
+
+    @Test
+    public void testCompareCodePoints() {
+        // the C collation orders upper case before lower case
+        assertTrue(PostgresTableMerge.compareCodePoints("Z", "a") < 0);
+        assertTrue(PostgresTableMerge.compareCodePoints("a", "ab") < 0);
+        assertEquals(0, PostgresTableMerge.compareCodePoints("ab", "ab"));
+        // supplementary characters are greater than any other character, unlike in UTF-16
+        assertTrue(PostgresTableMerge.compareCodePoints("\uFFFD", "\uD83D\uDE00") < 0);
+        assertTrue("\uFFFD".compareTo("\uD83D\uDE00") > 0);
+    }
+
+    @Test
+    public void testCompareKeys() {
+        assertTrue(PostgresTableMerge.compareKeys("a", null) < 0);
+        assertTrue(PostgresTableMerge.compareKeys(null, "a") > 0);
+        assertEquals(0, PostgresTableMerge.compareKeys(null, null));
+        assertTrue(PostgresTableMerge.compareKeys(false, true) < 0);
+        assertTrue(PostgresTableMerge.compareKeys(2L, 10L) < 0);
+        assertEquals(0, PostgresTableMerge.compareKeys(-0.0d, 0.0d));
+        assertTrue(PostgresTableMerge.compareKeys(Double.NaN, Double.POSITIVE_INFINITY) > 0);
+        // jsonb null < number < boolean
+        assertTrue(PostgresTableMerge.compareKeys(JsonNull.INSTANCE, new JsonPrimitive(1)) < 0);
+        assertTrue(PostgresTableMerge.compareKeys(new JsonPrimitive(10),
+                new JsonPrimitive(true)) < 0);
+        assertTrue(PostgresTableMerge.compareKeys(new JsonPrimitive(2),
+                new JsonPrimitive(10.5)) < 0);
+    }
+
+    @Test
+    public void testMergeAscending() {
+        TableRows a = table(row("a", "/a/1"), row("c", "/a/2"), row("e", "/a/3"));
+        TableRows b = table(row("b", "/b/1"), row("d", "/b/2"), row(null, "/b/3"));
+
+        List<Row> rows = PostgresTableMerge.merge(Arrays.asList(a, b), ASCENDING, 10);
+        assertEquals(Arrays.asList("/a/1", "/b/1", "/a/2", "/b/2", "/a/3", "/b/3"),
+                links(rows));
+
+        rows = PostgresTableMerge.merge(Arrays.asList(a, b), ASCENDING, 3);
+        assertEquals(Arrays.asList("/a/1", "/b/1", "/a/2"), links(rows));
+    }
+
+    @Test
+    public void testMergeDescending() {
+        TableRows a = table(row(null, "/a/1"), row("e", "/a/2"), row("b", "/a/3"));
+        TableRows b = table(row("d", "/b/1"), row("c", "/b/2"), row("a", "/b/3"));
+
+        List<Row> rows = PostgresTableMerge.merge(Arrays.asList(a, b), DESCENDING, 10);
+        assertEquals(Arrays.asList("/a/1", "/a/2", "/b/1", "/b/2", "/a/3", "/b/3"),
+                links(rows));
+    }
+
+    @Test
+    public void testMergeUsesTieBreaker() {
+        TableRows a = table(row("a", "/a/2"), row("b", "/a/1"));
+        TableRows b = table(row("a", "/b/1"));
+
+        List<Row> rows = PostgresTableMerge.merge(Arrays.asList(a, b), ASCENDING, 10);
+        assertEquals(Arrays.asList("/a/2", "/b/1", "/a/1"), links(rows));
+    }
+
+    @Test
+    public void testIsComparable() {
+        assertTrue(PostgresTableMerge.isComparable(Arrays.asList(
+                table(row("a", "/a/1")), table(row(null, "/b/1"))), 2));
+
+        TableRows text = table(row("a", "/a/1"));
+        TableRows number = table(new Row(new Object[] { 1L, "/b/1" }, null, text.result));
+        assertFalse(PostgresTableMerge.isComparable(Arrays.asList(text, number), 2));
+
+        TableRows jsonbNumber = table(new Row(new Object[] { new JsonPrimitive(1), "/a/1" },
+                null, text.result));
+        TableRows jsonbNull = table(new Row(new Object[] { JsonNull.INSTANCE, "/b/1" },
+                null, text.result));
+        assertTrue(PostgresTableMerge.isComparable(Arrays.asList(jsonbNumber, jsonbNull), 2));
+
+        // jsonb strings are ordered with the database collation
+        TableRows jsonbString = table(new Row(new Object[] { new JsonPrimitive("a"), "/c/1" },
+                null, text.result));
+        assertFalse(PostgresTableMerge.isComparable(Arrays.asList(jsonbNumber, jsonbString),
+                2));
+    }
+
+    @Test
+    public void testCollatedSortFields() {
+        QueryTask task = QueryTask.Builder.createDirectTask()
+                .setQuery(Query.Builder.create().build())
+                .orderAscending(ExampleServiceState.FIELD_NAME_NAME, TypeName.STRING)
+                .build();
+        List<String> sortFields = PostgresQueryConverter.convertToPostgresSort(task.querySpec,
+                false, this.td, true, PostgresTableMerge.COLLATION);
+        assertEquals(Arrays.asList("(data ->> 'name') COLLATE \"C\" ASC",
+                "documentselflink COLLATE \"C\" ASC"), sortFields);
+
+        task = QueryTask.Builder.createDirectTask()
+                .setQuery(Query.Builder.create().build())
+                .orderDescending(ExampleServiceState.FIELD_NAME_COUNTER, TypeName.LONG)
+                .build();
+        List<String> numericSortFields = PostgresQueryConverter.convertToPostgresSort(
+                task.querySpec, false, this.td, true, PostgresTableMerge.COLLATION);
+        assertEquals(Arrays.asList("(data ->> 'counter')::bigint DESC",
+                "documentselflink COLLATE \"C\" DESC"), numericSortFields);
+        assertTrue(PostgresTableMerge.getDescendingOrders(numericSortFields)[0]);
+
+        JsonObject bottom = new JsonObject();
+        bottom.addProperty(ExampleServiceState.FIELD_NAME_NAME, "it's");
+        bottom.addProperty(ExampleServiceState.FIELD_NAME_SELF_LINK, "/examples/1");
+        assertEquals("((data ->> 'name') COLLATE \"C\",documentselflink COLLATE \"C\")"
+                + " > ('it''s','/examples/1')",
+                PostgresQueryConverter.buildPaginationClause(this.td, sortFields, bottom));
+    }
+
+    private static TableRows table(Row... rows) {
+        TableRows table = new TableRows(new ServiceDocumentQueryResult(), 2);
+        for (Row row : rows) {
+            table.rows.add(new Row(row.sortKeys, row.json, table.result));
+        }
+        return table;
+    }
+
+    private static Row row(String name, String link) {
+        Row row = new Row(new Object[] { name, link }, Utils.toJson(link), null);
+        row.link = link;
+        return row;
+    }
+
+    private static List<String> links(List<Row> rows) {
+        return rows.stream().map(r -> r.sortKeys[1].toString()).collect(Collectors.toList());
+    }
+}
@@ -130,6 +130,10 @@ public class ContainerAllocationTaskService extends
             static final Set<SubStage> SUBSCRIPTION_SUB_STAGES = new HashSet<>(
                     Arrays.asList(BUILD_RESOURCES_LINKS, START_PROVISIONING, COMPLETED));
 
+            // sub-stages whose handlers may start sub-tasks calling back to the task
+            static final Set<SubStage> DURABLE_SUB_STAGES = new HashSet<>(
+                    Arrays.asList(CONTEXT_PREPARED, RESOURCES_NAMED, HOST_ALLOCATED));
+
         }
 
         /**
@@ -209,6 +213,8 @@ public class ContainerAllocationTaskService extends
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.transientSubStages = SubStage.TRANSIENT_SUB_STAGES;
         super.subscriptionSubStages = EnumSet.copyOf(SubStage.SUBSCRIPTION_SUB_STAGES);
+        super.durableSubStages = SubStage.DURABLE_SUB_STAGES;
+        super.setSubStageCoalescing(true);
     }
 
     @Override
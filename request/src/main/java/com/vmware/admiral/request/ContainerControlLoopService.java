@@ -11,11 +11,16 @@
 
 package com.vmware.admiral.request;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import com.vmware.admiral.common.DeploymentProfileConfig;
@@ -24,6 +29,7 @@ import com.vmware.admiral.common.util.PropertyUtils;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.HealthChecker.HealthConfig;
+import com.vmware.admiral.compute.container.HealthProbeScheduler;
 import com.vmware.admiral.compute.container.SystemContainerDescriptions;
 import com.vmware.admiral.request.ContainerRecommendation.Recommendation;
 import com.vmware.admiral.request.ContainerRedeploymentTaskService.ContainerRedeploymentTaskState;
@@ -36,6 +42,7 @@ import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask.Query.Builder;
 import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
 
@@ -52,9 +59,27 @@ public class ContainerControlLoopService extends StatefulService {
     private static final long MAINTENANCE_INTERVAL_MICROS = Long
             .getLong("com.vmware.admiral.request.container.maintenance.interval.micros",
                     TimeUnit.MINUTES.toMicros(5));
+    private static final long FULL_RESCAN_INTERVAL_MICROS = Long
+            .getLong("com.vmware.admiral.request.container.control.loop.full.rescan.micros",
+                    TimeUnit.HOURS.toMicros(1));
+    private static final long UNHEALTHY_INSPECTION_DELAY_MILLIS = Long
+            .getLong("com.vmware.admiral.request.container.control.loop.inspection.delay.millis",
+                    TimeUnit.SECONDS.toMillis(5));
     protected volatile AtomicInteger containerDescriptionsToBeProcessed = new AtomicInteger(0);
 
+    // Descriptions with unhealthy containers reported by the health probes, inspected together
+    private final Set<String> unhealthyDescriptionLinks = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean unhealthyInspectionScheduled = new AtomicBoolean();
+    private final BiConsumer<HealthConfig, ContainerState> unhealthyListener =
+            this::handleUnhealthyContainer;
+    private volatile long lastFullRescanMicros;
+
     public static class ContainerControlLoopState extends com.vmware.xenon.common.ServiceDocument {
+        /**
+         * Links of the container descriptions with unhealthy containers to be inspected. Only set
+         * in the patches sent when the health probes of a container fail, never stored.
+         */
+        public Set<String> unhealthyDescriptionLinks;
     }
 
     public ContainerControlLoopService() {
@@ -72,6 +97,19 @@ public class ContainerControlLoopService extends StatefulService {
         return state;
     }
 
+    @Override
+    public void handleStart(Operation start) {
+        // auto redeploy is driven by the results of the health probes on every node
+        HealthProbeScheduler.getInstance().addUnhealthyListener(unhealthyListener);
+        super.handleStart(start);
+    }
+
+    @Override
+    public void handleStop(Operation delete) {
+        HealthProbeScheduler.getInstance().removeUnhealthyListener(unhealthyListener);
+        super.handleStop(delete);
+    }
+
     @Override
     public void handlePost(Operation post) {
         if (!post.hasBody()) {
@@ -106,7 +144,11 @@ public class ContainerControlLoopService extends StatefulService {
             return;
         }
 
-        if (containerDescriptionsToBeProcessed.get() == 0) {
+        // unhealthy containers are reported by the health probes, the full rescan only catches
+        // what the probes do not see, like containers which differ from their description
+        if (Utils.getSystemNowMicrosUtc() - lastFullRescanMicros < FULL_RESCAN_INTERVAL_MICROS) {
+            logFine("Skipping maintenance since the last full rescan is recent");
+        } else if (containerDescriptionsToBeProcessed.get() == 0) {
             logFine("Performing maintenance for: %s", getUri());
 
             performMaintenance();
@@ -125,6 +167,13 @@ public class ContainerControlLoopService extends StatefulService {
 
         ContainerControlLoopState body = patch.getBody(ContainerControlLoopState.class);
 
+        if (body.unhealthyDescriptionLinks != null) {
+            scheduleUnhealthyInspection(body.unhealthyDescriptionLinks);
+            patch.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+            patch.complete();
+            return;
+        }
+
         if (containerDescriptionsToBeProcessed.get() == 0) {
             logFine("Performing maintenance for: %s", getUri());
 
@@ -145,7 +194,57 @@ public class ContainerControlLoopService extends StatefulService {
         return template;
     }
 
+    private void handleUnhealthyContainer(HealthConfig healthConfig,
+            ContainerState containerState) {
+        if (!Boolean.TRUE.equals(healthConfig.autoredeploy)
+                || containerState.customProperties == null
+                || containerState.customProperties.get(
+                        RequestUtils.FIELD_NAME_CONTEXT_ID_KEY) == null
+                || SystemContainerDescriptions.AGENT_CONTAINER_DESCRIPTION_LINK.equals(
+                        containerState.descriptionLink)) {
+            return;
+        }
+
+        // the patch is forwarded to the owner of the control loop
+        ContainerControlLoopState body = new ContainerControlLoopState();
+        body.unhealthyDescriptionLinks = Collections.singleton(containerState.descriptionLink);
+        sendRequest(Operation.createPatch(this, CONTROL_LOOP_INFO_LINK)
+                .setBodyNoCloning(body)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failed to report unhealthy container %s: %s",
+                                containerState.documentSelfLink, Utils.toString(e));
+                    }
+                }));
+    }
+
+    private void scheduleUnhealthyInspection(Set<String> descriptionLinks) {
+        unhealthyDescriptionLinks.addAll(descriptionLinks);
+        if (!unhealthyInspectionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        // give the health status of the containers time to be updated, and coalesce the reports
+        // of the containers of one description
+        getHost().schedule(() -> {
+            unhealthyInspectionScheduled.set(false);
+            Set<String> links = new HashSet<>(unhealthyDescriptionLinks);
+            unhealthyDescriptionLinks.removeAll(links);
+            for (String link : links) {
+                sendWithDeferredResult(Operation.createGet(this, link), ContainerDescription.class)
+                        .whenComplete((containerDescription, e) -> {
+                            if (e != null) {
+                                logWarning("Failed to retrieve container description %s: %s",
+                                        link, Utils.toString(e));
+                                return;
+                            }
+                            inspectContainers(containerDescription);
+                        });
+            }
+        }, UNHEALTHY_INSPECTION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
     private void performMaintenance() {
+        lastFullRescanMicros = Utils.getSystemNowMicrosUtc();
         retrieveContainerDescriptions().whenComplete((containerDescriptions, e) -> {
             if (e != null) {
                 logSevere("Failed to retrieve container descriptions");
@@ -162,35 +261,39 @@ public class ContainerControlLoopService extends StatefulService {
             for (ContainerDescription containerDescription : containerDescriptions) {
                 containerDescriptionsToBeProcessed.decrementAndGet();
 
-                retrieveContainerStates(containerDescription).thenApply
-                        (containers -> filterContainersWithContextId(containers)).whenComplete(
-                            (containers, ex) -> {
-
-                                if (ex != null) {
-                                    logSevere("Failed to retrieve containers");
-                                    return;
-                                }
-
-                                if (containers.isEmpty()) {
-                                    logFine("No containers from description: %s",
-                                            containerDescription.documentSelfLink);
-                                    return;
-                                }
-
-                                List<ContainerState> containersToBeRemoved = ContainerDiff
-                                        .inspect(containerDescription, containers)
-                                        .stream()
-                                        .filter(diff ->
-                                                Recommendation.REDEPLOY == ContainerRecommendation
-                                                        .recommend(diff))
-                                        .map(container -> container.currentState)
-                                        .collect(Collectors.toList());
-                                redeployContainers(containerDescription, containersToBeRemoved);
-                            });
+                inspectContainers(containerDescription);
             }
         });
     }
 
+    private void inspectContainers(ContainerDescription containerDescription) {
+        retrieveContainerStates(containerDescription).thenApply
+                (containers -> filterContainersWithContextId(containers)).whenComplete(
+                    (containers, ex) -> {
+
+                        if (ex != null) {
+                            logSevere("Failed to retrieve containers");
+                            return;
+                        }
+
+                        if (containers.isEmpty()) {
+                            logFine("No containers from description: %s",
+                                    containerDescription.documentSelfLink);
+                            return;
+                        }
+
+                        List<ContainerState> containersToBeRemoved = ContainerDiff
+                                .inspect(containerDescription, containers)
+                                .stream()
+                                .filter(diff ->
+                                        Recommendation.REDEPLOY == ContainerRecommendation
+                                                .recommend(diff))
+                                .map(container -> container.currentState)
+                                .collect(Collectors.toList());
+                        redeployContainers(containerDescription, containersToBeRemoved);
+                    });
+    }
+
     private List<ContainerState> filterContainersWithContextId(List<ContainerState> containers) {
         return containers.stream().filter(state -> state.customProperties.get(RequestUtils
                 .FIELD_NAME_CONTEXT_ID_KEY) != null).collect(Collectors.toList());
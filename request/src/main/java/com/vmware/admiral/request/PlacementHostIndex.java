@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static com.vmware.admiral.common.util.PropertyUtils.getPropertyLong;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+import com.vmware.admiral.common.util.CommonContinuousQueries;
+import com.vmware.admiral.common.util.CommonContinuousQueries.ContinuousQueryId;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.ContainerHostService.ContainerHostType;
+import com.vmware.admiral.compute.ContainerHostUtil;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolQueryHelper;
+import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolQueryHelper.QueryResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+
+/**
+ * In-memory index of the placement relevant figures of the computes of each resource pool, used
+ * by {@link PlacementHostSelectionTaskService} to select the candidate hosts of a placement
+ * without querying and expanding the computes of the resource pools on every allocation.
+ *
+ * The index is built from all computes of all resource pools and then kept up to date from the
+ * compute changes. The resource pools of a compute are resolved again only when its resource pool
+ * link or tags change. The index is rebuilt every {@link #REBUILD_INTERVAL_MICROS} to pick up
+ * resource pool changes. Selections involving resource pools unknown to the index are left to the
+ * caller and trigger a rebuild.
+ */
+final class PlacementHostIndex {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(
+            "com.vmware.admiral.request.placement.host.index.enabled", "true"));
+    private static final long REBUILD_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.request.placement.host.index.rebuild.interval.micros",
+            TimeUnit.MINUTES.toMicros(10));
+    // minimum interval between the rebuilds triggered by selections the index cannot answer
+    private static final long ON_DEMAND_REBUILD_INTERVAL_MICROS = TimeUnit.SECONDS.toMicros(5);
+
+    private static final Map<String, PlacementHostIndex> INDEXES = new ConcurrentHashMap<>();
+
+    /**
+     * Placement figures of a compute.
+     */
+    private static class HostRecord {
+        String hostLink;
+        String descriptionLink;
+        boolean poweredOn;
+        long availableMemory;
+        ContainerHostType hostType;
+        String deploymentPolicyLink;
+        String clusterStore;
+        String plugins;
+        String name;
+        Set<String> resourcePoolLinks;
+
+        // the fields used by the resource pool queries
+        String resourcePoolLink;
+        Set<String> tagLinks;
+    }
+
+    private final ServiceHost host;
+
+    private final Map<String, HostRecord> records = new HashMap<>();
+    private final Map<String, Set<String>> hostLinksByPool = new HashMap<>();
+    // changes received while rebuilding, applied again on top of the rebuilt index
+    private final Map<String, ComputeState> changesDuringRebuild = new HashMap<>();
+    private boolean loaded;
+    private long lastRebuildMicros;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private PlacementHostIndex(ServiceHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Returns the index of the given host, starting it on first use. Returns <code>null</code>
+     * when the index is disabled.
+     */
+    static PlacementHostIndex forHost(ServiceHost host) {
+        if (!ENABLED) {
+            return null;
+        }
+        return INDEXES.computeIfAbsent(host.getId(), id -> {
+            PlacementHostIndex index = new PlacementHostIndex(host);
+            index.start();
+            return index;
+        });
+    }
+
+    /**
+     * Returns new host selections for the powered-on computes of the given resource pools with
+     * one of the given descriptions, or <code>null</code> when the index is not able to answer.
+     */
+    synchronized Map<String, HostSelection> select(Collection<String> resourcePoolLinks,
+            Collection<String> computeDescriptionLinks) {
+        if (resourcePoolLinks == null || resourcePoolLinks.isEmpty()) {
+            return null;
+        }
+        if (!this.loaded || !this.hostLinksByPool.keySet().containsAll(resourcePoolLinks)) {
+            if (Utils.getSystemNowMicrosUtc() - this.lastRebuildMicros
+                    > ON_DEMAND_REBUILD_INTERVAL_MICROS) {
+                this.host.run(this::rebuild);
+            }
+            return null;
+        }
+
+        Set<String> descriptionLinks = new HashSet<>(computeDescriptionLinks);
+        Map<String, HostSelection> hostSelectionMap = new LinkedHashMap<>();
+        for (String rpLink : resourcePoolLinks) {
+            for (String hostLink : this.hostLinksByPool.get(rpLink)) {
+                HostRecord record = this.records.get(hostLink);
+                if (record == null || !record.poweredOn
+                        || !descriptionLinks.contains(record.descriptionLink)
+                        || hostSelectionMap.containsKey(hostLink)) {
+                    continue;
+                }
+                hostSelectionMap.put(hostLink, toHostSelection(record, resourcePoolLinks));
+            }
+        }
+        return hostSelectionMap;
+    }
+
+    private void start() {
+        CommonContinuousQueries.subscribeTo(this.host, ContinuousQueryId.EXPANDED_COMPUTES,
+                this::onComputeChange);
+        rebuild();
+        scheduleRebuild();
+    }
+
+    private void onComputeChange(Operation op) {
+        op.complete();
+        QueryTask queryTask = op.getBody(QueryTask.class);
+        if (queryTask.results == null || queryTask.results.documents == null
+                || queryTask.results.documents.isEmpty()) {
+            return;
+        }
+        List<ComputeState> computes = queryTask.results.documents.values().stream()
+                .map(json -> Utils.fromJson(json, ComputeState.class))
+                .collect(Collectors.toList());
+        computesChanged(computes);
+    }
+
+    private void computesChanged(Collection<ComputeState> computes) {
+        Set<String> unresolvedLinks = new HashSet<>();
+        synchronized (this) {
+            for (ComputeState compute : computes) {
+                if (this.rebuilding.get()) {
+                    this.changesDuringRebuild.put(compute.documentSelfLink, compute);
+                }
+                if (applyChange(compute)) {
+                    unresolvedLinks.add(compute.documentSelfLink);
+                }
+            }
+        }
+        resolveResourcePools(unresolvedLinks);
+    }
+
+    /**
+     * Applies the change of a compute and returns whether its resource pools need to be
+     * resolved again.
+     */
+    private boolean applyChange(ComputeState compute) {
+        HostRecord previous = this.records.get(compute.documentSelfLink);
+        if (Action.DELETE.toString().equals(compute.documentUpdateAction)) {
+            removeRecord(previous);
+            return false;
+        }
+
+        Set<String> rpLinks = previous != null ? previous.resourcePoolLinks
+                : Collections.emptySet();
+        putRecord(createRecord(compute, rpLinks));
+        return previous == null
+                || !Objects.equals(previous.resourcePoolLink, compute.resourcePoolLink)
+                || !Objects.equals(previous.tagLinks, compute.tagLinks);
+    }
+
+    private void resolveResourcePools(Collection<String> computeLinks) {
+        if (computeLinks.isEmpty()) {
+            return;
+        }
+        ResourcePoolQueryHelper.createForComputes(this.host, computeLinks)
+                .query()
+                .whenComplete((qr, e) -> {
+                    Throwable error = e != null ? e : qr.error;
+                    if (error != null) {
+                        this.host.log(Level.WARNING, "Failed to resolve the resource pools of"
+                                + " computes %s: %s", computeLinks, Utils.toString(error));
+                        return;
+                    }
+                    synchronized (this) {
+                        for (String computeLink : computeLinks) {
+                            HostRecord record = this.records.get(computeLink);
+                            if (record == null) {
+                                continue;
+                            }
+                            removeRecord(record);
+                            Set<String> rpLinks = qr.rpLinksByComputeLink.get(computeLink);
+                            record.resourcePoolLinks = rpLinks != null ? rpLinks
+                                    : Collections.emptySet();
+                            putRecord(record);
+                        }
+                    }
+                });
+    }
+
+    void rebuild() {
+        if (!this.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            this.lastRebuildMicros = Utils.getSystemNowMicrosUtc();
+        }
+
+        ResourcePoolQueryHelper helper = ResourcePoolQueryHelper.create(this.host);
+        helper.setExpandComputes(true);
+        helper.query()
+                .whenComplete((qr, e) -> {
+                    Throwable error = e != null ? e : qr.error;
+                    if (error != null) {
+                        this.host.log(Level.WARNING, "Failed to build the placement host"
+                                + " index: %s", Utils.toString(error));
+                        synchronized (this) {
+                            this.changesDuringRebuild.clear();
+                            this.rebuilding.set(false);
+                        }
+                    } else {
+                        applyRebuild(qr);
+                    }
+                });
+    }
+
+    private void applyRebuild(QueryResult qr) {
+        Set<String> unresolvedLinks = new HashSet<>();
+        synchronized (this) {
+            this.records.clear();
+            this.hostLinksByPool.clear();
+            for (String rpLink : qr.resourcesPools.keySet()) {
+                this.hostLinksByPool.put(rpLink, new HashSet<>());
+            }
+            for (ComputeState compute : qr.computesByLink.values()) {
+                Set<String> rpLinks = qr.rpLinksByComputeLink.get(compute.documentSelfLink);
+                putRecord(createRecord(compute,
+                        rpLinks != null ? rpLinks : Collections.emptySet()));
+            }
+            for (ComputeState compute : this.changesDuringRebuild.values()) {
+                if (applyChange(compute)) {
+                    unresolvedLinks.add(compute.documentSelfLink);
+                }
+            }
+            this.changesDuringRebuild.clear();
+            this.rebuilding.set(false);
+            this.loaded = true;
+        }
+        resolveResourcePools(unresolvedLinks);
+    }
+
+    private void scheduleRebuild() {
+        if (this.host.isStopping() || !this.host.isStarted()) {
+            INDEXES.remove(this.host.getId(), this);
+            return;
+        }
+        this.host.schedule(() -> {
+            rebuild();
+            scheduleRebuild();
+        }, REBUILD_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    private void putRecord(HostRecord record) {
+        removeRecord(this.records.get(record.hostLink));
+        this.records.put(record.hostLink, record);
+        for (String rpLink : record.resourcePoolLinks) {
+            // resource pools created after the last rebuild stay unknown until the next one
+            Set<String> hostLinks = this.hostLinksByPool.get(rpLink);
+            if (hostLinks != null) {
+                hostLinks.add(record.hostLink);
+            }
+        }
+    }
+
+    private void removeRecord(HostRecord record) {
+        if (record == null) {
+            return;
+        }
+        this.records.remove(record.hostLink);
+        for (String rpLink : record.resourcePoolLinks) {
+            Set<String> hostLinks = this.hostLinksByPool.get(rpLink);
+            if (hostLinks != null) {
+                hostLinks.remove(record.hostLink);
+            }
+        }
+    }
+
+    private static HostRecord createRecord(ComputeState compute, Set<String> rpLinks) {
+        Map<String, String> customProperties = compute.customProperties != null
+                ? compute.customProperties : Collections.emptyMap();
+        HostRecord record = new HostRecord();
+        record.hostLink = compute.documentSelfLink;
+        record.descriptionLink = compute.descriptionLink;
+        record.poweredOn = compute.powerState == PowerState.ON;
+        record.availableMemory = getPropertyLong(customProperties,
+                ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME)
+                        .orElse(Long.MAX_VALUE);
+        record.hostType = ContainerHostUtil.getDeclaredContainerHostType(compute);
+        record.deploymentPolicyLink = customProperties
+                .get(ContainerHostService.CUSTOM_PROPERTY_DEPLOYMENT_POLICY);
+        record.clusterStore = customProperties
+                .get(ContainerHostService.DOCKER_HOST_CLUSTER_STORE_PROP_NAME);
+        record.plugins = customProperties.get(ContainerHostService.DOCKER_HOST_PLUGINS_PROP_NAME);
+        record.name = compute.name != null ? compute.name : "N/A";
+        record.resourcePoolLinks = rpLinks;
+        record.resourcePoolLink = compute.resourcePoolLink;
+        record.tagLinks = compute.tagLinks;
+        return record;
+    }
+
+    private static HostSelection toHostSelection(HostRecord record,
+            Collection<String> resourcePoolLinks) {
+        HostSelection hostSelection = new HostSelection();
+        hostSelection.hostLink = record.hostLink;
+        hostSelection.resourcePoolLinks = record.resourcePoolLinks.stream()
+                .filter(resourcePoolLinks::contains)
+                .collect(Collectors.toSet());
+        hostSelection.deploymentPolicyLink = record.deploymentPolicyLink;
+        hostSelection.availableMemory = record.availableMemory;
+        hostSelection.clusterStore = record.clusterStore;
+        hostSelection.plugins = record.plugins;
+        hostSelection.name = record.name;
+        hostSelection.hostType = record.hostType;
+        return hostSelection;
+    }
+}
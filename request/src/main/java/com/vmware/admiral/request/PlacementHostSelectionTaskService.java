@@ -49,6 +49,7 @@ import com.vmware.admiral.request.allocation.filter.AffinityFilters;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelectionFilterException;
+import com.vmware.admiral.request.allocation.filter.PlacementContextSnapshot;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
@@ -59,6 +60,7 @@ import com.vmware.photon.controller.model.tasks.helpers.ResourcePoolQueryHelper.
 import com.vmware.xenon.common.LocalizableValidationException;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
 
@@ -71,6 +73,7 @@ public class PlacementHostSelectionTaskService
 
     public static final String FACTORY_LINK = ManagementUriParts.REQUEST_PROVISION_PLACEMENT_TASKS;
     public static final String DISPLAY_NAME = "Host Selection";
+    public static final String STAT_NAME_SUFFIX_FILTER_DURATION = "DurationMicros";
     private static final int QUERY_RETRY_COUNT = Integer.getInteger(
             "com.vmware.admiral.service.placement.query.retries", 2);
 
@@ -126,6 +129,7 @@ public class PlacementHostSelectionTaskService
         super.toggleOption(ServiceOption.PERSISTENCE, true);
         super.toggleOption(ServiceOption.REPLICATION, true);
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
     }
 
     @Override
@@ -220,6 +224,18 @@ public class PlacementHostSelectionTaskService
             ReservationComponentDescription desc,
             Collection<String> computeDescriptionLinks, int retries) {
 
+        PlacementHostIndex index = PlacementHostIndex.forHost(getHost());
+        Map<String, HostSelection> indexedHostSelectionMap = index != null
+                ? index.select(state.resourcePoolLinks, computeDescriptionLinks) : null;
+        if (indexedHostSelectionMap != null && !indexedHostSelectionMap.isEmpty()) {
+            proceedTo(SubStage.FILTER, s -> {
+                s.hostSelectionMap = indexedHostSelectionMap;
+            });
+            return;
+        }
+
+        // the index is not loaded yet, does not know some of the resource pools or has no
+        // matching hosts; query the resource pools, retrying while no hosts are found
         ResourcePoolQueryHelper helper = ResourcePoolQueryHelper.createForResourcePools(getHost(),
                 state.resourcePoolLinks);
         helper.setExpandComputes(true);
@@ -305,7 +321,13 @@ public class PlacementHostSelectionTaskService
         try {
             final AffinityFilters filters = AffinityFilters.build(getHost(),
                     description.getServiceDocument());
-            filter(state, filteredByMemory, filters.getQueue());
+            final Queue<HostSelectionFilter> queue = filters.getQueue();
+            // start the lookups of all filters upfront so they run concurrently and share the
+            // documents of the placement context; the filters are still applied in order
+            final PlacementContextSnapshot snapshot = new PlacementContextSnapshot(getHost(),
+                    state.contextId);
+            queue.forEach(f -> f.prefetch(state, snapshot));
+            filter(state, filteredByMemory, queue);
         } catch (Exception e) {
             failTask(null, e);
         }
@@ -386,7 +408,12 @@ public class PlacementHostSelectionTaskService
             if (filter == null) {
                 complete(state, hostSelectionMap);
             } else {
+                final long startMicros = Utils.getSystemNowMicrosUtc();
                 filter.filter(state, hostSelectionMap, (filteredHostSelectionMap, e) -> {
+                    long durationMicros = Utils.getSystemNowMicrosUtc() - startMicros;
+                    String filterName = filter.getClass().getSimpleName();
+                    setStat(filterName + STAT_NAME_SUFFIX_FILTER_DURATION, durationMicros);
+                    logFine("Filter %s completed in %d micros", filterName, durationMicros);
                     if (e != null) {
                         if (e instanceof HostSelectionFilterException) {
                             failTask("Allocation Filter Error: " + e.getMessage(), null);
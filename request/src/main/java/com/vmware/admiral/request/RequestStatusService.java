@@ -30,6 +30,7 @@ import com.vmware.admiral.common.util.UriUtilsExtended;
 import com.vmware.admiral.compute.ResourceType;
 import com.vmware.admiral.request.composition.CompositionGraph.ResourceNode;
 import com.vmware.admiral.request.composition.CompositionSubTaskService;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
 import com.vmware.admiral.service.common.DefaultSubStage;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
@@ -87,6 +88,11 @@ public class RequestStatusService extends StatefulService {
         @Since(ReleaseConstants.RELEASE_VERSION_1_4_2)
         public Map<String, String> customProperties;
 
+        /** Task statuses coalesced into a single update, applied in order. Not persisted. */
+        @PropertyOptions(usage = { PropertyUsageOption.SERVICE_USE }, indexing = STORE_ONLY)
+        @Since(ReleaseConstants.RELEASE_VERSION_1_4_3)
+        public List<TaskStatusState> taskStatusUpdates;
+
         public void addTrackedTasks(String... taskNames) {
             if (requestProgressByComponent == null) {
                 requestProgressByComponent = new HashMap<>();
@@ -116,12 +122,25 @@ public class RequestStatusService extends StatefulService {
         RequestStatus body = patch.getBody(RequestStatus.class);
         RequestStatus state = getState(patch);
 
-        if (body.components != null) {
+        if (body.taskStatusUpdates != null) {
+            // the task statuses coalesced by the node running the tasks
+            for (TaskStatusState taskStatus : body.taskStatusUpdates) {
+                handleUpdateProgress(state, taskStatus);
+                handleUpdateNameAndResourceLinks(state, taskStatus);
+            }
+        } else if (body.components != null) {
             handleUpdateComponents(state, body);
+            handleUpdateNameAndResourceLinks(state, body);
         } else {
             handleUpdateProgress(state, body);
+            handleUpdateNameAndResourceLinks(state, body);
         }
 
+        setState(patch, state);
+        patch.complete();
+    }
+
+    private void handleUpdateNameAndResourceLinks(RequestStatus state, TaskStatusState body) {
         if (state.name == null && body.name != null) {
             state.name = body.name;
         }
@@ -132,19 +151,16 @@ public class RequestStatusService extends StatefulService {
                 || willChangeToK8s(state, body)) {
             state.resourceLinks = body.resourceLinks;
         }
-
-        setState(patch, state);
-        patch.complete();
     }
 
-    private boolean willChangeToK8s(RequestStatus state, RequestStatus body) {
+    private boolean willChangeToK8s(RequestStatus state, TaskStatusState body) {
         return state.resourceLinks != null
                 && state.resourceLinks.stream().anyMatch( l -> l.contains(ManagementUriParts.COMPOSITE_COMPONENT))
                 && body.resourceLinks != null
                 && body.resourceLinks.stream().anyMatch(l -> l.contains(ManagementUriParts.KUBERNETES_DEPLOYMENTS));
     }
 
-    private void handleUpdateProgress(RequestStatus state, RequestStatus body) {
+    private void handleUpdateProgress(RequestStatus state, TaskStatusState body) {
         state.phase = body.phase;
         String component = DEFAULT_COMPONENT_NAME;
         String requestId = getSelfId();
@@ -13,7 +13,11 @@ package com.vmware.admiral.request.allocation.filter;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 import com.vmware.admiral.common.util.QueryUtil;
@@ -31,6 +35,7 @@ public abstract class BaseAffinityHostFilter
     protected final ServiceHost host;
     protected final String affinityPropertyName;
     protected Collection<String> affinityNames;
+    protected PlacementContextSnapshot snapshot;
 
     protected BaseAffinityHostFilter(ServiceHost host, String affinityPropertyName) {
         this.host = host;
@@ -61,6 +66,26 @@ public abstract class BaseAffinityHostFilter
         return affinityNames;
     }
 
+    @Override
+    public void prefetch(PlacementHostSelectionTaskState state,
+            PlacementContextSnapshot snapshot) {
+        if (!isActive() || snapshot == null
+                || !Objects.equals(state.contextId, snapshot.getContextId())) {
+            return;
+        }
+        this.snapshot = snapshot;
+        prefetchDescriptions(snapshot);
+        snapshot.getContainers();
+    }
+
+    /**
+     * Starts the container description lookup of the filter. Filters which build their
+     * description query from other results skip it.
+     */
+    protected void prefetchDescriptions(PlacementContextSnapshot snapshot) {
+        snapshot.getDescriptions(getDescQuery());
+    }
+
     protected QueryTask getDescQuery() {
         final QueryTask q = QueryUtil.buildQuery(ContainerDescription.class, false);
         QueryUtil.addCaseInsensitiveListValueClause(q, ContainerDescription.FIELD_NAME_NAME, getAffinity());
@@ -72,53 +97,98 @@ public abstract class BaseAffinityHostFilter
             final Map<String, HostSelection> filteredHostSelectionMap,
             final HostSelectionFilterCompletion callback, final QueryTask descQuery) {
 
-        descQuery.taskInfo.isDirect = false;
         final Map<String, DescName> containerDescLinksWithNames = new HashMap<>();
+        if (snapshot != null) {
+            snapshot.getDescriptions(descQuery).whenComplete((descs, ex) -> {
+                if (ex != null) {
+                    Throwable e = ex instanceof CompletionException ? ex.getCause() : ex;
+                    logDescriptionsFailure(e);
+                    callback.complete(null, e);
+                    return;
+                }
+                descs.forEach((link, desc) -> addDescName(containerDescLinksWithNames, link,
+                        desc));
+                completeDescriptions(state, filteredHostSelectionMap,
+                        containerDescLinksWithNames, callback);
+            });
+            return;
+        }
+
+        descQuery.taskInfo.isDirect = false;
         new ServiceDocumentQuery<>(host, ContainerDescription.class)
                 .query(descQuery,
                         (r) -> {
                             if (r.hasException()) {
-                                host.log(
-                                        Level.WARNING,
-                                        "Exception while filtering container descriptions with %s %s. Error: [%s]",
-                                        affinityPropertyName, getAffinity(), r.getException()
-                                                .getMessage());
+                                logDescriptionsFailure(r.getException());
                                 callback.complete(null, r.getException());
                             } else if (r.hasResult()) {
-                                final ContainerDescription desc = r.getResult();
-                                final DescName descName = new DescName();
-                                if (desc == null) {
-                                    descName.descLink = r.getDocumentSelfLink();
-                                    containerDescLinksWithNames.put(descName.descLink, descName);
-                                } else if (getAffinity().isEmpty() || getAffinity().contains(desc.name)) {
-                                    descName.descLink = desc.documentSelfLink;
-                                    descName.descriptionName = desc.name;
-                                    descName.affinities = desc.affinity;
-                                    containerDescLinksWithNames.put(descName.descLink, descName);
-                                } // desc.name case mismatch is ignored (not added to the map)
+                                addDescName(containerDescLinksWithNames,
+                                        r.getDocumentSelfLink(), r.getResult());
                             } else {
-                                if (containerDescLinksWithNames.isEmpty()) {
-                                    completeWhenNoContainerDescriptionsFound(state,
-                                            filteredHostSelectionMap, containerDescLinksWithNames,
-                                            callback);
-                                } else {
-                                    host.log(Level.INFO,
-                                            "Found [%s] ContainerDescription with %s: %s",
-                                            containerDescLinksWithNames.size(),
-                                            affinityPropertyName, getAffinity());
-                                    host.log(Level.FINE, "ContainerDescriptions: %s",
-                                            containerDescLinksWithNames);
-                                    findContainers(state, filteredHostSelectionMap,
-                                            containerDescLinksWithNames, callback);
-                                }
+                                completeDescriptions(state, filteredHostSelectionMap,
+                                        containerDescLinksWithNames, callback);
                             }
                         });
     }
 
+    private void logDescriptionsFailure(Throwable e) {
+        host.log(Level.WARNING,
+                "Exception while filtering container descriptions with %s %s. Error: [%s]",
+                affinityPropertyName, getAffinity(), e.getMessage());
+    }
+
+    private void addDescName(Map<String, DescName> containerDescLinksWithNames,
+            String descLink, ContainerDescription desc) {
+        final DescName descName = new DescName();
+        if (desc == null) {
+            descName.descLink = descLink;
+            containerDescLinksWithNames.put(descName.descLink, descName);
+        } else if (getAffinity().isEmpty() || getAffinity().contains(desc.name)) {
+            descName.descLink = desc.documentSelfLink;
+            descName.descriptionName = desc.name;
+            descName.affinities = desc.affinity;
+            containerDescLinksWithNames.put(descName.descLink, descName);
+        } // desc.name case mismatch is ignored (not added to the map)
+    }
+
+    private void completeDescriptions(final PlacementHostSelectionTaskState state,
+            final Map<String, HostSelection> filteredHostSelectionMap,
+            final Map<String, DescName> containerDescLinksWithNames,
+            final HostSelectionFilterCompletion callback) {
+        if (containerDescLinksWithNames.isEmpty()) {
+            completeWhenNoContainerDescriptionsFound(state,
+                    filteredHostSelectionMap, containerDescLinksWithNames,
+                    callback);
+        } else {
+            host.log(Level.INFO,
+                    "Found [%s] ContainerDescription with %s: %s",
+                    containerDescLinksWithNames.size(),
+                    affinityPropertyName, getAffinity());
+            host.log(Level.FINE, "ContainerDescriptions: %s",
+                    containerDescLinksWithNames);
+            findContainers(state, filteredHostSelectionMap,
+                    containerDescLinksWithNames, callback);
+        }
+    }
+
     protected void findContainers(final PlacementHostSelectionTaskState state,
             final Map<String, HostSelection> initHostSelectionMap,
             final Map<String, DescName> containerDescLinksWithNames,
             final HostSelectionFilterCompletion callback) {
+        final Map<String, HostSelection> filteredHostSelectionMap = new HashMap<>();
+        if (snapshot != null) {
+            findContextContainers(state, callback, (containers) -> {
+                containers.stream()
+                        .filter(c -> containerDescLinksWithNames.containsKey(c.descriptionLink))
+                        .filter(c -> initHostSelectionMap.containsKey(c.parentLink))
+                        .forEach(c -> addContainer(initHostSelectionMap,
+                                filteredHostSelectionMap, containerDescLinksWithNames, c));
+                completeContainers(state, initHostSelectionMap, filteredHostSelectionMap,
+                        callback);
+            });
+            return;
+        }
+
         QueryTask q = QueryUtil.buildPropertyQuery(ContainerState.class,
                 ContainerState.FIELD_NAME_COMPOSITE_COMPONENT_LINK, UriUtils.buildUriPath(
                         CompositeComponentFactoryService.SELF_LINK, state.contextId));
@@ -133,42 +203,75 @@ public abstract class BaseAffinityHostFilter
         QueryUtil.addListValueClause(q,
                 ContainerState.FIELD_NAME_PARENT_LINK, initHostSelectionMap.keySet());
 
-        final Map<String, HostSelection> filteredHostSelectionMap = new HashMap<>();
         new ServiceDocumentQuery<ContainerState>(host, ContainerState.class)
                 .query(q,
                         (r) -> {
                             if (r.hasException()) {
-                                host.log(
-                                        Level.WARNING,
-                                        "Exception while selecting containers with contextId [%s]. Error: [%s]",
-                                        state.contextId, r.getException().getMessage());
+                                logContainersFailure(state, r.getException());
                                 callback.complete(null, r.getException());
                             } else if (r.hasResult()) {
-                                final HostSelection hostSelection = initHostSelectionMap
-                                        .get(r.getResult().parentLink);
-                                filteredHostSelectionMap.put(r.getResult().parentLink,
-                                        hostSelection);
-                                final DescName descName = containerDescLinksWithNames
-                                        .get(r.getResult().descriptionLink);
-                                DescName newDescName = new DescName(descName);
-                                newDescName.addResourceNames(r.getResult().names);
-                                hostSelection.addDesc(newDescName);
+                                addContainer(initHostSelectionMap, filteredHostSelectionMap,
+                                        containerDescLinksWithNames, r.getResult());
                             } else {
-                                try {
-                                    final Map<String, HostSelection> hostSelectionMap =
-                                            applyAffinityConstraints(state,
-                                                    initHostSelectionMap, filteredHostSelectionMap);
-                                    host.log(Level.INFO, "Selected host links for %s: %s - %s",
-                                            affinityPropertyName, getAffinity(),
-                                            hostSelectionMap.keySet());
-                                    callback.complete(hostSelectionMap, null);
-                                } catch (Throwable e) {
-                                    callback.complete(null, e);
-                                }
+                                completeContainers(state, initHostSelectionMap,
+                                        filteredHostSelectionMap, callback);
                             }
                         });
     }
 
+    /**
+     * Passes the containers of the placement context from the shared snapshot to the given
+     * consumer or completes the callback with the failure of loading them.
+     */
+    protected void findContextContainers(final PlacementHostSelectionTaskState state,
+            final HostSelectionFilterCompletion callback,
+            final Consumer<List<ContainerState>> consumer) {
+        snapshot.getContainers().whenComplete((containers, ex) -> {
+            if (ex != null) {
+                Throwable e = ex instanceof CompletionException ? ex.getCause() : ex;
+                logContainersFailure(state, e);
+                callback.complete(null, e);
+                return;
+            }
+            consumer.accept(containers);
+        });
+    }
+
+    protected void logContainersFailure(PlacementHostSelectionTaskState state, Throwable e) {
+        host.log(Level.WARNING,
+                "Exception while selecting containers with contextId [%s]. Error: [%s]",
+                state.contextId, e.getMessage());
+    }
+
+    private void addContainer(final Map<String, HostSelection> initHostSelectionMap,
+            final Map<String, HostSelection> filteredHostSelectionMap,
+            final Map<String, DescName> containerDescLinksWithNames,
+            final ContainerState container) {
+        final HostSelection hostSelection = initHostSelectionMap.get(container.parentLink);
+        filteredHostSelectionMap.put(container.parentLink, hostSelection);
+        final DescName descName = containerDescLinksWithNames.get(container.descriptionLink);
+        DescName newDescName = new DescName(descName);
+        newDescName.addResourceNames(container.names);
+        hostSelection.addDesc(newDescName);
+    }
+
+    private void completeContainers(final PlacementHostSelectionTaskState state,
+            final Map<String, HostSelection> initHostSelectionMap,
+            final Map<String, HostSelection> filteredHostSelectionMap,
+            final HostSelectionFilterCompletion callback) {
+        try {
+            final Map<String, HostSelection> hostSelectionMap =
+                    applyAffinityConstraints(state,
+                            initHostSelectionMap, filteredHostSelectionMap);
+            host.log(Level.INFO, "Selected host links for %s: %s - %s",
+                    affinityPropertyName, getAffinity(),
+                    hostSelectionMap.keySet());
+            callback.complete(hostSelectionMap, null);
+        } catch (Throwable e) {
+            callback.complete(null, e);
+        }
+    }
+
     protected Map<String, HostSelection> applyAffinityConstraints(
             final PlacementHostSelectionTaskState state,
             final Map<String, HostSelection> initHostSelectionMap,
@@ -16,7 +16,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
@@ -68,10 +70,39 @@ public class ClusterServiceLinkAffinityHostFilter extends BaseAffinityHostFilter
         return Collections.emptyMap();
     }
 
+    @Override
+    public void prefetch(PlacementHostSelectionTaskState state,
+            PlacementContextSnapshot snapshot) {
+        if (state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) == null) {
+            return;
+        }
+        // the composite component is looked up by the context id of the custom properties
+        String contextId = state.getCustomProperty(RequestUtils.FIELD_NAME_CONTEXT_ID_KEY);
+        if (snapshot != null && Objects.equals(contextId, snapshot.getContextId())) {
+            super.prefetch(state, snapshot);
+        }
+    }
+
+    @Override
+    protected void prefetchDescriptions(PlacementContextSnapshot snapshot) {
+        // the description query depends on the containers of the composite component
+    }
+
     protected void findCompositeDescriptions(final PlacementHostSelectionTaskState state,
             final Map<String, HostSelection> initHostSelectionMap,
             final HostSelectionFilterCompletion callback) {
 
+        if (snapshot != null) {
+            findContextContainers(state, callback, (containers) -> {
+                List<String> descriptionLinks = containers.stream()
+                        .map(c -> c.descriptionLink)
+                        .collect(Collectors.toList());
+                completeCompositeDescriptions(state, initHostSelectionMap, callback,
+                        descriptionLinks);
+            });
+            return;
+        }
+
         // get descriptionLinks for the containers in the same component as the current container
         QueryTask q = QueryUtil.buildQuery(ContainerState.class, true);
         String contextId = state.customProperties.get(RequestUtils.FIELD_NAME_CONTEXT_ID_KEY);
@@ -95,16 +126,23 @@ public class ClusterServiceLinkAffinityHostFilter extends BaseAffinityHostFilter
                     } else if (r.hasResult()) {
                         descriptionLinks.add(r.getResult().descriptionLink);
                     } else {
-                        if (!descriptionLinks.isEmpty()) {
-                            findContainerDescriptions(state, initHostSelectionMap, callback,
-                                    getDescQuery(descriptionLinks));
-                        } else {
-                            callback.complete(initHostSelectionMap, null);
-                        }
+                        completeCompositeDescriptions(state, initHostSelectionMap, callback,
+                                descriptionLinks);
                     }
                 });
     }
 
+    private void completeCompositeDescriptions(final PlacementHostSelectionTaskState state,
+            final Map<String, HostSelection> initHostSelectionMap,
+            final HostSelectionFilterCompletion callback, final List<String> descriptionLinks) {
+        if (!descriptionLinks.isEmpty()) {
+            findContainerDescriptions(state, initHostSelectionMap, callback,
+                    getDescQuery(descriptionLinks));
+        } else {
+            callback.complete(initHostSelectionMap, null);
+        }
+    }
+
     protected QueryTask getDescQuery(List<String> descriptionLinks) {
         // get container descriptions for descriptionLinks having a service link to
         // the container description which is being clustered
@@ -40,6 +40,18 @@ public interface HostSelectionFilter<T> extends AffinityFilter {
     void filter(T state, Map<String, HostSelection> hostSelectionMap,
             HostSelectionFilterCompletion callback);
 
+    /**
+     * Starts the lookups the filter depends on ahead of {@link #filter}, so that the lookups of
+     * all filters of a host selection run concurrently and are shared through the snapshot.
+     *
+     * @param state
+     *            - the current placement host state task.
+     * @param snapshot
+     *            - the documents of the placement context shared by the filters.
+     */
+    default void prefetch(T state, PlacementContextSnapshot snapshot) {
+    }
+
     /**
      * Completion callback interface used when the filter is completed.
      */
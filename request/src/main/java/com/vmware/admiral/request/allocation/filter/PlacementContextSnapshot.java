@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+
+/**
+ * Documents of a placement context (composite component) shared by the affinity filters of a
+ * single host selection. The containers of the context are loaded once and the container
+ * description queries are memoized by their query specification, so that filters looking at the
+ * same context do not repeat the same lookups.
+ */
+public class PlacementContextSnapshot {
+    private final ServiceHost host;
+    private final String contextId;
+    private final Map<String, DeferredResult<Map<String, ContainerDescription>>> descriptions =
+            new HashMap<>();
+    private DeferredResult<List<ContainerState>> containers;
+
+    public PlacementContextSnapshot(ServiceHost host, String contextId) {
+        this.host = host;
+        this.contextId = contextId;
+    }
+
+    public String getContextId() {
+        return contextId;
+    }
+
+    /**
+     * Returns the containers of the composite component identified by the context id.
+     */
+    public synchronized DeferredResult<List<ContainerState>> getContainers() {
+        if (containers != null) {
+            return containers;
+        }
+        containers = new DeferredResult<>();
+        if (contextId == null) {
+            containers.complete(Collections.emptyList());
+            return containers;
+        }
+
+        QueryTask q = QueryUtil.buildPropertyQuery(ContainerState.class,
+                ContainerState.FIELD_NAME_COMPOSITE_COMPONENT_LINK, UriUtils.buildUriPath(
+                        CompositeComponentFactoryService.SELF_LINK, contextId));
+        q.querySpec.resultLimit = ServiceDocumentQuery.DEFAULT_QUERY_RESULT_LIMIT;
+        QueryUtil.addExpandOption(q);
+
+        DeferredResult<List<ContainerState>> result = containers;
+        List<ContainerState> states = new ArrayList<>();
+        new ServiceDocumentQuery<>(host, ContainerState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                result.fail(r.getException());
+            } else if (r.hasResult()) {
+                states.add(r.getResult());
+            } else {
+                result.complete(Collections.unmodifiableList(states));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the container descriptions matching the given query, keyed by their self links in
+     * the order they were returned. Queries are memoized by their whole query specification. A value is <code>null</code> when the query did not expand
+     * the matching document.
+     */
+    public synchronized DeferredResult<Map<String, ContainerDescription>> getDescriptions(
+            QueryTask descQuery) {
+        // the options and result limit change the results as much as the query itself
+        String key = Utils.toJson(descQuery.querySpec);
+        DeferredResult<Map<String, ContainerDescription>> result = descriptions.get(key);
+        if (result != null) {
+            return result;
+        }
+        DeferredResult<Map<String, ContainerDescription>> descs = new DeferredResult<>();
+        descriptions.put(key, descs);
+
+        // the query of the caller is left as it is
+        QueryTask query = Utils.clone(descQuery);
+        query.taskInfo.isDirect = false;
+        Map<String, ContainerDescription> descsByLink = new LinkedHashMap<>();
+        new ServiceDocumentQuery<>(host, ContainerDescription.class).query(query, (r) -> {
+            if (r.hasException()) {
+                descs.fail(r.getException());
+            } else if (r.hasResult()) {
+                descsByLink.put(r.getDocumentSelfLink(), r.getResult());
+            } else {
+                descs.complete(Collections.unmodifiableMap(descsByLink));
+            }
+        });
+        return descs;
+    }
+}
@@ -16,7 +16,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
-import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 import com.vmware.admiral.common.util.QueryUtil;
@@ -64,6 +63,24 @@ public class ServiceLinkAffinityFilter extends BaseAffinityHostFilter {
             final Map<String, HostSelection> initHostSelectionMap,
             final Map<String, DescName> containerDescLinksWithNames,
             final HostSelectionFilterCompletion callback) {
+
+        final Map<String, HostSelection> filteredHostSelectionMap = new HashMap<>();
+
+        if (networks != null && !networks.isEmpty()) {
+            filteredHostSelectionMap.putAll(initHostSelectionMap);
+        }
+
+        if (snapshot != null) {
+            findContextContainers(state, callback, (containers) -> {
+                containers.stream()
+                        .filter(c -> containerDescLinksWithNames.containsKey(c.descriptionLink))
+                        .forEach(c -> addContainer(initHostSelectionMap,
+                                filteredHostSelectionMap, containerDescLinksWithNames, c));
+                callback.complete(filteredHostSelectionMap, null);
+            });
+            return;
+        }
+
         QueryTask q = QueryUtil.buildPropertyQuery(ContainerState.class,
                 ContainerState.FIELD_NAME_COMPOSITE_COMPONENT_LINK, UriUtils.buildUriPath(
                         CompositeComponentFactoryService.SELF_LINK, state.contextId));
@@ -74,43 +91,15 @@ public class ServiceLinkAffinityFilter extends BaseAffinityHostFilter {
         QueryUtil.addListValueClause(q,
                 ContainerState.FIELD_NAME_DESCRIPTION_LINK, containerDescLinksWithNames.keySet());
 
-        final Map<String, HostSelection> filteredHostSelectionMap = new HashMap<>();
-
-        if (networks != null && !networks.isEmpty()) {
-            filteredHostSelectionMap.putAll(initHostSelectionMap);
-        }
-
         new ServiceDocumentQuery<ContainerState>(host, ContainerState.class)
                 .query(q,
                         (r) -> {
                             if (r.hasException()) {
-                                host.log(
-                                        Level.WARNING,
-                                        "Exception while selecting containers with contextId [%s]. Error: [%s]",
-                                        state.contextId, r.getException().getMessage());
+                                logContainersFailure(state, r.getException());
                                 callback.complete(null, r.getException());
                             } else if (r.hasResult()) {
-                                ContainerState result = r.getResult();
-
-                                DescName descName = containerDescLinksWithNames
-                                        .get(result.descriptionLink);
-                                descName.addResourceNames(result.names);
-
-                                // When there are user defined networks, the dependent service can be on any host
-                                if (networks != null && !networks.isEmpty()) {
-                                    for (HostSelection hs : initHostSelectionMap.values()) {
-                                        hs.addDesc(descName);
-                                    }
-                                } else {
-                                    HostSelection hostSelection = initHostSelectionMap
-                                            .get(result.parentLink);
-
-                                    if (hostSelection != null) {
-                                        hostSelection.addDesc(descName);
-                                        filteredHostSelectionMap.put(result.parentLink,
-                                                hostSelection);
-                                    }
-                                }
+                                addContainer(initHostSelectionMap, filteredHostSelectionMap,
+                                        containerDescLinksWithNames, r.getResult());
                             } else {
                                 try {
                                     callback.complete(filteredHostSelectionMap, null);
@@ -121,6 +110,28 @@ public class ServiceLinkAffinityFilter extends BaseAffinityHostFilter {
                         });
     }
 
+    private void addContainer(final Map<String, HostSelection> initHostSelectionMap,
+            final Map<String, HostSelection> filteredHostSelectionMap,
+            final Map<String, DescName> containerDescLinksWithNames,
+            final ContainerState result) {
+        DescName descName = containerDescLinksWithNames.get(result.descriptionLink);
+        descName.addResourceNames(result.names);
+
+        // When there are user defined networks, the dependent service can be on any host
+        if (networks != null && !networks.isEmpty()) {
+            for (HostSelection hs : initHostSelectionMap.values()) {
+                hs.addDesc(descName);
+            }
+        } else {
+            HostSelection hostSelection = initHostSelectionMap.get(result.parentLink);
+
+            if (hostSelection != null) {
+                hostSelection.addDesc(descName);
+                filteredHostSelectionMap.put(result.parentLink, hostSelection);
+            }
+        }
+    }
+
     private String extractNameFromServiceLink(String serviceLink) {
         return serviceLink.replaceAll(":.*$", "");
     }
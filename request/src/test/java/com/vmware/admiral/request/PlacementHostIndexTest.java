@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2020 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
+import com.vmware.photon.controller.model.resources.ResourcePoolService;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+
+/**
+ * Tests for the {@link PlacementHostIndex} class.
+ */
+public class PlacementHostIndexTest extends RequestBaseTest {
+
+    @Test
+    public void testSelectFollowsComputeChanges() throws Throwable {
+        PlacementHostIndex index = PlacementHostIndex.forHost(host);
+        assertNotNull(index);
+
+        ResourcePoolState rp = doPost(TestRequestStateFactory.createResourcePool(),
+                ResourcePoolService.FACTORY_LINK);
+        List<String> rpLinks = Collections.singletonList(rp.documentSelfLink);
+        List<String> descLinks = Collections.singletonList(dockerHostDesc.documentSelfLink);
+
+        // the resource pool is known to the index once it is rebuilt
+        waitFor(() -> {
+            index.rebuild();
+            return index.select(rpLinks, descLinks) != null;
+        });
+        assertEquals(0, index.select(rpLinks, descLinks).size());
+
+        ComputeState compute = createDockerHost(dockerHostDesc, rp, 1_000_000L, true);
+        waitFor(() -> index.select(rpLinks, descLinks).containsKey(compute.documentSelfLink));
+
+        Map<String, HostSelection> hostSelections = index.select(rpLinks, descLinks);
+        HostSelection hostSelection = hostSelections.get(compute.documentSelfLink);
+        assertEquals(1_000_000L, hostSelection.availableMemory.longValue());
+        assertEquals(Collections.singleton(rp.documentSelfLink), hostSelection.resourcePoolLinks);
+
+        ComputeState patch = new ComputeState();
+        patch.powerState = PowerState.OFF;
+        doPatch(patch, compute.documentSelfLink);
+        waitFor(() -> index.select(rpLinks, descLinks).isEmpty());
+    }
+}
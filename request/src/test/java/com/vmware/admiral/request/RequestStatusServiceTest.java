@@ -41,6 +41,7 @@ import com.vmware.admiral.request.RequestStatusService.RequestStatus;
 import com.vmware.admiral.request.composition.CompositionTaskFactoryService;
 import com.vmware.admiral.request.composition.CompositionTaskService.CompositionTaskState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
 import com.vmware.admiral.service.common.DefaultSubStage;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
 import com.vmware.xenon.common.Operation;
@@ -263,6 +264,31 @@ public class RequestStatusServiceTest extends RequestBaseTest {
         });
     }
 
+    @Test
+    public void testCoalescedTaskStatusUpdates() throws Throwable {
+        RequestStatus requestStatus = createRequestStatus();
+        requestStatus.taskInfo = TaskState.createAsStarted();
+        requestStatus.progress = 0;
+        requestStatus.addTrackedTasks(ContainerAllocationTaskService.DISPLAY_NAME);
+        requestStatus = doPost(requestStatus, RequestStatusFactoryService.SELF_LINK);
+        String requestStatusId = extractId(requestStatus.documentSelfLink);
+
+        RequestStatus patch = new RequestStatus();
+        patch.taskStatusUpdates = Arrays.asList(
+                createTaskStatus(requestStatusId + "-name1", "PROVISIONING", 50),
+                createTaskStatus(requestStatusId + "-name2", "COMPLETED", 90));
+        doPatch(patch, requestStatus.documentSelfLink);
+
+        RequestStatus updatedStatus = getRequestStatus(requestStatusId);
+        Map<String, Integer> progress = updatedStatus.requestProgressByComponent
+                .get(ContainerAllocationTaskService.DISPLAY_NAME);
+        assertEquals(Integer.valueOf(50), progress.get("name1"));
+        assertEquals(Integer.valueOf(90), progress.get("name2"));
+        assertEquals("name2", updatedStatus.component);
+        assertEquals("COMPLETED", updatedStatus.subStage);
+        assertNull(updatedStatus.taskStatusUpdates);
+    }
+
     @Test
     public void testApiCallsWithoutAuthentication() throws Throwable {
         VerificationHost savedState = null;
@@ -451,6 +477,16 @@ public class RequestStatusServiceTest extends RequestBaseTest {
         return requestStatus;
     }
 
+    private TaskStatusState createTaskStatus(String taskId, String subStage, int progress) {
+        TaskStatusState taskStatus = new TaskStatusState();
+        taskStatus.documentSelfLink = taskId;
+        taskStatus.phase = ContainerAllocationTaskService.DISPLAY_NAME;
+        taskStatus.taskInfo = TaskState.createAsStarted();
+        taskStatus.subStage = subStage;
+        taskStatus.progress = progress;
+        return taskStatus;
+    }
+
     private void assertRequestStatusEquals(RequestStatus status1, RequestStatus status2) {
         assertNotNull(status1);
         assertNotNull(status2);
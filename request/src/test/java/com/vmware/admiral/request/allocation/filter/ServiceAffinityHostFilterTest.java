@@ -126,6 +126,25 @@ public class ServiceAffinityHostFilterTest extends BaseAffinityHostFilterTest {
         }
     }
 
+    @Test
+    public void testSelectContainerHostWithPlacementContextSnapshot() throws Throwable {
+        ContainerDescription desc1 = createDescriptions(CONTAINER_NAME, 1, null).get(0);
+        ContainerState container = createContainer(desc1, initialHostLinks.get(1));
+        createContainerWithDifferentContextId(desc1, initialHostLinks.get(2));
+
+        String[] affinity = new String[] { CONTAINER_NAME };
+        ContainerDescription desc = createDescriptions("random-name37", 1, affinity).get(0);
+
+        filter = new ServiceAffinityHostFilter(host, desc);
+        filter.prefetch(state, new PlacementContextSnapshot(host, state.contextId));
+
+        expectedLinks = Arrays.asList(container.parentLink);
+        Throwable e = filter(expectedLinks);
+        if (e != null) {
+            fail("Unexpected exception: " + e);
+        }
+    }
+
     @Test
     public void testErrorWhenMoreThanOneContainersButDifferentHostsInAffinity() throws Throwable {
         ContainerDescription desc1 = createDescriptions(CONTAINER_NAME, 2, null).get(0);